@@ -0,0 +1,76 @@
+package com.copilot.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.crypto.SecretKey;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость проверки bearer токена в JwtAuthFilter на один запрос:
+ * прежний путь (парсер собирается на каждый вызов, claims разбираются заново),
+ * общий парсер и попадание в кеш проверенных токенов
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JwtVerificationBenchmark {
+
+    private static final String SECRET = "benchmark-secret-benchmark-secret-benchmark-secret";
+
+    private JwtService jwtService;
+    private SecretKey key;
+    private String token;
+
+    @Setup
+    public void setUp() throws Exception {
+        jwtService = new JwtService();
+        setField("secret", SECRET);
+        setField("issuer", "com.copilot");
+        setField("accessTtl", Duration.ofMinutes(15));
+        setField("refreshTtl", Duration.ofDays(7));
+        setField("verifiedCacheMaxSize", 10_000);
+        jwtService.init();
+
+        key = Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8));
+        token = jwtService.generateAccessToken("user@example.com", "4f1c2d3e-0000-0000-0000-000000000001", List.of("USER"));
+    }
+
+    @Benchmark
+    public Object legacyParse() {
+        Claims claims = Jwts.parser()
+                .verifyWith(key)
+                .build()
+                .parseSignedClaims(token)
+                .getPayload();
+        return claims.get("roles");
+    }
+
+    @Benchmark
+    public Object sharedParser() {
+        return jwtService.parse(token).getPayload().get("roles");
+    }
+
+    @Benchmark
+    public Object verifiedCacheHit() {
+        return jwtService.verify(token).roles();
+    }
+
+    private void setField(String name, Object value) throws ReflectiveOperationException {
+        Field field = JwtService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(jwtService, value);
+    }
+}
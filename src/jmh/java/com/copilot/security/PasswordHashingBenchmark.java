@@ -0,0 +1,139 @@
+package com.copilot.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Пропускная способность импорта 10 000 строк (пользователей в секунду) по этапу паролей:
+ * прежняя схема (java.util.Random, два BCrypt с одинаковой стоимостью на виртуальных потоках)
+ * против PasswordGenerator + PasswordHashingService (CPU пул, пониженная стоимость для пароля ящика).
+ * Сетевые шаги MailSlurp и Radicale имитируются задержкой, хеширование идет параллельно с ними.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+public class PasswordHashingBenchmark {
+
+    private static final int ROWS = 10_000;
+
+    @Param({"10"})
+    private int loginStrength;
+
+    @Param({"4"})
+    private int mailboxStrength;
+
+    @Param({"8"})
+    private int workers;
+
+    @Param({"20"})
+    private int networkLatencyMs;
+
+    private PasswordEncoder legacyEncoder;
+    private PasswordGenerator passwordGenerator;
+    private PasswordHashingService hashingService;
+
+    @Setup
+    public void setUp() {
+        legacyEncoder = new BCryptPasswordEncoder(loginStrength);
+        passwordGenerator = new PasswordGenerator();
+        hashingService = new PasswordHashingService(new BCryptPasswordEncoder(loginStrength), mailboxStrength, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        hashingService.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void legacyImport() throws InterruptedException {
+        runImport(executor -> {
+            String tempPassword = Legacy.generateTempPassword();
+            String emailPassword = Legacy.generateTempPassword();
+            CompletableFuture<String> encoded =
+                    CompletableFuture.supplyAsync(() -> legacyEncoder.encode(tempPassword), executor);
+            CompletableFuture<String> encodedEmail =
+                    CompletableFuture.supplyAsync(() -> legacyEncoder.encode(emailPassword), executor);
+            simulateNetwork();
+            return encoded.join().length() + encodedEmail.join().length();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void pooledImport() throws InterruptedException {
+        runImport(executor -> {
+            CompletableFuture<String> encoded = hashingService.hashAsync(
+                    PasswordHashingService.Purpose.LOGIN, passwordGenerator.generate());
+            CompletableFuture<String> encodedEmail = hashingService.hashAsync(
+                    PasswordHashingService.Purpose.MAILBOX, passwordGenerator.generate());
+            simulateNetwork();
+            return encoded.join().length() + encodedEmail.join().length();
+        });
+    }
+
+    /**
+     * Повторяет схему UserImportEngine: виртуальный поток на строку, не больше workers строк в работе
+     */
+    private void runImport(Function<ExecutorService, Integer> row) throws InterruptedException {
+        Semaphore permits = new Semaphore(workers);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < ROWS; i++) {
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        row.apply(executor);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            permits.acquire(workers);
+        }
+    }
+
+    private void simulateNetwork() {
+        try {
+            Thread.sleep(networkLatencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Копия прежней генерации временного пароля
+     */
+    static final class Legacy {
+
+        static String generateTempPassword() {
+            String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+            StringBuilder password = new StringBuilder();
+            java.util.Random random = new java.util.Random();
+            for (int i = 0; i < 12; i++) {
+                password.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            return password.toString();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.copilot.tools.calendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Field;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение построения URL календаря: прежняя реализация (цепочка String.replace + replaceAll)
+ * против CalendarAddressing (таблица транслитерации, скомпилированные Pattern, кэш URL)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CalendarAddressingBenchmark {
+
+    private static final String BASE_URL = "http://calendar:5232";
+
+    @Param({"Александр", "John", "Анна-Мария Щербакова"})
+    private String firstName;
+
+    private final String email = "7b5b4c51-986f-4791-9930-f41db8af587d@mailslurp.biz";
+
+    private CalendarAddressing addressing;
+
+    @Setup
+    public void setUp() throws Exception {
+        addressing = new CalendarAddressing();
+        Field baseUrl = CalendarAddressing.class.getDeclaredField("caldavBaseUrl");
+        baseUrl.setAccessible(true);
+        baseUrl.set(addressing, BASE_URL);
+    }
+
+    @Benchmark
+    public String legacyCalendarUrl() {
+        return Legacy.calendarUrl(email, firstName);
+    }
+
+    @Benchmark
+    public String cachedCalendarUrl() {
+        return addressing.calendarUrl(email, firstName);
+    }
+
+    @Benchmark
+    public String legacySanitize() {
+        return Legacy.sanitizeCalendarName(firstName + "'s Calendar");
+    }
+
+    @Benchmark
+    public String sanitize() {
+        return CalendarAddressing.sanitizeCalendarName(firstName + "'s Calendar");
+    }
+
+    /**
+     * Копия прежней реализации из CalendarService/CalendarProvisioningService
+     */
+    static final class Legacy {
+
+        static String calendarUrl(String email, String firstName) {
+            String calendarName = sanitizeCalendarName(firstName != null && !firstName.isEmpty()
+                    ? firstName + "'s Calendar"
+                    : "Work Calendar");
+            String encodedUsername = URLEncoder.encode(email, StandardCharsets.UTF_8);
+            String encodedCalendarName = URLEncoder.encode(calendarName, StandardCharsets.UTF_8);
+            return BASE_URL + "/" + encodedUsername + "/" + encodedCalendarName + "/";
+        }
+
+        static String sanitizeCalendarName(String name) {
+            String transliterated = transliterateRussianToLatin(name);
+            String sanitized = transliterated.replaceAll("[^a-zA-Z0-9\\s-]", "")
+                    .replaceAll("\\s+", "-")
+                    .toLowerCase();
+            if (sanitized.isEmpty() || sanitized.length() < 2) {
+                sanitized = "calendar";
+            }
+            return sanitized;
+        }
+
+        static String transliterateRussianToLatin(String text) {
+            if (text == null || text.isEmpty()) {
+                return text;
+            }
+            return text
+                    .replace("А", "A").replace("а", "a")
+                    .replace("Б", "B").replace("б", "b")
+                    .replace("В", "V").replace("в", "v")
+                    .replace("Г", "G").replace("г", "g")
+                    .replace("Д", "D").replace("д", "d")
+                    .replace("Е", "E").replace("е", "e")
+                    .replace("Ё", "E").replace("ё", "e")
+                    .replace("Ж", "Zh").replace("ж", "zh")
+                    .replace("З", "Z").replace("з", "z")
+                    .replace("И", "I").replace("и", "i")
+                    .replace("Й", "Y").replace("й", "y")
+                    .replace("К", "K").replace("к", "k")
+                    .replace("Л", "L").replace("л", "l")
+                    .replace("М", "M").replace("м", "m")
+                    .replace("Н", "N").replace("н", "n")
+                    .replace("О", "O").replace("о", "o")
+                    .replace("П", "P").replace("п", "p")
+                    .replace("Р", "R").replace("р", "r")
+                    .replace("С", "S").replace("с", "s")
+                    .replace("Т", "T").replace("т", "t")
+                    .replace("У", "U").replace("у", "u")
+                    .replace("Ф", "F").replace("ф", "f")
+                    .replace("Х", "Kh").replace("х", "kh")
+                    .replace("Ц", "Ts").replace("ц", "ts")
+                    .replace("Ч", "Ch").replace("ч", "ch")
+                    .replace("Ш", "Sh").replace("ш", "sh")
+                    .replace("Щ", "Shch").replace("щ", "shch")
+                    .replace("Ъ", "").replace("ъ", "")
+                    .replace("Ы", "Y").replace("ы", "y")
+                    .replace("Ь", "").replace("ь", "")
+                    .replace("Э", "E").replace("э", "e")
+                    .replace("Ю", "Yu").replace("ю", "yu")
+                    .replace("Я", "Ya").replace("я", "ya");
+        }
+    }
+}
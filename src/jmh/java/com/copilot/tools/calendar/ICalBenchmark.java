@@ -0,0 +1,174 @@
+package com.copilot.tools.calendar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Генерация и разбор iCalendar: прежний StringBuilder с пятью String.replace на поле
+ * против потокового ICalWriter/ICalReader
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ICalBenchmark {
+
+    @Param({"3", "30"})
+    private int attendees;
+
+    @Param({"200"})
+    private int events;
+
+    private final String title = "Стратегическое планирование, Q4; бюджет";
+    private final String description = "Повестка:\n1. Итоги квартала, риски; планы\n2. Бюджет отдела\n".repeat(4);
+    private final LocalDateTime start = LocalDateTime.of(2025, 11, 14, 16, 0);
+    private final LocalDateTime end = start.plusHours(1);
+
+    private List<String> attendeeEmails;
+    private String calendar;
+
+    @Setup
+    public void setUp() throws IOException {
+        attendeeEmails = new ArrayList<>();
+        for (int i = 0; i < attendees; i++) {
+            attendeeEmails.add("user" + i + "@mailslurp.biz");
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ICalWriter ical = new ICalWriter(out)) {
+            ical.begin("VCALENDAR");
+            for (int i = 0; i < events; i++) {
+                writeEvent(ical, "evt-" + i);
+            }
+            ical.end("VCALENDAR");
+        }
+        calendar = out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] legacyWrite() {
+        return Legacy.generate("evt", title, start, end, description, attendeeEmails, "org@mailslurp.biz")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int streamingWrite() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        try (ICalWriter ical = new ICalWriter(out)) {
+            ical.begin("VCALENDAR");
+            writeEvent(ical, "evt");
+            ical.end("VCALENDAR");
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public void legacyRead(Blackhole blackhole) {
+        for (String block : calendar.split("BEGIN:VEVENT")) {
+            blackhole.consume(Legacy.parse(block));
+        }
+    }
+
+    @Benchmark
+    public void streamingRead(Blackhole blackhole) throws IOException {
+        try (ICalReader reader = new ICalReader(new StringReader(calendar))) {
+            ICalReader.VEvent event;
+            while ((event = reader.nextEvent()) != null) {
+                blackhole.consume(event);
+            }
+        }
+    }
+
+    private void writeEvent(ICalWriter ical, String uid) throws IOException {
+        ZoneId zone = ZoneId.systemDefault();
+        ical.begin("VEVENT")
+                .property("UID", uid + "@business-assistant.local")
+                .dateTime("DTSTAMP", Instant.now())
+                .dateTime("DTSTART", start.atZone(zone).toInstant())
+                .dateTime("DTEND", end.atZone(zone).toInstant())
+                .text("SUMMARY", title)
+                .text("DESCRIPTION", description)
+                .property("ORGANIZER", ICalWriter.param("CN", "org@mailslurp.biz"), "MAILTO:org@mailslurp.biz");
+        for (String email : attendeeEmails) {
+            ical.property("ATTENDEE", ICalWriter.param("CN", email) + ";RSVP=TRUE", "MAILTO:" + email);
+        }
+        ical.end("VEVENT");
+    }
+
+    /**
+     * Копия прежней реализации: генерация из CalendarService и построчный разбор без потоковой обработки
+     */
+    static final class Legacy {
+
+        static String generate(String eventId, String title, LocalDateTime startTime, LocalDateTime endTime,
+                               String description, List<String> attendeeEmails, String organizerEmail) {
+            DateTimeFormatter icalFormatter = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+            String dtStart = startTime.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneId.of("UTC"))
+                    .format(icalFormatter);
+            String dtEnd = endTime.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneId.of("UTC"))
+                    .format(icalFormatter);
+            String dtStamp = LocalDateTime.now().atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneId.of("UTC"))
+                    .format(icalFormatter);
+
+            StringBuilder ical = new StringBuilder();
+            ical.append("BEGIN:VCALENDAR\r\n");
+            ical.append("BEGIN:VEVENT\r\n");
+            ical.append("UID:").append(eventId).append("@business-assistant.local\r\n");
+            ical.append("DTSTAMP:").append(dtStamp).append("\r\n");
+            ical.append("DTSTART:").append(dtStart).append("\r\n");
+            ical.append("DTEND:").append(dtEnd).append("\r\n");
+            ical.append("SUMMARY:").append(escape(title)).append("\r\n");
+            ical.append("DESCRIPTION:").append(escape(description)).append("\r\n");
+            ical.append("ORGANIZER;CN=").append(escape(organizerEmail))
+                    .append(":MAILTO:").append(organizerEmail).append("\r\n");
+            for (String attendeeEmail : attendeeEmails) {
+                ical.append("ATTENDEE;CN=").append(escape(attendeeEmail))
+                        .append(";RSVP=TRUE:MAILTO:").append(attendeeEmail).append("\r\n");
+            }
+            ical.append("END:VEVENT\r\n");
+            ical.append("END:VCALENDAR\r\n");
+            return ical.toString();
+        }
+
+        static String escape(String text) {
+            return text.replace("\\", "\\\\")
+                    .replace(",", "\\,")
+                    .replace(";", "\\;")
+                    .replace("\n", "\\n")
+                    .replace("\r", "");
+        }
+
+        static String parse(String block) {
+            String summary = null;
+            String unfolded = block.replaceAll("\r?\n[ \t]", "");
+            for (String line : unfolded.split("\r?\n")) {
+                if (line.startsWith("SUMMARY:")) {
+                    summary = line.substring(8)
+                            .replace("\\n", "\n")
+                            .replace("\\,", ",")
+                            .replace("\\;", ";")
+                            .replace("\\\\", "\\");
+                }
+            }
+            return summary;
+        }
+    }
+}
@@ -4,8 +4,9 @@ import com.copilot.agent.dto.request.ExecuteTaskRequest;
 import com.copilot.agent.dto.response.AgentActionResponse;
 import com.copilot.agent.dto.response.ExecuteTaskResponse;
 import com.copilot.agent.service.AgentHistoryService;
-import com.copilot.auth.repository.UserRepository;
 import com.copilot.llm.service.AgentService;
+import com.copilot.security.AuthenticatedUser;
+import com.copilot.security.CurrentUser;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -19,8 +20,6 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
@@ -35,7 +34,6 @@ public class AgentController {
 
     private final AgentService agentService;
     private final AgentHistoryService agentHistoryService;
-    private final UserRepository userRepository;
 
     @Operation(
             summary = "Выполнить задачу через AI-агента",
@@ -50,27 +48,14 @@ public class AgentController {
     @PostMapping("/execute")
     public ResponseEntity<ExecuteTaskResponse> executeTask(
             @Valid @RequestBody ExecuteTaskRequest request,
-            Authentication authentication) {
-        String userEmail = getCurrentUserEmail(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        String userEmail = currentUser.email();
         log.info("Запрос на выполнение задачи от пользователя {}: {}", userEmail, request.task());
 
         ExecuteTaskResponse response = agentService.executeTask(request.task(), userEmail);
         return ResponseEntity.ok(response);
     }
 
-    private String getCurrentUserEmail(Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
-            throw new RuntimeException("Пользователь не авторизован");
-        }
-
-        Object principal = authentication.getPrincipal();
-        if (principal instanceof UserDetails userDetails) {
-            return userDetails.getUsername();
-        }
-
-        return principal.toString();
-    }
-
     @Operation(
             summary = "Получить историю действий агента",
             description = "Возвращает историю действий агента для текущего пользователя с возможностью фильтрации"
@@ -87,8 +72,8 @@ public class AgentController {
             @RequestParam(required = false) String actionType,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
-            Authentication authentication) {
-        UUID userId = getCurrentUserId(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        UUID userId = currentUser.userId();
         log.debug("Получение истории действий агента для пользователя: {}", userId);
 
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
@@ -102,23 +87,4 @@ public class AgentController {
 
         return ResponseEntity.ok(history);
     }
-
-    private UUID getCurrentUserId(Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
-            throw new RuntimeException("Пользователь не авторизован");
-        }
-
-        Object principal = authentication.getPrincipal();
-        String email;
-        
-        if (principal instanceof UserDetails userDetails) {
-            email = userDetails.getUsername();
-        } else {
-            email = principal.toString();
-        }
-        
-        return userRepository.findByEmailAndDeletedAtIsNull(email)
-                .map(user -> user.getId())
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден: " + email));
-    }
 }
@@ -9,6 +9,8 @@ import com.copilot.auth.dto.response.LoginResponse;
 import com.copilot.auth.dto.response.UserResponse;
 import com.copilot.auth.service.AuthService;
 import com.copilot.dto.response.RegisterResponse;
+import com.copilot.security.AuthenticatedUser;
+import com.copilot.security.CurrentUser;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -68,6 +70,32 @@ public class AuthController {
         return ResponseEntity.ok(response);
     }
 
+    @Operation(summary = "Выход", description = "Завершает сессию, к которой относится refresh token")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "Сессия завершена")
+    })
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logout(@RequestHeader("Authorization") String authHeader) {
+        log.info("Запрос на выход");
+        String refreshToken = authHeader.startsWith("Bearer ")
+                ? authHeader.substring(7)
+                : authHeader;
+        authService.logout(refreshToken);
+        return ResponseEntity.noContent().build();
+    }
+
+    @Operation(summary = "Выход со всех устройств", description = "Завершает все сессии текущего пользователя")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "Все сессии завершены"),
+            @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
+    })
+    @PostMapping("/logout-all")
+    public ResponseEntity<Void> logoutAll(@CurrentUser AuthenticatedUser currentUser) {
+        log.info("Запрос на выход со всех устройств: {}", currentUser.userId());
+        authService.logoutAll(currentUser.userId());
+        return ResponseEntity.noContent().build();
+    }
+
     @Operation(summary = "Смена пароля", description = "Изменяет пароль текущего пользователя")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "204", description = "Пароль успешно изменен"),
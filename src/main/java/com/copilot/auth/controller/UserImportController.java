@@ -1,12 +1,14 @@
 package com.copilot.auth.controller;
 
+import com.copilot.auth.dto.response.ImportErrorsResponse;
 import com.copilot.auth.dto.response.ImportHistoryResponse;
 import com.copilot.auth.dto.response.ImportResponse;
 import com.copilot.auth.dto.response.ImportStatusResponse;
+import com.copilot.auth.dto.response.ImportValidationResponse;
 import com.copilot.auth.model.ImportLog;
-import com.copilot.auth.model.User;
-import com.copilot.auth.repository.UserRepository;
 import com.copilot.auth.service.UserImportService;
+import com.copilot.security.AuthenticatedUser;
+import com.copilot.security.CurrentUser;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -16,9 +18,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.UUID;
@@ -32,28 +34,37 @@ import java.util.stream.Collectors;
 public class UserImportController {
 
     private final UserImportService importService;
-    private final UserRepository userRepository;
 
     @Operation(
             summary = "Импорт пользователей из CSV/XLSX",
             description = "Загружает файл с пользователями и запускает асинхронный импорт. " +
-                    "Формат CSV: email,first_name,last_name,phone,telegram,department,role"
+                    "Формат CSV: email,first_name,last_name,phone,telegram,department,role. " +
+                    "С dryRun=true только проверяет строки (формат email, дубликаты, существующие пользователи) " +
+                    "и возвращает ошибки по строкам, ничего не создавая"
     )
     @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Результат проверки файла (dryRun=true)"),
             @ApiResponse(responseCode = "202", description = "Импорт запущен"),
             @ApiResponse(responseCode = "400", description = "Неверный формат файла"),
             @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
     })
     @PostMapping(value = "/users", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<ImportResponse> importUsers(@RequestParam("file") MultipartFile file) {
-        log.info("Запрос на импорт пользователей. Файл: {}", file.getOriginalFilename());
+    public ResponseEntity<?> importUsers(@RequestParam("file") MultipartFile file,
+                                         @RequestParam(value = "dryRun", defaultValue = "false") boolean dryRun,
+                                         @CurrentUser AuthenticatedUser currentUser) {
+        log.info("Запрос на импорт пользователей. Файл: {}, dryRun: {}", file.getOriginalFilename(), dryRun);
         
-        UUID userId = getCurrentUserId();
+        UUID userId = currentUser.userId();
         
         if (file.isEmpty()) {
             throw new IllegalArgumentException("Файл не может быть пустым");
         }
 
+        if (dryRun) {
+            ImportValidationResponse validation = importService.validateImport(file);
+            return ResponseEntity.ok(validation);
+        }
+
         ImportLog importLog = importService.startImport(file, userId);
 
         ImportResponse response = new ImportResponse(
@@ -69,32 +80,81 @@ public class UserImportController {
 
     @Operation(
             summary = "Получить статус импорта",
-            description = "Возвращает текущий статус импорта по ID"
+            description = "Возвращает текущий статус и счетчики импорта по ID. Ошибки по строкам - /auth/import/{id}/errors"
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Статус импорта"),
             @ApiResponse(responseCode = "404", description = "Импорт не найден")
     })
     @GetMapping("/status/{importLogId}")
-    public ResponseEntity<ImportStatusResponse> getImportStatus(@PathVariable UUID importLogId) {
-        log.info("Запрос статуса импорта: {}", importLogId);
-        
-        ImportLog importLog = importService.getImportStatus(importLogId);
-        
-        List<String> errors = importLog.getErrorDetails() != null 
-                ? List.of(importLog.getErrorDetails().split("\n"))
-                : List.of();
+    public ResponseEntity<ImportStatusResponse> getImportStatus(@PathVariable UUID importLogId,
+                                                                @CurrentUser AuthenticatedUser currentUser) {
+        log.debug("Запрос статуса импорта: {}", importLogId);
+        return ResponseEntity.ok(importService.getImportStatus(importLogId, currentUser));
+    }
 
-        ImportStatusResponse response = new ImportStatusResponse(
-                importLog.getId(),
-                importLog.getStatus(),
-                importLog.getTotalRecords(),
-                importLog.getSuccessfulRecords() + importLog.getFailedRecords(),
-                importLog.getFailedRecords(),
-                errors
+    @Operation(
+            summary = "Прогресс импорта (Server-Sent Events)",
+            description = "Отправляет событие 'progress' со счетчиками и скоростью раз в секунду, " +
+                    "по завершении импорта - событие 'complete' с итоговым статусом"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Поток прогресса открыт"),
+            @ApiResponse(responseCode = "404", description = "Импорт не найден")
+    })
+    @GetMapping(value = "/{importLogId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamImportProgress(@PathVariable UUID importLogId,
+                                           @CurrentUser AuthenticatedUser currentUser) {
+        log.info("Подписка на прогресс импорта: {}", importLogId);
+        return importService.subscribeProgress(importLogId, currentUser);
+    }
+
+    @Operation(
+            summary = "Получить ошибки импорта",
+            description = "Возвращает неудачные строки импорта постранично в порядке строк файла"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Страница ошибок импорта"),
+            @ApiResponse(responseCode = "400", description = "Некорректные параметры страницы"),
+            @ApiResponse(responseCode = "404", description = "Импорт не найден")
+    })
+    @GetMapping("/{importLogId}/errors")
+    public ResponseEntity<ImportErrorsResponse> getImportErrors(
+            @PathVariable UUID importLogId,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size,
+            @CurrentUser AuthenticatedUser currentUser) {
+        log.info("Запрос ошибок импорта: {}, страница {}", importLogId, page);
+        return ResponseEntity.ok(importService.getImportErrors(importLogId, page, size, currentUser));
+    }
+
+    @Operation(
+            summary = "Повторить неудачные строки импорта",
+            description = "Запускает новый асинхронный импорт из неудачных строк указанного импорта. " +
+                    "Прерванный повтор можно запустить снова - он продолжит с оставшихся строк"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Повтор запущен"),
+            @ApiResponse(responseCode = "400", description = "В импорте нет строк для повтора"),
+            @ApiResponse(responseCode = "404", description = "Импорт не найден"),
+            @ApiResponse(responseCode = "409", description = "Импорт или его повтор еще выполняется")
+    })
+    @PostMapping("/{importLogId}/retry")
+    public ResponseEntity<ImportResponse> retryFailedRows(@PathVariable UUID importLogId,
+                                                          @CurrentUser AuthenticatedUser currentUser) {
+        log.info("Запрос на повтор неудачных строк импорта: {}", importLogId);
+
+        ImportLog retryLog = importService.retryFailedRows(importLogId, currentUser);
+
+        ImportResponse response = new ImportResponse(
+                retryLog.getId(),
+                retryLog.getStatus(),
+                retryLog.getTotalRecords(),
+                retryLog.getSuccessfulRecords(),
+                retryLog.getFailedRecords()
         );
 
-        return ResponseEntity.ok(response);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
     }
 
     @Operation(
@@ -105,10 +165,10 @@ public class UserImportController {
             @ApiResponse(responseCode = "200", description = "История импортов")
     })
     @GetMapping("/history")
-    public ResponseEntity<ImportHistoryResponse> getImportHistory() {
+    public ResponseEntity<ImportHistoryResponse> getImportHistory(@CurrentUser AuthenticatedUser currentUser) {
         log.info("Запрос истории импортов");
         
-        UUID userId = getCurrentUserId();
+        UUID userId = currentUser.userId();
         List<ImportLog> imports = importService.getImportHistory(userId);
 
         List<ImportHistoryResponse.ImportInfo> importInfos = imports.stream()
@@ -126,12 +186,5 @@ public class UserImportController {
         ImportHistoryResponse response = new ImportHistoryResponse(importInfos);
         return ResponseEntity.ok(response);
     }
-
-    private UUID getCurrentUserId() {
-        String email = SecurityContextHolder.getContext().getAuthentication().getName();
-        User user = userRepository.findByEmailAndDeletedAtIsNull(email)
-                .orElseThrow(() -> new IllegalStateException("Пользователь не найден: " + email));
-        return user.getId();
-    }
 }
 
@@ -0,0 +1,21 @@
+package com.copilot.auth.dto.response;
+
+import java.util.List;
+import java.util.UUID;
+
+public record ImportErrorsResponse(
+        UUID importLogId,
+        Integer page,
+        Integer size,
+        Long totalElements,
+        Integer totalPages,
+        List<RowError> errors
+) {
+    public record RowError(
+            Integer rowNumber,
+            String email,
+            String message,
+            String status
+    ) {
+    }
+}
@@ -0,0 +1,14 @@
+package com.copilot.auth.dto.response;
+
+import java.util.UUID;
+
+public record ImportProgressResponse(
+        UUID importLogId,
+        String status,
+        Integer totalRecords,
+        Integer processedRecords,
+        Integer successfulRecords,
+        Integer failedRecords,
+        Double rowsPerSecond
+) {
+}
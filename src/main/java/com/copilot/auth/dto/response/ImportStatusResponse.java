@@ -1,15 +1,15 @@
 package com.copilot.auth.dto.response;
 
-import java.util.List;
 import java.util.UUID;
 
+/**
+ * Статус импорта: только счетчики. Ошибки по строкам - GET /auth/import/{id}/errors
+ */
 public record ImportStatusResponse(
         UUID importLogId,
         String status,
         Integer totalRecords,
         Integer processedRecords,
-        Integer errorCount,
-        List<String> errors
+        Integer errorCount
 ) {
 }
-
@@ -0,0 +1,17 @@
+package com.copilot.auth.dto.response;
+
+import java.util.List;
+
+public record ImportValidationResponse(
+        Integer totalRecords,
+        Integer validRecords,
+        Integer invalidRecords,
+        List<RowError> errors
+) {
+    public record RowError(
+            Integer rowNumber,
+            String email,
+            String message
+    ) {
+    }
+}
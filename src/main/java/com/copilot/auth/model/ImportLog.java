@@ -3,6 +3,7 @@ package com.copilot.auth.model;
 import jakarta.persistence.*;
 import lombok.*;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
 
 import java.time.LocalDateTime;
 import java.util.UUID;
@@ -39,9 +40,18 @@ public class ImportLog {
     @Builder.Default
     private Integer failedRecords = 0;
 
+    /**
+     * Ошибки уровня файла (парсинг, критический сбой). Ошибки строк хранятся в import_row_results
+     */
     @Column(name = "error_details", columnDefinition = "TEXT")
     private String errorDetails;
 
+    /**
+     * Импорт, неудачные строки которого повторяются в этом импорте
+     */
+    @Column(name = "retry_of_import_log_id")
+    private UUID retryOfImportLogId;
+
     @Column(nullable = false, length = 50)
     @Builder.Default
     private String status = "PROCESSING";
@@ -50,6 +60,14 @@ public class ImportLog {
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
+    /**
+     * Последняя запись счетчиков. Импорт в статусе PROCESSING, который давно не обновлялся,
+     * считается прерванным (узел упал посреди обработки)
+     */
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
     @Column(name = "completed_at")
     private LocalDateTime completedAt;
 }
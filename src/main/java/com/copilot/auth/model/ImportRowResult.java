@@ -0,0 +1,63 @@
+package com.copilot.auth.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Результат обработки строки импорта, которая не была импортирована.
+ * Хранит исходные данные строки, чтобы ее можно было повторить без повторной загрузки файла.
+ * Статусы: FAILED - ждет повтора, RETRIED - строка передана в повторный импорт.
+ */
+@Entity
+@Table(name = "import_row_results", indexes = {
+        @Index(name = "idx_import_row_results_log_status_row", columnList = "import_log_id, status, row_number")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImportRowResult {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "import_log_id", nullable = false)
+    private UUID importLogId;
+
+    @Column(name = "row_number", nullable = false)
+    private Integer rowNumber;
+
+    @Column(length = 320)
+    private String email;
+
+    @Column(name = "first_name")
+    private String firstName;
+
+    @Column(name = "last_name")
+    private String lastName;
+
+    private String phone;
+
+    private String telegram;
+
+    private String department;
+
+    @Column(length = 50)
+    private String role;
+
+    @Column(nullable = false, length = 20)
+    @Builder.Default
+    private String status = "FAILED";
+
+    @Column(name = "error_message", length = 1000)
+    private String errorMessage;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -53,6 +53,18 @@ public class User {
     @Column(name = "email_password", columnDefinition = "TEXT")
     private String emailPassword;
 
+    /**
+     * Когда ящик подписан на webhook NEW_EMAIL; null - письма ящика подбирает только опрос
+     */
+    @Column(name = "email_webhook_registered_at")
+    private LocalDateTime emailWebhookRegisteredAt;
+
+    /**
+     * Когда последняя попытка подписки завершилась ошибкой; такие ящики backfill берет после еще не пробованных
+     */
+    @Column(name = "email_webhook_attempted_at")
+    private LocalDateTime emailWebhookAttemptedAt;
+
     @Column(name = "calendar_provider_id", length = 255)
     private String calendarProviderId;
 
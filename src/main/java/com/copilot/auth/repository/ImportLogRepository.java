@@ -1,12 +1,20 @@
 package com.copilot.auth.repository;
 
+import com.copilot.auth.dto.response.ImportStatusResponse;
 import com.copilot.auth.model.ImportLog;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
@@ -16,5 +24,65 @@ public interface ImportLogRepository extends JpaRepository<ImportLog, UUID> {
     
     @Query("select il from ImportLog il where il.importedByUserId = :userId order by il.createdAt desc")
     List<ImportLog> findImportHistoryByUserId(@Param("userId") UUID userId);
+
+    /**
+     * Счетчики импорта без чтения error_details
+     */
+    @Query("select new com.copilot.auth.dto.response.ImportStatusResponse(il.id, il.status, il.totalRecords, " +
+            "coalesce(il.successfulRecords, 0) + coalesce(il.failedRecords, 0), il.failedRecords) " +
+            "from ImportLog il where il.id = :id")
+    Optional<ImportStatusResponse> findStatusById(@Param("id") UUID id);
+
+    boolean existsByIdAndImportedByUserId(UUID id, UUID importedByUserId);
+
+    boolean existsByRetryOfImportLogIdAndStatus(UUID retryOfImportLogId, String status);
+
+    /**
+     * Блокирует строку импорта до конца транзакции: параллельные запросы повтора одного импорта
+     * проверяют и создают повтор по очереди
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select il from ImportLog il where il.id = :id")
+    Optional<ImportLog> findByIdForUpdate(@Param("id") UUID id);
+
+    /**
+     * Завершает с ошибкой импорты, которые числятся выполняющимися, но не обновлялись с cutoff
+     */
+    @Modifying
+    @Transactional
+    @Query("update ImportLog il set il.status = 'FAILED', il.errorDetails = :reason, il.completedAt = local datetime " +
+            "where il.status = 'PROCESSING' and coalesce(il.updatedAt, il.createdAt) < :cutoff")
+    int failStale(@Param("cutoff") LocalDateTime cutoff, @Param("reason") String reason);
+
+    /**
+     * Отмечает выполняющиеся импорты живыми, даже если они давно не доходили до записи счетчиков
+     */
+    @Modifying
+    @Transactional
+    @Query("update ImportLog il set il.updatedAt = local datetime where il.id in :ids and il.status = 'PROCESSING'")
+    int touch(@Param("ids") Collection<UUID> ids);
+
+    /**
+     * Записывает итог импорта, только если он еще числится выполняющимся: импорт, уже признанный
+     * прерванным, не перезаписывается. Null в счетчиках и errorDetails оставляет прежнее значение.
+     */
+    @Modifying
+    @Transactional
+    @Query("update ImportLog il set il.status = :status, il.totalRecords = coalesce(:total, il.totalRecords), " +
+            "il.successfulRecords = coalesce(:successful, il.successfulRecords), " +
+            "il.failedRecords = coalesce(:failed, il.failedRecords), " +
+            "il.errorDetails = coalesce(:errorDetails, il.errorDetails), " +
+            "il.completedAt = local datetime, il.updatedAt = local datetime " +
+            "where il.id = :id and il.status = 'PROCESSING'")
+    int complete(@Param("id") UUID id, @Param("status") String status, @Param("total") Integer total,
+                 @Param("successful") Integer successful, @Param("failed") Integer failed,
+                 @Param("errorDetails") String errorDetails);
+
+    @Modifying
+    @Transactional
+    @Query("update ImportLog il set il.totalRecords = :total, il.successfulRecords = :successful, " +
+            "il.failedRecords = :failed, il.updatedAt = local datetime where il.id = :id")
+    int updateProgress(@Param("id") UUID id, @Param("total") int total,
+                       @Param("successful") int successful, @Param("failed") int failed);
 }
 
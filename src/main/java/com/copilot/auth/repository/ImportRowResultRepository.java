@@ -0,0 +1,33 @@
+package com.copilot.auth.repository;
+
+import com.copilot.auth.model.ImportRowResult;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface ImportRowResultRepository extends JpaRepository<ImportRowResult, UUID> {
+
+    Page<ImportRowResult> findByImportLogId(UUID importLogId, Pageable pageable);
+
+    /**
+     * Постраничное чтение по номеру строки: набор FAILED строк уменьшается по мере повтора,
+     * поэтому смещение (offset) использовать нельзя
+     */
+    List<ImportRowResult> findByImportLogIdAndStatusAndRowNumberGreaterThanOrderByRowNumberAsc(
+            UUID importLogId, String status, Integer rowNumber, Pageable pageable);
+
+    long countByImportLogIdAndStatus(UUID importLogId, String status);
+
+    @Modifying
+    @Query("update ImportRowResult r set r.status = 'RETRIED' where r.id in :ids")
+    int markRetried(@Param("ids") Collection<UUID> ids);
+}
@@ -1,12 +1,16 @@
 package com.copilot.auth.repository;
 
 import com.copilot.auth.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -29,6 +33,41 @@ public interface UserRepository extends JpaRepository<User, UUID> {
     Optional<User> findByPersonalEmail(String personalEmail);
     
     List<User> findAllByPersonalEmailIsNotNull();
+
+    @Query("select u.personalEmail from User u where u.personalEmail is not null and u.deletedAt is null")
+    List<String> findAllPersonalEmails();
+
+    @Query("select u.isActive from User u where u.id = :id and u.deletedAt is null")
+    Optional<Boolean> findActiveFlagById(@Param("id") UUID id);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.lastLoginAt = :loginAt where u.id in :ids and (u.lastLoginAt is null or u.lastLoginAt < :loginAt)")
+    int updateLastLoginAt(@Param("ids") Collection<UUID> ids, @Param("loginAt") LocalDateTime loginAt);
+
+    @Modifying
+    @Query("update User u set u.password = :password where u.id = :id")
+    int updatePassword(@Param("id") UUID id, @Param("password") String password);
     
     List<User> findAllByEmailProviderIdIsNotNull();
+
+    Optional<User> findByEmailProviderId(String emailProviderId);
+
+    /**
+     * Ящики без подписки на webhook: сначала еще не пробованные, затем самые давние неудачные попытки,
+     * чтобы ящики, подписка которых постоянно падает, не занимали всю пачку
+     */
+    @Query("select u from User u where u.emailProviderId is not null and u.emailWebhookRegisteredAt is null " +
+            "and u.deletedAt is null order by u.emailWebhookAttemptedAt asc nulls first, u.createdAt")
+    List<User> findWithoutEmailWebhook(Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.emailWebhookRegisteredAt = :registeredAt where u.id = :id")
+    int markEmailWebhookRegistered(@Param("id") UUID id, @Param("registeredAt") LocalDateTime registeredAt);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.emailWebhookAttemptedAt = :attemptedAt where u.id = :id")
+    int markEmailWebhookAttempted(@Param("id") UUID id, @Param("attemptedAt") LocalDateTime attemptedAt);
 }
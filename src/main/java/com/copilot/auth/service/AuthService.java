@@ -12,23 +12,29 @@ import com.copilot.auth.repository.UserRepository;
 import com.copilot.dto.response.RegisterResponse;
 import com.copilot.exception.UserAlreadyExistsException;
 import com.copilot.security.JwtService;
+import com.copilot.security.PasswordGenerator;
+import com.copilot.security.PasswordHashingService;
+import com.copilot.security.RefreshTokenService;
+import com.copilot.security.UserAccountDetails;
+import com.copilot.security.UserStatusCache;
 import com.copilot.tools.calendar.CalendarProvisioningService;
 import com.copilot.tools.email.EmailProvisioningService;
+import com.copilot.tools.email.MailSlurpInboxPool;
 import com.copilot.tools.email.UserWelcomeEmailService;
-import io.jsonwebtoken.Claims;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
 import java.util.List;
+import java.util.UUID;
 
 @Slf4j
 @Service
@@ -39,9 +45,14 @@ public class AuthService {
     private final PasswordEncoder encoder;
     private final AuthenticationManager authManager;
     private final JwtService jwtService;
-    private final EmailProvisioningService emailProvisioningService;
+    private final MailSlurpInboxPool inboxPool;
     private final CalendarProvisioningService calendarProvisioningService;
     private final UserWelcomeEmailService welcomeEmailService;
+    private final PasswordGenerator passwordGenerator;
+    private final PasswordHashingService passwordHashingService;
+    private final RefreshTokenService refreshTokenService;
+    private final LastLoginRecorder lastLoginRecorder;
+    private final UserStatusCache userStatusCache;
 
     @Transactional
     public RegisterResponse register(RegisterRequest dto) {
@@ -72,9 +83,9 @@ public class AuthService {
         String personalEmail = dto.email(); // Личная почта пользователя
         
         try {
-            corporateInbox = emailProvisioningService.createCorporateEmail();
+            corporateInbox = inboxPool.acquire();
             emailProviderId = corporateInbox.id();
-            emailPassword = generateTempPassword();
+            emailPassword = passwordGenerator.generate();
             log.info("Корпоративная почта создана для первого пользователя (админа): {}", corporateInbox.emailAddress());
         } catch (Exception e) {
             log.error("Не удалось создать корпоративную почту для первого пользователя (админа) {}: {}. " +
@@ -86,7 +97,7 @@ public class AuthService {
         String calendarPassword = null;
         String calendarProviderId = null;
         try {
-            calendarPassword = generateTempPassword();
+            calendarPassword = passwordGenerator.generate();
             String emailForCalendar = corporateInbox.emailAddress();
             CalendarProvisioningService.RadicaleAccountResponse calendarAccount = 
                     calendarProvisioningService.createCalendar(emailForCalendar, calendarPassword, dto.firstName());
@@ -110,7 +121,7 @@ public class AuthService {
                 .lastName(dto.lastName())
                 .role("ADMIN") // Первый пользователь получает роль ADMIN
                 .emailProviderId(emailProviderId) // ID MailSlurp inbox
-                .emailPassword(encoder.encode(emailPassword)) // Зашифрованный пароль для корпоративной почты
+                .emailPassword(passwordHashingService.hash(PasswordHashingService.Purpose.MAILBOX, emailPassword)) // Зашифрованный пароль для корпоративной почты
                 .calendarProviderId(calendarProviderId) // Email для календаря
                 .calendarPassword(calendarPassword) // Пароль для календаря (НЕ зашифрован, нужен для Radicale)
                 .isActive(true)
@@ -157,10 +168,7 @@ public class AuthService {
                 user.getId().toString(),
                 List.of(user.getRole())
         );
-        String refreshToken = jwtService.generateRefreshToken(
-                user.getEmail(),
-                user.getId().toString()
-        );
+        String refreshToken = refreshTokenService.startSession(sessionUser(user));
 
         return new RegisterResponse(
                 user.getId(),
@@ -173,46 +181,31 @@ public class AuthService {
     }
     
     /**
-     * Генерирует временный пароль
+     * Пользователь загружается один раз внутри authManager.authenticate и берется из principal.
+     * Время входа пишется отложенно через LastLoginRecorder, транзакции на входе нет.
      */
-    private String generateTempPassword() {
-        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
-        StringBuilder password = new StringBuilder();
-        java.util.Random random = new java.util.Random();
-        for (int i = 0; i < 12; i++) {
-            password.append(chars.charAt(random.nextInt(chars.length())));
-        }
-        return password.toString();
-    }
-
-    @Transactional
     public LoginResponse login(LoginRequest dto) {
         log.info("Попытка входа пользователя: {}", dto.email());
         
         try {
-            authManager.authenticate(
+            Authentication authentication = authManager.authenticate(
                     new UsernamePasswordAuthenticationToken(dto.email(), dto.password())
             );
 
-            User user = repository.findByEmailAndDeletedAtIsNull(dto.email())
-                    .orElseThrow(() -> new UsernameNotFoundException("Пользователь не найден"));
+            User user = ((UserAccountDetails) authentication.getPrincipal()).getUser();
 
             if (!user.getIsActive()) {
                 throw new BadCredentialsException("Аккаунт деактивирован");
             }
 
-            user.setLastLoginAt(LocalDateTime.now());
-            repository.save(user);
+            lastLoginRecorder.record(user.getId());
 
             String token = jwtService.generateAccessToken(
                     user.getEmail(),
                     user.getId().toString(),
                     List.of(user.getRole())
             );
-            String refreshToken = jwtService.generateRefreshToken(
-                    user.getEmail(),
-                    user.getId().toString()
-            );
+            String refreshToken = refreshTokenService.startSession(sessionUser(user));
 
             log.info("Пользователь успешно вошел: {}", user.getId());
 
@@ -233,44 +226,61 @@ public class AuthService {
         }
     }
 
-    @Transactional
+    /**
+     * Ротация refresh токена. Транзакции нет: пока состояние пользователя есть в кеше Redis,
+     * обновление не берет соединение из пула Postgres.
+     */
     public AuthResponse refresh(String refreshToken) {
         log.info("Обновление токена");
         
         try {
-            var jws = jwtService.parse(refreshToken);
-            Claims claims = jws.getPayload();
-
-            if (!jwtService.isRefreshToken(claims)) {
-                throw new BadCredentialsException("Неверный тип токена");
+            RefreshTokenService.Rotation rotation = refreshTokenService.rotate(refreshToken);
+
+            RefreshTokenService.SessionUser user = rotation.user();
+            if (user == null) {
+                user = repository.findById(rotation.userId())
+                        .filter(u -> u.getDeletedAt() == null)
+                        .map(this::sessionUser)
+                        .orElseThrow(() -> new UsernameNotFoundException("Пользователь не найден"));
+                refreshTokenService.cacheUser(user);
             }
 
-            String email = claims.getSubject();
-
-            User user = repository.findByEmailAndDeletedAtIsNull(email)
-                    .orElseThrow(() -> new UsernameNotFoundException("Пользователь не найден"));
-
-            if (!user.getIsActive()) {
+            if (!user.active()) {
+                refreshTokenService.revokeAllSessions(user.userId());
+                userStatusCache.invalidate(user.userId());
                 throw new BadCredentialsException("Аккаунт деактивирован");
             }
 
             String newToken = jwtService.generateAccessToken(
-                    user.getEmail(),
-                    user.getId().toString(),
-                    List.of(user.getRole())
-            );
-            String newRefreshToken = jwtService.generateRefreshToken(
-                    user.getEmail(),
-                    user.getId().toString()
+                    user.email(),
+                    user.userId().toString(),
+                    List.of(user.role())
             );
 
-            return new AuthResponse(newToken, newRefreshToken);
+            return new AuthResponse(newToken, rotation.refreshToken());
         } catch (Exception e) {
             log.error("Ошибка при обновлении токена: {}", e.getMessage());
             throw new BadCredentialsException("Неверный refresh token", e);
         }
     }
 
+    /**
+     * Завершает сессию, к которой относится refresh токен
+     */
+    public void logout(String refreshToken) {
+        refreshTokenService.revokeSession(refreshToken);
+    }
+
+    /**
+     * Завершает все сессии пользователя. Уже выданные access токены действуют до истечения срока,
+     * но статус пользователя на этом инстансе перечитывается сразу: если аккаунт деактивирован,
+     * токены перестают приниматься без ожидания TTL кеша.
+     */
+    public void logoutAll(UUID userId) {
+        refreshTokenService.revokeAllSessions(userId);
+        userStatusCache.invalidate(userId);
+    }
+
     @Transactional
     public void changePassword(ChangePasswordRequest dto) {
         String email = SecurityContextHolder.getContext().getAuthentication().getName();
@@ -299,6 +309,10 @@ public class AuthService {
         throw new UnsupportedOperationException("Сброс пароля будет реализован после добавления UserInvitation");
     }
 
+    private RefreshTokenService.SessionUser sessionUser(User user) {
+        return new RefreshTokenService.SessionUser(user.getId(), user.getEmail(), user.getRole(), user.getIsActive());
+    }
+
     public UserResponse getCurrentUser() {
         String email = SecurityContextHolder.getContext().getAuthentication().getName();
         log.info("Получение информации о текущем пользователе: {}", email);
@@ -0,0 +1,164 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.dto.response.ImportProgressResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Прогресс выполняющихся импортов в памяти.
+ * Движок импорта обновляет атомарные счетчики, статус импорта читается отсюда без запроса в БД,
+ * а подписчики SSE получают снимок прогресса раз в push-interval и финальное событие по завершении.
+ */
+@Slf4j
+@Component
+public class ImportProgressTracker {
+
+    private final Map<UUID, Progress> active = new ConcurrentHashMap<>();
+
+    @Value("${user-import.progress.emitter-timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    /**
+     * Регистрирует запуск импорта
+     */
+    public Progress start(UUID importLogId) {
+        Progress progress = new Progress(importLogId);
+        active.put(importLogId, progress);
+        return progress;
+    }
+
+    /**
+     * Импорты, которые сейчас выполняются в этом инстансе
+     */
+    public Set<UUID> activeIds() {
+        return Set.copyOf(active.keySet());
+    }
+
+    /**
+     * Снимок прогресса, если импорт выполняется в этом инстансе
+     */
+    public Optional<ImportProgressResponse> snapshot(UUID importLogId) {
+        Progress progress = active.get(importLogId);
+        return progress != null ? Optional.of(progress.snapshot("PROCESSING")) : Optional.empty();
+    }
+
+    /**
+     * Подписывает клиента на прогресс импорта
+     * @return emitter или null, если импорт уже не выполняется
+     */
+    public SseEmitter subscribe(UUID importLogId) {
+        Progress progress = active.get(importLogId);
+        if (progress == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        synchronized (progress) {
+            if (progress.finished) {
+                return null;
+            }
+            progress.subscribers.add(emitter);
+        }
+        emitter.onCompletion(() -> progress.subscribers.remove(emitter));
+        emitter.onTimeout(() -> {
+            progress.subscribers.remove(emitter);
+            emitter.complete();
+        });
+        emitter.onError(ex -> progress.subscribers.remove(emitter));
+        send(emitter, "progress", progress.snapshot("PROCESSING"));
+        return emitter;
+    }
+
+    /**
+     * Завершает импорт: отправляет подписчикам финальный снимок и закрывает их потоки
+     */
+    public void finish(UUID importLogId, String status) {
+        Progress progress = active.remove(importLogId);
+        if (progress == null) {
+            return;
+        }
+        List<SseEmitter> subscribers;
+        synchronized (progress) {
+            progress.finished = true;
+            subscribers = new ArrayList<>(progress.subscribers);
+            progress.subscribers.clear();
+        }
+        ImportProgressResponse snapshot = progress.snapshot(status);
+        for (SseEmitter emitter : subscribers) {
+            if (send(emitter, "complete", snapshot)) {
+                emitter.complete();
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${user-import.progress.push-interval-ms:1000}")
+    public void pushProgress() {
+        for (Progress progress : active.values()) {
+            if (progress.subscribers.isEmpty()) {
+                continue;
+            }
+            ImportProgressResponse snapshot = progress.snapshot("PROCESSING");
+            for (SseEmitter emitter : progress.subscribers) {
+                send(emitter, "progress", snapshot);
+            }
+        }
+    }
+
+    private static boolean send(SseEmitter emitter, String event, ImportProgressResponse snapshot) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name(event)
+                    .data(snapshot)
+                    .build());
+            return true;
+        } catch (Exception e) {
+            log.debug("Не удалось отправить прогресс импорта {}: {}", snapshot.importLogId(), e.getMessage());
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    /**
+     * Счетчики одного импорта
+     */
+    public static class Progress {
+
+        private final UUID importLogId;
+        private final long startedNanos = System.nanoTime();
+        private final List<SseEmitter> subscribers = new CopyOnWriteArrayList<>();
+        private boolean finished;
+
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger successful = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        Progress(UUID importLogId) {
+            this.importLogId = importLogId;
+        }
+
+        int processed() {
+            return successful.get() + failed.get();
+        }
+
+        ImportProgressResponse snapshot(String status) {
+            int processed = processed();
+            double seconds = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos)) / 1000.0;
+            double rowsPerSecond = Math.round(processed / seconds * 10) / 10.0;
+            return new ImportProgressResponse(importLogId, status, total.get(), processed,
+                    successful.get(), failed.get(), rowsPerSecond);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Отложенная запись времени последнего входа.
+ * Вход только кладет время в память; повторные входы одного пользователя до сброса схлопываются в одну запись.
+ * Раз в интервал накопленное пишется пачками: пользователи с одинаковой секундой входа обновляются
+ * одним UPDATE ... WHERE id IN (...), так что утренний всплеск входов не занимает пул соединений.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LastLoginRecorder {
+
+    private final UserRepository userRepository;
+
+    @Value("${auth.last-login.batch-size:500}")
+    private int batchSize;
+
+    private final Map<UUID, LocalDateTime> pending = new ConcurrentHashMap<>();
+
+    public void record(UUID userId) {
+        pending.merge(userId, LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS),
+                (previous, current) -> current.isAfter(previous) ? current : previous);
+    }
+
+    @Scheduled(fixedDelayString = "${auth.last-login.flush-interval-ms:5000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<LocalDateTime, List<UUID>> byTime = new TreeMap<>();
+        for (UUID userId : List.copyOf(pending.keySet())) {
+            LocalDateTime loginAt = pending.remove(userId);
+            if (loginAt != null) {
+                byTime.computeIfAbsent(loginAt, t -> new ArrayList<>()).add(userId);
+            }
+        }
+
+        int updated = 0;
+        for (Map.Entry<LocalDateTime, List<UUID>> entry : byTime.entrySet()) {
+            List<UUID> ids = entry.getValue();
+            for (int from = 0; from < ids.size(); from += batchSize) {
+                List<UUID> chunk = ids.subList(from, Math.min(from + batchSize, ids.size()));
+                try {
+                    updated += userRepository.updateLastLoginAt(chunk, entry.getKey());
+                } catch (Exception e) {
+                    log.warn("Не удалось записать время входа для {} пользователей: {}", chunk.size(), e.getMessage());
+                    chunk.forEach(id -> pending.merge(id, entry.getKey(), (previous, failed) -> previous));
+                }
+            }
+        }
+        log.debug("Записано время входа для {} пользователей", updated);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,522 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.dto.request.UserImportRow;
+import com.copilot.auth.model.ImportRowResult;
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.ImportLogRepository;
+import com.copilot.auth.repository.ImportRowResultRepository;
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.security.PasswordGenerator;
+import com.copilot.security.PasswordHashingService;
+import com.copilot.tools.calendar.CalendarProvisioningService;
+import com.copilot.tools.email.EmailProvisioningService;
+import com.copilot.tools.email.MailSlurpInboxPool;
+import com.copilot.tools.email.UserWelcomeEmailService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Движок массового импорта пользователей.
+ * Строки обрабатываются параллельно ограниченным числом воркеров, внешние шаги провижининга
+ * (MailSlurp, Radicale, хеширование паролей) выполняются конвейером, а пользователи
+ * сохраняются в БД пачками в отдельных коротких транзакциях.
+ * Неудачные строки пачками пишутся в import_row_results и могут быть повторены отдельным запуском.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserImportEngine {
+
+    private final UserRepository userRepository;
+    private final ImportLogRepository importLogRepository;
+    private final ImportRowResultRepository rowResultRepository;
+    private final UserImportParser parser;
+    private final UserImportValidator validator;
+    private final PasswordGenerator passwordGenerator;
+    private final PasswordHashingService passwordHashingService;
+    private final MailSlurpInboxPool inboxPool;
+    private final UserWelcomeEmailService welcomeEmailService;
+    private final CalendarProvisioningService calendarProvisioningService;
+    private final TransactionTemplate transactionTemplate;
+    private final ImportProgressTracker progressTracker;
+
+    @Value("${user-import.workers:8}")
+    private int workers;
+
+    @Value("${user-import.chunk-size:50}")
+    private int chunkSize;
+
+    /**
+     * Раз в сколько обработанных строк счетчики записываются в ImportLog
+     */
+    @Value("${user-import.checkpoint-rows:100}")
+    private int checkpointRows;
+
+    /**
+     * Запускает импорт в фоне. Файл должен быть сохранен во временный файл до вызова,
+     * так как MultipartFile недоступен после завершения HTTP запроса. Временный файл удаляется по завершении.
+     */
+    @Async
+    public void runImport(UUID importLogId, Path file, String fileName) {
+        try {
+            // Строки обрабатываются по мере чтения файла, весь файл в памяти не держим
+            processRows(importLogId, consumer -> parser.parseFile(file, fileName,
+                    (rowNumber, row) -> consumer.accept(new RowTask(rowNumber, row, null))));
+        } catch (Exception e) {
+            log.error("Ошибка при асинхронной обработке импорта {}: {}", importLogId, e.getMessage(), e);
+            completeImport(importLogId, "FAILED", null, null, null, "Критическая ошибка: " + e.getMessage());
+            progressTracker.finish(importLogId, "FAILED");
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (Exception e) {
+                log.warn("Не удалось удалить временный файл импорта {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Повторяет неудачные строки другого импорта. Строка исходного импорта помечается RETRIED
+     * в той же транзакции, в которой сохраняется ее новый результат, поэтому прерванный повтор
+     * можно просто запустить заново: он продолжит с оставшихся FAILED строк.
+     */
+    @Async
+    public void runRetry(UUID importLogId, UUID sourceImportLogId) {
+        try {
+            processRows(importLogId, consumer -> {
+                int lastRowNumber = 0;
+                List<ImportRowResult> page;
+                do {
+                    page = rowResultRepository.findByImportLogIdAndStatusAndRowNumberGreaterThanOrderByRowNumberAsc(
+                            sourceImportLogId, "FAILED", lastRowNumber, PageRequest.of(0, chunkSize));
+                    for (ImportRowResult result : page) {
+                        consumer.accept(new RowTask(result.getRowNumber(), toRow(result), result.getId()));
+                        lastRowNumber = result.getRowNumber();
+                    }
+                } while (page.size() == chunkSize);
+            });
+        } catch (Exception e) {
+            log.error("Ошибка при повторе импорта {}: {}", sourceImportLogId, e.getMessage(), e);
+            completeImport(importLogId, "FAILED", null, null, null, "Критическая ошибка: " + e.getMessage());
+            progressTracker.finish(importLogId, "FAILED");
+        }
+    }
+
+    private void processRows(UUID importLogId, RowSource source) throws InterruptedException {
+        ImportProgressTracker.Progress progress = progressTracker.start(importLogId);
+        Semaphore permits = new Semaphore(workers);
+        UserImportValidator.Validation validation = validator.begin();
+        ImportRun run;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            run = new ImportRun(importLogId, executor, progress);
+            try {
+                source.read(task -> {
+                    run.total.incrementAndGet();
+                    // Заведомо ошибочные строки отсекаются до создания ящика и календаря
+                    String error = validation.check(task.row());
+                    if (error != null) {
+                        run.fail(task, error);
+                        return;
+                    }
+                    // Не берем в работу больше строк, чем воркеров: внешние сервисы не перегружаются,
+                    // а источник строк ждет, пока освободится воркер
+                    acquire(permits, 1);
+                    executor.execute(() -> {
+                        try {
+                            run.add(provision(task));
+                        } catch (Exception e) {
+                            run.fail(task, e.getMessage());
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                });
+            } catch (Exception e) {
+                log.error("Ошибка при чтении строк импорта: {}", e.getMessage());
+                run.parseError = "Ошибка парсинга файла: " + e.getMessage();
+            }
+            permits.acquire(workers);
+            run.flush();
+            // close() дожидается отправки приветственных писем
+        }
+
+        int successful = run.successful.get();
+        int failed = run.failed.get();
+        String status = failed == 0 && run.parseError == null ? "COMPLETED" :
+                       (successful == 0 ? "FAILED" : "PARTIALLY_FAILED");
+        completeImport(importLogId, status, run.total.get(), successful, failed, run.parseError);
+        progressTracker.finish(importLogId, status);
+
+        log.info("Импорт {} завершен. Успешно: {}, Ошибок: {}", importLogId, successful, failed);
+    }
+
+    private static void acquire(Semaphore permits, int count) {
+        try {
+            permits.acquire(count);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Импорт прерван", e);
+        }
+    }
+
+    /**
+     * Провижининг внешних ресурсов для одной строки. Хеширование паролей идет в CPU пуле
+     * параллельно с созданием почтового ящика, календарь создается сразу после получения адреса ящика.
+     */
+    private ProvisionedUser provision(RowTask task) {
+        UserImportRow row = task.row();
+        String tempPassword = passwordGenerator.generate();
+        String emailPassword = passwordGenerator.generate();
+        // Пароль календаря НЕ шифруется: он нужен в открытом виде для аутентификации в Radicale
+        String calendarPassword = passwordGenerator.generate();
+
+        CompletableFuture<String> encodedPassword =
+                passwordHashingService.hashAsync(PasswordHashingService.Purpose.LOGIN, tempPassword);
+        CompletableFuture<String> encodedEmailPassword =
+                passwordHashingService.hashAsync(PasswordHashingService.Purpose.MAILBOX, emailPassword);
+
+        EmailProvisioningService.MailSlurpInboxResponse corporateInbox;
+        try {
+            corporateInbox = inboxPool.acquire();
+            log.info("Корпоративная почта создана: {}", corporateInbox.emailAddress());
+        } catch (Exception e) {
+            log.error("Ошибка при создании корпоративной почты: {}", e.getMessage());
+            throw new RuntimeException("Не удалось создать корпоративную почту: " + e.getMessage(), e);
+        }
+
+        if (userRepository.existsByEmail(corporateInbox.emailAddress())) {
+            throw new IllegalArgumentException("Пользователь с email " + corporateInbox.emailAddress() + " уже существует");
+        }
+
+        // Ящик уже выдан: если строка упадет дальше (например, пул хеширования остановлен),
+        // ящик и календарь освобождаются здесь, иначе они остались бы ничьими
+        try {
+            CalendarProvisioningService.RadicaleAccountResponse calendarAccount;
+            try {
+                calendarAccount = calendarProvisioningService.createCalendar(
+                        corporateInbox.emailAddress(), calendarPassword, row.firstName());
+                log.info("Календарь создан для пользователя: {}", corporateInbox.emailAddress());
+            } catch (Exception e) {
+                log.error("Ошибка при создании календаря для {}: {}", corporateInbox.emailAddress(), e.getMessage(), e);
+                // Не прерываем импорт, если не удалось создать календарь
+                calendarAccount = new CalendarProvisioningService.RadicaleAccountResponse(
+                        corporateInbox.emailAddress(), "default", corporateInbox.emailAddress());
+            }
+
+            User user = User.builder()
+                    .email(corporateInbox.emailAddress()) // Корпоративная почта - используется для входа в систему
+                    .personalEmail(row.email()) // Личная почта из файла
+                    .password(encodedPassword.join())
+                    .firstName(row.firstName())
+                    .lastName(row.lastName())
+                    .phone(row.phone())
+                    .telegram(row.telegram())
+                    .department(row.department())
+                    .role(row.role() != null ? row.role() : "EMPLOYEE")
+                    .emailProviderId(corporateInbox.id())
+                    .emailPassword(encodedEmailPassword.join())
+                    .calendarProviderId(calendarAccount.accountId())
+                    .calendarPassword(calendarPassword)
+                    .isActive(true)
+                    .isPasswordChanged(false) // Пользователь должен сменить пароль при первом входе
+                    .build();
+
+            return new ProvisionedUser(task, user, corporateInbox, tempPassword, emailPassword,
+                    calendarAccount.email(), calendarPassword);
+        } catch (RuntimeException e) {
+            release(corporateInbox, calendarPassword, row.firstName());
+            throw e;
+        }
+    }
+
+    /**
+     * Освобождает внешние ресурсы строки, пользователь которой не сохранился: ящик возвращается в пул,
+     * календарь и запись htpasswd удаляются. Если адрес уже занят сохраненным пользователем
+     * (например, пул выдал использованный ящик), ресурсы принадлежат ему и не трогаются.
+     */
+    private void discard(ProvisionedUser provisioned) {
+        User user = provisioned.user();
+        try {
+            if (userRepository.existsByEmail(user.getEmail())) {
+                log.warn("Адрес {} занят другим пользователем, ящик и календарь не освобождаются", user.getEmail());
+                return;
+            }
+        } catch (Exception e) {
+            log.warn("Не удалось освободить ящик и календарь {}: {}", user.getEmail(), e.getMessage());
+            return;
+        }
+        release(provisioned.inbox(), provisioned.calendarPassword(), user.getFirstName());
+    }
+
+    /**
+     * Возвращает ящик в пул и удаляет календарь с записью htpasswd
+     */
+    private void release(EmailProvisioningService.MailSlurpInboxResponse inbox, String calendarPassword,
+                         String firstName) {
+        try {
+            inboxPool.release(inbox);
+            calendarProvisioningService.deleteCalendar(inbox.emailAddress(), calendarPassword, firstName);
+        } catch (Exception e) {
+            log.warn("Не удалось освободить ящик и календарь {}: {}", inbox.emailAddress(), e.getMessage());
+        }
+    }
+
+    /**
+     * Отправляет приветственные письма. Вызывается только после коммита пачки,
+     * чтобы не отправлять данные для входа пользователю, которого нет в БД.
+     */
+    private void sendWelcomeEmails(ProvisionedUser provisioned) {
+        User user = provisioned.user();
+        UserImportRow row = provisioned.row();
+        try {
+            welcomeEmailService.sendSystemLoginEmail(
+                    user.getEmail(), user.getEmailProviderId(), provisioned.tempPassword(), row.firstName());
+        } catch (Exception e) {
+            log.error("Ошибка при отправке письма на корпоративную почту {}: {}", user.getEmail(), e.getMessage());
+        }
+
+        try {
+            welcomeEmailService.sendCorporateEmailAccessEmail(
+                    row.email(), user.getEmail(), provisioned.emailPassword(),
+                    provisioned.calendarEmail(), provisioned.calendarPassword(), row.firstName());
+        } catch (Exception e) {
+            log.error("Ошибка при отправке письма на личную почту {}: {}", row.email(), e.getMessage());
+        }
+
+        log.info("Пользователь импортирован: корпоративная почта (для входа): {}, личная почта: {}",
+                user.getEmail(), user.getPersonalEmail());
+    }
+
+    private void completeImport(UUID importLogId, String status, Integer total,
+                                Integer successful, Integer failed, String errorDetails) {
+        if (importLogRepository.complete(importLogId, status, total, successful, failed, errorDetails) == 0) {
+            log.warn("Импорт {} уже не выполняется (признан прерванным), итог {} не записан", importLogId, status);
+        }
+    }
+
+    private static UserImportRow toRow(ImportRowResult result) {
+        return new UserImportRow(result.getEmail(), result.getFirstName(), result.getLastName(), result.getPhone(),
+                result.getTelegram(), result.getDepartment(), result.getRole());
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return "Неизвестная ошибка";
+        }
+        return message.length() <= 1000 ? message : message.substring(0, 1000);
+    }
+
+    /**
+     * Источник строк импорта: файл или неудачные строки предыдущего импорта
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        void read(Consumer<RowTask> consumer) throws Exception;
+    }
+
+    /**
+     * Строка в работе
+     * @param retryOf id строки import_row_results, которая повторяется, либо null
+     */
+    private record RowTask(int rowNumber, UserImportRow row, UUID retryOf) {
+    }
+
+    private record ProvisionedUser(
+            RowTask task,
+            User user,
+            EmailProvisioningService.MailSlurpInboxResponse inbox,
+            String tempPassword,
+            String emailPassword,
+            String calendarEmail,
+            String calendarPassword
+    ) {
+        UserImportRow row() {
+            return task.row();
+        }
+    }
+
+    /**
+     * Состояние одного запуска импорта: буферы пачек успешных и неудачных строк.
+     * Счетчики живут в ImportProgressTracker и в БД сбрасываются раз в checkpointRows строк.
+     */
+    private class ImportRun {
+
+        private final UUID importLogId;
+        private final ExecutorService executor;
+        private final List<ProvisionedUser> buffer = new ArrayList<>();
+        private final List<RowFailure> failures = new ArrayList<>();
+        private final AtomicInteger total;
+        private final AtomicInteger successful;
+        private final AtomicInteger failed;
+        private final AtomicInteger lastCheckpoint = new AtomicInteger();
+        private volatile String parseError;
+
+        ImportRun(UUID importLogId, ExecutorService executor, ImportProgressTracker.Progress progress) {
+            this.importLogId = importLogId;
+            this.executor = executor;
+            this.total = progress.total;
+            this.successful = progress.successful;
+            this.failed = progress.failed;
+        }
+
+        void add(ProvisionedUser provisioned) {
+            List<ProvisionedUser> chunk = null;
+            synchronized (buffer) {
+                buffer.add(provisioned);
+                if (buffer.size() >= chunkSize) {
+                    chunk = new ArrayList<>(buffer);
+                    buffer.clear();
+                }
+            }
+            if (chunk != null) {
+                write(chunk);
+            }
+        }
+
+        void fail(RowTask task, String message) {
+            failed.incrementAndGet();
+            log.warn("Ошибка при импорте пользователя {} (строка {}): {}", task.row().email(), task.rowNumber(), message);
+            List<RowFailure> chunk = null;
+            synchronized (failures) {
+                failures.add(new RowFailure(task, message));
+                if (failures.size() >= chunkSize) {
+                    chunk = new ArrayList<>(failures);
+                    failures.clear();
+                }
+            }
+            if (chunk != null) {
+                writeFailures(chunk);
+            }
+        }
+
+        void flush() {
+            List<ProvisionedUser> chunk;
+            synchronized (buffer) {
+                chunk = new ArrayList<>(buffer);
+                buffer.clear();
+            }
+            if (!chunk.isEmpty()) {
+                write(chunk);
+            }
+            List<RowFailure> failedChunk;
+            synchronized (failures) {
+                failedChunk = new ArrayList<>(failures);
+                failures.clear();
+            }
+            if (!failedChunk.isEmpty()) {
+                writeFailures(failedChunk);
+            }
+        }
+
+        /**
+         * Сохраняет пачку в одной транзакции. Если пачка не сохранилась (например, нарушение уникальности),
+         * повторяет построчно, чтобы одна плохая строка не откатывала остальные. Ящик и календарь строки,
+         * которая не сохранилась и построчно, освобождаются: повтор импорта создаст их заново.
+         * Повторяемые строки исходного импорта помечаются RETRIED в той же транзакции.
+         */
+        private void write(List<ProvisionedUser> chunk) {
+            List<ProvisionedUser> saved = new ArrayList<>(chunk.size());
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    userRepository.saveAll(chunk.stream().map(ProvisionedUser::user).toList());
+                    markRetried(chunk.stream().map(provisioned -> provisioned.task().retryOf()).toList());
+                });
+                saved.addAll(chunk);
+            } catch (Exception chunkError) {
+                log.warn("Не удалось сохранить пачку из {} пользователей, сохраняем построчно: {}",
+                        chunk.size(), chunkError.getMessage());
+                for (ProvisionedUser provisioned : chunk) {
+                    try {
+                        provisioned.user().setId(null);
+                        transactionTemplate.executeWithoutResult(status -> {
+                            userRepository.save(provisioned.user());
+                            markRetried(Collections.singletonList(provisioned.task().retryOf()));
+                        });
+                        saved.add(provisioned);
+                    } catch (Exception e) {
+                        fail(provisioned.task(), e.getMessage());
+                        discard(provisioned);
+                    }
+                }
+            }
+
+            successful.addAndGet(saved.size());
+            checkpoint();
+
+            for (ProvisionedUser provisioned : saved) {
+                executor.execute(() -> sendWelcomeEmails(provisioned));
+            }
+        }
+
+        /**
+         * Пишет пачку неудачных строк в import_row_results одной транзакцией
+         */
+        private void writeFailures(List<RowFailure> chunk) {
+            List<ImportRowResult> results = chunk.stream().map(failure -> {
+                UserImportRow row = failure.task().row();
+                return ImportRowResult.builder()
+                        .importLogId(importLogId)
+                        .rowNumber(failure.task().rowNumber())
+                        .email(row.email())
+                        .firstName(row.firstName())
+                        .lastName(row.lastName())
+                        .phone(row.phone())
+                        .telegram(row.telegram())
+                        .department(row.department())
+                        .role(row.role())
+                        .status("FAILED")
+                        .errorMessage(truncate(failure.message()))
+                        .build();
+            }).toList();
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    rowResultRepository.saveAll(results);
+                    markRetried(chunk.stream().map(failure -> failure.task().retryOf()).toList());
+                });
+            } catch (Exception e) {
+                log.error("Не удалось сохранить {} ошибок импорта {}: {}", chunk.size(), importLogId, e.getMessage());
+            }
+            checkpoint();
+        }
+
+        /**
+         * Записывает счетчики в ImportLog, если с прошлой записи обработано не меньше checkpointRows строк
+         */
+        private void checkpoint() {
+            int processed = successful.get() + failed.get();
+            int last = lastCheckpoint.get();
+            if (processed - last >= checkpointRows && lastCheckpoint.compareAndSet(last, processed)) {
+                importLogRepository.updateProgress(importLogId, total.get(), successful.get(), failed.get());
+            }
+        }
+
+        private void markRetried(List<UUID> retryOf) {
+            List<UUID> ids = retryOf.stream().filter(Objects::nonNull).toList();
+            if (!ids.isEmpty()) {
+                rowResultRepository.markRetried(ids);
+            }
+        }
+    }
+
+    private record RowFailure(RowTask task, String message) {
+    }
+}
@@ -1,176 +1,209 @@
 package com.copilot.auth.service;
 
 import com.copilot.auth.dto.request.UserImportRow;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.RFC4180ParserBuilder;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.DateUtil;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.springframework.stereotype.Component;
-import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
 
+import java.io.BufferedReader;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Iterator;
 
+/**
+ * Потоковый парсер файлов импорта пользователей.
+ * Строки не накапливаются в памяти, а по одной передаются в RowHandler по мере чтения файла:
+ * CSV читается через opencsv (RFC 4180, кавычки, запятые и переводы строк внутри значений),
+ * XLSX - через событийную SAX модель POI (XSSFReader) без построения DOM всей книги.
+ */
 @Slf4j
 @Component
 public class UserImportParser {
 
-    public List<UserImportRow> parseFile(MultipartFile file) throws Exception {
-        String fileName = file.getOriginalFilename();
+    private static final int COLUMNS = 7;
+
+    /**
+     * Получатель строк файла импорта
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        /**
+         * @param rowNumber номер строки в файле (1 - заголовок)
+         */
+        void onRow(int rowNumber, UserImportRow row);
+    }
+
+    /**
+     * Читает файл и передает каждую строку данных в handler
+     * @return количество переданных строк
+     */
+    public int parseFile(Path file, String fileName, RowHandler handler) throws Exception {
         if (fileName == null) {
             throw new IllegalArgumentException("Имя файла не может быть пустым");
         }
 
         String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
-        
+
         return switch (extension) {
-            case "csv" -> parseCsv(file);
-            case "xlsx", "xls" -> parseExcel(file);
+            case "csv" -> parseCsv(file, handler);
+            case "xlsx", "xls" -> parseExcel(file, handler);
             default -> throw new IllegalArgumentException("Неподдерживаемый формат файла: " + extension);
         };
     }
 
-    private List<UserImportRow> parseCsv(MultipartFile file) throws Exception {
-        List<UserImportRow> rows = new ArrayList<>();
-        
-        try (InputStream is = file.getInputStream();
-             java.io.BufferedReader reader = new java.io.BufferedReader(
-                     new java.io.InputStreamReader(is, java.nio.charset.StandardCharsets.UTF_8))) {
-            
-            String line = reader.readLine();
-            if (line == null) {
+    private int parseCsv(Path file, RowHandler handler) throws Exception {
+        int count = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             CSVReader csv = new CSVReaderBuilder(reader)
+                     .withCSVParser(new RFC4180ParserBuilder().build())
+                     .build()) {
+
+            if (csv.readNext() == null) {
                 throw new IllegalArgumentException("Файл пуст");
             }
-            
-            int lineNumber = 1;
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                
+
+            int recordNumber = 1;
+            String[] values;
+            while (true) {
                 try {
-                    String[] values = parseCsvLine(line);
-                    if (values.length < 1 || values[0].trim().isEmpty()) {
-                        continue;
-                    }
-                    
-                    UserImportRow row = new UserImportRow(
-                            getValue(values, 0, ""),
-                            getValue(values, 1, null),
-                            getValue(values, 2, null),
-                            getValue(values, 3, null),
-                            getValue(values, 4, null),
-                            getValue(values, 5, null),
-                            getValue(values, 6, "EMPLOYEE")
-                    );
-                    rows.add(row);
+                    values = csv.readNext();
                 } catch (Exception e) {
-                    log.warn("Ошибка при парсинге строки {}: {}", lineNumber, e.getMessage());
-                    throw new IllegalArgumentException("Ошибка в строке " + lineNumber + ": " + e.getMessage());
+                    log.warn("Ошибка при парсинге строки {}: {}", csv.getLinesRead(), e.getMessage());
+                    throw new IllegalArgumentException("Ошибка в строке " + csv.getLinesRead() + ": " + e.getMessage());
+                }
+                if (values == null) {
+                    break;
                 }
+                recordNumber++;
+
+                String email = getValue(values, 0, null);
+                if (email == null) {
+                    continue;
+                }
+
+                handler.onRow(recordNumber, new UserImportRow(
+                        email,
+                        getValue(values, 1, null),
+                        getValue(values, 2, null),
+                        getValue(values, 3, null),
+                        getValue(values, 4, null),
+                        getValue(values, 5, null),
+                        getValue(values, 6, "EMPLOYEE")
+                ));
+                count++;
             }
         }
-        
-        return rows;
+
+        return count;
     }
 
-    private List<UserImportRow> parseExcel(MultipartFile file) throws Exception {
-        List<UserImportRow> rows = new ArrayList<>();
-        
-        try (InputStream is = file.getInputStream();
-             Workbook workbook = new XSSFWorkbook(is)) {
-            
-            Sheet sheet = workbook.getSheetAt(0);
-            if (sheet.getPhysicalNumberOfRows() < 2) {
-                throw new IllegalArgumentException("Файл должен содержать хотя бы одну строку данных (кроме заголовка)");
+    private int parseExcel(Path file, RowHandler handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new IllegalArgumentException("Файл не содержит листов");
             }
 
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) {
-                    continue;
-                }
-                
-                String email = getCellValue(row, 0);
-                if (email == null || email.trim().isEmpty()) {
-                    continue;
-                }
-                
-                UserImportRow importRow = new UserImportRow(
-                        email.trim(),
-                        getCellValue(row, 1),
-                        getCellValue(row, 2),
-                        getCellValue(row, 3),
-                        getCellValue(row, 4),
-                        getCellValue(row, 5),
-                        getCellValueOrDefault(row, 6, "EMPLOYEE")
-                );
-                rows.add(importRow);
+            SheetRowCollector collector = new SheetRowCollector(handler);
+            try (InputStream sheet = sheets.next()) {
+                XMLReader xmlReader = XMLHelper.newXMLReader();
+                xmlReader.setContentHandler(new XSSFSheetXMLHandler(
+                        styles, null, strings, collector, numberFormatter(), false));
+                xmlReader.parse(new InputSource(sheet));
             }
-        }
-        
-        return rows;
-    }
 
-    private String[] parseCsvLine(String line) {
-        List<String> values = new ArrayList<>();
-        boolean inQuotes = false;
-        StringBuilder current = new StringBuilder();
-        
-        for (char c : line.toCharArray()) {
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                values.add(current.toString().trim());
-                current = new StringBuilder();
-            } else {
-                current.append(c);
+            if (collector.count == 0) {
+                throw new IllegalArgumentException("Файл должен содержать хотя бы одну строку данных (кроме заголовка)");
             }
+            return collector.count;
         }
-        values.add(current.toString().trim());
-        
-        return values.toArray(new String[0]);
     }
 
-    private String getValue(String[] values, int index, String defaultValue) {
+    /**
+     * Числа в формате General (телефоны, табельные номера) выводим целиком, без экспоненты
+     */
+    private static DataFormatter numberFormatter() {
+        DataFormatter formatter = new DataFormatter();
+        formatter.addFormat("General", new DecimalFormat("#"));
+        return formatter;
+    }
+
+    private static String getValue(String[] values, int index, String defaultValue) {
         if (index < values.length && values[index] != null && !values[index].trim().isEmpty()) {
             return values[index].trim();
         }
         return defaultValue;
     }
 
-    private String getCellValue(Row row, int cellIndex) {
-        Cell cell = row.getCell(cellIndex);
-        if (cell == null) {
-            return null;
+    /**
+     * Собирает ячейки текущей строки листа и отдает строку в handler при ее завершении
+     */
+    private static class SheetRowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final RowHandler handler;
+        private final String[] values = new String[COLUMNS];
+        private int count;
+
+        SheetRowCollector(RowHandler handler) {
+            this.handler = handler;
         }
-        
-        CellType cellType = cell.getCellType();
-        return switch (cellType) {
-            case STRING -> cell.getStringCellValue().trim();
-            case NUMERIC -> {
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    yield cell.getDateCellValue().toString();
-                } else {
-                    yield String.valueOf((long) cell.getNumericCellValue());
-                }
+
+        @Override
+        public void startRow(int rowNum) {
+            Arrays.fill(values, null);
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = new CellReference(cellReference).getCol();
+            if (column < COLUMNS) {
+                values[column] = formattedValue;
             }
-            case BOOLEAN -> String.valueOf(cell.getBooleanCellValue());
-            case FORMULA -> cell.getCellFormula();
-            case BLANK -> null;
-            default -> null;
-        };
-    }
+        }
 
-    private String getCellValueOrDefault(Row row, int cellIndex, String defaultValue) {
-        String value = getCellValue(row, cellIndex);
-        return value != null && !value.isEmpty() ? value : defaultValue;
+        @Override
+        public void endRow(int rowNum) {
+            // Первая строка - заголовок
+            if (rowNum == 0) {
+                return;
+            }
+            String email = getValue(values, 0, null);
+            if (email == null) {
+                return;
+            }
+            handler.onRow(rowNum + 1, new UserImportRow(
+                    email,
+                    getValue(values, 1, null),
+                    getValue(values, 2, null),
+                    getValue(values, 3, null),
+                    getValue(values, 4, null),
+                    getValue(values, 5, null),
+                    getValue(values, 6, "EMPLOYEE")
+            ));
+            count++;
+        }
     }
 }
-
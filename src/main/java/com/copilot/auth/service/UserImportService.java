@@ -1,24 +1,37 @@
 package com.copilot.auth.service;
 
-import com.copilot.auth.dto.request.UserImportRow;
+import com.copilot.auth.dto.response.ImportErrorsResponse;
+import com.copilot.auth.dto.response.ImportProgressResponse;
+import com.copilot.auth.dto.response.ImportStatusResponse;
+import com.copilot.auth.dto.response.ImportValidationResponse;
 import com.copilot.auth.model.ImportLog;
-import com.copilot.auth.model.User;
+import com.copilot.auth.model.ImportRowResult;
 import com.copilot.auth.repository.ImportLogRepository;
-import com.copilot.auth.repository.UserRepository;
-import com.copilot.tools.email.EmailProvisioningService;
-import com.copilot.tools.email.UserWelcomeEmailService;
-import com.copilot.tools.calendar.CalendarProvisioningService;
+import com.copilot.auth.repository.ImportRowResultRepository;
+import com.copilot.exception.ConflictException;
+import com.copilot.exception.InvalidRequestException;
+import com.copilot.exception.NotFoundException;
+import com.copilot.security.AuthenticatedUser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 @Slf4j
@@ -26,19 +39,30 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class UserImportService {
 
-    private final UserRepository userRepository;
     private final ImportLogRepository importLogRepository;
+    private final ImportRowResultRepository rowResultRepository;
+    private final ImportProgressTracker progressTracker;
+    private final UserImportEngine importEngine;
     private final UserImportParser parser;
-    private final PasswordEncoder passwordEncoder;
-    private final EmailProvisioningService emailProvisioningService;
-    private final UserWelcomeEmailService welcomeEmailService;
-    private final CalendarProvisioningService calendarProvisioningService;
-
-    @Transactional
+    private final UserImportValidator validator;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Сколько импорт может не записывать счетчики, прежде чем считаться прерванным
+     */
+    @Value("${user-import.stale-after-ms:1800000}")
+    private long staleAfterMs = 1_800_000;
+
+    /**
+     * Регистрирует импорт и передает файл движку импорта. Обработка идет в фоне,
+     * метод возвращается сразу после сохранения ImportLog.
+     */
     public ImportLog startImport(MultipartFile file, UUID importedByUserId) {
         log.info("Начало импорта пользователей. Файл: {}, Импортировал: {}", 
                 file.getOriginalFilename(), importedByUserId);
 
+        Path tempFile = copyToTempFile(file);
+
         ImportLog importLog = ImportLog.builder()
                 .importedByUserId(importedByUserId)
                 .fileName(file.getOriginalFilename())
@@ -51,205 +75,210 @@ public class UserImportService {
 
         importLog = importLogRepository.save(importLog);
 
-        processImportAsync(file, importLog.getId());
+        importEngine.runImport(importLog.getId(), tempFile, file.getOriginalFilename());
 
         return importLog;
     }
 
-    @Async
-    public void processImportAsync(MultipartFile file, UUID importLogId) {
+    /**
+     * Пробный прогон импорта: разбирает файл и проверяет строки без создания пользователей,
+     * ящиков и календарей. Возвращает ошибки по строкам.
+     */
+    public ImportValidationResponse validateImport(MultipartFile file) {
+        log.info("Проверка файла импорта без создания пользователей: {}", file.getOriginalFilename());
+
+        Path tempFile = copyToTempFile(file);
         try {
-            processImport(file, importLogId);
+            UserImportValidator.Validation validation = validator.begin();
+            List<ImportValidationResponse.RowError> errors = new ArrayList<>();
+            int total = parser.parseFile(tempFile, file.getOriginalFilename(), (rowNumber, row) -> {
+                String error = validation.check(row);
+                if (error != null) {
+                    errors.add(new ImportValidationResponse.RowError(rowNumber, row.email(), error));
+                }
+            });
+            return new ImportValidationResponse(total, total - errors.size(), errors.size(), errors);
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("Ошибка при асинхронной обработке импорта {}: {}", importLogId, e.getMessage(), e);
-            updateImportLogStatus(importLogId, "FAILED", null, null, 
-                    "Критическая ошибка: " + e.getMessage());
+            throw new IllegalArgumentException("Ошибка парсинга файла: " + e.getMessage(), e);
+        } finally {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить временный файл импорта {}: {}", tempFile, e.getMessage());
+            }
         }
     }
 
-    @Transactional
-    public void processImport(MultipartFile file, UUID importLogId) {
-        ImportLog importLog = importLogRepository.findById(importLogId)
-                .orElseThrow(() -> new IllegalArgumentException("ImportLog не найден: " + importLogId));
+    /**
+     * Повторяет неудачные строки импорта отдельным запуском, без повторной загрузки файла.
+     * Прерванный повтор можно запустить снова: он продолжит с еще не повторенных строк.
+     * Повторить можно только свой импорт (администратор - любой).
+     */
+    public ImportLog retryFailedRows(UUID importLogId, AuthenticatedUser currentUser) {
+        // Повтор, оборванный падением узла, не должен навсегда блокировать следующие
+        failStaleImports();
+
+        ImportLog retryLog = transactionTemplate.execute(status -> {
+            ImportLog source = importLogRepository.findByIdForUpdate(importLogId)
+                    .filter(importLog -> canAccess(importLog.getImportedByUserId(), currentUser))
+                    .orElseThrow(() -> new NotFoundException("ImportLog не найден: " + importLogId));
+
+            if ("PROCESSING".equals(source.getStatus())) {
+                throw new ConflictException("Импорт еще выполняется: " + importLogId);
+            }
+            if (importLogRepository.existsByRetryOfImportLogIdAndStatus(importLogId, "PROCESSING")) {
+                throw new ConflictException("Повтор импорта уже выполняется: " + importLogId);
+            }
+            long failedRows = rowResultRepository.countByImportLogIdAndStatus(importLogId, "FAILED");
+            if (failedRows == 0) {
+                throw new InvalidRequestException("В импорте нет строк для повтора: " + importLogId);
+            }
 
-        List<UserImportRow> rows;
-        try {
-            rows = parser.parseFile(file);
-        } catch (Exception e) {
-            log.error("Ошибка при парсинге файла: {}", e.getMessage());
-            updateImportLogStatus(importLogId, "FAILED", 0, 0, 
-                    "Ошибка парсинга файла: " + e.getMessage());
-            return;
-        }
+            log.info("Повтор {} неудачных строк импорта {}", failedRows, importLogId);
 
-        importLog.setTotalRecords(rows.size());
-        importLogRepository.save(importLog);
+            return importLogRepository.save(ImportLog.builder()
+                    .importedByUserId(currentUser.userId())
+                    .fileName(source.getFileName())
+                    .retryOfImportLogId(importLogId)
+                    .status("PROCESSING")
+                    .totalRecords(0)
+                    .successfulRecords(0)
+                    .failedRecords(0)
+                    .build());
+        });
 
-        List<String> errors = new ArrayList<>();
-        int successful = 0;
-        int failed = 0;
+        // Запуск после коммита: фоновый повтор должен видеть сохраненный ImportLog
+        importEngine.runRetry(retryLog.getId(), importLogId);
 
-        for (UserImportRow row : rows) {
-            try {
-                importUser(row);
-                successful++;
-            } catch (Exception e) {
-                failed++;
-                String error = String.format("%s: %s", row.email(), e.getMessage());
-                errors.add(error);
-                log.warn("Ошибка при импорте пользователя {}: {}", row.email(), e.getMessage());
-            }
+        return retryLog;
+    }
+
+    /**
+     * Отмечает живыми импорты этого инстанса. Счетчики в БД пишутся только раз в checkpoint-rows строк,
+     * поэтому медленный или маленький импорт без этой отметки выглядел бы прерванным.
+     */
+    @Scheduled(fixedDelayString = "${user-import.heartbeat-interval-ms:60000}")
+    public void heartbeat() {
+        Set<UUID> active = progressTracker.activeIds();
+        if (!active.isEmpty()) {
+            importLogRepository.touch(active);
         }
+    }
 
-        String status = failed == 0 ? "COMPLETED" : 
-                       (successful == 0 ? "FAILED" : "PARTIALLY_FAILED");
+    /**
+     * Завершает с ошибкой импорты, оставшиеся в PROCESSING после падения узла
+     */
+    @Scheduled(fixedDelayString = "${user-import.stale-check-interval-ms:300000}")
+    public void failStaleImports() {
+        // Свои выполняющиеся импорты отмечаются до проверки, даже если heartbeat давно не срабатывал
+        heartbeat();
+        LocalDateTime cutoff = LocalDateTime.now().minus(Duration.ofMillis(staleAfterMs));
+        int failed = importLogRepository.failStale(cutoff,
+                "Импорт прерван: нет прогресса дольше " + Duration.ofMillis(staleAfterMs).toMinutes() + " мин");
+        if (failed > 0) {
+            log.warn("Прерванных импортов завершено с ошибкой: {}", failed);
+        }
+    }
 
-        String errorDetails = errors.isEmpty() ? null : String.join("\n", errors);
-        updateImportLogStatus(importLogId, status, successful, failed, errorDetails);
+    /**
+     * Статус импорта. Для выполняющегося импорта берется из счетчиков в памяти,
+     * для завершенного читаются только счетчики ImportLog, без error_details.
+     * Как и ошибки, прогресс и повтор, доступен только запустившему импорт и администратору
+     */
+    public ImportStatusResponse getImportStatus(UUID importLogId, AuthenticatedUser currentUser) {
+        requireAccess(importLogId, currentUser);
+        return status(importLogId);
+    }
 
-        log.info("Импорт завершен. Успешно: {}, Ошибок: {}", successful, failed);
+    private ImportStatusResponse status(UUID importLogId) {
+        return progressTracker.snapshot(importLogId)
+                .map(progress -> new ImportStatusResponse(progress.importLogId(), progress.status(),
+                        progress.totalRecords(), progress.processedRecords(), progress.failedRecords()))
+                .or(() -> importLogRepository.findStatusById(importLogId))
+                .orElseThrow(() -> new NotFoundException("ImportLog не найден: " + importLogId));
     }
 
-    private void importUser(UserImportRow row) {
-        EmailProvisioningService.MailSlurpInboxResponse corporateInbox;
-        try {
-            corporateInbox = emailProvisioningService.createCorporateEmail();
-            log.info("Корпоративная почта создана: {}", corporateInbox.emailAddress());
-        } catch (Exception e) {
-            log.error("Ошибка при создании корпоративной почты: {}", e.getMessage());
-            throw new RuntimeException("Не удалось создать корпоративную почту: " + e.getMessage(), e);
+    /**
+     * Поток прогресса импорта (SSE). Если импорт уже завершен или выполняется на другом инстансе,
+     * отправляет одно событие со статусом из БД и закрывает поток
+     */
+    public SseEmitter subscribeProgress(UUID importLogId, AuthenticatedUser currentUser) {
+        requireAccess(importLogId, currentUser);
+        SseEmitter emitter = progressTracker.subscribe(importLogId);
+        if (emitter != null) {
+            return emitter;
         }
 
-        if (userRepository.existsByEmail(corporateInbox.emailAddress())) {
-            throw new IllegalArgumentException("Пользователь с email " + corporateInbox.emailAddress() + " уже существует");
-        }
+        ImportStatusResponse status = status(importLogId);
+        int failed = status.errorCount() != null ? status.errorCount() : 0;
+        int processed = status.processedRecords() != null ? status.processedRecords() : 0;
+        ImportProgressResponse snapshot = new ImportProgressResponse(importLogId, status.status(),
+                status.totalRecords(), processed, processed - failed, failed, null);
 
-        // Генерируем временный пароль для входа в систему
-        String tempPassword = generateTempPassword();
-        String encodedPassword = passwordEncoder.encode(tempPassword);
-
-        // Генерируем пароль для доступа к корпоративной почте (для IMAP)
-        String emailPassword = generateTempPassword();
-        String encodedEmailPassword = passwordEncoder.encode(emailPassword);
-
-        // Создаем календарь в Radicale
-        // ВАЖНО: Пароль календаря НЕ шифруется через BCrypt, так как он нужен для аутентификации в Radicale
-        // BCrypt - это одностороннее хеширование, его нельзя расшифровать
-        // Для безопасности можно использовать Jasypt, но пока храним в открытом виде (Radicale - внутренний сервис)
-        String calendarPassword = generateTempPassword();
-        // НЕ шифруем пароль календаря - он нужен для аутентификации в Radicale
-        // TODO: В будущем использовать Jasypt для шифрования паролей календаря
-        CalendarProvisioningService.RadicaleAccountResponse calendarAccount;
+        SseEmitter finished = new SseEmitter();
         try {
-            calendarAccount = calendarProvisioningService.createCalendar(
-                    corporateInbox.emailAddress(), // Используем корпоративную почту для календаря
-                    calendarPassword, // Исходный пароль (не зашифрованный)
-                    row.firstName()
-            );
-            log.info("Календарь создан для пользователя: {}", corporateInbox.emailAddress());
-        } catch (Exception e) {
-            log.error("Ошибка при создании календаря для {}: {}", corporateInbox.emailAddress(), e.getMessage(), e);
-            // Не прерываем импорт, если не удалось создать календарь
-            calendarAccount = new CalendarProvisioningService.RadicaleAccountResponse(
-                    corporateInbox.emailAddress(), "default", corporateInbox.emailAddress());
+            finished.send(SseEmitter.event()
+                    .name("PROCESSING".equals(status.status()) ? "progress" : "complete")
+                    .data(snapshot)
+                    .build());
+            finished.complete();
+        } catch (IOException e) {
+            finished.completeWithError(e);
         }
+        return finished;
+    }
 
-        // Создаем пользователя с корпоративной почтой для входа
-        User user = User.builder()
-                .email(corporateInbox.emailAddress()) // Корпоративная почта - используется для входа в систему
-                .personalEmail(row.email()) // Личная почта из файла
-                .password(encodedPassword)
-                .firstName(row.firstName())
-                .lastName(row.lastName())
-                .phone(row.phone())
-                .telegram(row.telegram())
-                .department(row.department())
-                .role(row.role() != null ? row.role() : "EMPLOYEE")
-                .emailProviderId(corporateInbox.id()) // ID MailSlurp inbox
-                .emailPassword(encodedEmailPassword) // Зашифрованный пароль для доступа к корпоративной почте
-                .calendarProviderId(calendarAccount.accountId()) // Email пользователя для Radicale
-                .calendarPassword(calendarPassword) // Пароль для доступа к календарю (НЕ зашифрован, нужен для Radicale)
-                .isActive(true)
-                .isPasswordChanged(false) // Пользователь должен сменить пароль при первом входе
-                .build();
-
-        user = userRepository.save(user);
-
-        // Отправляем письмо на корпоративную почту с данными для входа в систему
-        try {
-            welcomeEmailService.sendSystemLoginEmail(
-                    corporateInbox.emailAddress(), // Корпоративная почта
-                    corporateInbox.id(), // MailSlurp inbox ID
-                    tempPassword, // Временный пароль для входа в систему
-                    row.firstName()
-            );
-            log.info("Письмо с данными для входа отправлено на корпоративную почту: {}", corporateInbox.emailAddress());
-        } catch (Exception e) {
-            log.error("Ошибка при отправке письма на корпоративную почту {}: {}", 
-                    corporateInbox.emailAddress(), e.getMessage());
-            // Не прерываем импорт, если не удалось отправить письмо
+    /**
+     * Ошибки импорта по строкам, постранично в порядке строк файла
+     */
+    public ImportErrorsResponse getImportErrors(UUID importLogId, int page, int size, AuthenticatedUser currentUser) {
+        if (page < 0 || size <= 0 || size > 500) {
+            throw new InvalidRequestException("Некорректные параметры страницы: page=" + page + ", size=" + size);
         }
+        requireAccess(importLogId, currentUser);
+        Page<ImportRowResult> results = rowResultRepository.findByImportLogId(
+                importLogId, PageRequest.of(page, size, Sort.by("rowNumber")));
 
-        // Отправляем письмо на личную почту с данными для доступа к корпоративной почте и календарю
-        try {
-            welcomeEmailService.sendCorporateEmailAccessEmail(
-                    row.email(), // Личная почта
-                    corporateInbox.emailAddress(), // Корпоративная почта
-                    emailPassword, // Пароль для доступа к корпоративной почте
-                    calendarAccount.email(), // Email для доступа к календарю
-                    calendarPassword, // Пароль для доступа к календарю
-                    row.firstName()
-            );
-            log.info("Письмо с данными для доступа к корпоративной почте и календарю отправлено на личную почту: {}", row.email());
-        } catch (Exception e) {
-            log.error("Ошибка при отправке письма на личную почту {}: {}", 
-                    row.email(), e.getMessage());
-            // Не прерываем импорт, если не удалось отправить письмо
-        }
+        List<ImportErrorsResponse.RowError> errors = results.getContent().stream()
+                .map(r -> new ImportErrorsResponse.RowError(r.getRowNumber(), r.getEmail(), r.getErrorMessage(), r.getStatus()))
+                .toList();
 
-        log.info("Пользователь импортирован: корпоративная почта (для входа): {}, личная почта: {}", 
-                user.getEmail(), user.getPersonalEmail());
+        return new ImportErrorsResponse(importLogId, page, size, results.getTotalElements(), results.getTotalPages(), errors);
     }
 
-    private String generateTempPassword() {
-        // Генерируем случайный пароль из 12 символов
-        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
-        StringBuilder password = new StringBuilder();
-        java.util.Random random = new java.util.Random();
-        for (int i = 0; i < 12; i++) {
-            password.append(chars.charAt(random.nextInt(chars.length())));
-        }
-        return password.toString();
+    public List<ImportLog> getImportHistory(UUID userId) {
+        return importLogRepository.findImportHistoryByUserId(userId);
     }
 
-    @Transactional
-    public void updateImportLogStatus(UUID importLogId, String status, 
-                                     Integer successful, Integer failed, String errorDetails) {
-        ImportLog importLog = importLogRepository.findById(importLogId)
-                .orElseThrow(() -> new IllegalArgumentException("ImportLog не найден: " + importLogId));
-
-        importLog.setStatus(status);
-        if (successful != null) {
-            importLog.setSuccessfulRecords(successful);
+    /**
+     * Импорт доступен тому, кто его запустил, и администратору. Чужой импорт выглядит как несуществующий,
+     * чтобы по ответу нельзя было перебирать id импортов других пользователей.
+     */
+    private void requireAccess(UUID importLogId, AuthenticatedUser currentUser) {
+        boolean exists = currentUser.hasRole("ADMIN")
+                ? importLogRepository.existsById(importLogId)
+                : importLogRepository.existsByIdAndImportedByUserId(importLogId, currentUser.userId());
+        if (!exists) {
+            throw new NotFoundException("ImportLog не найден: " + importLogId);
         }
-        if (failed != null) {
-            importLog.setFailedRecords(failed);
-        }
-        if (errorDetails != null) {
-            importLog.setErrorDetails(errorDetails);
-        }
-        importLog.setCompletedAt(LocalDateTime.now());
-
-        importLogRepository.save(importLog);
     }
 
-    public ImportLog getImportStatus(UUID importLogId) {
-        return importLogRepository.findById(importLogId)
-                .orElseThrow(() -> new IllegalArgumentException("ImportLog не найден: " + importLogId));
+    private static boolean canAccess(UUID importedByUserId, AuthenticatedUser currentUser) {
+        return currentUser.hasRole("ADMIN") || currentUser.userId().equals(importedByUserId);
     }
 
-    public List<ImportLog> getImportHistory(UUID userId) {
-        return importLogRepository.findImportHistoryByUserId(userId);
+    /**
+     * MultipartFile живет только в рамках запроса, поэтому копируем его во временный файл
+     */
+    private static Path copyToTempFile(MultipartFile file) {
+        try {
+            Path tempFile = Files.createTempFile("user-import-", ".upload");
+            file.transferTo(tempFile);
+            return tempFile;
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось сохранить файл импорта: " + e.getMessage(), e);
+        }
     }
 }
-
@@ -0,0 +1,83 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.dto.request.UserImportRow;
+import com.copilot.auth.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Предварительная проверка строк импорта до обращения к внешним сервисам.
+ * Все существующие личные email загружаются одним запросом в HashSet, дальше каждая строка
+ * проверяется в памяти: синтаксис email, дубликаты внутри файла и уже зарегистрированные пользователи.
+ * Строки, которые все равно упадут, не тратят платный ящик MailSlurp и календарь.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserImportValidator {
+
+    private static final Pattern EMAIL_PATTERN =
+            Pattern.compile("^[A-Za-z0-9._%+-]+@[A-Za-z0-9](?:[A-Za-z0-9-]*[A-Za-z0-9])?(?:\\.[A-Za-z0-9](?:[A-Za-z0-9-]*[A-Za-z0-9])?)*\\.[A-Za-z]{2,}$");
+
+    private static final int MAX_EMAIL_LENGTH = 254;
+
+    private final UserRepository userRepository;
+
+    /**
+     * Начинает проверку одного файла: загружает личные email существующих пользователей
+     */
+    public Validation begin() {
+        List<String> personalEmails = userRepository.findAllPersonalEmails();
+        Set<String> existing = new HashSet<>(personalEmails.size() * 2);
+        for (String email : personalEmails) {
+            existing.add(normalize(email));
+        }
+        log.debug("Загружено {} существующих личных email для проверки импорта", existing.size());
+        return new Validation(existing);
+    }
+
+    static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Состояние проверки одного файла. Не потокобезопасно: вызывается из потока парсера.
+     */
+    public static class Validation {
+
+        private final Set<String> existing;
+        private final Set<String> seen = new HashSet<>();
+
+        public Validation(Set<String> existing) {
+            this.existing = existing;
+        }
+
+        /**
+         * @return описание ошибки или null, если строку можно импортировать
+         */
+        public String check(UserImportRow row) {
+            String email = row.email();
+            if (email == null || email.isBlank()) {
+                return "Email обязателен";
+            }
+            if (email.length() > MAX_EMAIL_LENGTH || !EMAIL_PATTERN.matcher(email.trim()).matches()) {
+                return "Некорректный формат email";
+            }
+            String normalized = normalize(email);
+            if (!seen.add(normalized)) {
+                return "Email повторяется в файле";
+            }
+            if (existing.contains(normalized)) {
+                return "Пользователь с личной почтой " + email + " уже существует";
+            }
+            return null;
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package com.copilot.chat.controller;
 
-import com.copilot.auth.repository.UserRepository;
 import com.copilot.chat.dto.request.CreateChatRequest;
 import com.copilot.chat.dto.response.ChatResponse;
 import com.copilot.chat.service.ChatService;
+import com.copilot.security.AuthenticatedUser;
+import com.copilot.security.CurrentUser;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -17,8 +18,6 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.UUID;
@@ -31,7 +30,6 @@ import java.util.UUID;
 public class ChatController {
 
     private final ChatService chatService;
-    private final UserRepository userRepository;
 
     @Operation(
             summary = "Создать новый чат",
@@ -45,8 +43,8 @@ public class ChatController {
     @PostMapping
     public ResponseEntity<ChatResponse> createChat(
             @Valid @RequestBody CreateChatRequest request,
-            Authentication authentication) {
-        UUID userId = getCurrentUserId(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        UUID userId = currentUser.userId();
         log.info("Создание чата пользователем: {}", userId);
 
         ChatResponse response = chatService.createChat(userId, request);
@@ -65,8 +63,8 @@ public class ChatController {
     public ResponseEntity<Page<ChatResponse>> getChats(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            Authentication authentication) {
-        UUID userId = getCurrentUserId(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        UUID userId = currentUser.userId();
         log.debug("Получение чатов пользователя: {}", userId);
 
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "updatedAt"));
@@ -86,8 +84,8 @@ public class ChatController {
     @GetMapping("/{chatId}")
     public ResponseEntity<ChatResponse> getChat(
             @PathVariable UUID chatId,
-            Authentication authentication) {
-        UUID userId = getCurrentUserId(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        UUID userId = currentUser.userId();
         log.debug("Получение чата {} пользователем {}", chatId, userId);
 
         ChatResponse response = chatService.getChatById(chatId, userId);
@@ -106,8 +104,8 @@ public class ChatController {
     @PostMapping("/{chatId}/archive")
     public ResponseEntity<Void> archiveChat(
             @PathVariable UUID chatId,
-            Authentication authentication) {
-        UUID userId = getCurrentUserId(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        UUID userId = currentUser.userId();
         log.info("Архивирование чата {} пользователем {}", chatId, userId);
 
         chatService.archiveChat(chatId, userId);
@@ -126,31 +124,11 @@ public class ChatController {
     @DeleteMapping("/{chatId}")
     public ResponseEntity<Void> deleteChat(
             @PathVariable UUID chatId,
-            Authentication authentication) {
-        UUID userId = getCurrentUserId(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        UUID userId = currentUser.userId();
         log.info("Удаление чата {} пользователем {}", chatId, userId);
 
         chatService.deleteChat(chatId, userId);
         return ResponseEntity.noContent().build();
     }
-
-    private UUID getCurrentUserId(Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
-            throw new RuntimeException("Пользователь не авторизован");
-        }
-
-        Object principal = authentication.getPrincipal();
-        String email;
-        
-        if (principal instanceof UserDetails userDetails) {
-            email = userDetails.getUsername();
-        } else {
-            // Для @WithMockUser principal - это строка (username)
-            email = principal.toString();
-        }
-        
-        return userRepository.findByEmailAndDeletedAtIsNull(email)
-                .map(user -> user.getId())
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден: " + email));
-    }
 }
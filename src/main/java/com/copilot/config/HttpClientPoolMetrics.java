@@ -0,0 +1,66 @@
+package com.copilot.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Метрики пула исходящих соединений по каждому хосту: http.client.pool.route.leased/available/pending
+ * с тегом host. Маршруты появляются в пуле по мере обращений, поэтому набор gauge перестраивается по расписанию.
+ */
+@Component
+@RequiredArgsConstructor
+public class HttpClientPoolMetrics implements MeterBinder {
+
+    private final PoolingHttpClientConnectionManager outboundConnectionManager;
+
+    private volatile MultiGauge leased;
+    private volatile MultiGauge available;
+    private volatile MultiGauge pending;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        leased = MultiGauge.builder("http.client.pool.route.leased")
+                .description("Соединения к хосту, выданные запросам")
+                .register(registry);
+        available = MultiGauge.builder("http.client.pool.route.available")
+                .description("Свободные соединения к хосту в пуле")
+                .register(registry);
+        pending = MultiGauge.builder("http.client.pool.route.pending")
+                .description("Запросы, ожидающие соединения к хосту")
+                .register(registry);
+        refresh();
+    }
+
+    @Scheduled(fixedDelayString = "${http.client.metrics-refresh-ms:15000}")
+    public void refresh() {
+        if (leased == null) {
+            return;
+        }
+        List<HttpRoute> routes = new ArrayList<>(outboundConnectionManager.getRoutes());
+        leased.register(rows(routes, PoolStats::getLeased), true);
+        available.register(rows(routes, PoolStats::getAvailable), true);
+        pending.register(rows(routes, PoolStats::getPending), true);
+    }
+
+    private List<MultiGauge.Row<?>> rows(List<HttpRoute> routes, ToIntFunction<PoolStats> value) {
+        List<MultiGauge.Row<?>> rows = new ArrayList<>(routes.size());
+        for (HttpRoute route : routes) {
+            Tags tags = Tags.of("host", route.getTargetHost().toHostString());
+            rows.add(MultiGauge.Row.of(tags, outboundConnectionManager,
+                    manager -> value.applyAsInt(manager.getStats(route))));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,10 @@
+package com.copilot.exception;
+
+/**
+ * Запрос противоречит текущему состоянию ресурса (например, повтор еще выполняющегося импорта)
+ */
+public class ConflictException extends RuntimeException {
+    public ConflictException(String message) {
+        super(message);
+    }
+}
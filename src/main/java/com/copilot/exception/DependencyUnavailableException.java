@@ -0,0 +1,30 @@
+package com.copilot.exception;
+
+/**
+ * Вызов внешней зависимости отклонен без обращения к ней: открыт circuit breaker или переполнен bulkhead
+ */
+public class DependencyUnavailableException extends RuntimeException {
+
+    private final String dependency;
+
+    public DependencyUnavailableException(String dependency, String message) {
+        super(message);
+        this.dependency = dependency;
+    }
+
+    public String getDependency() {
+        return dependency;
+    }
+
+    /**
+     * Ищет отказ зависимости в цепочке причин: сервисы часто оборачивают исключения своим сообщением
+     */
+    public static DependencyUnavailableException find(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof DependencyUnavailableException unavailable) {
+                return unavailable;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,10 @@
+package com.copilot.exception;
+
+/**
+ * Некорректные параметры запроса, которые не проверяются bean validation (например, диапазон дат)
+ */
+public class InvalidRequestException extends RuntimeException {
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.copilot.exception;
+
+/**
+ * Запрошенный ресурс не найден или недоступен текущему пользователю
+ */
+public class NotFoundException extends RuntimeException {
+    public NotFoundException(String message) {
+        super(message);
+    }
+}
@@ -24,7 +24,8 @@ public class HealthController {
 
     @Operation(
             summary = "Проверка состояния всех сервисов",
-            description = "Возвращает статус всех зависимых сервисов: БД, Redis, MailSlurp, Radicale, LLM"
+            description = "Возвращает статус всех зависимых сервисов: БД, Redis, MailSlurp, Radicale, LLM. " +
+                    "Проверки выполняются в фоне, ответ берется из последнего снимка (поле checkedAt)"
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Проверка выполнена"),
@@ -41,5 +42,29 @@ public class HealthController {
             return ResponseEntity.status(503).body(health);
         }
     }
+
+    @Operation(
+            summary = "Liveness проба",
+            description = "Процесс жив и обрабатывает запросы. Зависимости не проверяются"
+    )
+    @ApiResponse(responseCode = "200", description = "Приложение работает")
+    @GetMapping("/live")
+    public ResponseEntity<HealthResponse> liveness() {
+        return ResponseEntity.ok(healthService.liveness());
+    }
+
+    @Operation(
+            summary = "Readiness проба",
+            description = "Готовность принимать трафик: состояние обязательных зависимостей (БД, Redis) из последнего снимка"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Приложение готово"),
+            @ApiResponse(responseCode = "503", description = "Обязательная зависимость недоступна")
+    })
+    @GetMapping("/ready")
+    public ResponseEntity<HealthResponse> readiness() {
+        HealthResponse health = healthService.readiness();
+        return health.isHealthy() ? ResponseEntity.ok(health) : ResponseEntity.status(503).body(health);
+    }
 }
 
@@ -1,5 +1,6 @@
 package com.copilot.health.dto;
 
+import java.time.Instant;
 import java.util.Map;
 
 /**
@@ -7,10 +8,10 @@ import java.util.Map;
  */
 public record HealthResponse(
         String status,
-        Map<String, ServiceHealth> services
+        Map<String, ServiceHealth> services,
+        Instant checkedAt
 ) {
     public boolean isHealthy() {
         return "UP".equals(status);
     }
 }
-
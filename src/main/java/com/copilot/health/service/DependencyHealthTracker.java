@@ -0,0 +1,191 @@
+package com.copilot.health.service;
+
+import com.copilot.health.dto.ServiceHealth;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Пассивное состояние зависимостей по реальному трафику.
+ * Клиенты LLM, Radicale, MailSlurp и SMTP отмечают здесь каждый вызов; для каждой зависимости
+ * хранится скользящее окно из корзин по времени с числом успешных и упавших вызовов и суммарной задержкой.
+ * Пока в окне есть трафик, HealthService берет состояние отсюда и не делает синтетических запросов;
+ * пробы нужны только простаивающим зависимостям.
+ */
+@Slf4j
+@Component
+public class DependencyHealthTracker {
+
+    public static final String LLM = "llm";
+    public static final String RADICALE = "radicale";
+    public static final String MAILSLURP = "mailslurp";
+    public static final String SMTP = "smtp";
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    @Value("${health.passive.window-ms:60000}")
+    private long windowMs = 60_000;
+
+    @Value("${health.passive.buckets:6}")
+    private int buckets = 6;
+
+    @Value("${health.passive.min-calls:3}")
+    private int minCalls = 3;
+
+    @Value("${health.passive.min-success-rate:0.5}")
+    private double minSuccessRate = 0.5;
+
+    /**
+     * Вызов клиента зависимости, который может бросить проверяемое исключение
+     */
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * Выполняет вызов и записывает его результат и задержку в окно зависимости.
+     * Исключение пробрасывается вызывающему без изменений.
+     */
+    public <T, E extends Exception> T track(String dependency, Call<T, E> call) throws E {
+        return track(dependency, call, error -> true);
+    }
+
+    /**
+     * То же, но ошибки, для которых isFailure ложно, считаются ответом исправной зависимости
+     */
+    public <T, E extends Exception> T track(String dependency, Call<T, E> call, Predicate<Exception> isFailure) throws E {
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            recordSuccess(dependency, elapsedMs(start));
+            return result;
+        } catch (Exception e) {
+            if (isFailure.test(e)) {
+                recordFailure(dependency, elapsedMs(start), e);
+            } else {
+                recordSuccess(dependency, elapsedMs(start));
+            }
+            throw e;
+        }
+    }
+
+    public void recordSuccess(String dependency, long latencyMs) {
+        record(dependency, System.currentTimeMillis(), true, latencyMs, null);
+    }
+
+    public void recordFailure(String dependency, long latencyMs, Throwable error) {
+        String message = error != null ? error.getClass().getSimpleName() + ": " + error.getMessage() : null;
+        record(dependency, System.currentTimeMillis(), false, latencyMs, message);
+        log.debug("Ошибка вызова {}: {}", dependency, message);
+    }
+
+    /**
+     * Состояние зависимости по окну. Пусто, если за окно было меньше health.passive.min-calls вызовов:
+     * по такому трафику судить нельзя, нужна синтетическая проверка.
+     */
+    public Optional<ServiceHealth> snapshot(String dependency) {
+        return snapshot(dependency, System.currentTimeMillis());
+    }
+
+    Optional<ServiceHealth> snapshot(String dependency, long nowMs) {
+        Window window = windows.get(dependency);
+        if (window == null) {
+            return Optional.empty();
+        }
+        Stats stats = window.stats(nowMs);
+        long total = stats.successes() + stats.failures();
+        if (total < minCalls) {
+            return Optional.empty();
+        }
+
+        double successRate = (double) stats.successes() / total;
+        long averageLatency = stats.latencySumMs() / total;
+        String summary = String.format("%d вызовов за %d с, успешных %.0f%%",
+                total, windowMs / 1000, successRate * 100);
+        if (successRate >= minSuccessRate) {
+            return Optional.of(ServiceHealth.up(summary, averageLatency));
+        }
+        String lastError = stats.lastError() != null ? ". Последняя ошибка: " + stats.lastError() : "";
+        return Optional.of(new ServiceHealth("DOWN", summary + lastError, averageLatency));
+    }
+
+    void record(String dependency, long nowMs, boolean success, long latencyMs, String error) {
+        window(dependency).record(nowMs, success, latencyMs, error);
+    }
+
+    private Window window(String dependency) {
+        return windows.computeIfAbsent(dependency, name -> new Window(buckets, Math.max(1, windowMs / buckets)));
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private record Stats(long successes, long failures, long latencySumMs, String lastError) {
+    }
+
+    /**
+     * Кольцо корзин фиксированной длительности. Корзина переиспользуется, когда ее интервал выходит из окна.
+     */
+    private static final class Window {
+
+        private final long bucketMs;
+        private final long[] bucketStart;
+        private final long[] successes;
+        private final long[] failures;
+        private final long[] latencySum;
+        private String lastError;
+        private long lastErrorAt;
+
+        Window(int buckets, long bucketMs) {
+            this.bucketMs = bucketMs;
+            this.bucketStart = new long[buckets];
+            this.successes = new long[buckets];
+            this.failures = new long[buckets];
+            this.latencySum = new long[buckets];
+            Arrays.fill(bucketStart, Long.MIN_VALUE);
+        }
+
+        synchronized void record(long nowMs, boolean success, long latencyMs, String error) {
+            long start = nowMs - Math.floorMod(nowMs, bucketMs);
+            int index = (int) Math.floorMod(start / bucketMs, (long) bucketStart.length);
+            if (bucketStart[index] != start) {
+                bucketStart[index] = start;
+                successes[index] = 0;
+                failures[index] = 0;
+                latencySum[index] = 0;
+            }
+            if (success) {
+                successes[index]++;
+            } else {
+                failures[index]++;
+                lastError = error;
+                lastErrorAt = nowMs;
+            }
+            latencySum[index] += Math.max(0, latencyMs);
+        }
+
+        synchronized Stats stats(long nowMs) {
+            long oldest = nowMs - bucketMs * bucketStart.length;
+            long ok = 0;
+            long failed = 0;
+            long latency = 0;
+            for (int i = 0; i < bucketStart.length; i++) {
+                if (bucketStart[i] > oldest) {
+                    ok += successes[i];
+                    failed += failures[i];
+                    latency += latencySum[i];
+                }
+            }
+            String error = lastErrorAt > oldest ? lastError : null;
+            return new Stats(ok, failed, latency, error);
+        }
+    }
+}
@@ -2,55 +2,195 @@ package com.copilot.health.service;
 
 import com.copilot.health.dto.HealthResponse;
 import com.copilot.health.dto.ServiceHealth;
-import lombok.RequiredArgsConstructor;
+import com.copilot.resilience.CircuitBreaker;
+import com.copilot.resilience.DependencyGuard;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
- * Сервис для проверки состояния всех зависимых сервисов
+ * Сервис для проверки состояния всех зависимых сервисов.
+ * Проверки выполняются параллельно на виртуальных потоках с общим дедлайном и по расписанию в фоне;
+ * /health отдает последний снимок, поэтому частые пробы балансировщика не создают нагрузку на зависимости.
+ * Для LLM, Radicale, MailSlurp и SMTP сначала берется пассивное состояние по реальным вызовам
+ * (DependencyHealthTracker): оно поверх снимка отдается сразу, а синтетическая проба делается
+ * только для зависимостей без трафика в окне. Зависимость с открытым circuit breaker сразу считается DOWN.
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class HealthService {
 
-    private final DatabaseHealthChecker databaseHealthChecker;
-    private final RedisHealthChecker redisHealthChecker;
-    private final MailSlurpHealthChecker mailSlurpHealthChecker;
-    private final RadicaleHealthChecker radicaleHealthChecker;
-    private final LLMHealthChecker llmHealthChecker;
+    private static final List<String> PASSIVE = List.of(
+            DependencyHealthTracker.MAILSLURP, DependencyHealthTracker.RADICALE,
+            DependencyHealthTracker.LLM, DependencyHealthTracker.SMTP);
+
+    private final Map<String, Supplier<ServiceHealth>> checks = new LinkedHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final DependencyHealthTracker tracker;
+    private final DependencyGuard dependencyGuard;
+
+    @Value("${health.check.deadline-ms:3000}")
+    private long deadlineMs;
+
+    @Value("${health.readiness.required:database,redis}")
+    private Set<String> readinessRequired;
+
+    private volatile HealthResponse snapshot;
+
+    public HealthService(DatabaseHealthChecker databaseHealthChecker,
+                         RedisHealthChecker redisHealthChecker,
+                         MailSlurpHealthChecker mailSlurpHealthChecker,
+                         RadicaleHealthChecker radicaleHealthChecker,
+                         LLMHealthChecker llmHealthChecker,
+                         DependencyHealthTracker tracker,
+                         DependencyGuard dependencyGuard) {
+        this.tracker = tracker;
+        this.dependencyGuard = dependencyGuard;
+        checks.put("database", databaseHealthChecker::check);
+        checks.put("redis", redisHealthChecker::check);
+        checks.put(DependencyHealthTracker.MAILSLURP, mailSlurpHealthChecker::check);
+        checks.put(DependencyHealthTracker.RADICALE, radicaleHealthChecker::check);
+        checks.put(DependencyHealthTracker.LLM, llmHealthChecker::check);
+    }
 
     /**
-     * Проверяет состояние всех сервисов
+     * Возвращает последний снимок состояния всех сервисов. До первой фоновой проверки проверяет сразу.
+     * Пассивное состояние по реальному трафику накладывается на снимок, поэтому сбой виден без ожидания
+     * следующей фоновой проверки.
      */
     public HealthResponse checkAll() {
-        Map<String, ServiceHealth> services = new HashMap<>();
+        HealthResponse current = snapshot;
+        if (current == null) {
+            return firstSnapshot();
+        }
+        Map<String, ServiceHealth> services = new LinkedHashMap<>(current.services());
+        boolean changed = false;
+        for (String name : PASSIVE) {
+            Optional<ServiceHealth> passive = passiveHealth(name);
+            if (passive.isPresent()) {
+                services.put(name, passive.get());
+                changed = true;
+            }
+        }
+        return changed ? new HealthResponse(overallStatus(services), services, current.checkedAt()) : current;
+    }
+
+    /**
+     * Liveness: процесс жив и отвечает, зависимости не проверяются
+     */
+    public HealthResponse liveness() {
+        return new HealthResponse("UP", Map.of(), Instant.now());
+    }
+
+    /**
+     * Readiness: готовность принимать трафик по обязательным зависимостям (по умолчанию БД и Redis).
+     * Недоступность MailSlurp, Radicale или LLM не выводит инстанс из балансировки.
+     */
+    public HealthResponse readiness() {
+        HealthResponse current = checkAll();
+        Map<String, ServiceHealth> required = new LinkedHashMap<>();
+        current.services().forEach((name, health) -> {
+            if (readinessRequired.contains(name)) {
+                required.put(name, health);
+            }
+        });
+        return new HealthResponse(overallStatus(required), required, current.checkedAt());
+    }
+
+    @Scheduled(initialDelayString = "${health.refresh-interval-ms:30000}",
+            fixedDelayString = "${health.refresh-interval-ms:30000}")
+    public void scheduledRefresh() {
+        refresh();
+    }
+
+    /**
+     * Первый снимок до фоновой проверки. Запросы, дождавшиеся блокировки, берут снимок,
+     * уже снятый другим запросом, а не запускают каждый свой набор проверок
+     */
+    private synchronized HealthResponse firstSnapshot() {
+        HealthResponse current = snapshot;
+        return current != null ? current : refresh();
+    }
+
+    /**
+     * Запускает проверки параллельно. Проверка, не уложившаяся в дедлайн, считается DOWN.
+     * Зависимость с достаточным трафиком в окне не пробуется: ее состояние берется из окна.
+     * SMTP синтетически не проверяется и попадает в ответ, только когда письма отправлялись.
+     */
+    public synchronized HealthResponse refresh() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
 
-        // Проверка БД
-        services.put("database", databaseHealthChecker.check());
+        Map<String, CompletableFuture<ServiceHealth>> running = new LinkedHashMap<>();
+        checks.forEach((name, check) -> running.put(name, passiveHealth(name)
+                .map(CompletableFuture::completedFuture)
+                .orElseGet(() -> CompletableFuture.supplyAsync(check, executor))));
+        passiveHealth(DependencyHealthTracker.SMTP)
+                .ifPresent(smtp -> running.put(DependencyHealthTracker.SMTP, CompletableFuture.completedFuture(smtp)));
 
-        // Проверка Redis
-        services.put("redis", redisHealthChecker.check());
+        Map<String, ServiceHealth> services = new LinkedHashMap<>();
+        running.forEach((name, future) -> services.put(name, await(name, future, deadline)));
 
-        // Проверка MailSlurp
-        services.put("mailslurp", mailSlurpHealthChecker.check());
+        HealthResponse response = new HealthResponse(overallStatus(services), services, Instant.now());
+        if (!response.isHealthy()) {
+            List<String> down = services.entrySet().stream()
+                    .filter(entry -> !"UP".equals(entry.getValue().status()))
+                    .map(Map.Entry::getKey)
+                    .toList();
+            log.warn("Недоступные сервисы: {}", down);
+        }
+        snapshot = response;
+        return response;
+    }
 
-        // Проверка Radicale
-        services.put("radicale", radicaleHealthChecker.check());
+    /**
+     * Состояние без синтетической проверки: открытый breaker, иначе окно реальных вызовов
+     */
+    private Optional<ServiceHealth> passiveHealth(String name) {
+        if (dependencyGuard.state(name) == CircuitBreaker.State.OPEN) {
+            return Optional.of(ServiceHealth.down("Circuit breaker открыт: вызовы " + name + " отклоняются без обращения к сервису"));
+        }
+        return tracker.snapshot(name);
+    }
 
-        // Проверка LLM
-        services.put("llm", llmHealthChecker.check());
+    private ServiceHealth await(String name, CompletableFuture<ServiceHealth> future, long deadline) {
+        try {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            return future.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return ServiceHealth.down("Проверка " + name + " не уложилась в " + deadlineMs + " мс");
+        } catch (ExecutionException e) {
+            return ServiceHealth.down("Ошибка проверки " + name + ": " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ServiceHealth.down("Проверка " + name + " прервана");
+        }
+    }
 
-        // Определяем общий статус
+    private static String overallStatus(Map<String, ServiceHealth> services) {
         boolean allHealthy = services.values().stream()
                 .allMatch(health -> "UP".equals(health.status()));
+        return allHealthy ? "UP" : "DOWN";
+    }
 
-        String overallStatus = allHealthy ? "UP" : "DOWN";
-
-        return new HealthResponse(overallStatus, services);
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
     }
 }
-
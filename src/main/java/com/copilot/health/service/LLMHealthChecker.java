@@ -8,12 +8,14 @@ import dev.langchain4j.model.chat.request.ChatRequest;
 import dev.langchain4j.model.chat.response.ChatResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 
 /**
- * Проверка состояния LLM (OpenRouter/Gemini)
+ * Проверка состояния LLM (OpenRouter/Gemini).
+ * Пинг - платный запрос к модели, поэтому результат переиспользуется в течение health.llm.check-interval-ms.
  */
 @Slf4j
 @Component
@@ -22,7 +24,24 @@ public class LLMHealthChecker {
 
     private final ChatModel chatModel;
 
+    @Value("${health.llm.check-interval-ms:900000}")
+    private long checkIntervalMs;
+
+    private volatile ServiceHealth lastResult;
+    private volatile long lastCheckedAt;
+
     public ServiceHealth check() {
+        ServiceHealth cached = lastResult;
+        if (cached != null && System.currentTimeMillis() - lastCheckedAt < checkIntervalMs) {
+            return cached;
+        }
+        ServiceHealth result = ping();
+        lastResult = result;
+        lastCheckedAt = System.currentTimeMillis();
+        return result;
+    }
+
+    private ServiceHealth ping() {
         long startTime = System.currentTimeMillis();
         try {
             // Простой запрос для проверки доступности LLM
@@ -6,6 +6,11 @@ import com.copilot.agent.model.AgentAction;
 import com.copilot.agent.repository.AgentActionRepository;
 import com.copilot.auth.model.User;
 import com.copilot.auth.repository.UserRepository;
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import com.copilot.tools.calendar.CalendarService;
+import com.copilot.tools.calendar.dto.EventResponse;
 import com.copilot.tools.email.EmailService;
 import com.copilot.tools.meeting.MeetingService;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -38,9 +43,11 @@ public class AgentService {
 
     private final ChatModel chatModel;
     private final MeetingService meetingService;
+    private final CalendarService calendarService;
     private final EmailService emailService;
     private final AgentActionRepository agentActionRepository;
     private final UserRepository userRepository;
+    private final DependencyGuard dependencyGuard;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private static final int MAX_ITERATIONS = 5;
@@ -132,7 +139,7 @@ public class AgentService {
                         .messages(messages)
                         .build();
 
-                ChatResponse response = chatModel.chat(request);
+                ChatResponse response = dependencyGuard.call(DependencyHealthTracker.LLM, () -> chatModel.chat(request));
                 AiMessage aiMessage = response.aiMessage();
 
                 // КРИТИЧНО: Обрабатываем случай, когда LLM возвращает пустой content
@@ -552,6 +559,9 @@ public class AgentService {
         prompt.append("3. compose_letter - Составить текст письма (без отправки)\n");
         prompt.append("   Параметры: recipient (email), subject (string), content (string)\n\n");
         
+        prompt.append("4. list_events - Показать события календаря пользователя за период\n");
+        prompt.append("   Параметры: from (ISO 8601), to (ISO 8601)\n\n");
+        
         // Добавляем список существующих пользователей для справки
         List<String> existingUserEmails = userRepository.findAll().stream()
                 .map(User::getEmail)
@@ -578,7 +588,8 @@ public class AgentService {
         prompt.append("8. Для отправки уведомлений ВСЕГДА используй tool send_notification. Отправляй только существующим пользователям.\n");
         prompt.append("9. Если нужно только написать письмо без отправки, используй tool compose_letter.\n");
         prompt.append("10. НЕ утверждай, что действие выполнено, пока не вызовешь соответствующий tool и не получишь результат его выполнения.\n");
-        prompt.append("11. После выполнения tool и получения результата, сообщи пользователю о результате.\n\n");
+        prompt.append("11. После выполнения tool и получения результата, сообщи пользователю о результате.\n");
+        prompt.append("12. Если пользователь спрашивает, что у него в календаре, используй tool list_events.\n\n");
         
         prompt.append("Формат даты и времени: ISO 8601 (например: 2025-11-14T15:00:00)\n\n");
         
@@ -969,9 +980,17 @@ public class AgentService {
                 case "schedule_meeting" -> executeScheduleMeeting(args, userEmail);
                 case "send_notification" -> executeSendNotification(args);
                 case "compose_letter" -> executeComposeLetter(args);
+                case "list_events" -> executeListEvents(args, userEmail);
                 default -> throw new IllegalArgumentException("Неизвестный tool: " + name);
             };
         } catch (Exception e) {
+            DependencyUnavailableException unavailable = DependencyUnavailableException.find(e);
+            if (unavailable != null) {
+                // Зависимость отклонила вызов без ожидания таймаута: результат tool подсказывает агенту не повторять вызов
+                log.warn("Tool {} не выполнен, зависимость недоступна: {}", name, unavailable.getMessage());
+                throw new DependencyUnavailableException(unavailable.getDependency(), unavailable.getMessage()
+                        + ". Не повторяй вызов, сообщи пользователю, что сервис временно недоступен");
+            }
             log.error("Ошибка при выполнении tool {}: {}", name, e.getMessage(), e);
             throw new RuntimeException("Ошибка выполнения tool " + name + ": " + e.getMessage(), e);
         }
@@ -1126,6 +1145,32 @@ public class AgentService {
         return String.format("Письмо составлено для %s:\nТема: %s\n\n%s", recipient, subject, content);
     }
 
+    /**
+     * Выполняет tool list_events (события читаются из локального кэша календаря)
+     */
+    private String executeListEvents(Map<String, Object> args, String userEmail) {
+        LocalDateTime from = LocalDateTime.parse(getStr(args, "from"), DateTimeFormatter.ISO_DATE_TIME);
+        LocalDateTime to = LocalDateTime.parse(getStr(args, "to"), DateTimeFormatter.ISO_DATE_TIME);
+
+        List<EventResponse> events = calendarService.getEventsInRange(userEmail, from, to);
+        if (events.isEmpty()) {
+            return "В календаре нет событий за указанный период";
+        }
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
+        StringBuilder result = new StringBuilder("События в календаре:\n");
+        for (EventResponse event : events) {
+            result.append("- ").append(event.startTime().format(formatter))
+                    .append(" - ").append(event.endTime().format(formatter))
+                    .append(": ").append(event.title());
+            if (event.location() != null && !event.location().isEmpty()) {
+                result.append(" (").append(event.location()).append(")");
+            }
+            result.append("\n");
+        }
+        return result.toString();
+    }
+
     /**
      * Парсит JSON аргументы в Map
      */
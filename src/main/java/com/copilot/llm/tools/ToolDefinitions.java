@@ -51,6 +51,19 @@ public class ToolDefinitions {
                                 ),
                                 "required", List.of("recipient", "subject", "content")
                         )
+                ),
+                // События календаря
+                Map.of(
+                        "name", "list_events",
+                        "description", "Показать события календаря пользователя за период",
+                        "parameters", Map.of(
+                                "type", "object",
+                                "properties", Map.of(
+                                        "from", Map.of("type", "string", "format", "date-time", "description", "Начало периода (ISO 8601)"),
+                                        "to", Map.of("type", "string", "format", "date-time", "description", "Конец периода (ISO 8601)")
+                                ),
+                                "required", List.of("from", "to")
+                        )
                 )
         );
     }
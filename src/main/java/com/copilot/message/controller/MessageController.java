@@ -1,9 +1,10 @@
 package com.copilot.message.controller;
 
-import com.copilot.auth.repository.UserRepository;
 import com.copilot.message.dto.request.SendMessageRequest;
 import com.copilot.message.dto.response.MessageResponse;
 import com.copilot.message.service.MessageService;
+import com.copilot.security.AuthenticatedUser;
+import com.copilot.security.CurrentUser;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -17,8 +18,6 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.UUID;
@@ -31,7 +30,6 @@ import java.util.UUID;
 public class MessageController {
 
     private final MessageService messageService;
-    private final UserRepository userRepository;
 
     @Operation(
             summary = "Отправить сообщение в чат",
@@ -47,9 +45,9 @@ public class MessageController {
     public ResponseEntity<MessageResponse> sendMessage(
             @PathVariable UUID chatId,
             @Valid @RequestBody SendMessageRequest request,
-            Authentication authentication) {
-        UUID userId = getCurrentUserId(authentication);
-        String userEmail = getCurrentUserEmail(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        UUID userId = currentUser.userId();
+        String userEmail = currentUser.email();
         log.info("Отправка сообщения в чат {} пользователем {}", chatId, userId);
 
         MessageResponse response = messageService.sendMessage(chatId, userId, userEmail, request);
@@ -70,46 +68,12 @@ public class MessageController {
             @PathVariable UUID chatId,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "50") int size,
-            Authentication authentication) {
-        UUID userId = getCurrentUserId(authentication);
+            @CurrentUser AuthenticatedUser currentUser) {
+        UUID userId = currentUser.userId();
         log.debug("Получение сообщений чата {} пользователем {}", chatId, userId);
 
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
         Page<MessageResponse> messages = messageService.getChatMessages(chatId, userId, pageable);
         return ResponseEntity.ok(messages);
     }
-
-    private UUID getCurrentUserId(Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
-            throw new RuntimeException("Пользователь не авторизован");
-        }
-
-        Object principal = authentication.getPrincipal();
-        String email;
-        
-        if (principal instanceof UserDetails userDetails) {
-            email = userDetails.getUsername();
-        } else {
-            // Для @WithMockUser principal - это строка (username)
-            email = principal.toString();
-        }
-        
-        return userRepository.findByEmailAndDeletedAtIsNull(email)
-                .map(user -> user.getId())
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден: " + email));
-    }
-
-    private String getCurrentUserEmail(Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
-            throw new RuntimeException("Пользователь не авторизован");
-        }
-
-        Object principal = authentication.getPrincipal();
-        if (principal instanceof UserDetails userDetails) {
-            return userDetails.getUsername();
-        }
-        
-        return principal.toString();
-    }
 }
-
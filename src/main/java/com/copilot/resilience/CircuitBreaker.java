@@ -0,0 +1,166 @@
+package com.copilot.resilience;
+
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker одной зависимости по последним N вызовам.
+ * CLOSED: вызовы проходят, результаты пишутся в кольцо; при доле ошибок выше порога breaker открывается.
+ * OPEN: вызовы отклоняются сразу, без ожидания таймаута; через open-duration breaker переходит в HALF_OPEN.
+ * HALF_OPEN: пропускается несколько пробных вызовов; все успешны - CLOSED, любая ошибка - снова OPEN.
+ * Разрешение помнит поколение состояния, в котором выдано: результат вызова, начатого до смены состояния
+ * (например, долгий запрос к LLM, допущенный еще в CLOSED), на новое состояние не влияет.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationMs;
+    private final int halfOpenCalls;
+    private final LongSupplier clock;
+
+    private final boolean[] outcomes;
+    private int position;
+    private int recorded;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSucceeded;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                          long openDurationMs, int halfOpenCalls, LongSupplier clock) {
+        if (windowSize <= 0 || minimumCalls <= 0 || halfOpenCalls <= 0) {
+            throw new IllegalArgumentException("Размер окна, минимум вызовов и число пробных вызовов должны быть положительными");
+        }
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMs = openDurationMs;
+        this.halfOpenCalls = halfOpenCalls;
+        this.clock = clock;
+    }
+
+    /**
+     * Разрешение на вызов, выданное в поколении generation
+     * @param trial выдано в HALF_OPEN как пробный вызов
+     */
+    public record Permit(long generation, boolean trial) {
+    }
+
+    /**
+     * Разрешает вызов. С разрешением вызывающий обязан сообщить результат через onSuccess, onFailure или release.
+     * @return пустой Optional, если вызов отклонен
+     */
+    public synchronized Optional<Permit> tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < openDurationMs) {
+                return Optional.empty();
+            }
+            state = State.HALF_OPEN;
+            generation++;
+            halfOpenInFlight = 0;
+            halfOpenSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight + halfOpenSucceeded >= halfOpenCalls) {
+                return Optional.empty();
+            }
+            halfOpenInFlight++;
+            return Optional.of(new Permit(generation, true));
+        }
+        return Optional.of(new Permit(generation, false));
+    }
+
+    public synchronized void onSuccess(Permit permit) {
+        if (permit.generation() != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+            if (++halfOpenSucceeded >= halfOpenCalls) {
+                close();
+            }
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(Permit permit) {
+        if (permit.generation() != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && failures * 100.0 / recorded >= failureRateThreshold) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Возвращает разрешение, если вызов так и не состоялся (например, не хватило места в bulkhead)
+     */
+    public synchronized void release(Permit permit) {
+        if (permit.generation() == generation && permit.trial() && halfOpenInFlight > 0) {
+            halfOpenInFlight--;
+        }
+    }
+
+    public synchronized State state() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openDurationMs) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Момент, после которого открытый breaker пропустит пробный вызов
+     */
+    public synchronized long retryAt() {
+        return openedAt + openDurationMs;
+    }
+
+    private void record(boolean failed) {
+        if (recorded == outcomes.length) {
+            if (outcomes[position]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[position] = failed;
+        if (failed) {
+            failures++;
+        }
+        position = (position + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openedAt = clock.getAsLong();
+        halfOpenInFlight = 0;
+        halfOpenSucceeded = 0;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        position = 0;
+        recorded = 0;
+        failures = 0;
+    }
+}
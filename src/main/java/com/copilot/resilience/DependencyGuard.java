@@ -0,0 +1,151 @@
+package com.copilot.resilience;
+
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Защита вызовов внешних зависимостей: circuit breaker и bulkhead на каждую зависимость.
+ * Когда Radicale или SMTP лежит, breaker открывается и следующие вызовы отклоняются сразу
+ * вместо ожидания таймаута на каждого участника. Bulkhead ограничивает число одновременных вызовов
+ * одной зависимости, чтобы зависший сервис не занял все потоки обработки запросов.
+ * Результаты вызовов также попадают в пассивное состояние DependencyHealthTracker.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DependencyGuard {
+
+    private final DependencyHealthTracker tracker;
+
+    private final Map<String, Guarded> guards = new ConcurrentHashMap<>();
+
+    @Value("${resilience.circuit-breaker.window-size:20}")
+    private int windowSize = 20;
+
+    @Value("${resilience.circuit-breaker.minimum-calls:5}")
+    private int minimumCalls = 5;
+
+    @Value("${resilience.circuit-breaker.failure-rate-threshold:50}")
+    private double failureRateThreshold = 50;
+
+    @Value("${resilience.circuit-breaker.open-duration-ms:30000}")
+    private long openDurationMs = 30_000;
+
+    @Value("${resilience.circuit-breaker.half-open-calls:2}")
+    private int halfOpenCalls = 2;
+
+    @Value("${resilience.bulkhead.max-wait-ms:200}")
+    private long bulkheadMaxWaitMs = 200;
+
+    @Value("${resilience.bulkhead.llm:8}")
+    private int llmConcurrency = 8;
+
+    @Value("${resilience.bulkhead.radicale:16}")
+    private int radicaleConcurrency = 16;
+
+    @Value("${resilience.bulkhead.mailslurp:8}")
+    private int mailslurpConcurrency = 8;
+
+    @Value("${resilience.bulkhead.smtp:4}")
+    private int smtpConcurrency = 4;
+
+    /**
+     * Выполняет вызов зависимости под ее breaker и bulkhead. Любая ошибка вызова считается сбоем зависимости.
+     * @throws DependencyUnavailableException если breaker открыт или в bulkhead нет места; сам вызов при этом не делается
+     */
+    public <T, E extends Exception> T call(String dependency, DependencyHealthTracker.Call<T, E> call) throws E {
+        return call(dependency, call, error -> true);
+    }
+
+    /**
+     * Выполняет вызов зависимости под ее breaker и bulkhead.
+     * @param isFailure отличает сбой зависимости от отказа по конкретному запросу (например, неверный адрес
+     *                  получателя): такие ошибки пробрасываются вызывающему, но breaker их не считает
+     * @throws DependencyUnavailableException если breaker открыт или в bulkhead нет места; сам вызов при этом не делается
+     */
+    public <T, E extends Exception> T call(String dependency, DependencyHealthTracker.Call<T, E> call,
+                                           Predicate<Exception> isFailure) throws E {
+        Guarded guarded = guard(dependency);
+        CircuitBreaker breaker = guarded.breaker();
+        CircuitBreaker.Permit permit = breaker.tryAcquire().orElse(null);
+        if (permit == null) {
+            throw new DependencyUnavailableException(dependency, "Сервис " + dependency
+                    + " временно недоступен, повторная попытка после " + Instant.ofEpochMilli(breaker.retryAt()));
+        }
+        if (!acquire(guarded.bulkhead())) {
+            breaker.release(permit);
+            log.warn("Bulkhead {} переполнен, вызов отклонен", dependency);
+            throw new DependencyUnavailableException(dependency,
+                    "Сервис " + dependency + " перегружен: слишком много одновременных запросов");
+        }
+        try {
+            T result = tracker.track(dependency, call, isFailure);
+            breaker.onSuccess(permit);
+            return result;
+        } catch (Exception e) {
+            if (!isFailure.test(e)) {
+                breaker.onSuccess(permit);
+                throw e;
+            }
+            breaker.onFailure(permit);
+            if (breaker.state() == CircuitBreaker.State.OPEN) {
+                log.warn("Circuit breaker {} открыт после ошибки: {}", dependency, e.getMessage());
+            }
+            throw e;
+        } finally {
+            guarded.bulkhead().release();
+        }
+    }
+
+    public CircuitBreaker.State state(String dependency) {
+        Guarded guarded = guards.get(dependency);
+        return guarded != null ? guarded.breaker().state() : CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * Сколько одновременных вызовов зависимости пропускает bulkhead
+     */
+    public int bulkheadSize(String dependency) {
+        return concurrency(dependency);
+    }
+
+    private boolean acquire(Semaphore bulkhead) {
+        try {
+            return bulkhead.tryAcquire(bulkheadMaxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Guarded guard(String dependency) {
+        return guards.computeIfAbsent(dependency, name -> new Guarded(
+                new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold, openDurationMs, halfOpenCalls,
+                        System::currentTimeMillis),
+                new Semaphore(concurrency(name))));
+    }
+
+    private int concurrency(String dependency) {
+        return switch (dependency) {
+            case DependencyHealthTracker.LLM -> llmConcurrency;
+            case DependencyHealthTracker.RADICALE -> radicaleConcurrency;
+            case DependencyHealthTracker.MAILSLURP -> mailslurpConcurrency;
+            case DependencyHealthTracker.SMTP -> smtpConcurrency;
+            default -> throw new IllegalArgumentException("Неизвестная зависимость: " + dependency);
+        };
+    }
+
+    private record Guarded(CircuitBreaker breaker, Semaphore bulkhead) {
+    }
+}
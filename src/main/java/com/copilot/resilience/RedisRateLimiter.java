@@ -0,0 +1,68 @@
+package com.copilot.resilience;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограничение частоты запросов к провайдеру, общее для всех узлов кластера.
+ * Счетчик на текущую секунду живет в Redis: узлы делят одну квоту API-ключа, а не умножают ее
+ * на число инстансов. Вызов, не уложившийся в квоту секунды, ждет начала следующей.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RedisRateLimiter {
+
+    private static final String KEY_PREFIX = "ratelimit:";
+
+    private static final RedisScript<Long> INCREMENT_SCRIPT = new DefaultRedisScript<>("""
+            local count = redis.call('INCR', KEYS[1])
+            if count == 1 then
+                redis.call('PEXPIRE', KEYS[1], ARGV[1])
+            end
+            return count
+            """, Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * Ждет свободного слота в квоте провайдера. Если Redis недоступен, вызов пропускается без ограничения:
+     * лимит защищает от 429, а не от потери работы.
+     */
+    public void acquire(String provider, int permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            return;
+        }
+        while (true) {
+            long now = System.currentTimeMillis();
+            long second = now / 1000;
+            Long count;
+            try {
+                count = redisTemplate.execute(INCREMENT_SCRIPT, List.of(KEY_PREFIX + provider + ":" + second), "2000");
+            } catch (Exception e) {
+                log.warn("Не удалось проверить лимит запросов {}: {}", provider, e.getMessage());
+                return;
+            }
+            if (count == null || count <= permitsPerSecond) {
+                return;
+            }
+            sleep((second + 1) * 1000 - now);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(Math.max(1, millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание лимита запросов прервано", e);
+        }
+    }
+}
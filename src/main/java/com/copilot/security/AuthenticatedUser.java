@@ -0,0 +1,21 @@
+package com.copilot.security;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Текущий пользователь запроса, собранный JwtAuthFilter из claims токена.
+ * Контроллеры получают его через {@link CurrentUser} без запроса в БД.
+ */
+public record AuthenticatedUser(UUID userId, String email, List<String> roles) implements Principal {
+
+    @Override
+    public String getName() {
+        return email;
+    }
+
+    public boolean hasRole(String role) {
+        return roles != null && roles.contains(role);
+    }
+}
@@ -0,0 +1,57 @@
+package com.copilot.security;
+
+import com.copilot.auth.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.MethodParameter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import java.util.List;
+
+/**
+ * Резолвер параметров {@link CurrentUser}.
+ * Для запросов с JWT principal уже содержит userId и возвращается как есть.
+ * Если principal другой (токен без userId, @WithMockUser в тестах), пользователь ищется по email.
+ */
+@Component
+@RequiredArgsConstructor
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+    private final UserRepository userRepository;
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentUser.class)
+                && AuthenticatedUser.class.isAssignableFrom(parameter.getParameterType());
+    }
+
+    @Override
+    public AuthenticatedUser resolveArgument(MethodParameter parameter,
+                                             ModelAndViewContainer mavContainer,
+                                             NativeWebRequest webRequest,
+                                             WebDataBinderFactory binderFactory) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication.getPrincipal() == null) {
+            throw new RuntimeException("Пользователь не авторизован");
+        }
+
+        if (authentication.getPrincipal() instanceof AuthenticatedUser user && user.userId() != null) {
+            return user;
+        }
+
+        String email = authentication.getName();
+        List<String> roles = authentication.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .map(authority -> authority.startsWith("ROLE_") ? authority.substring(5) : authority)
+                .toList();
+        return userRepository.findByEmailAndDeletedAtIsNull(email)
+                .map(user -> new AuthenticatedUser(user.getId(), user.getEmail(), roles))
+                .orElseThrow(() -> new RuntimeException("Пользователь не найден: " + email));
+    }
+}
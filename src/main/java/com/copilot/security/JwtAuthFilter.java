@@ -1,6 +1,5 @@
 package com.copilot.security;
 
-import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.*;
@@ -19,6 +18,7 @@ import java.util.*;
 public class JwtAuthFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
+    private final UserStatusCache userStatusCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
@@ -30,23 +30,33 @@ public class JwtAuthFilter extends OncePerRequestFilter {
             return;
         }
 
-        String token = header.substring(7);
         try {
-            var jws = jwtService.parse(token);
-            Claims claims = jws.getPayload();
-            String email = claims.getSubject();
-            @SuppressWarnings("unchecked")
-            List<String> roles = (List<String>) claims.get("roles");
-
-            var authorities = roles == null ? List.<SimpleGrantedAuthority>of()
-                    : roles.stream().map(r -> new SimpleGrantedAuthority("ROLE_" + r)).toList();
-
-            var auth = new UsernamePasswordAuthenticationToken(email, null, authorities);
-            SecurityContextHolder.getContext().setAuthentication(auth);
+            authenticate(header.substring(7));
         } catch (Exception e) {
             SecurityContextHolder.clearContext();
         }
 
         chain.doFilter(request, response);
     }
+
+    private void authenticate(String token) {
+        VerifiedToken verified = jwtService.verify(token);
+        if (verified.isRefreshToken()) {
+            // Refresh токен годится только для /auth/refresh и /auth/logout
+            return;
+        }
+        UUID userId = verified.userId() != null ? UUID.fromString(verified.userId()) : null;
+        if (userId != null && !userStatusCache.isActive(userId)) {
+            SecurityContextHolder.clearContext();
+            return;
+        }
+
+        var authorities = verified.roles().stream()
+                .map(r -> new SimpleGrantedAuthority("ROLE_" + r))
+                .toList();
+
+        var principal = new AuthenticatedUser(userId, verified.subject(), verified.roles());
+        var auth = new UsernamePasswordAuthenticationToken(principal, null, authorities);
+        SecurityContextHolder.getContext().setAuthentication(auth);
+    }
 }
@@ -2,6 +2,7 @@ package com.copilot.security;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import jakarta.annotation.PostConstruct;
@@ -10,11 +11,23 @@ import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Выпуск и проверка JWT.
+ * Парсер собирается один раз при старте. Проверенные токены кешируются по SHA-256 хешу токена
+ * до истечения их срока: повторные запросы с тем же bearer токеном не проверяют HMAC
+ * и не разбирают JSON claims заново. Сам токен в кеше не хранится.
+ */
 @Component
 public class JwtService {
 
@@ -30,11 +43,19 @@ public class JwtService {
     @Value("${jwt.refresh-token-ttl:7d}")
     private Duration refreshTtl;
 
+    @Value("${jwt.verified-cache.max-size:10000}")
+    private int verifiedCacheMaxSize;
+
     private SecretKey key;
+    private JwtParser parser;
+    private final Map<String, VerifiedToken> verifiedTokens = new ConcurrentHashMap<>();
 
     @PostConstruct
     void init(){
         this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parser()
+                .verifyWith(key)
+                .build();
     }
 
     public String generateAccessToken(String subjectEmail, String userId, List<String> roles){
@@ -51,24 +72,85 @@ public class JwtService {
                 .compact();
     }
 
-    public String generateRefreshToken(String subjectEmail, String userId){
+    /**
+     * @param familyId id цепочки ротации (сессии), общий для всех refresh токенов одного входа
+     * @param tokenId  уникальный id токена (jti), по нему RefreshTokenService находит повторное использование
+     */
+    public String generateRefreshToken(String subjectEmail, String userId, String familyId, String tokenId){
         Instant now = Instant.now();
         return Jwts.builder()
                 .issuer(issuer)
+                .id(tokenId)
                 .subject(subjectEmail)
                 .issuedAt(Date.from(now))
                 .expiration(Date.from(now.plus(refreshTtl)))
                 .claim("userId", userId)
+                .claim("familyId", familyId)
                 .claim("type", "refresh")
                 .signWith(key, Jwts.SIG.HS256)
                 .compact();
     }
 
     public Jws<Claims> parse(String token){
-        return Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token);
+        return parser.parseSignedClaims(token);
+    }
+
+    /**
+     * Проверяет токен с использованием кеша проверенных токенов
+     * @throws io.jsonwebtoken.JwtException если токен невалиден или истек
+     */
+    public VerifiedToken verify(String token) {
+        String cacheKey = hash(token);
+        Instant now = Instant.now();
+        VerifiedToken cached = verifiedTokens.get(cacheKey);
+        if (cached != null) {
+            if (!cached.isExpired(now)) {
+                return cached;
+            }
+            verifiedTokens.remove(cacheKey, cached);
+        }
+
+        Claims claims = parse(token).getPayload();
+        @SuppressWarnings("unchecked")
+        List<String> roles = (List<String>) claims.get("roles");
+        VerifiedToken verified = new VerifiedToken(
+                claims.getSubject(),
+                claims.get("userId", String.class),
+                roles == null ? List.of() : List.copyOf(roles),
+                claims.get("type", String.class),
+                claims.getExpiration() != null ? claims.getExpiration().toInstant() : null
+        );
+
+        if (verified.expiresAt() != null) {
+            if (verifiedTokens.size() >= verifiedCacheMaxSize) {
+                evict(now);
+            }
+            verifiedTokens.put(cacheKey, verified);
+        }
+        return verified;
+    }
+
+    /**
+     * Освобождает место в кеше: сначала удаляет истекшие токены, затем, если кеш все еще заполнен,
+     * произвольную десятую часть записей
+     */
+    private void evict(Instant now) {
+        verifiedTokens.values().removeIf(token -> token.isExpired(now));
+        int excess = verifiedTokens.size() - verifiedCacheMaxSize * 9 / 10;
+        Iterator<String> keys = verifiedTokens.keySet().iterator();
+        while (excess-- > 0 && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
     }
 
     public boolean isRefreshToken(Claims claims) {
@@ -0,0 +1,38 @@
+package com.copilot.security;
+
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+
+/**
+ * Генератор временных паролей.
+ * Использует один общий потокобезопасный SecureRandom вместо нового java.util.Random на каждый вызов:
+ * пароли из Random предсказуемы, а засев нового генератора на каждый пароль лишняя работа при импорте.
+ */
+@Component
+public class PasswordGenerator {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+    private static final int DEFAULT_LENGTH = 12;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Генерирует временный пароль из 12 символов
+     */
+    public String generate() {
+        return generate(DEFAULT_LENGTH);
+    }
+
+    public String generate(int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Длина пароля должна быть положительной");
+        }
+        char[] password = new char[length];
+        for (int i = 0; i < length; i++) {
+            password[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(password);
+    }
+}
@@ -0,0 +1,74 @@
+package com.copilot.security;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Хеширование паролей на отдельном пуле по числу ядер.
+ * BCrypt - чисто CPU работа: на виртуальных потоках она занимает carrier потоки и мешает сетевым
+ * шагам импорта, поэтому хеши считаются в собственном ForkJoinPool, а вызывающий поток
+ * в это время продолжает ходить в MailSlurp и Radicale.
+ * Стоимость BCrypt настраивается отдельно для каждого назначения пароля.
+ */
+@Slf4j
+@Service
+public class PasswordHashingService {
+
+    /**
+     * Назначение пароля
+     */
+    public enum Purpose {
+        /** Пароль для входа в систему, проверяется через общий PasswordEncoder */
+        LOGIN,
+        /** Пароль корпоративного ящика: хранится только для справки и в аутентификации не участвует */
+        MAILBOX
+    }
+
+    private final PasswordEncoder loginEncoder;
+    private final PasswordEncoder mailboxEncoder;
+    private final ForkJoinPool pool;
+
+    public PasswordHashingService(PasswordEncoder passwordEncoder,
+                                  @Value("${security.password.bcrypt.mailbox-strength:4}") int mailboxStrength,
+                                  @Value("${security.password.hashing-threads:0}") int threads) {
+        this.loginEncoder = passwordEncoder;
+        this.mailboxEncoder = new BCryptPasswordEncoder(mailboxStrength, new SecureRandom());
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(parallelism);
+        log.info("Пул хеширования паролей: {} потоков, стоимость BCrypt для ящиков: {}", parallelism, mailboxStrength);
+    }
+
+    /**
+     * Хеширует пароль в пуле хеширования
+     */
+    public CompletableFuture<String> hashAsync(Purpose purpose, String rawPassword) {
+        return CompletableFuture.supplyAsync(() -> hash(purpose, rawPassword), pool);
+    }
+
+    /**
+     * Хеширует пароль в текущем потоке
+     */
+    public String hash(Purpose purpose, String rawPassword) {
+        return encoder(purpose).encode(rawPassword);
+    }
+
+    private PasswordEncoder encoder(Purpose purpose) {
+        return switch (purpose) {
+            case LOGIN -> loginEncoder;
+            case MAILBOX -> mailboxEncoder;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,206 @@
+package com.copilot.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сессии refresh токенов в Redis с ротацией и обнаружением повторного использования.
+ *
+ * Все сессии пользователя лежат в одном hash {@code auth:sessions:{userId}}: поле - id цепочки (familyId),
+ * значение - {@code jti|expiresAtMillis} единственного действующего refresh токена цепочки. Обновление
+ * атомарно в Lua скрипте сверяет jti и записывает новый; предъявление уже использованного токена означает
+ * его утечку, и цепочка отзывается целиком. Выход со всех устройств - удаление одного ключа.
+ * TTL ключа продлевается каждым входом, поэтому цепочки, клиент которых пропал без выхода,
+ * удаляются по своему сроку при каждом входе и обновлении.
+ *
+ * Рядом кешируется состояние пользователя (email, роль, активность), чтобы обновление токена
+ * не ходило в Postgres, пока кеш свежий.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RefreshTokenService {
+
+    private static final String SESSIONS_PREFIX = "auth:sessions:";
+    private static final String USER_STATE_PREFIX = "auth:session-user:";
+
+    /**
+     * Удаляет из hash KEYS[1] цепочки, срок которых истек к ARGV[#ARGV] (текущее время, мс).
+     * Значение без срока записано до его появления и остается до ротации или выхода.
+     */
+    private static final String PRUNE_EXPIRED = """
+            local now = tonumber(ARGV[#ARGV])
+            local fields = redis.call('HGETALL', KEYS[1])
+            for i = 1, #fields, 2 do
+                local sep = string.find(fields[i + 1], '|', 1, true)
+                if sep and tonumber(string.sub(fields[i + 1], sep + 1)) <= now then
+                    redis.call('HDEL', KEYS[1], fields[i])
+                end
+            end
+            """;
+
+    private static final RedisScript<Long> START_SCRIPT = new DefaultRedisScript<>(PRUNE_EXPIRED + """
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('PEXPIRE', KEYS[1], ARGV[3])
+            return 1
+            """, Long.class);
+
+    private static final RedisScript<List> ROTATE_SCRIPT = new DefaultRedisScript<>(PRUNE_EXPIRED + """
+            local current = redis.call('HGET', KEYS[1], ARGV[1])
+            if not current then
+                return {'REVOKED', ''}
+            end
+            local sep = string.find(current, '|', 1, true)
+            local jti = sep and string.sub(current, 1, sep - 1) or current
+            if jti ~= ARGV[2] then
+                redis.call('HDEL', KEYS[1], ARGV[1])
+                return {'REUSED', ''}
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[3])
+            redis.call('PEXPIRE', KEYS[1], ARGV[4])
+            local state = redis.call('GET', KEYS[2])
+            return {'ROTATED', state or ''}
+            """, List.class);
+
+    private final JwtService jwtService;
+    private final RedisTemplate<String, String> redisTemplate;
+
+    @Value("${jwt.refresh-token-ttl:7d}")
+    private Duration refreshTtl;
+
+    @Value("${jwt.session-user-ttl:5m}")
+    private Duration sessionUserTtl;
+
+    /**
+     * Состояние пользователя, достаточное для выпуска access токена
+     */
+    public record SessionUser(UUID userId, String email, String role, boolean active) {
+    }
+
+    /**
+     * Результат ротации: новый refresh токен и закешированный пользователь (null, если кеш устарел)
+     */
+    public record Rotation(UUID userId, String refreshToken, SessionUser user) {
+    }
+
+    /**
+     * Начинает новую цепочку refresh токенов (вход или регистрация)
+     * @return refresh токен
+     */
+    public String startSession(SessionUser user) {
+        String familyId = UUID.randomUUID().toString();
+        String tokenId = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+
+        redisTemplate.execute(START_SCRIPT, List.of(SESSIONS_PREFIX + user.userId()),
+                familyId, sessionValue(tokenId, now), String.valueOf(refreshTtl.toMillis()), String.valueOf(now));
+        cacheUser(user);
+
+        return jwtService.generateRefreshToken(user.email(), user.userId().toString(), familyId, tokenId);
+    }
+
+    /**
+     * Проверяет refresh токен и заменяет его новым в той же цепочке
+     * @throws BadCredentialsException если токен невалиден, отозван или уже был использован
+     */
+    public Rotation rotate(String refreshToken) {
+        Claims claims = jwtService.parse(refreshToken).getPayload();
+        if (!jwtService.isRefreshToken(claims)) {
+            throw new BadCredentialsException("Неверный тип токена");
+        }
+
+        String userId = claims.get("userId", String.class);
+        String familyId = claims.get("familyId", String.class);
+        String tokenId = claims.getId();
+        if (userId == null || familyId == null || tokenId == null) {
+            // Токены, выпущенные до ротации, не привязаны к сессии
+            throw new BadCredentialsException("Refresh token не привязан к сессии, требуется повторный вход");
+        }
+
+        String nextTokenId = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        List<?> result = redisTemplate.execute(ROTATE_SCRIPT,
+                List.of(SESSIONS_PREFIX + userId, USER_STATE_PREFIX + userId),
+                familyId, tokenId, sessionValue(nextTokenId, now), String.valueOf(refreshTtl.toMillis()),
+                String.valueOf(now));
+        String status = result == null || result.isEmpty() ? "REVOKED" : String.valueOf(result.get(0));
+
+        switch (status) {
+            case "ROTATED" -> {
+                UUID id = UUID.fromString(userId);
+                SessionUser user = parseUser(id, result.size() > 1 ? String.valueOf(result.get(1)) : "");
+                String next = jwtService.generateRefreshToken(claims.getSubject(), userId, familyId, nextTokenId);
+                return new Rotation(id, next, user);
+            }
+            case "REUSED" -> {
+                log.warn("Повторное использование refresh токена пользователя {}, сессия {} отозвана", userId, familyId);
+                throw new BadCredentialsException("Refresh token уже использован");
+            }
+            default -> throw new BadCredentialsException("Сессия отозвана");
+        }
+    }
+
+    /**
+     * Отзывает цепочку, к которой относится токен. Невалидный токен игнорируется.
+     */
+    public void revokeSession(String refreshToken) {
+        Claims claims;
+        try {
+            claims = jwtService.parse(refreshToken).getPayload();
+        } catch (JwtException | IllegalArgumentException e) {
+            log.debug("Выход с невалидным refresh токеном: {}", e.getMessage());
+            return;
+        }
+        String userId = claims.get("userId", String.class);
+        String familyId = claims.get("familyId", String.class);
+        if (jwtService.isRefreshToken(claims) && userId != null && familyId != null) {
+            redisTemplate.opsForHash().delete(SESSIONS_PREFIX + userId, familyId);
+            log.info("Сессия {} пользователя {} завершена", familyId, userId);
+        }
+    }
+
+    /**
+     * Завершает все сессии пользователя
+     */
+    public void revokeAllSessions(UUID userId) {
+        redisTemplate.delete(List.of(SESSIONS_PREFIX + userId, USER_STATE_PREFIX + userId));
+        log.info("Все сессии пользователя {} завершены", userId);
+    }
+
+    /**
+     * Значение поля цепочки: jti действующего токена и момент, когда цепочка истечет без обновления
+     */
+    private String sessionValue(String tokenId, long now) {
+        return tokenId + "|" + (now + refreshTtl.toMillis());
+    }
+
+    public void cacheUser(SessionUser user) {
+        String value = user.active() + "|" + user.role() + "|" + user.email();
+        redisTemplate.opsForValue().set(USER_STATE_PREFIX + user.userId(), value,
+                sessionUserTtl.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    static SessionUser parseUser(UUID userId, String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        String[] parts = value.split("\\|", 3);
+        if (parts.length < 3) {
+            return null;
+        }
+        return new SessionUser(userId, parts[2], parts[1], Boolean.parseBoolean(parts[0]));
+    }
+}
@@ -0,0 +1,30 @@
+package com.copilot.security;
+
+import com.copilot.auth.model.User;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.List;
+
+/**
+ * UserDetails, который несет загруженную сущность пользователя.
+ * После authManager.authenticate вход берет пользователя из principal, не загружая его второй раз.
+ */
+public class UserAccountDetails extends org.springframework.security.core.userdetails.User {
+
+    private final transient User user;
+
+    public UserAccountDetails(User user) {
+        super(user.getEmail(),
+                user.getPassword(),
+                user.getIsActive(),
+                true,
+                true,
+                user.getIsActive(),
+                List.of(new SimpleGrantedAuthority("ROLE_" + user.getRole())));
+        this.user = user;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
@@ -3,18 +3,18 @@ package com.copilot.security;
 import com.copilot.auth.model.User;
 import com.copilot.auth.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
-
+@Slf4j
 @Service
 @RequiredArgsConstructor
-public class UserDetailsServiceImpl implements UserDetailsService {
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService {
 
     private final UserRepository userRepository;
 
@@ -23,19 +23,25 @@ public class UserDetailsServiceImpl implements UserDetailsService {
         User user = userRepository.findByEmailAndDeletedAtIsNull(email)
                 .orElseThrow(() -> new UsernameNotFoundException("Пользователь не найден: " + email));
 
-        List<GrantedAuthority> authorities = List.of(
-                new SimpleGrantedAuthority("ROLE_" + user.getRole())
-        );
+        return new UserAccountDetails(user);
+    }
 
-        return org.springframework.security.core.userdetails.User.builder()
-                .username(user.getEmail())
-                .password(user.getPassword())
-                .authorities(authorities)
-                .accountExpired(false)
-                .accountLocked(!user.getIsActive())
-                .credentialsExpired(false)
-                .disabled(!user.getIsActive())
-                .build();
+    /**
+     * Вызывается DaoAuthenticationProvider после успешной проверки пароля, если
+     * PasswordEncoder.upgradeEncoding считает хеш устаревшим (другой алгоритм или стоимость ниже целевой).
+     * Пароль уже перехеширован, здесь он только сохраняется.
+     */
+    @Override
+    @Transactional
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        User user = userDetails instanceof UserAccountDetails account
+                ? account.getUser()
+                : userRepository.findByEmailAndDeletedAtIsNull(userDetails.getUsername())
+                        .orElseThrow(() -> new UsernameNotFoundException("Пользователь не найден: " + userDetails.getUsername()));
+
+        userRepository.updatePassword(user.getId(), newPassword);
+        user.setPassword(newPassword);
+        log.info("Хеш пароля пользователя {} обновлен до текущих параметров", user.getId());
+        return new UserAccountDetails(user);
     }
 }
-
@@ -0,0 +1,64 @@
+package com.copilot.security;
+
+import com.copilot.auth.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кеш признака "пользователь активен и не удален" с коротким TTL.
+ * JWT живет 15 минут, а удаленный или деактивированный пользователь должен потерять доступ раньше:
+ * флаг перечитывается из БД не чаще раза в TTL на пользователя, а не на каждый запрос.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UserStatusCache {
+
+    private final UserRepository userRepository;
+
+    @Value("${security.user-status-cache.ttl:30s}")
+    private Duration ttl;
+
+    @Value("${security.user-status-cache.max-size:10000}")
+    private int maxSize;
+
+    private final Map<UUID, Status> statuses = new ConcurrentHashMap<>();
+
+    public boolean isActive(UUID userId) {
+        long now = System.nanoTime();
+        Status status = statuses.get(userId);
+        if (status != null && now - status.checkedAt() < ttl.toNanos()) {
+            return status.active();
+        }
+
+        boolean active = userRepository.findActiveFlagById(userId).orElse(false);
+        if (statuses.size() >= maxSize) {
+            statuses.values().removeIf(s -> now - s.checkedAt() >= ttl.toNanos());
+            if (statuses.size() >= maxSize) {
+                statuses.clear();
+            }
+        }
+        statuses.put(userId, new Status(active, now));
+        if (!active) {
+            log.debug("Пользователь {} удален или деактивирован, токен отклонен", userId);
+        }
+        return active;
+    }
+
+    /**
+     * Сбрасывает закешированный статус, чтобы изменение применилось на этом инстансе сразу
+     */
+    public void invalidate(UUID userId) {
+        statuses.remove(userId);
+    }
+
+    private record Status(boolean active, long checkedAt) {
+    }
+}
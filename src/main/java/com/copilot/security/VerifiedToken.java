@@ -0,0 +1,23 @@
+package com.copilot.security;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Проверенный JWT: подпись и срок действия уже проверены, claims разобраны
+ */
+public record VerifiedToken(
+        String subject,
+        String userId,
+        List<String> roles,
+        String type,
+        Instant expiresAt
+) {
+    public boolean isExpired(Instant now) {
+        return expiresAt != null && !now.isBefore(expiresAt);
+    }
+
+    public boolean isRefreshToken() {
+        return "refresh".equals(type);
+    }
+}
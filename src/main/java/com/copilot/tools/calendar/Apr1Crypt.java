@@ -0,0 +1,115 @@
+package com.copilot.tools.calendar;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Хеш паролей Apache MD5 ($apr1$), тот же формат, что выдает htpasswd -m.
+ * Radicale с htpasswd_encryption = md5 проверяет пароли именно в этом формате.
+ */
+final class Apr1Crypt {
+
+    private static final String MAGIC = "$apr1$";
+    private static final String ITOA64 = "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private Apr1Crypt() {
+    }
+
+    /**
+     * Хеширует пароль со случайной солью из 8 символов
+     */
+    static String hash(String password) {
+        char[] salt = new char[8];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = ITOA64.charAt(RANDOM.nextInt(ITOA64.length()));
+        }
+        return hash(password, new String(salt));
+    }
+
+    static String hash(String password, String salt) {
+        if (salt.length() > 8) {
+            salt = salt.substring(0, 8);
+        }
+        byte[] pw = password.getBytes(StandardCharsets.UTF_8);
+        byte[] saltBytes = salt.getBytes(StandardCharsets.US_ASCII);
+
+        MessageDigest ctx = md5();
+        ctx.update(pw);
+        ctx.update(MAGIC.getBytes(StandardCharsets.US_ASCII));
+        ctx.update(saltBytes);
+
+        MessageDigest alt = md5();
+        alt.update(pw);
+        alt.update(saltBytes);
+        alt.update(pw);
+        byte[] fin = alt.digest();
+
+        for (int remaining = pw.length; remaining > 0; remaining -= 16) {
+            ctx.update(fin, 0, Math.min(remaining, 16));
+        }
+        Arrays.fill(fin, (byte) 0);
+
+        for (int i = pw.length; i != 0; i >>>= 1) {
+            if ((i & 1) != 0) {
+                ctx.update(fin, 0, 1);
+            } else {
+                ctx.update(pw, 0, 1);
+            }
+        }
+        fin = ctx.digest();
+
+        // 1000 раундов, чтобы замедлить перебор
+        for (int i = 0; i < 1000; i++) {
+            MessageDigest round = md5();
+            if ((i & 1) != 0) {
+                round.update(pw);
+            } else {
+                round.update(fin, 0, 16);
+            }
+            if (i % 3 != 0) {
+                round.update(saltBytes);
+            }
+            if (i % 7 != 0) {
+                round.update(pw);
+            }
+            if ((i & 1) != 0) {
+                round.update(fin, 0, 16);
+            } else {
+                round.update(pw);
+            }
+            fin = round.digest();
+        }
+
+        StringBuilder result = new StringBuilder(37).append(MAGIC).append(salt).append('$');
+        to64(result, (b(fin[0]) << 16) | (b(fin[6]) << 8) | b(fin[12]), 4);
+        to64(result, (b(fin[1]) << 16) | (b(fin[7]) << 8) | b(fin[13]), 4);
+        to64(result, (b(fin[2]) << 16) | (b(fin[8]) << 8) | b(fin[14]), 4);
+        to64(result, (b(fin[3]) << 16) | (b(fin[9]) << 8) | b(fin[15]), 4);
+        to64(result, (b(fin[4]) << 16) | (b(fin[10]) << 8) | b(fin[5]), 4);
+        to64(result, b(fin[11]), 2);
+        return result.toString();
+    }
+
+    private static int b(byte value) {
+        return value & 0xff;
+    }
+
+    private static void to64(StringBuilder out, int value, int length) {
+        for (int i = 0; i < length; i++) {
+            out.append(ITOA64.charAt(value & 0x3f));
+            value >>>= 6;
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 недоступен", e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.copilot.tools.calendar;
+
+import com.copilot.auth.model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Адресация календарей в Radicale: имя календаря, URL календаря и URL события.
+ * Единое место для логики, которая раньше дублировалась в CalendarService и CalendarProvisioningService.
+ * URL календаря зависит только от email и имени пользователя, поэтому кэшируется
+ * в ограниченном LRU: записи переименованных и удаленных пользователей вытесняются.
+ */
+@Component
+public class CalendarAddressing {
+
+    private static final Pattern DISALLOWED_CHARS = Pattern.compile("[^a-zA-Z0-9\\s-]");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final String DEFAULT_CALENDAR_NAME = "calendar";
+
+    // Кириллица U+0410..U+044F плюс Ё/ё; индекс - код символа относительно CYRILLIC_BASE
+    private static final char CYRILLIC_BASE = 'Ѐ';
+    private static final String[] TRANSLITERATION = new String[0x60];
+
+    static {
+        String upper = "АБВГДЕЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯ";
+        String[] latin = {
+                "A", "B", "V", "G", "D", "E", "Zh", "Z", "I", "Y", "K", "L", "M", "N", "O", "P",
+                "R", "S", "T", "U", "F", "Kh", "Ts", "Ch", "Sh", "Shch", "", "Y", "", "E", "Yu", "Ya"
+        };
+        for (int i = 0; i < upper.length(); i++) {
+            char capital = upper.charAt(i);
+            char small = Character.toLowerCase(capital);
+            TRANSLITERATION[capital - CYRILLIC_BASE] = latin[i];
+            TRANSLITERATION[small - CYRILLIC_BASE] = latin[i].toLowerCase();
+        }
+        TRANSLITERATION['Ё' - CYRILLIC_BASE] = "E";
+        TRANSLITERATION['ё' - CYRILLIC_BASE] = "e";
+    }
+
+    @Value("${calendar.caldav.base-url:http://calendar:5232}")
+    private String caldavBaseUrl;
+
+    @Value("${calendar.caldav.url-cache-max-size:10000}")
+    private int urlCacheMaxSize = 10_000;
+
+    private final Map<CalendarKey, String> calendarUrls = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CalendarKey, String> eldest) {
+            return size() > urlCacheMaxSize;
+        }
+    };
+
+    /**
+     * URL календаря пользователя (с завершающим слэшем)
+     */
+    public String calendarUrl(String email, String firstName) {
+        CalendarKey key = new CalendarKey(email, firstName);
+        synchronized (calendarUrls) {
+            String cached = calendarUrls.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String url = caldavBaseUrl + "/"
+                + URLEncoder.encode(username(email), StandardCharsets.UTF_8) + "/"
+                + URLEncoder.encode(calendarName(firstName), StandardCharsets.UTF_8) + "/";
+        synchronized (calendarUrls) {
+            String raced = calendarUrls.putIfAbsent(key, url);
+            return raced != null ? raced : url;
+        }
+    }
+
+    /**
+     * Убирает URL удаленного календаря из кэша
+     */
+    public void evict(String email, String firstName) {
+        synchronized (calendarUrls) {
+            calendarUrls.remove(new CalendarKey(email, firstName));
+        }
+    }
+
+    public String calendarUrl(User user) {
+        return calendarUrl(user.getEmail(), user.getFirstName());
+    }
+
+    /**
+     * URL ресурса события в календаре пользователя
+     */
+    public String eventUrl(User user, String eventId) {
+        return calendarUrl(user) + eventId + ".ics";
+    }
+
+    /**
+     * Имя календаря пользователя (используется в URL и как displayname при MKCOL)
+     */
+    public String calendarName(String firstName) {
+        return sanitizeCalendarName(firstName != null && !firstName.isEmpty()
+                ? firstName + "'s Calendar"
+                : "Work Calendar");
+    }
+
+    /**
+     * Username для Radicale. Используем весь email, Radicale это поддерживает.
+     */
+    public String username(String email) {
+        return email;
+    }
+
+    /**
+     * Очищает имя календаря от недопустимых символов для URL и файловой системы
+     */
+    static String sanitizeCalendarName(String name) {
+        // Транслитерируем русские буквы в латиницу, затем оставляем только латиницу, цифры, пробелы и дефисы
+        String transliterated = transliterate(name);
+        String sanitized = DISALLOWED_CHARS.matcher(transliterated).replaceAll("");
+        sanitized = WHITESPACE.matcher(sanitized).replaceAll("-").toLowerCase();
+        // Если после санитизации имя пустое или слишком короткое, используем дефолтное имя
+        if (sanitized.length() < 2) {
+            return DEFAULT_CALENDAR_NAME;
+        }
+        return sanitized;
+    }
+
+    /**
+     * Транслитерирует русские буквы в латиницу за один проход по таблице замен
+     */
+    static String transliterate(String text) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+
+        StringBuilder result = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int index = c - CYRILLIC_BASE;
+            String replacement = index >= 0 && index < TRANSLITERATION.length ? TRANSLITERATION[index] : null;
+            if (replacement == null) {
+                if (result != null) {
+                    result.append(c);
+                }
+                continue;
+            }
+            if (result == null) {
+                // Строка без кириллицы возвращается как есть, без копирования
+                result = new StringBuilder(text.length() + 8);
+                result.append(text, 0, i);
+            }
+            result.append(replacement);
+        }
+        return result != null ? result.toString() : text;
+    }
+
+    private record CalendarKey(String email, String firstName) {
+    }
+}
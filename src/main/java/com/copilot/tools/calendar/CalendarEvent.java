@@ -0,0 +1,52 @@
+package com.copilot.tools.calendar;
+
+import com.copilot.tools.calendar.dto.EventResponse;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Событие календаря в локальном кэше (одна VEVENT из CalDAV ресурса)
+ * @param href путь ресурса в Radicale (ключ для sync-collection)
+ * @param etag ETag ресурса на момент последней синхронизации
+ */
+public record CalendarEvent(
+        String uid,
+        String href,
+        String etag,
+        String title,
+        Instant start,
+        Instant end,
+        String description,
+        String location,
+        List<String> attendeeEmails
+) {
+
+    private static final String UID_SUFFIX = "@business-assistant.local";
+
+    /**
+     * Пересекается ли событие с интервалом [from, to)
+     */
+    public boolean overlaps(Instant from, Instant to) {
+        return start.isBefore(to) && end.isAfter(from);
+    }
+
+    public EventResponse toResponse() {
+        ZoneId zone = ZoneId.systemDefault();
+        String eventId = uid != null && uid.endsWith(UID_SUFFIX)
+                ? uid.substring(0, uid.length() - UID_SUFFIX.length())
+                : uid;
+        return new EventResponse(
+                eventId,
+                title,
+                LocalDateTime.ofInstant(start, zone),
+                LocalDateTime.ofInstant(end, zone),
+                description,
+                attendeeEmails,
+                location,
+                href
+        );
+    }
+}
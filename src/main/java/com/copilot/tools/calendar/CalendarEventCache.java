@@ -0,0 +1,217 @@
+package com.copilot.tools.calendar;
+
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Локальный кэш событий календаря пользователей.
+ * Наполняется CalendarSyncService через RFC 6578 sync-collection,
+ * запросы по диапазону дат обслуживаются без обращения к Radicale.
+ */
+@Component
+public class CalendarEventCache {
+
+    private final Map<UUID, CalendarState> states = new ConcurrentHashMap<>();
+
+    public CalendarState state(UUID userId) {
+        return states.computeIfAbsent(userId, id -> new CalendarState());
+    }
+
+    public CalendarState find(UUID userId) {
+        return states.get(userId);
+    }
+
+    public Set<UUID> userIds() {
+        return states.keySet();
+    }
+
+    public void evict(UUID userId) {
+        states.remove(userId);
+    }
+
+    /**
+     * Состояние календаря одного пользователя: события, sync-token и ETag ресурсов
+     */
+    public static class CalendarState {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, CalendarEvent> byHref = new HashMap<>();
+        private final Map<String, String> hrefByUid = new HashMap<>();
+        private final NavigableMap<EventKey, CalendarEvent> byStart = new TreeMap<>();
+        private Duration maxDuration = Duration.ZERO;
+
+        @Getter
+        private volatile String syncToken;
+
+        @Getter
+        private volatile Instant lastSyncedAt;
+
+        @Getter
+        private volatile Instant lastAccessedAt = Instant.now();
+
+        public boolean isSynced() {
+            return lastSyncedAt != null;
+        }
+
+        public void touch() {
+            lastAccessedAt = Instant.now();
+        }
+
+        public String etag(String href) {
+            lock.readLock().lock();
+            try {
+                CalendarEvent event = byHref.get(href);
+                return event != null ? event.etag() : null;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Добавляет или заменяет событие ресурса. Если событие с тем же UID лежало под другим href
+         * (например, добавлено локально после PUT), старая запись удаляется.
+         */
+        public void put(CalendarEvent event) {
+            lock.writeLock().lock();
+            try {
+                String previousHref = event.uid() != null ? hrefByUid.get(event.uid()) : null;
+                if (previousHref != null && !previousHref.equals(event.href())) {
+                    removeUnlocked(previousHref);
+                }
+                removeUnlocked(event.href());
+                byHref.put(event.href(), event);
+                byStart.put(new EventKey(event.start(), event.href()), event);
+                if (event.uid() != null) {
+                    hrefByUid.put(event.uid(), event.href());
+                }
+                Duration duration = Duration.between(event.start(), event.end());
+                if (duration.compareTo(maxDuration) > 0) {
+                    maxDuration = duration;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        public void remove(String href) {
+            lock.writeLock().lock();
+            try {
+                removeUnlocked(href);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Фиксирует результат синхронизации. Вызывается после применения всех изменений.
+         */
+        public void markSynced(String newSyncToken) {
+            this.syncToken = newSyncToken;
+            this.lastSyncedAt = Instant.now();
+        }
+
+        /**
+         * Заменяет содержимое результатом полной ресинхронизации, собранным в отдельном состоянии.
+         * Читатели видят либо прежние события, либо новые целиком, но не частично загруженный календарь.
+         */
+        public void replaceWith(CalendarState source) {
+            lock.writeLock().lock();
+            try {
+                byHref.clear();
+                byHref.putAll(source.byHref);
+                hrefByUid.clear();
+                hrefByUid.putAll(source.hrefByUid);
+                byStart.clear();
+                byStart.putAll(source.byStart);
+                maxDuration = source.maxDuration;
+                syncToken = source.syncToken;
+                lastSyncedAt = source.lastSyncedAt;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * События, пересекающиеся с интервалом [from, to), отсортированные по времени начала
+         */
+        public List<CalendarEvent> findInRange(Instant from, Instant to) {
+            lock.readLock().lock();
+            try {
+                // Событие, начавшееся раньше from, может ещё идти - отступаем на длительность самого длинного события
+                EventKey lower = new EventKey(from.minus(maxDuration), "");
+                EventKey upper = new EventKey(to, "");
+                List<CalendarEvent> result = new ArrayList<>();
+                for (CalendarEvent event : byStart.subMap(lower, true, upper, false).values()) {
+                    if (event.overlaps(from, to)) {
+                        result.add(event);
+                    }
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        public List<CalendarEvent> findUpcoming(Instant from, int limit) {
+            lock.readLock().lock();
+            try {
+                List<CalendarEvent> result = new ArrayList<>();
+                Collection<CalendarEvent> candidates = byStart
+                        .tailMap(new EventKey(from.minus(maxDuration), ""), true).values();
+                for (CalendarEvent event : candidates) {
+                    if (result.size() >= limit) {
+                        break;
+                    }
+                    if (event.end().isAfter(from)) {
+                        result.add(event);
+                    }
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        public int size() {
+            lock.readLock().lock();
+            try {
+                return byHref.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void removeUnlocked(String href) {
+            CalendarEvent removed = byHref.remove(href);
+            if (removed != null) {
+                byStart.remove(new EventKey(removed.start(), removed.href()));
+                if (removed.uid() != null) {
+                    hrefByUid.remove(removed.uid(), href);
+                }
+            }
+        }
+    }
+
+    private record EventKey(Instant start, String href) implements Comparable<EventKey> {
+        @Override
+        public int compareTo(EventKey other) {
+            int byTime = start.compareTo(other.start);
+            return byTime != 0 ? byTime : href.compareTo(other.href);
+        }
+    }
+}
@@ -1,24 +1,36 @@
 package com.copilot.tools.calendar;
 
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class CalendarProvisioningService {
 
-    @Value("${calendar.caldav.base-url:http://calendar:5232}")
-    private String caldavBaseUrl;
+    private static final int CALDAV_TIMEOUT_MS = 10_000;
+
+    private final CalendarAddressing calendarAddressing;
+    private final HtpasswdStore htpasswdStore;
+    private final DependencyGuard dependencyGuard;
+
+    @Value("${calendar.htpasswd.write-timeout-ms:5000}")
+    private long htpasswdWriteTimeoutMs;
 
     /**
      * Создает пользователя и календарь в Radicale для пользователя
@@ -31,22 +43,22 @@ public class CalendarProvisioningService {
         log.info("Создание календаря в Radicale для пользователя: {}", userEmail);
 
         try {
-            // 1. Пытаемся создать пользователя в htpasswd через Docker exec
-            // ВАЖНО: Это может не работать из контейнера copilot, так как Docker socket может быть недоступен
-            // В этом случае Radicale создаст пользователя автоматически при первом CalDAV запросе с правильной аутентификацией
+            // 1. Записываем пользователя в htpasswd Radicale: том calendar_data смонтирован в приложении
+            //    как /radicale (RADICALE_HTPASSWD_PATH=/radicale/users), а в Radicale - как /data (/data/users)
             createUserInHtpasswd(userEmail, password);
             
             // 2. Создаем календарь через CalDAV MKCOL
             // Если пользователь еще не создан в htpasswd, Radicale создаст его автоматически при первом CalDAV запросе
             // Для этого нужно, чтобы Radicale был настроен с auth.type = htpasswd и правильным файлом users
-            String calendarName = sanitizeCalendarName(firstName != null && !firstName.isEmpty() 
-                    ? firstName + "'s Calendar" 
-                    : "Work Calendar");
-            String calendarId = createCalendarViaCalDAV(userEmail, password, calendarName);
+            String calendarId = createCalendarViaCalDAV(userEmail, password, firstName);
             log.info("Календарь создан для пользователя {}: {}", userEmail, calendarId);
 
             return new RadicaleAccountResponse(userEmail, calendarId, userEmail);
 
+        } catch (DependencyUnavailableException e) {
+            // Radicale недоступен: не ждем таймаута на каждую строку импорта
+            log.warn("Календарь для {} не создан: {}", userEmail, e.getMessage());
+            return new RadicaleAccountResponse(userEmail, "default", userEmail);
         } catch (Exception e) {
             log.error("Ошибка при создании календаря в Radicale для {}: {}", userEmail, e.getMessage(), e);
             // Не прерываем импорт, возвращаем дефолтный ответ
@@ -56,66 +68,86 @@ public class CalendarProvisioningService {
     }
     
     /**
-     * Создает пользователя в Radicale через htpasswd
-     * Пытается использовать Docker exec для выполнения команды htpasswd в контейнере calendar
-     * Если Docker exec недоступен (например, из контейнера copilot), пропускаем - Radicale создаст пользователя автоматически при первом CalDAV запросе
+     * Удаляет календарь и запись htpasswd пользователя, который так и не был сохранен (например, при импорте).
+     * Ошибки только логируются: оставшийся календарь без пользователя ничему не мешает.
+     * @param password пароль CalDAV аккаунта, под которым календарь был создан
      */
-    private void createUserInHtpasswd(String username, String password) {
+    public void deleteCalendar(String userEmail, String password, String firstName) {
+        String calendarUrl = calendarAddressing.calendarUrl(userEmail, firstName);
         try {
-            log.info("Попытка создать пользователя в Radicale htpasswd: {}", username);
-            
-            // Попробуем создать пользователя через процесс Docker exec
-            // ВАЖНО: Это может не работать из контейнера copilot, так как Docker socket может быть недоступен
-            // В этом случае Radicale создаст пользователя автоматически при первом CalDAV запросе с правильной аутентификацией
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    "docker", "exec", "calendar", 
-                    "htpasswd", "-b", "-m", "/data/users", username, password
-            );
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
-            
-            int exitCode = process.waitFor();
-            if (exitCode == 0) {
-                log.info("Пользователь {} успешно создан в Radicale htpasswd через Docker exec", username);
+            int responseCode = dependencyGuard.call(DependencyHealthTracker.RADICALE,
+                    () -> sendDelete(calendarUrl, userEmail, password));
+            if (responseCode / 100 == 2 || responseCode == 404) {
+                log.info("Календарь {} удален", calendarUrl);
             } else {
-                // Если не удалось создать через Docker exec, это нормально - Radicale создаст пользователя автоматически
-                log.info("Не удалось создать пользователя {} через Docker exec (exit code: {}). " +
-                        "Это нормально - Radicale создаст пользователя автоматически при первом CalDAV запросе", username, exitCode);
-                
-                // Читаем вывод процесса для отладки
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    StringBuilder output = new StringBuilder();
-                    while ((line = reader.readLine()) != null) {
-                        output.append(line).append("\n");
-                    }
-                    if (output.length() > 0) {
-                        log.debug("Docker exec output: {}", output.toString().trim());
-                    }
-                }
+                log.warn("Radicale вернул код {} при удалении календаря {}", responseCode, calendarUrl);
+            }
+        } catch (Exception e) {
+            log.warn("Не удалось удалить календарь {}: {}", calendarUrl, e.getMessage());
+        }
+        calendarAddressing.evict(userEmail, firstName);
+
+        try {
+            htpasswdStore.removeUser(userEmail).get(htpasswdWriteTimeoutMs, TimeUnit.MILLISECONDS);
+            log.info("Пользователь {} удален из htpasswd Radicale", userEmail);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Удаление пользователя {} из htpasswd прервано", userEmail);
+        } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            log.warn("Не удалось удалить пользователя {} из htpasswd: {}", userEmail, cause.getMessage());
+        }
+    }
+
+    /**
+     * Отправляет DELETE календаря. Ответ 5xx - сбой Radicale, он бросается как IOException,
+     * чтобы его учел circuit breaker.
+     */
+    private int sendDelete(String calendarUrl, String userEmail, String password) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(calendarUrl).toURL().openConnection();
+        try {
+            connection.setRequestMethod("DELETE");
+            connection.setConnectTimeout(CALDAV_TIMEOUT_MS);
+            connection.setReadTimeout(CALDAV_TIMEOUT_MS);
+            connection.setRequestProperty("Authorization", basicAuth(userEmail, password));
+            int responseCode = connection.getResponseCode();
+            if (responseCode >= 500) {
+                throw new IOException("Radicale вернул код " + responseCode + " на DELETE " + calendarUrl);
             }
+            return responseCode;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Создает пользователя в htpasswd Radicale. Запись группируется с параллельными вызовами
+     * и попадает в файл одной атомарной заменой; ждем ее, чтобы MKCOL прошел аутентификацию.
+     * Если файл недоступен (не смонтирован том Radicale), Radicale создаст пользователя при первом CalDAV запросе.
+     */
+    private void createUserInHtpasswd(String username, String password) {
+        try {
+            htpasswdStore.addUser(username, password).get(htpasswdWriteTimeoutMs, TimeUnit.MILLISECONDS);
+            log.info("Пользователь {} записан в htpasswd Radicale", username);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Запись пользователя {} в htpasswd прервана", username);
         } catch (Exception e) {
-            // Если Docker exec не работает (например, из контейнера copilot), это нормально
-            // Radicale создаст пользователя автоматически при первом CalDAV запросе с правильной аутентификацией
-            log.info("Не удалось создать пользователя {} через Docker exec: {}. " +
-                    "Это нормально - Radicale создаст пользователя автоматически при первом CalDAV запросе", username, e.getMessage());
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            log.info("Не удалось записать пользователя {} в htpasswd: {}. " +
+                    "Radicale создаст пользователя автоматически при первом CalDAV запросе", username, cause.getMessage());
         }
     }
 
     /**
-     * Создает календарь через CalDAV MKCOL запрос
-     * Использует низкоуровневый Socket для отправки HTTP запроса с методом MKCOL,
-     * так как HttpURLConnection не поддерживает нестандартные HTTP методы
+     * Создает календарь через CalDAV MKCOL запрос под circuit breaker и bulkhead Radicale.
      * Radicale может автоматически создавать пользователей при первом обращении
+     * @throws DependencyUnavailableException если breaker Radicale открыт
      */
-    private String createCalendarViaCalDAV(String email, String password, String calendarName) {
+    private String createCalendarViaCalDAV(String email, String password, String firstName) {
         // Radicale использует формат: /{username}/{calendar-name}/
-        // Для Radicale username обычно берется из email (до @) или весь email
-        String username = extractUsernameFromEmail(email);
-        String encodedUsername = URLEncoder.encode(username, StandardCharsets.UTF_8);
-        String encodedCalendarName = URLEncoder.encode(calendarName, StandardCharsets.UTF_8);
-        String calendarUrl = caldavBaseUrl + "/" + encodedUsername + "/" + encodedCalendarName + "/";
+        String calendarName = calendarAddressing.calendarName(firstName);
+        String calendarUrl = calendarAddressing.calendarUrl(email, firstName);
 
         // CalDAV MKCOL body для создания календаря
         String mkcolBody = """
@@ -134,85 +166,34 @@ public class CalendarProvisioningService {
                 """.formatted(calendarName);
 
         try {
-            // Парсим URL для получения хоста и порта
-            @SuppressWarnings("deprecation")
-            URL url = new URL(calendarUrl);
-            String host = url.getHost();
-            int port = url.getPort() == -1 ? (url.getProtocol().equals("https") ? 443 : 80) : url.getPort();
-            String path = url.getPath();
-
-            // Используем Socket для отправки HTTP запроса с методом MKCOL
-            // HttpURLConnection не поддерживает нестандартные методы
-            try (java.net.Socket socket = new java.net.Socket(host, port);
-                 java.io.OutputStream out = socket.getOutputStream();
-                 java.io.BufferedReader in = new java.io.BufferedReader(
-                         new java.io.InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
-
-                // Basic Auth
-                String auth = email + ":" + password;
-                String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
-
-                // Формируем HTTP запрос с методом MKCOL
-                StringBuilder request = new StringBuilder();
-                request.append("MKCOL ").append(path).append(" HTTP/1.1\r\n");
-                request.append("Host: ").append(host);
-                if (port != 80 && port != 443) {
-                    request.append(":").append(port);
-                }
-                request.append("\r\n");
-                request.append("Authorization: Basic ").append(encodedAuth).append("\r\n");
-                request.append("Content-Type: application/xml; charset=utf-8\r\n");
-                request.append("Depth: 0\r\n");
-                request.append("Content-Length: ").append(mkcolBody.getBytes(StandardCharsets.UTF_8).length).append("\r\n");
-                request.append("Connection: close\r\n");
-                request.append("\r\n");
-                request.append(mkcolBody);
-
-                // Отправляем запрос
-                out.write(request.toString().getBytes(StandardCharsets.UTF_8));
-                out.flush();
-
-                // Читаем ответ
-                String responseLine = in.readLine();
-                if (responseLine == null) {
-                    log.warn("Пустой ответ от Radicale при создании календаря: {}", calendarUrl);
-                    return calendarName;
-                }
-
-                // Парсим статус код из первой строки ответа (например, "HTTP/1.1 201 Created")
-                int responseCode = parseStatusCode(responseLine);
-                log.debug("Ответ от Radicale при создании календаря {}: {} ({})", calendarUrl, responseCode, responseLine);
-
-                // Читаем остальные заголовки (не используем, но нужно прочитать)
-                String headerLine;
-                while ((headerLine = in.readLine()) != null && !headerLine.isEmpty()) {
-                    // Читаем заголовки, но не обрабатываем
-                }
+            int responseCode = dependencyGuard.call(DependencyHealthTracker.RADICALE,
+                    () -> sendMkcol(calendarUrl, email, password, mkcolBody));
 
-                if (responseCode == 201 || responseCode == 204) {
-                    log.info("Календарь успешно создан через CalDAV: {}", calendarUrl);
-                    return calendarName;
-                } else if (responseCode == 405) {
-                    // Календарь уже существует (Method Not Allowed)
-                    log.warn("Календарь {} уже существует (405)", calendarUrl);
-                    return calendarName;
-                } else if (responseCode == 207) {
-                    // Multi-Status - частичный успех
-                    log.warn("Календарь {} создан с предупреждениями (207)", calendarUrl);
-                    return calendarName;
-                } else if (responseCode == 401 || responseCode == 403) {
-                    // Ошибка аутентификации - возможно, пользователь не создан
-                    log.warn("Ошибка аутентификации при создании календаря {}: {}. " +
-                            "Возможно, пользователь не создан в Radicale. " +
-                            "Календарь будет создан автоматически при первом обращении.", calendarUrl, responseCode);
-                    return calendarName;
-                } else {
-                    log.warn("Неожиданный код ответа при создании календаря {}: {}", calendarUrl, responseCode);
-                    // Не прерываем импорт, возвращаем имя календаря
-                    // Radicale создаст календарь автоматически при первом обращении
-                    return calendarName;
-                }
+            if (responseCode == 201 || responseCode == 204) {
+                log.info("Календарь успешно создан через CalDAV: {}", calendarUrl);
+                return calendarName;
+            } else if (responseCode == 405) {
+                // Календарь уже существует (Method Not Allowed)
+                log.warn("Календарь {} уже существует (405)", calendarUrl);
+                return calendarName;
+            } else if (responseCode == 207) {
+                // Multi-Status - частичный успех
+                log.warn("Календарь {} создан с предупреждениями (207)", calendarUrl);
+                return calendarName;
+            } else if (responseCode == 401 || responseCode == 403) {
+                // Ошибка аутентификации - возможно, пользователь не создан
+                log.warn("Ошибка аутентификации при создании календаря {}: {}. " +
+                        "Возможно, пользователь не создан в Radicale. " +
+                        "Календарь будет создан автоматически при первом обращении.", calendarUrl, responseCode);
+                return calendarName;
+            } else {
+                log.warn("Неожиданный код ответа при создании календаря {}: {}", calendarUrl, responseCode);
+                // Не прерываем импорт, возвращаем имя календаря
+                // Radicale создаст календарь автоматически при первом обращении
+                return calendarName;
             }
+        } catch (DependencyUnavailableException e) {
+            throw e;
         } catch (java.net.ConnectException e) {
             log.warn("Не удалось подключиться к Radicale для создания календаря {}: {}. " +
                     "Календарь будет создан автоматически при первом обращении.", calendarUrl, e.getMessage());
@@ -224,6 +205,69 @@ public class CalendarProvisioningService {
         }
     }
 
+    /**
+     * Отправляет MKCOL и возвращает код ответа.
+     * Использует низкоуровневый Socket, так как HttpURLConnection не поддерживает нестандартные HTTP методы.
+     * Подключение и чтение ограничены CALDAV_TIMEOUT_MS, чтобы зависший Radicale не держал воркер импорта.
+     * Пустой ответ и ответ 5xx - сбой Radicale, они бросаются как IOException, чтобы их учел circuit breaker.
+     */
+    private int sendMkcol(String calendarUrl, String email, String password, String mkcolBody) throws IOException {
+        // Парсим URL для получения хоста и порта
+        @SuppressWarnings("deprecation")
+        URL url = new URL(calendarUrl);
+        String host = url.getHost();
+        int port = url.getPort() == -1 ? (url.getProtocol().equals("https") ? 443 : 80) : url.getPort();
+        String path = url.getPath();
+
+        try (java.net.Socket socket = new java.net.Socket()) {
+            socket.connect(new InetSocketAddress(host, port), CALDAV_TIMEOUT_MS);
+            socket.setSoTimeout(CALDAV_TIMEOUT_MS);
+
+            java.io.OutputStream out = socket.getOutputStream();
+            java.io.BufferedReader in = new java.io.BufferedReader(
+                    new java.io.InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            // Формируем HTTP запрос с методом MKCOL
+            StringBuilder request = new StringBuilder();
+            request.append("MKCOL ").append(path).append(" HTTP/1.1\r\n");
+            request.append("Host: ").append(host);
+            if (port != 80 && port != 443) {
+                request.append(":").append(port);
+            }
+            request.append("\r\n");
+            request.append("Authorization: ").append(basicAuth(email, password)).append("\r\n");
+            request.append("Content-Type: application/xml; charset=utf-8\r\n");
+            request.append("Depth: 0\r\n");
+            request.append("Content-Length: ").append(mkcolBody.getBytes(StandardCharsets.UTF_8).length).append("\r\n");
+            request.append("Connection: close\r\n");
+            request.append("\r\n");
+            request.append(mkcolBody);
+
+            // Отправляем запрос
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            // Читаем ответ
+            String responseLine = in.readLine();
+            if (responseLine == null) {
+                throw new IOException("Пустой ответ от Radicale на MKCOL " + calendarUrl);
+            }
+
+            // Парсим статус код из первой строки ответа (например, "HTTP/1.1 201 Created")
+            int responseCode = parseStatusCode(responseLine);
+            log.debug("Ответ от Radicale при создании календаря {}: {} ({})", calendarUrl, responseCode, responseLine);
+            if (responseCode >= 500) {
+                throw new IOException("Radicale вернул код " + responseCode + " на MKCOL " + calendarUrl);
+            }
+            return responseCode;
+        }
+    }
+
+    private static String basicAuth(String username, String password) {
+        String auth = username + ":" + password;
+        return "Basic " + Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+    }
+
     /**
      * Парсит статус код из первой строки HTTP ответа
      * Формат: "HTTP/1.1 201 Created" или "HTTP/1.0 201 Created"
@@ -241,79 +285,6 @@ public class CalendarProvisioningService {
         return -1;
     }
 
-    /**
-     * Извлекает username из email для Radicale
-     * Radicale обычно использует часть до @ или весь email
-     */
-    private String extractUsernameFromEmail(String email) {
-        // Используем весь email как username, так как Radicale поддерживает это
-        // Можно также использовать только часть до @
-        return email;
-    }
-
-
-    /**
-     * Очищает имя календаря от недопустимых символов для URL
-     */
-    private String sanitizeCalendarName(String name) {
-        // Транслитерируем русские буквы в латиницу для совместимости с файловой системой и URL
-        String transliterated = transliterateRussianToLatin(name);
-        // Удаляем недопустимые символы для URL и файловой системы (оставляем только латиницу, цифры, пробелы и дефисы)
-        String sanitized = transliterated.replaceAll("[^a-zA-Z0-9\\s-]", "")
-                .replaceAll("\\s+", "-")
-                .toLowerCase();
-        // Если после санитизации имя пустое или слишком короткое, используем дефолтное имя
-        if (sanitized.isEmpty() || sanitized.length() < 2) {
-            sanitized = "calendar";
-        }
-        return sanitized;
-    }
-    
-    /**
-     * Транслитерирует русские буквы в латиницу
-     */
-    private String transliterateRussianToLatin(String text) {
-        if (text == null || text.isEmpty()) {
-            return text;
-        }
-        
-        // Простая транслитерация для основных русских букв
-        return text
-                .replace("А", "A").replace("а", "a")
-                .replace("Б", "B").replace("б", "b")
-                .replace("В", "V").replace("в", "v")
-                .replace("Г", "G").replace("г", "g")
-                .replace("Д", "D").replace("д", "d")
-                .replace("Е", "E").replace("е", "e")
-                .replace("Ё", "E").replace("ё", "e")
-                .replace("Ж", "Zh").replace("ж", "zh")
-                .replace("З", "Z").replace("з", "z")
-                .replace("И", "I").replace("и", "i")
-                .replace("Й", "Y").replace("й", "y")
-                .replace("К", "K").replace("к", "k")
-                .replace("Л", "L").replace("л", "l")
-                .replace("М", "M").replace("м", "m")
-                .replace("Н", "N").replace("н", "n")
-                .replace("О", "O").replace("о", "o")
-                .replace("П", "P").replace("п", "p")
-                .replace("Р", "R").replace("р", "r")
-                .replace("С", "S").replace("с", "s")
-                .replace("Т", "T").replace("т", "t")
-                .replace("У", "U").replace("у", "u")
-                .replace("Ф", "F").replace("ф", "f")
-                .replace("Х", "Kh").replace("х", "kh")
-                .replace("Ц", "Ts").replace("ц", "ts")
-                .replace("Ч", "Ch").replace("ч", "ch")
-                .replace("Ш", "Sh").replace("ш", "sh")
-                .replace("Щ", "Shch").replace("щ", "shch")
-                .replace("Ъ", "").replace("ъ", "")
-                .replace("Ы", "Y").replace("ы", "y")
-                .replace("Ь", "").replace("ь", "")
-                .replace("Э", "E").replace("э", "e")
-                .replace("Ю", "Yu").replace("ю", "yu")
-                .replace("Я", "Ya").replace("я", "ya");
-    }
-
     public record RadicaleAccountResponse(
             String accountId,  // email пользователя
             String calendarId, // имя календаря
@@ -2,21 +2,24 @@ package com.copilot.tools.calendar;
 
 import com.copilot.auth.model.User;
 import com.copilot.auth.repository.UserRepository;
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.exception.InvalidRequestException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
 import com.copilot.tools.calendar.dto.CreateEventRequest;
 import com.copilot.tools.calendar.dto.EventResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.OutputStream;
+import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URI;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
@@ -29,11 +32,17 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class CalendarService {
 
+    /**
+     * Максимальное количество ближайших событий в одном ответе
+     */
+    public static final int MAX_UPCOMING_LIMIT = 500;
+
     private final UserRepository userRepository;
     private final CalendarProvisioningService calendarProvisioningService;
-
-    @Value("${calendar.caldav.base-url:http://calendar:5232}")
-    private String caldavBaseUrl;
+    private final CalendarAddressing calendarAddressing;
+    private final CalendarSyncService calendarSyncService;
+    private final CalendarEventCache eventCache;
+    private final DependencyGuard dependencyGuard;
 
     /**
      * Создает событие в календаре для всех участников
@@ -63,6 +72,10 @@ public class CalendarService {
             try {
                 createEventInCalendar(attendee, request, eventId, organizerEmail, endTime);
                 log.info("Событие создано в календаре участника: {}", attendeeEmail);
+            } catch (DependencyUnavailableException e) {
+                // Radicale недоступен: остальные участники тоже будут отклонены, прерываем без ожидания таймаутов
+                log.warn("Создание события '{}' прервано: {}", request.title(), e.getMessage());
+                throw e;
             } catch (Exception e) {
                 // Если у пользователя нет календаря (нет calendarPassword), пропускаем его
                 if (e.getMessage() != null && e.getMessage().contains("не настроен пароль календаря")) {
@@ -90,6 +103,69 @@ public class CalendarService {
         );
     }
 
+    /**
+     * Возвращает ближайшие события пользователя (начиная с текущего момента) из локального кэша
+     * @throws InvalidRequestException если limit вне [1, MAX_UPCOMING_LIMIT]
+     */
+    public List<EventResponse> getUpcomingEvents(String userEmail, int limit) {
+        if (limit < 1 || limit > MAX_UPCOMING_LIMIT) {
+            throw new InvalidRequestException("Количество событий должно быть от 1 до " + MAX_UPCOMING_LIMIT);
+        }
+        User user = findCalendarOwner(userEmail);
+        CalendarEventCache.CalendarState state = calendarSyncService.ensureSynced(user);
+        return state.findUpcoming(Instant.now(), limit).stream()
+                .map(CalendarEvent::toResponse)
+                .toList();
+    }
+
+    /**
+     * Возвращает события пользователя, пересекающиеся с интервалом [from, to), из локального кэша
+     * @throws InvalidRequestException если начало интервала не раньше конца
+     */
+    public List<EventResponse> getEventsInRange(String userEmail, LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            throw new InvalidRequestException("Начало интервала должно быть раньше конца");
+        }
+        User user = findCalendarOwner(userEmail);
+        CalendarEventCache.CalendarState state = calendarSyncService.ensureSynced(user);
+        ZoneId zone = ZoneId.systemDefault();
+        return state.findInRange(from.atZone(zone).toInstant(), to.atZone(zone).toInstant()).stream()
+                .map(CalendarEvent::toResponse)
+                .toList();
+    }
+
+    private User findCalendarOwner(String userEmail) {
+        User user = userRepository.findByEmailAndDeletedAtIsNull(userEmail)
+                .orElseThrow(() -> new RuntimeException("Пользователь не найден: " + userEmail));
+        if (user.getCalendarPassword() == null) {
+            throw new RuntimeException("У пользователя " + userEmail + " не настроен пароль календаря");
+        }
+        return user;
+    }
+
+    /**
+     * Добавляет только что созданное событие в кэш, чтобы оно было видно до следующей синхронизации
+     */
+    private void cacheCreatedEvent(User user, String eventUrl, String etag, String eventId,
+                                   CreateEventRequest request, LocalDateTime endTime) {
+        CalendarEventCache.CalendarState state = eventCache.find(user.getId());
+        if (state == null || !state.isSynced()) {
+            return;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        state.put(new CalendarEvent(
+                eventId + "@business-assistant.local",
+                URI.create(eventUrl).getRawPath(),
+                etag,
+                request.title(),
+                request.startTime().atZone(zone).toInstant(),
+                endTime.atZone(zone).toInstant(),
+                request.description(),
+                request.location(),
+                List.copyOf(request.attendeeEmails())
+        ));
+    }
+
     /**
      * Создает событие в календаре конкретного пользователя через CalDAV PUT
      */
@@ -102,52 +178,14 @@ public class CalendarService {
             throw new RuntimeException("У пользователя " + user.getEmail() + " не настроен пароль календаря");
         }
 
-        // Формируем URL события в календаре
-        // ВАЖНО: Используем ту же логику, что и при создании календаря в CalendarProvisioningService
-        String username = extractUsernameFromEmail(user.getEmail());
-        String calendarName = sanitizeCalendarName(user.getFirstName() != null && !user.getFirstName().isEmpty()
-                ? user.getFirstName() + "'s Calendar" 
-                : "Work Calendar");
-        String encodedUsername = URLEncoder.encode(username, StandardCharsets.UTF_8);
-        String encodedCalendarName = URLEncoder.encode(calendarName, StandardCharsets.UTF_8);
-        String eventUrl = caldavBaseUrl + "/" + encodedUsername + "/" + encodedCalendarName + "/" + eventId + ".ics";
+        // Формируем URL события в календаре (тот же адрес, по которому календарь создается при провижининге)
+        String eventUrl = calendarAddressing.eventUrl(user, eventId);
         
-        log.info("Создание события в календаре для пользователя {}: URL={}, calendarName={}, firstName={}", 
-                user.getEmail(), eventUrl, calendarName, user.getFirstName());
-
-        // Генерируем iCalendar формат
-        String icalContent = generateICalendarContent(
-                eventId,
-                request.title(),
-                request.startTime(),
-                endTime,
-                request.description(),
-                request.attendeeEmails(),
-                organizerEmail,
-                request.location()
-        );
+        log.info("Создание события в календаре для пользователя {}: URL={}", user.getEmail(), eventUrl);
 
         try {
-            @SuppressWarnings("deprecation")
-            URL url = new URL(eventUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("PUT");
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
-
-            // Basic Auth
-            String auth = user.getEmail() + ":" + calendarPassword;
-            String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
-            connection.setRequestProperty("Authorization", "Basic " + encodedAuth);
-            connection.setRequestProperty("Content-Type", "text/calendar; charset=utf-8");
-
-            // Отправляем iCalendar контент
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = icalContent.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
-
+            HttpURLConnection connection = dependencyGuard.call(DependencyHealthTracker.RADICALE,
+                    () -> putEvent(eventUrl, user, calendarPassword, request, eventId, organizerEmail, endTime));
             int responseCode = connection.getResponseCode();
             String responseMessage = connection.getResponseMessage();
             
@@ -156,6 +194,7 @@ public class CalendarService {
 
             if (responseCode == HttpURLConnection.HTTP_CREATED || responseCode == 201 || responseCode == 204) {
                 log.info("Событие успешно создано в календаре: {}", eventUrl);
+                cacheCreatedEvent(user, eventUrl, connection.getHeaderField("ETag"), eventId, request, endTime);
             } else if (responseCode == 409) {
                 // Событие уже существует - это нормально, считаем успехом
                 log.info("Событие уже существует в календаре (409): {}. Продолжаем выполнение.", eventUrl);
@@ -195,6 +234,8 @@ public class CalendarService {
                 throw new RuntimeException("Не удалось создать событие в календаре: " + responseCode + " - " + errorMessage);
             }
 
+        } catch (DependencyUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Ошибка при создании события через CalDAV: {}", e.getMessage(), e);
             throw new RuntimeException("Не удалось создать событие через CalDAV: " + e.getMessage(), e);
@@ -202,141 +243,79 @@ public class CalendarService {
     }
 
     /**
-     * Генерирует iCalendar (RFC 5545) контент для события
+     * Отправляет PUT события и дожидается кода ответа. Ответ 5xx - сбой Radicale, он бросается как IOException,
+     * чтобы его учел circuit breaker; остальные коды разбирает вызывающий.
      */
-    private String generateICalendarContent(String eventId, String title, 
-                                           LocalDateTime startTime, LocalDateTime endTime,
-                                           String description, List<String> attendeeEmails,
-                                           String organizerEmail, String location) {
-        // Форматируем даты в формат iCalendar (UTC)
-        DateTimeFormatter icalFormatter = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
-        String dtStart = startTime.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneId.of("UTC"))
-                .format(icalFormatter);
-        String dtEnd = endTime.atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneId.of("UTC"))
-                .format(icalFormatter);
-        String dtStamp = LocalDateTime.now().atZone(ZoneId.systemDefault()).withZoneSameInstant(ZoneId.of("UTC"))
-                .format(icalFormatter);
-
-        StringBuilder ical = new StringBuilder();
-        ical.append("BEGIN:VCALENDAR\r\n");
-        ical.append("VERSION:2.0\r\n");
-        ical.append("PRODID:-//Business Assistant//Calendar Service//EN\r\n");
-        ical.append("CALSCALE:GREGORIAN\r\n");
-        ical.append("METHOD:REQUEST\r\n");
-        ical.append("BEGIN:VEVENT\r\n");
-        ical.append("UID:").append(eventId).append("@business-assistant.local\r\n");
-        ical.append("DTSTAMP:").append(dtStamp).append("\r\n");
-        ical.append("DTSTART:").append(dtStart).append("\r\n");
-        ical.append("DTEND:").append(dtEnd).append("\r\n");
-        ical.append("SUMMARY:").append(escapeICalText(title)).append("\r\n");
-        
-        if (description != null && !description.isEmpty()) {
-            ical.append("DESCRIPTION:").append(escapeICalText(description)).append("\r\n");
-        }
-        
-        if (location != null && !location.isEmpty()) {
-            ical.append("LOCATION:").append(escapeICalText(location)).append("\r\n");
-        }
-        
-        ical.append("ORGANIZER;CN=").append(escapeICalText(organizerEmail))
-                .append(":MAILTO:").append(organizerEmail).append("\r\n");
-        
-        // Добавляем участников
-        for (String attendeeEmail : attendeeEmails) {
-            ical.append("ATTENDEE;CN=").append(escapeICalText(attendeeEmail))
-                    .append(";RSVP=TRUE:MAILTO:").append(attendeeEmail).append("\r\n");
-        }
-        
-        ical.append("STATUS:CONFIRMED\r\n");
-        ical.append("SEQUENCE:0\r\n");
-        ical.append("END:VEVENT\r\n");
-        ical.append("END:VCALENDAR\r\n");
+    private HttpURLConnection putEvent(String eventUrl, User user, String calendarPassword, CreateEventRequest request,
+                                       String eventId, String organizerEmail, LocalDateTime endTime) throws IOException {
+        @SuppressWarnings("deprecation")
+        URL url = new URL(eventUrl);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(10000);
 
-        return ical.toString();
-    }
+        // Basic Auth
+        String auth = user.getEmail() + ":" + calendarPassword;
+        String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+        connection.setRequestProperty("Authorization", "Basic " + encodedAuth);
+        connection.setRequestProperty("Content-Type", "text/calendar; charset=utf-8");
 
-    /**
-     * Экранирует специальные символы для iCalendar формата
-     */
-    private String escapeICalText(String text) {
-        if (text == null) {
-            return "";
+        // Пишем iCalendar контент сразу в тело запроса
+        try (ICalWriter ical = new ICalWriter(connection.getOutputStream())) {
+            writeICalendarContent(ical, eventId, request.title(), request.startTime(), endTime,
+                    request.description(), request.attendeeEmails(), organizerEmail, request.location());
         }
-        return text.replace("\\", "\\\\")
-                .replace(",", "\\,")
-                .replace(";", "\\;")
-                .replace("\n", "\\n")
-                .replace("\r", "");
-    }
 
-    /**
-     * Извлекает username из email для Radicale
-     */
-    private String extractUsernameFromEmail(String email) {
-        return email;
+        int responseCode = connection.getResponseCode();
+        if (responseCode >= 500) {
+            throw new IOException("Radicale вернул код " + responseCode + ": " + readErrorResponse(connection));
+        }
+        return connection;
     }
 
     /**
-     * Очищает имя календаря от недопустимых символов
+     * Записывает iCalendar (RFC 5545) контент для события
      */
-    private String sanitizeCalendarName(String name) {
-        // Транслитерируем русские буквы в латиницу для совместимости с файловой системой и URL
-        String transliterated = transliterateRussianToLatin(name);
-        // Удаляем недопустимые символы для URL и файловой системы (оставляем только латиницу, цифры, пробелы и дефисы)
-        String sanitized = transliterated.replaceAll("[^a-zA-Z0-9\\s-]", "")
-                .replaceAll("\\s+", "-")
-                .toLowerCase();
-        // Если после санитизации имя пустое или слишком короткое, используем дефолтное имя
-        if (sanitized.isEmpty() || sanitized.length() < 2) {
-            sanitized = "calendar";
+    private void writeICalendarContent(ICalWriter ical, String eventId, String title,
+                                       LocalDateTime startTime, LocalDateTime endTime,
+                                       String description, List<String> attendeeEmails,
+                                       String organizerEmail, String location) throws IOException {
+        ZoneId zone = ZoneId.systemDefault();
+
+        ical.begin("VCALENDAR")
+                .property("VERSION", "2.0")
+                .property("PRODID", "-//Business Assistant//Calendar Service//EN")
+                .property("CALSCALE", "GREGORIAN")
+                .property("METHOD", "REQUEST")
+                .begin("VEVENT")
+                .property("UID", eventId + "@business-assistant.local")
+                .dateTime("DTSTAMP", Instant.now())
+                .dateTime("DTSTART", startTime.atZone(zone).toInstant())
+                .dateTime("DTEND", endTime.atZone(zone).toInstant())
+                .text("SUMMARY", title);
+
+        if (description != null && !description.isEmpty()) {
+            ical.text("DESCRIPTION", description);
         }
-        return sanitized;
-    }
-    
-    /**
-     * Транслитерирует русские буквы в латиницу
-     * ВАЖНО: Использует ту же логику, что и CalendarProvisioningService
-     */
-    private String transliterateRussianToLatin(String text) {
-        if (text == null || text.isEmpty()) {
-            return text;
+
+        if (location != null && !location.isEmpty()) {
+            ical.text("LOCATION", location);
         }
-        
-        // Простая транслитерация для основных русских букв
-        return text
-                .replace("А", "A").replace("а", "a")
-                .replace("Б", "B").replace("б", "b")
-                .replace("В", "V").replace("в", "v")
-                .replace("Г", "G").replace("г", "g")
-                .replace("Д", "D").replace("д", "d")
-                .replace("Е", "E").replace("е", "e")
-                .replace("Ё", "E").replace("ё", "e")
-                .replace("Ж", "Zh").replace("ж", "zh")
-                .replace("З", "Z").replace("з", "z")
-                .replace("И", "I").replace("и", "i")
-                .replace("Й", "Y").replace("й", "y")
-                .replace("К", "K").replace("к", "k")
-                .replace("Л", "L").replace("л", "l")
-                .replace("М", "M").replace("м", "m")
-                .replace("Н", "N").replace("н", "n")
-                .replace("О", "O").replace("о", "o")
-                .replace("П", "P").replace("п", "p")
-                .replace("Р", "R").replace("р", "r")
-                .replace("С", "S").replace("с", "s")
-                .replace("Т", "T").replace("т", "t")
-                .replace("У", "U").replace("у", "u")
-                .replace("Ф", "F").replace("ф", "f")
-                .replace("Х", "Kh").replace("х", "kh")
-                .replace("Ц", "Ts").replace("ц", "ts")
-                .replace("Ч", "Ch").replace("ч", "ch")
-                .replace("Ш", "Sh").replace("ш", "sh")
-                .replace("Щ", "Shch").replace("щ", "shch")
-                .replace("Ъ", "").replace("ъ", "")
-                .replace("Ы", "Y").replace("ы", "y")
-                .replace("Ь", "").replace("ь", "")
-                .replace("Э", "E").replace("э", "e")
-                .replace("Ю", "Yu").replace("ю", "yu")
-                .replace("Я", "Ya").replace("я", "ya");
+
+        ical.property("ORGANIZER", ICalWriter.param("CN", organizerEmail), "MAILTO:" + organizerEmail);
+
+        // Добавляем участников
+        for (String attendeeEmail : attendeeEmails) {
+            ical.property("ATTENDEE", ICalWriter.param("CN", attendeeEmail) + ";RSVP=TRUE",
+                    "MAILTO:" + attendeeEmail);
+        }
+
+        ical.property("STATUS", "CONFIRMED")
+                .property("SEQUENCE", "0")
+                .end("VEVENT")
+                .end("VCALENDAR");
     }
 
     /**
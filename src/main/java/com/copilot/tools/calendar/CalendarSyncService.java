@@ -0,0 +1,428 @@
+package com.copilot.tools.calendar;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Инкрементальная синхронизация календарей из Radicale в локальный кэш
+ * через RFC 6578 sync-collection REPORT (вместо полного PROPFIND обхода)
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CalendarSyncService {
+
+    private static final String DAV_NS = "DAV:";
+    private static final Duration HTTP_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final String SYNC_COLLECTION_BODY = """
+            <?xml version="1.0" encoding="utf-8" ?>
+            <D:sync-collection xmlns:D="DAV:" xmlns:C="urn:ietf:params:xml:ns:caldav">
+                <D:sync-token>%s</D:sync-token>
+                <D:sync-level>1</D:sync-level>
+                <D:prop>
+                    <D:getetag/>
+                    <C:calendar-data/>
+                </D:prop>
+            </D:sync-collection>
+            """;
+
+    private final CalendarEventCache eventCache;
+    private final CalendarAddressing calendarAddressing;
+    private final UserRepository userRepository;
+    private final DependencyGuard dependencyGuard;
+
+    // HttpURLConnection не поддерживает метод REPORT, поэтому используем java.net.http.HttpClient
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(HTTP_TIMEOUT)
+            .build();
+
+    private final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    @Value("${calendar.sync.idle-eviction-hours:24}")
+    private long idleEvictionHours;
+
+    /**
+     * Возвращает состояние календаря пользователя, синхронизируя его при первом обращении.
+     * Последующие запросы обслуживаются из кэша, актуальность поддерживает фоновый refreshAll.
+     */
+    public CalendarEventCache.CalendarState ensureSynced(User user) {
+        CalendarEventCache.CalendarState state = eventCache.state(user.getId());
+        state.touch();
+        if (!state.isSynced()) {
+            synchronized (state) {
+                if (!state.isSynced()) {
+                    sync(user, state);
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Фоновое обновление кэша для пользователей, которые недавно обращались к календарю
+     */
+    @Scheduled(initialDelayString = "${calendar.sync.refresh-interval-ms:300000}",
+            fixedDelayString = "${calendar.sync.refresh-interval-ms:300000}")
+    public void refreshAll() {
+        Instant idleThreshold = Instant.now().minus(Duration.ofHours(idleEvictionHours));
+        List<UUID> activeUserIds = new ArrayList<>();
+        for (UUID userId : eventCache.userIds()) {
+            CalendarEventCache.CalendarState state = eventCache.find(userId);
+            if (state == null) {
+                continue;
+            }
+            if (state.getLastAccessedAt().isBefore(idleThreshold)) {
+                eventCache.evict(userId);
+                log.debug("Кэш календаря пользователя {} удален после простоя", userId);
+            } else {
+                activeUserIds.add(userId);
+            }
+        }
+
+        if (activeUserIds.isEmpty()) {
+            return;
+        }
+
+        log.debug("Фоновая синхронизация календарей для {} пользователей", activeUserIds.size());
+        for (User user : userRepository.findAllById(activeUserIds)) {
+            CalendarEventCache.CalendarState state = eventCache.find(user.getId());
+            if (state == null || user.getCalendarPassword() == null) {
+                continue;
+            }
+            try {
+                synchronized (state) {
+                    sync(user, state);
+                }
+            } catch (Exception e) {
+                log.warn("Не удалось синхронизировать календарь пользователя {}: {}", user.getEmail(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Выполняет один цикл синхронизации: отправляет текущий sync-token и применяет полученные изменения.
+     * Если сервер отверг токен (valid-sync-token precondition), выполняется полная ресинхронизация:
+     * календарь собирается в отдельном состоянии и подменяет текущее только после успешной загрузки.
+     */
+    void sync(User user, CalendarEventCache.CalendarState state) {
+        if (user.getCalendarPassword() == null) {
+            throw new RuntimeException("У пользователя " + user.getEmail() + " не настроен пароль календаря");
+        }
+
+        String calendarUrl = calendarAddressing.calendarUrl(user);
+        String token = state.getSyncToken();
+        SyncResult result = report(user, calendarUrl, token);
+        CalendarEventCache.CalendarState target = state;
+
+        if (result.tokenRejected() && token != null) {
+            log.info("Radicale отверг sync-token для {}, выполняем полную синхронизацию", user.getEmail());
+            // До конца загрузки запросы обслуживаются прежними событиями; при сбое они остаются в кэше
+            target = new CalendarEventCache.CalendarState();
+            result = report(user, calendarUrl, null);
+        }
+        if (result.tokenRejected()) {
+            throw new RuntimeException("Radicale отклонил запрос синхронизации календаря " + calendarUrl);
+        }
+
+        if (result.notFound()) {
+            // Календарь еще не создан - считаем его пустым, он появится при первом событии
+            log.debug("Календарь {} не найден при синхронизации", calendarUrl);
+            target.markSynced(null);
+            if (target != state) {
+                state.replaceWith(target);
+            }
+            return;
+        }
+
+        int updated = 0;
+        int removed = 0;
+        for (SyncItem item : result.items()) {
+            if (item.deleted()) {
+                target.remove(item.href());
+                removed++;
+                continue;
+            }
+            if (item.etag() != null && item.etag().equals(target.etag(item.href()))) {
+                continue;
+            }
+            CalendarEvent event = item.calendarData() != null
+                    ? parseEvent(new StringReader(item.calendarData()), item.href(), item.etag())
+                    : fetchItem(user, calendarUrl, item.href(), item.etag());
+            if (event != null) {
+                target.put(event);
+                updated++;
+            }
+        }
+
+        target.markSynced(result.syncToken());
+        if (target != state) {
+            state.replaceWith(target);
+        }
+        log.debug("Календарь {} синхронизирован: обновлено {}, удалено {}, всего {}",
+                user.getEmail(), updated, removed, state.size());
+    }
+
+    private SyncResult report(User user, String calendarUrl, String token) {
+        String body = SYNC_COLLECTION_BODY.formatted(token != null ? token : "");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(calendarUrl))
+                .timeout(HTTP_TIMEOUT)
+                .header("Authorization", basicAuth(user))
+                .header("Content-Type", "application/xml; charset=utf-8")
+                .header("Depth", "0")
+                .method("REPORT", HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+
+        try {
+            HttpResponse<InputStream> response = send(request);
+            int status = response.statusCode();
+            try (InputStream in = response.body()) {
+                if (status == 207) {
+                    return parseMultistatus(in);
+                }
+                if (status == 404) {
+                    return SyncResult.missing();
+                }
+                if (status == 403 || status == 409) {
+                    return SyncResult.rejected();
+                }
+                throw new RuntimeException("Radicale вернул код " + status + " на sync-collection " + calendarUrl);
+            }
+        } catch (InterruptedIOException e) {
+            throw new RuntimeException("Синхронизация календаря прервана", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка синхронизации календаря " + calendarUrl + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Запрос к Radicale под circuit breaker и bulkhead. Ответ 5xx считается сбоем сервера.
+     * Прерывание потока приходит как InterruptedIOException с выставленным флагом прерывания.
+     */
+    private HttpResponse<InputStream> send(HttpRequest request) throws IOException {
+        return dependencyGuard.call(DependencyHealthTracker.RADICALE, () -> {
+            HttpResponse<InputStream> response;
+            try {
+                response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Запрос к Radicale прерван");
+            }
+            if (response.statusCode() >= 500) {
+                response.body().close();
+                throw new IOException("Radicale вернул код " + response.statusCode() + " на " + request.method()
+                        + " " + request.uri());
+            }
+            return response;
+        });
+    }
+
+    /**
+     * Догружает ресурс, если сервер не вернул calendar-data в ответе sync-collection.
+     * Тело ответа разбирается потоково, без чтения в строку.
+     */
+    private CalendarEvent fetchItem(User user, String calendarUrl, String href, String etag) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(calendarUrl).resolve(href))
+                .timeout(HTTP_TIMEOUT)
+                .header("Authorization", basicAuth(user))
+                .GET()
+                .build();
+        try {
+            HttpResponse<InputStream> response = send(request);
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    return null;
+                }
+                return parseEvent(new InputStreamReader(body, StandardCharsets.UTF_8), href, etag);
+            }
+        } catch (InterruptedIOException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Не удалось загрузить событие {}: {}", href, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Потоково разбирает DAV:multistatus ответ, не строя DOM всего документа
+     */
+    private SyncResult parseMultistatus(InputStream in) {
+        List<SyncItem> items = new ArrayList<>();
+        String syncToken = null;
+
+        try {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in, "UTF-8");
+            try {
+                boolean inResponse = false;
+                boolean inPropstat = false;
+                String href = null;
+                String responseStatus = null;
+                String propstatStatus = null;
+                String etag = null;
+                String calendarData = null;
+                String propstatEtag = null;
+                String propstatData = null;
+
+                while (reader.hasNext()) {
+                    int eventType = reader.next();
+                    if (eventType == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        switch (name) {
+                            case "response" -> {
+                                inResponse = true;
+                                href = null;
+                                responseStatus = null;
+                                etag = null;
+                                calendarData = null;
+                            }
+                            case "propstat" -> {
+                                inPropstat = true;
+                                propstatStatus = null;
+                                propstatEtag = null;
+                                propstatData = null;
+                            }
+                            case "href" -> {
+                                if (inResponse && href == null) {
+                                    href = reader.getElementText().trim();
+                                }
+                            }
+                            case "status" -> {
+                                String status = reader.getElementText().trim();
+                                if (inPropstat) {
+                                    propstatStatus = status;
+                                } else if (inResponse) {
+                                    responseStatus = status;
+                                }
+                            }
+                            case "getetag" -> propstatEtag = emptyToNull(reader.getElementText().trim());
+                            case "calendar-data" -> propstatData = emptyToNull(reader.getElementText());
+                            case "sync-token" -> {
+                                if (!inResponse && DAV_NS.equals(reader.getNamespaceURI())) {
+                                    syncToken = reader.getElementText().trim();
+                                }
+                            }
+                            default -> {
+                            }
+                        }
+                    } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if ("propstat".equals(name)) {
+                            inPropstat = false;
+                            // Свойства из неуспешного propstat (например, 404 для calendar-data) не используем
+                            if (propstatStatus == null || propstatStatus.contains(" 200")) {
+                                etag = propstatEtag != null ? propstatEtag : etag;
+                                calendarData = propstatData != null ? propstatData : calendarData;
+                            }
+                        } else if ("response".equals(name)) {
+                            inResponse = false;
+                            if (href != null) {
+                                boolean deleted = responseStatus != null && responseStatus.contains(" 404");
+                                items.add(new SyncItem(href, etag, calendarData, deleted));
+                            }
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Не удалось разобрать ответ sync-collection: " + e.getMessage(), e);
+        }
+
+        return new SyncResult(items, syncToken, false, false);
+    }
+
+    /**
+     * Разбирает событие CalDAV ресурса. Один ресурс - одно событие кэша, поэтому из нескольких VEVENT
+     * берется основная (без RECURRENCE-ID), а измененные экземпляры повторяющегося события пропускаются.
+     * RRULE не разворачивается: повторяющееся событие видно в кэше только первым вхождением (DTSTART).
+     */
+    private CalendarEvent parseEvent(Reader calendarData, String href, String etag) {
+        try (ICalReader reader = new ICalReader(calendarData)) {
+            ICalReader.VEvent first = null;
+            ICalReader.VEvent event;
+            while ((event = reader.nextEvent()) != null) {
+                if (event.recurrenceId() == null) {
+                    break;
+                }
+                if (first == null) {
+                    first = event;
+                }
+            }
+            if (event == null) {
+                event = first;
+            }
+            if (event == null) {
+                log.debug("Пропускаем ресурс {} без VEVENT", href);
+                return null;
+            }
+            if (event.rrule() != null) {
+                log.debug("Повторяющееся событие {} ({}) кэшируется только первым вхождением", event.uid(), href);
+            }
+            return event.toCalendarEvent(href, etag);
+        } catch (IOException e) {
+            log.warn("Не удалось разобрать событие {}: {}", href, e.getMessage());
+            return null;
+        }
+    }
+
+    private String basicAuth(User user) {
+        String auth = user.getEmail() + ":" + user.getCalendarPassword();
+        return "Basic " + Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private record SyncItem(String href, String etag, String calendarData, boolean deleted) {
+    }
+
+    private record SyncResult(List<SyncItem> items, String syncToken, boolean tokenRejected, boolean notFound) {
+        static SyncResult rejected() {
+            return new SyncResult(List.of(), null, true, false);
+        }
+
+        static SyncResult missing() {
+            return new SyncResult(List.of(), null, false, true);
+        }
+    }
+}
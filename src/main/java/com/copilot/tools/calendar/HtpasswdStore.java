@@ -0,0 +1,233 @@
+package com.copilot.tools.calendar;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Файл пользователей Radicale (htpasswd), который приложение пишет само, без docker exec htpasswd.
+ * Записи хешируются в Java (MD5-apr1 или bcrypt) и копятся в очереди: все записи, пришедшие
+ * за окно группировки, применяются одной атомарной заменой файла под файловой блокировкой.
+ * Параллельный импорт тысячи пользователей дает несколько перезаписей файла вместо тысячи процессов.
+ */
+@Slf4j
+@Component
+public class HtpasswdStore {
+
+    private final Path usersFile;
+    private final String algorithm;
+    private final long batchWindowMs;
+
+    private final LinkedBlockingQueue<PendingEntry> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean writerRunning = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public HtpasswdStore(@Value("${calendar.htpasswd.path:/data/users}") String usersFile,
+                         @Value("${calendar.htpasswd.algorithm:md5}") String algorithm,
+                         @Value("${calendar.htpasswd.batch-window-ms:50}") long batchWindowMs) {
+        this.usersFile = Path.of(usersFile);
+        this.algorithm = algorithm.toLowerCase();
+        this.batchWindowMs = batchWindowMs;
+        if (!this.algorithm.equals("md5") && !this.algorithm.equals("bcrypt")) {
+            throw new IllegalArgumentException("Неподдерживаемый алгоритм htpasswd: " + algorithm);
+        }
+    }
+
+    /**
+     * Ставит пользователя в очередь на запись. Если пользователь уже есть в файле, его пароль заменяется.
+     * @return future, завершающийся после того, как запись попала в файл
+     */
+    public CompletableFuture<Void> addUser(String username, String password) {
+        validateUsername(username);
+        PendingEntry entry = new PendingEntry(username, hash(password), new CompletableFuture<>());
+        queue.add(entry);
+        startWriter();
+        return entry.written();
+    }
+
+    /**
+     * Ставит в очередь удаление пользователя из файла. Отсутствующий пользователь не считается ошибкой.
+     * @return future, завершающийся после того, как файл записан без пользователя
+     */
+    public CompletableFuture<Void> removeUser(String username) {
+        validateUsername(username);
+        PendingEntry entry = new PendingEntry(username, null, new CompletableFuture<>());
+        queue.add(entry);
+        startWriter();
+        return entry.written();
+    }
+
+    String hash(String password) {
+        return algorithm.equals("bcrypt") ? BCrypt.hashpw(password, BCrypt.gensalt(10)) : Apr1Crypt.hash(password);
+    }
+
+    private static void validateUsername(String username) {
+        if (username == null || username.isBlank() || username.indexOf(':') >= 0
+                || username.indexOf('\n') >= 0 || username.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Некорректное имя пользователя htpasswd: " + username);
+        }
+    }
+
+    private void startWriter() {
+        if (writerRunning.compareAndSet(false, true)) {
+            executor.execute(this::drainQueue);
+        }
+    }
+
+    /**
+     * Один писатель на процесс: ждет окно группировки, забирает все накопленные записи и пишет их разом
+     */
+    private void drainQueue() {
+        while (true) {
+            pause();
+            List<PendingEntry> batch = new ArrayList<>();
+            queue.drainTo(batch);
+            if (batch.isEmpty()) {
+                writerRunning.set(false);
+                // Запись могла прийти между drainTo и сбросом флага
+                if (queue.isEmpty() || !writerRunning.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            Map<String, String> entries = new HashMap<>();
+            for (PendingEntry entry : batch) {
+                entries.put(entry.username(), entry.hash());
+            }
+            try {
+                write(entries);
+                log.info("В htpasswd Radicale записано пользователей: {}", entries.size());
+                batch.forEach(entry -> entry.written().complete(null));
+            } catch (Exception e) {
+                log.warn("Не удалось записать {} пользователей в htpasswd {}: {}", entries.size(), usersFile, e.getMessage());
+                batch.forEach(entry -> entry.written().completeExceptionally(e));
+            }
+        }
+    }
+
+    private void pause() {
+        if (batchWindowMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(batchWindowMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Читает файл, заменяет, добавляет или удаляет строки пользователей и атомарно подменяет файл.
+     * Внутри процесса записи сериализуются монитором, блокировка на соседнем .lock файле
+     * защищает от одновременной записи другими инстансами приложения.
+     */
+    private synchronized void write(Map<String, String> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Path directory = usersFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path lockFile = directory.resolve(usersFile.getFileName() + ".lock");
+
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = lockChannel.lock()) {
+
+            List<String> lines = Files.exists(usersFile)
+                    ? new ArrayList<>(Files.readAllLines(usersFile, StandardCharsets.UTF_8))
+                    : new ArrayList<>();
+
+            // null вместо хеша - пользователь удаляется
+            Map<String, String> pending = new HashMap<>(entries);
+            for (ListIterator<String> iterator = lines.listIterator(); iterator.hasNext(); ) {
+                String line = iterator.next();
+                int separator = line.indexOf(':');
+                if (separator <= 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String username = line.substring(0, separator);
+                if (!pending.containsKey(username)) {
+                    continue;
+                }
+                String hash = pending.remove(username);
+                if (hash != null) {
+                    iterator.set(username + ":" + hash);
+                } else {
+                    iterator.remove();
+                }
+            }
+            pending.forEach((username, hash) -> {
+                if (hash != null) {
+                    lines.add(username + ":" + hash);
+                }
+            });
+
+            Path temp = Files.createTempFile(directory, "." + usersFile.getFileName(), ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+                copyPermissions(temp);
+                try {
+                    Files.move(temp, usersFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, usersFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Временный файл создается с правами 600, а Radicale должен читать файл под своим пользователем
+     */
+    private void copyPermissions(Path temp) {
+        try {
+            Set<PosixFilePermission> permissions = Files.exists(usersFile)
+                    ? Files.getPosixFilePermissions(usersFile)
+                    : Set.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+                             PosixFilePermission.GROUP_READ, PosixFilePermission.OTHERS_READ);
+            Files.setPosixFilePermissions(temp, permissions);
+        } catch (UnsupportedOperationException | IOException e) {
+            log.debug("Не удалось выставить права на файл htpasswd: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Дожидаемся записи уже поставленных в очередь пользователей
+        executor.close();
+    }
+
+    private record PendingEntry(String username, String hash, CompletableFuture<Void> written) {
+    }
+}
@@ -0,0 +1,274 @@
+package com.copilot.tools.calendar;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковое чтение VEVENT из iCalendar (RFC 5545).
+ * Строки разворачиваются на лету, события отдаются по одному через nextEvent(),
+ * поэтому большой календарь не нужно держать в памяти целиком.
+ * Правила повторения (RRULE) не разворачиваются: событие отдается как есть, с признаком rrule,
+ * а измененные экземпляры повторяющегося события приходят отдельными VEVENT с recurrenceId.
+ */
+@Slf4j
+public final class ICalReader implements Closeable {
+
+    private static final DateTimeFormatter LOCAL_DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+
+    private final BufferedReader reader;
+    private String lookahead;
+
+    public ICalReader(Reader source) {
+        this.reader = source instanceof BufferedReader buffered ? buffered : new BufferedReader(source);
+    }
+
+    /**
+     * Событие календаря без привязки к CalDAV ресурсу
+     */
+    public record VEvent(
+            String uid,
+            String summary,
+            String description,
+            String location,
+            Instant start,
+            Instant end,
+            List<String> attendeeEmails,
+            String recurrenceId,
+            String rrule
+    ) {
+        public CalendarEvent toCalendarEvent(String href, String etag) {
+            return new CalendarEvent(uid, href, etag, summary, start, end, description, location, attendeeEmails);
+        }
+    }
+
+    /**
+     * Читает следующую VEVENT. Возвращает null, когда событий больше нет.
+     * События без DTSTART пропускаются.
+     */
+    public VEvent nextEvent() throws IOException {
+        String line;
+        while ((line = nextLine()) != null) {
+            if (line.equalsIgnoreCase("BEGIN:VEVENT")) {
+                VEvent event = readEvent();
+                if (event != null) {
+                    return event;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private VEvent readEvent() throws IOException {
+        String uid = null;
+        String summary = null;
+        String description = null;
+        String location = null;
+        Instant start = null;
+        boolean allDay = false;
+        Instant end = null;
+        Duration duration = null;
+        List<String> attendees = new ArrayList<>();
+        String recurrenceId = null;
+        String rrule = null;
+        int nestedDepth = 0;
+
+        String line;
+        while ((line = nextLine()) != null) {
+            int colon = valueSeparator(line);
+            if (colon < 0) {
+                continue;
+            }
+            String nameAndParams = line.substring(0, colon);
+            String value = line.substring(colon + 1);
+            int semicolon = nameAndParams.indexOf(';');
+            String name = semicolon < 0 ? nameAndParams : nameAndParams.substring(0, semicolon);
+            String params = semicolon < 0 ? "" : nameAndParams.substring(semicolon + 1);
+
+            // Вложенные компоненты (VALARM) пропускаем, их свойства не относятся к событию
+            if (name.equalsIgnoreCase("BEGIN")) {
+                nestedDepth++;
+                continue;
+            }
+            if (name.equalsIgnoreCase("END")) {
+                if (nestedDepth == 0) {
+                    break;
+                }
+                nestedDepth--;
+                continue;
+            }
+            if (nestedDepth > 0) {
+                continue;
+            }
+
+            switch (name.toUpperCase()) {
+                case "UID" -> uid = value;
+                case "SUMMARY" -> summary = unescape(value);
+                case "DESCRIPTION" -> description = unescape(value);
+                case "LOCATION" -> location = unescape(value);
+                case "DTSTART" -> {
+                    start = parseDateTime(value, params);
+                    allDay = isDateValue(params);
+                }
+                case "DTEND" -> end = parseDateTime(value, params);
+                case "DURATION" -> duration = parseDuration(value);
+                case "RECURRENCE-ID" -> recurrenceId = value;
+                case "RRULE" -> rrule = value;
+                case "ATTENDEE" -> {
+                    if (value.regionMatches(true, 0, "mailto:", 0, 7)) {
+                        attendees.add(value.substring(7));
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        if (start == null) {
+            log.debug("Пропускаем VEVENT {} без DTSTART", uid);
+            return null;
+        }
+        if (end == null && duration != null) {
+            end = start.plus(duration);
+        }
+        if (end == null && allDay) {
+            // RFC 5545 3.6.1: событие-дата без DTEND и DURATION длится один день
+            end = start.atZone(ZoneId.systemDefault()).plusDays(1).toInstant();
+        }
+        if (end == null || end.isBefore(start)) {
+            end = start;
+        }
+        return new VEvent(uid, summary, description, location, start, end, List.copyOf(attendees),
+                recurrenceId, rrule);
+    }
+
+    /**
+     * Возвращает следующую логическую строку, склеивая продолжения (строки, начинающиеся с пробела или табуляции)
+     */
+    private String nextLine() throws IOException {
+        String line = lookahead != null ? lookahead : reader.readLine();
+        lookahead = null;
+        if (line == null) {
+            return null;
+        }
+
+        StringBuilder unfolded = null;
+        String next;
+        while ((next = reader.readLine()) != null
+                && !next.isEmpty() && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+            if (unfolded == null) {
+                unfolded = new StringBuilder(line.length() + next.length());
+                unfolded.append(line);
+            }
+            unfolded.append(next, 1, next.length());
+        }
+        lookahead = next;
+        return unfolded != null ? unfolded.toString() : line;
+    }
+
+    /**
+     * Позиция двоеточия, отделяющего значение; двоеточия внутри кавычек в параметрах не учитываются
+     */
+    private static int valueSeparator(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDateValue(String params) {
+        return params.contains("VALUE=DATE") && !params.contains("VALUE=DATE-TIME");
+    }
+
+    /**
+     * Разбирает DURATION (RFC 5545 3.3.6). Duration.parse не понимает недели, поэтому P{n}W разбирается отдельно
+     */
+    static Duration parseDuration(String value) {
+        try {
+            String text = value.trim();
+            boolean negative = text.startsWith("-");
+            String unsigned = negative || text.startsWith("+") ? text.substring(1) : text;
+            if (unsigned.length() > 2 && unsigned.endsWith("W") && (unsigned.charAt(0) == 'P' || unsigned.charAt(0) == 'p')) {
+                Duration weeks = Duration.ofDays(7 * Long.parseLong(unsigned.substring(1, unsigned.length() - 1)));
+                return negative ? weeks.negated() : weeks;
+            }
+            return Duration.parse(text);
+        } catch (Exception e) {
+            log.debug("Не удалось разобрать DURATION {}: {}", value, e.getMessage());
+            return null;
+        }
+    }
+
+    static Instant parseDateTime(String value, String params) {
+        try {
+            if (isDateValue(params)) {
+                return LocalDate.parse(value, DateTimeFormatter.BASIC_ISO_DATE)
+                        .atStartOfDay(ZoneId.systemDefault()).toInstant();
+            }
+            if (value.endsWith("Z")) {
+                return LocalDateTime.parse(value.substring(0, value.length() - 1), LOCAL_DATE_TIME)
+                        .toInstant(ZoneOffset.UTC);
+            }
+            ZoneId zone = ZoneId.systemDefault();
+            int tzidIndex = params.indexOf("TZID=");
+            if (tzidIndex >= 0) {
+                int endIndex = params.indexOf(';', tzidIndex);
+                String tzid = params.substring(tzidIndex + 5, endIndex < 0 ? params.length() : endIndex);
+                try {
+                    zone = ZoneId.of(tzid.replace("\"", ""));
+                } catch (Exception e) {
+                    log.debug("Неизвестный TZID {}, используем системную зону", tzid);
+                }
+            }
+            return LocalDateTime.parse(value, LOCAL_DATE_TIME).atZone(zone).toInstant();
+        } catch (Exception e) {
+            log.debug("Не удалось разобрать дату {}: {}", value, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Снимает экранирование TEXT-значения за один проход
+     */
+    static String unescape(String text) {
+        int backslash = text.indexOf('\\');
+        if (backslash < 0) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        result.append(text, 0, backslash);
+        for (int i = backslash; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                result.append(next == 'n' || next == 'N' ? '\n' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package com.copilot.tools.calendar;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Потоковая запись iCalendar (RFC 5545) в UTF-8.
+ * Экранирование TEXT-значений и складывание строк по 75 октетов выполняются за один проход
+ * прямо в выходной поток, без промежуточной строки всего документа.
+ */
+public final class ICalWriter implements Closeable {
+
+    static final DateTimeFormatter UTC_DATE_TIME = DateTimeFormatter
+            .ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private static final int MAX_LINE_OCTETS = 75;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] FOLD = {'\r', '\n', ' '};
+
+    private final OutputStream out;
+    private int lineOctets;
+
+    public ICalWriter(OutputStream out) {
+        this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 4096);
+    }
+
+    public ICalWriter begin(String component) throws IOException {
+        return property("BEGIN", component);
+    }
+
+    public ICalWriter end(String component) throws IOException {
+        return property("END", component);
+    }
+
+    /**
+     * Свойство со значением, которое записывается как есть (даты, URI, перечисления)
+     */
+    public ICalWriter property(String name, String value) throws IOException {
+        return property(name, null, value);
+    }
+
+    public ICalWriter property(String name, String params, String value) throws IOException {
+        startLine(name, params);
+        writeValue(value, false);
+        endLine();
+        return this;
+    }
+
+    /**
+     * Свойство типа TEXT: значение экранируется (\\ ; , и переводы строк)
+     */
+    public ICalWriter text(String name, String value) throws IOException {
+        startLine(name, null);
+        writeValue(value, true);
+        endLine();
+        return this;
+    }
+
+    public ICalWriter dateTime(String name, Instant instant) throws IOException {
+        return property(name, UTC_DATE_TIME.format(instant));
+    }
+
+    /**
+     * Формирует параметр свойства, при необходимости заключая значение в кавычки
+     */
+    public static String param(String name, String value) {
+        String cleaned = value == null ? "" : value.replace("\"", "");
+        boolean quote = false;
+        for (int i = 0; i < cleaned.length() && !quote; i++) {
+            char c = cleaned.charAt(i);
+            quote = c == ':' || c == ';' || c == ',';
+        }
+        return quote ? name + "=\"" + cleaned + "\"" : name + "=" + cleaned;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void startLine(String name, String params) throws IOException {
+        lineOctets = 0;
+        writeValue(name, false);
+        if (params != null && !params.isEmpty()) {
+            writeUnit(';');
+            writeValue(params, false);
+        }
+        writeUnit(':');
+    }
+
+    private void endLine() throws IOException {
+        out.write(CRLF);
+        lineOctets = 0;
+    }
+
+    private void writeValue(String value, boolean escape) throws IOException {
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; ) {
+            int codePoint = value.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            if (escape) {
+                switch (codePoint) {
+                    case '\\' -> writeEscaped('\\');
+                    case ';' -> writeEscaped(';');
+                    case ',' -> writeEscaped(',');
+                    case '\n' -> writeEscaped('n');
+                    case '\r' -> {
+                    }
+                    default -> writeUnit(codePoint);
+                }
+            } else {
+                writeUnit(codePoint);
+            }
+        }
+    }
+
+    private void writeEscaped(char c) throws IOException {
+        foldIfNeeded(2);
+        out.write('\\');
+        out.write(c);
+        lineOctets += 2;
+    }
+
+    /**
+     * Пишет один символ в UTF-8; многобайтовая последовательность никогда не разрывается складыванием
+     */
+    private void writeUnit(int codePoint) throws IOException {
+        if (codePoint < 0x80) {
+            foldIfNeeded(1);
+            out.write(codePoint);
+            lineOctets += 1;
+        } else if (codePoint < 0x800) {
+            foldIfNeeded(2);
+            out.write(0xC0 | (codePoint >> 6));
+            out.write(0x80 | (codePoint & 0x3F));
+            lineOctets += 2;
+        } else if (codePoint < 0x10000) {
+            foldIfNeeded(3);
+            out.write(0xE0 | (codePoint >> 12));
+            out.write(0x80 | ((codePoint >> 6) & 0x3F));
+            out.write(0x80 | (codePoint & 0x3F));
+            lineOctets += 3;
+        } else {
+            foldIfNeeded(4);
+            out.write(0xF0 | (codePoint >> 18));
+            out.write(0x80 | ((codePoint >> 12) & 0x3F));
+            out.write(0x80 | ((codePoint >> 6) & 0x3F));
+            out.write(0x80 | (codePoint & 0x3F));
+            lineOctets += 4;
+        }
+    }
+
+    private void foldIfNeeded(int octets) throws IOException {
+        if (lineOctets + octets > MAX_LINE_OCTETS) {
+            out.write(FOLD);
+            // Пробел в начале продолжения тоже входит в 75 октетов строки
+            lineOctets = 1;
+        }
+    }
+}
@@ -10,12 +10,16 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import io.swagger.v3.oas.annotations.Parameter;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 @Slf4j
 @RestController
 @RequestMapping("/calendar")
@@ -47,17 +51,53 @@ public class CalendarController {
         return ResponseEntity.status(HttpStatus.CREATED).body(event);
     }
 
+    @Operation(
+            summary = "Ближайшие события",
+            description = "Возвращает ближайшие события календаря текущего пользователя. " +
+                    "Данные берутся из локального кэша, который синхронизируется с CalDAV через sync-collection."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Список событий"),
+            @ApiResponse(responseCode = "400", description = "Неверное количество событий"),
+            @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
+    })
+    @GetMapping("/events")
+    public ResponseEntity<List<EventResponse>> getUpcomingEvents(
+            @Parameter(description = "Максимальное количество событий (от 1 до 500)")
+            @RequestParam(defaultValue = "50") int limit,
+            Authentication authentication) {
+        String userEmail = getCurrentUserEmail(authentication);
+        return ResponseEntity.ok(calendarService.getUpcomingEvents(userEmail, limit));
+    }
+
+    @Operation(
+            summary = "События за период",
+            description = "Возвращает события календаря текущего пользователя, пересекающиеся с периодом [from, to). " +
+                    "Запрос обслуживается из локального кэша без обращения к CalDAV."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Список событий"),
+            @ApiResponse(responseCode = "400", description = "Неверный период"),
+            @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
+    })
+    @GetMapping("/events/range")
+    public ResponseEntity<List<EventResponse>> getEventsInRange(
+            @Parameter(description = "Начало периода (ISO 8601)")
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @Parameter(description = "Конец периода (ISO 8601)")
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            Authentication authentication) {
+        String userEmail = getCurrentUserEmail(authentication);
+        return ResponseEntity.ok(calendarService.getEventsInRange(userEmail, from, to));
+    }
+
     private String getCurrentUserEmail(Authentication authentication) {
         if (authentication == null || authentication.getPrincipal() == null) {
             throw new RuntimeException("Пользователь не авторизован");
         }
 
-        Object principal = authentication.getPrincipal();
-        if (principal instanceof UserDetails userDetails) {
-            return userDetails.getUsername();
-        }
-
-        return principal.toString();
+        // Для AuthenticatedUser и UserDetails getName() возвращает email
+        return authentication.getName();
     }
 }
 
@@ -1,48 +1,297 @@
 package com.copilot.tools.email;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Распределенные блокировки в Redis.
+ * Значение ключа - уникальный токен владельца, поэтому продлить и снять блокировку может только тот,
+ * кто ее взял: узел, у которого блокировка истекла, не удалит чужую. Пока блокировка открыта,
+ * сторожевая задача продлевает ее каждую треть TTL; упавший узел перестает продлевать, и блокировка
+ * истекает сама. Каждое получение выдает монотонно растущий fencing-токен, по которому хранилище
+ * отбрасывает запись владельца, потерявшего блокировку (см. EmailIngestionService.markProcessed).
+ * Счетчик токенов живет только в Redis: после потери данных Redis он начинается заново и отстает
+ * от токенов, записанных хранилищем, поэтому отклонивший запись вызывает advanceFence.
+ * <pre>
+ * try (DistributedLockService.Lock lock = lockService.tryAcquire("job", ttl).orElse(null)) {
+ *     if (lock == null) return;
+ *     ...
+ * }
+ * </pre>
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class DistributedLockService {
 
-    private final RedisTemplate<String, String> redisTemplate;
     private static final String LOCK_PREFIX = "lock:";
+    private static final String FENCE_PREFIX = "lock-fence:";
     private static final Duration DEFAULT_LOCK_TTL = Duration.ofMinutes(10);
+    private static final long MIN_BACKOFF_MS = 50;
+    private static final long MAX_BACKOFF_MS = 500;
+
+    /**
+     * Берет блокировку и в той же операции выдает следующий fencing-токен; 0 - блокировка занята
+     */
+    private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+                return redis.call('INCR', KEYS[2])
+            end
+            return 0
+            """, Long.class);
+
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * Поднимает счетчик fencing-токенов до ARGV[1], если он меньше; 1 - счетчик поднят
+     */
+    private static final RedisScript<Long> ADVANCE_FENCE_SCRIPT = new DefaultRedisScript<>("""
+            if tonumber(redis.call('GET', KEYS[1]) or '0') < tonumber(ARGV[1]) then
+                redis.call('SET', KEYS[1], ARGV[1])
+                return 1
+            end
+            return 0
+            """, Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final ScheduledExecutorService watchdog =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("lock-watchdog").factory());
+
+    /**
+     * Одна попытка взять блокировку без ожидания
+     * @return открытая блокировка или пустой Optional, если ее держит другой владелец
+     */
+    public Optional<Lock> tryAcquire(String lockKey, Duration ttl) {
+        long start = System.nanoTime();
+        Lock lock = attempt(lockKey, ttl);
+        recordWait(lockKey, start, lock != null);
+        return Optional.ofNullable(lock);
+    }
 
-    public boolean tryLock(String lockKey, Duration ttl) {
-        String key = LOCK_PREFIX + lockKey;
-        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(
-                key,
-                "locked",
-                ttl.toMillis(),
-                TimeUnit.MILLISECONDS
-        );
-        
-        boolean result = Boolean.TRUE.equals(acquired);
-        if (result) {
-            log.debug("Блокировка получена: {}", lockKey);
-        } else {
+    public Optional<Lock> tryAcquire(String lockKey) {
+        return tryAcquire(lockKey, DEFAULT_LOCK_TTL);
+    }
+
+    /**
+     * Ждет освобождения блокировки не дольше maxWait, повторяя попытки с растущей паузой
+     * @return открытая блокировка или пустой Optional, если дождаться не удалось
+     */
+    public Optional<Lock> acquire(String lockKey, Duration ttl, Duration maxWait) {
+        long start = System.nanoTime();
+        long deadline = start + maxWait.toNanos();
+        long backoffMs = MIN_BACKOFF_MS;
+        Lock lock = attempt(lockKey, ttl);
+        while (lock == null) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                break;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(Math.min(remainingMs, ThreadLocalRandom.current().nextLong(backoffMs / 2, backoffMs + 1)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+            lock = attempt(lockKey, ttl);
+        }
+        recordWait(lockKey, start, lock != null);
+        return Optional.ofNullable(lock);
+    }
+
+    /**
+     * Поднимает счетчик fencing-токенов не ниже токена, уже принятого хранилищем, чтобы следующее
+     * получение блокировки выдало больший токен. Счетчик никогда не уменьшается.
+     * @param storedToken последний токен, записанный хранилищем под этой блокировкой
+     */
+    public void advanceFence(String lockKey, long storedToken) {
+        Long advanced = redisTemplate.execute(ADVANCE_FENCE_SCRIPT, List.of(FENCE_PREFIX + lockKey),
+                String.valueOf(storedToken));
+        if (advanced != null && advanced > 0) {
+            log.warn("Счетчик fencing-токенов {} отставал от хранилища и поднят до {}", lockKey, storedToken);
+        }
+    }
+
+    private Lock attempt(String lockKey, Duration ttl) {
+        String owner = UUID.randomUUID().toString();
+        Long fencingToken = redisTemplate.execute(ACQUIRE_SCRIPT,
+                List.of(LOCK_PREFIX + lockKey, FENCE_PREFIX + lockKey), owner, String.valueOf(ttl.toMillis()));
+        if (fencingToken == null || fencingToken <= 0) {
             log.debug("Блокировка уже занята: {}", lockKey);
+            return null;
         }
-        return result;
+        Lock lock = new Lock(lockKey, owner, fencingToken, ttl.toMillis());
+        long period = Math.max(1, ttl.toMillis() / 3);
+        lock.renewal = watchdog.scheduleAtFixedRate(lock::renew, period, period, TimeUnit.MILLISECONDS);
+        log.debug("Блокировка получена: {} (fencing-токен {})", lockKey, fencingToken);
+        return lock;
     }
 
-    public boolean tryLock(String lockKey) {
-        return tryLock(lockKey, DEFAULT_LOCK_TTL);
+    private void recordWait(String lockKey, long startNanos, boolean acquired) {
+        Timer.builder("lock.wait")
+                .description("Время ожидания распределенной блокировки")
+                .tag("key", metricKey(lockKey))
+                .tag("result", acquired ? "acquired" : "busy")
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
     }
 
-    public void releaseLock(String lockKey) {
-        String key = LOCK_PREFIX + lockKey;
-        redisTemplate.delete(key);
-        log.debug("Блокировка освобождена: {}", lockKey);
+    /**
+     * Блокировки на отдельный объект (email:inbox:{id}) попадают в метрики одним тегом без id
+     */
+    static String metricKey(String lockKey) {
+        int separator = lockKey.lastIndexOf(':');
+        return separator > 0 ? lockKey.substring(0, separator) : lockKey;
     }
-}
 
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Открытая блокировка. Закрытие снимает ее, только если она все еще принадлежит этому владельцу.
+     */
+    public final class Lock implements AutoCloseable {
+
+        private final String key;
+        private final String owner;
+        private final long fencingToken;
+        private final long ttlMs;
+        private final long acquiredAt = System.nanoTime();
+        private final AtomicBoolean held = new AtomicBoolean(true);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long renewedAt = System.nanoTime();
+        private volatile ScheduledFuture<?> renewal;
+
+        private Lock(String key, String owner, long fencingToken, long ttlMs) {
+            this.key = key;
+            this.owner = owner;
+            this.fencingToken = fencingToken;
+            this.ttlMs = ttlMs;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        /**
+         * Монотонно растущий номер получения блокировки. Хранилище, принимающее записи под блокировкой,
+         * отбрасывает запись с токеном меньше уже виденного.
+         */
+        public long fencingToken() {
+            return fencingToken;
+        }
+
+        /**
+         * false, если блокировка истекла или ее перехватил другой владелец: работу под ней нужно прекратить
+         */
+        public boolean isHeld() {
+            return held.get() && !closed.get();
+        }
+
+        private void renew() {
+            if (!isHeld()) {
+                return;
+            }
+            try {
+                Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(LOCK_PREFIX + key),
+                        owner, String.valueOf(ttlMs));
+                if (renewed != null && renewed > 0) {
+                    renewedAt = System.nanoTime();
+                    return;
+                }
+                lost("истекла или перехвачена другим владельцем");
+            } catch (Exception e) {
+                // Redis недоступен дольше TTL - ключ уже мог истечь, считаем блокировку потерянной
+                if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - renewedAt) >= ttlMs) {
+                    lost("не продлена за время TTL: " + e.getMessage());
+                } else {
+                    log.warn("Не удалось продлить блокировку {}: {}", key, e.getMessage());
+                }
+            }
+        }
+
+        private void lost(String reason) {
+            // Продление, начатое до close(), видит уже снятую блокировку - это не потеря
+            if (closed.get()) {
+                return;
+            }
+            if (held.compareAndSet(true, false)) {
+                log.warn("Блокировка {} потеряна: {}", key, reason);
+                Counter.builder("lock.lost")
+                        .description("Блокировки, потерянные до освобождения")
+                        .tag("key", metricKey(key))
+                        .register(meterRegistry)
+                        .increment();
+                cancelRenewal();
+            }
+        }
+
+        private void cancelRenewal() {
+            ScheduledFuture<?> task = renewal;
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+
+        /**
+         * Снимает блокировку. Ошибки Redis только логируются: блокировка без продления истечет сама.
+         */
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            cancelRenewal();
+            Timer.builder("lock.hold")
+                    .description("Время удержания распределенной блокировки")
+                    .tag("key", metricKey(key))
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - acquiredAt, TimeUnit.NANOSECONDS);
+            try {
+                Long released = redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_PREFIX + key), owner);
+                if (released != null && released > 0) {
+                    log.debug("Блокировка освобождена: {}", key);
+                } else {
+                    log.warn("Блокировка {} к моменту освобождения уже не принадлежала владельцу", key);
+                }
+            } catch (Exception e) {
+                log.warn("Не удалось освободить блокировку {}: {}", key, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.tools.email.dto.EmailDigest;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Выдача digest по схеме stale-while-revalidate.
+ * Запрос digest никогда не ждет MailSlurp и LLM: отдается то, что лежит в кэше, а если digest устарел
+ * или его нет, в фоне запускается одно обновление. Параллельные запросы одного пользователя
+ * присоединяются к уже идущему обновлению, другие узлы отсекаются блокировкой ящика в EmailReadService.
+ * После неудачного обновления новое не запускается failure-backoff-ms: иначе во время сбоя LLM каждый
+ * запрос digest заново читал бы ящик из MailSlurp.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EmailDigestProvider {
+
+    private final EmailDigestService emailDigestService;
+    private final EmailReadService emailReadService;
+    private final UserRepository userRepository;
+    private final RedisTemplate<String, String> redisTemplate;
+
+    private static final String RETRY_AFTER_KEY_PREFIX = "email:digest:retry-after:";
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<UUID, CompletableFuture<Void>> refreshes = new ConcurrentHashMap<>();
+
+    /**
+     * Сколько digest считается свежим после последней проверки ящика
+     */
+    @Value("${email.digest.fresh-for-ms:900000}")
+    private long freshForMs = 900_000;
+
+    /**
+     * Сколько принудительное обновление ждет результата, прежде чем вернуть текущий digest
+     */
+    @Value("${email.digest.refresh-wait-ms:30000}")
+    private long refreshWaitMs = 30_000;
+
+    /**
+     * Пауза после неудачного обновления digest, общая для всех узлов
+     */
+    @Value("${email.digest.failure-backoff-ms:120000}")
+    private long failureBackoffMs = 120_000;
+
+    /**
+     * Digest из кэша без ожидания. Устаревший или отсутствующий digest обновляется в фоне.
+     * @return пустой Optional, если digest еще ни разу не был создан
+     */
+    public Optional<EmailDigest> getDigest(UUID userId) {
+        Optional<EmailDigestService.CachedDigest> cached = Optional.empty();
+        try {
+            cached = emailDigestService.findCachedDigest(userId);
+        } catch (Exception e) {
+            log.warn("Не удалось прочитать digest пользователя {} из кэша: {}", userId, e.getMessage());
+        }
+        if ((cached.isEmpty() || isStale(cached.get())) && !isBackingOff(userId)) {
+            refreshAsync(userId);
+        }
+        return cached.map(EmailDigestService.CachedDigest::digest);
+    }
+
+    /**
+     * Принудительное обновление: присоединяется к идущему обновлению или запускает новое
+     * и ждет его не дольше refreshWaitMs
+     */
+    public Optional<EmailDigest> refreshNow(UUID userId) {
+        if (isBackingOff(userId)) {
+            log.info("Обновление digest пользователя {} недавно не удалось, отдаем текущий", userId);
+            return Optional.ofNullable(emailDigestService.getCachedDigest(userId));
+        }
+        try {
+            refreshAsync(userId).get(refreshWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.info("Обновление digest пользователя {} не уложилось в {} мс, отдаем текущий", userId, refreshWaitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException runtime ? runtime : new RuntimeException(cause);
+        }
+        return Optional.ofNullable(emailDigestService.getCachedDigest(userId));
+    }
+
+    /**
+     * Одно обновление на пользователя в пределах узла
+     */
+    CompletableFuture<Void> refreshAsync(UUID userId) {
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        CompletableFuture<Void> running = refreshes.putIfAbsent(userId, created);
+        if (running != null) {
+            return running;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh(userId);
+                    refreshes.remove(userId, created);
+                    created.complete(null);
+                } catch (Throwable e) {
+                    backOff(userId, e);
+                    refreshes.remove(userId, created);
+                    created.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshes.remove(userId, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private void refresh(UUID userId) {
+        User user = userRepository.findById(userId).orElse(null);
+        if (user == null || user.getEmailProviderId() == null || user.getEmailProviderId().isBlank()) {
+            log.debug("Digest пользователя {} не обновляется: нет ящика MailSlurp", userId);
+            // Пустой digest считается свежим freshForMs, иначе каждый запрос снова запускал бы обновление
+            if (!emailDigestService.markChecked(userId)) {
+                emailDigestService.createAndCacheDigest(userId, List.of());
+            }
+            return;
+        }
+        log.debug("Фоновое обновление digest пользователя {}", user.getEmail());
+        emailReadService.readAndDigestEmailsForUser(user);
+    }
+
+    private boolean isBackingOff(UUID userId) {
+        try {
+            return Boolean.TRUE.equals(redisTemplate.hasKey(RETRY_AFTER_KEY_PREFIX + userId));
+        } catch (Exception e) {
+            log.warn("Не удалось проверить паузу обновления digest пользователя {}: {}", userId, e.getMessage());
+            return false;
+        }
+    }
+
+    private void backOff(UUID userId, Throwable error) {
+        log.warn("Обновление digest пользователя {} не удалось, следующее не раньше чем через {} мс: {}",
+                userId, failureBackoffMs, error.getMessage());
+        try {
+            redisTemplate.opsForValue().set(RETRY_AFTER_KEY_PREFIX + userId, "1", Duration.ofMillis(failureBackoffMs));
+        } catch (Exception e) {
+            log.warn("Не удалось запомнить паузу обновления digest пользователя {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private boolean isStale(EmailDigestService.CachedDigest cached) {
+        return cached.checkedAt() == null
+                || cached.checkedAt().isBefore(LocalDateTime.now().minus(Duration.ofMillis(freshForMs)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,5 +1,8 @@
 package com.copilot.tools.email;
 
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
 import com.copilot.tools.email.dto.EmailDigest;
 import com.copilot.tools.email.dto.EmailMessage;
 import dev.langchain4j.data.message.SystemMessage;
@@ -7,17 +10,36 @@ import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.request.ChatRequest;
 import dev.langchain4j.model.chat.response.ChatResponse;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * Сводка писем в два этапа.
+ * Map: письма без готовой сводки делятся на пачки в пределах бюджета токенов, и каждая пачка
+ * параллельно сворачивается LLM в однострочные сводки по письму. Сводки писем кэшируются по id письма
+ * и больше не пересчитываются. Reduce: сводки писем объединяются в итоговый digest; если они не
+ * помещаются в один запрос, сначала сворачиваются группами. Размер запроса к LLM не зависит от числа
+ * писем, а время digest растет с числом пачек, деленным на параллелизм.
+ * Частичный сбой LLM (одна пачка, итоговая сводка) смягчается запасными строками, но если LLM недоступен
+ * (открыт breaker) или не дал ни одной сводки, digest не создается: письма останутся непрочитанными
+ * и будут свернуты при следующем чтении.
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
@@ -25,9 +47,67 @@ public class EmailDigestService {
 
     private final ChatModel chatModel;
     private final RedisTemplate<String, String> redisTemplate;
+    private final DependencyGuard dependencyGuard;
 
     private static final String DIGEST_CACHE_KEY_PREFIX = "email:digest:";
-    private static final Duration DIGEST_CACHE_TTL = Duration.ofHours(1);
+    private static final String SUMMARY_CACHE_KEY_PREFIX = "email:summary:";
+    private static final String FIELD_SUMMARY = "summary";
+    private static final String FIELD_EMAIL_COUNT = "emailCount";
+    private static final String FIELD_GENERATED_AT = "generatedAt";
+    private static final String FIELD_LAST_EMAIL_AT = "lastEmailAt";
+    private static final String FIELD_CHECKED_AT = "checkedAt";
+
+    /**
+     * Грубая оценка для русского текста: токен на каждые 3 символа
+     */
+    private static final int CHARS_PER_TOKEN = 3;
+    private static final int MAX_REDUCE_LEVELS = 3;
+    private static final Pattern SUMMARY_LINE = Pattern.compile("^\\s*\\[(\\d+)]\\s*(.+)$");
+
+    private static final String MAP_PROMPT = """
+            Ты помощник для обработки email писем.
+            Для каждого письма напиши одну короткую строку на русском языке: суть письма и требуемое действие, если есть.
+            Формат ответа строго по строке на письмо: [номер письма] сводка
+            """;
+
+    private static final String PARTIAL_REDUCE_PROMPT = """
+            Ты помощник для обработки email писем.
+            Ниже сводки части писем. Объедини их в краткий список основных тем, событий и требуемых действий на русском языке.
+            """;
+
+    private static final String FINAL_REDUCE_PROMPT = """
+            Ты помощник для обработки email писем.
+            Проанализируй список писем и создай краткую сводку на русском языке.
+            Укажи основные темы, важные события и действия, которые требуются.
+            Будь кратким и конкретным.
+            """;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Бюджет токенов на один запрос к LLM, с запасом под ответ и системный промпт
+     */
+    @Value("${email.digest.batch-token-budget:3000}")
+    private int batchTokenBudget = 3000;
+
+    @Value("${email.digest.max-body-chars:1500}")
+    private int maxBodyChars = 1500;
+
+    /**
+     * Сколько пачек одного digest сворачивается одновременно
+     */
+    @Value("${email.digest.map-concurrency:4}")
+    private int mapConcurrency = 4;
+
+    @Value("${email.digest.summary-cache-ttl-hours:168}")
+    private long summaryCacheTtlHours = 168;
+
+    /**
+     * Сколько хранится последний digest. Свежесть определяет EmailDigestProvider по времени проверки,
+     * устаревший digest отдается сразу, пока в фоне готовится новый.
+     */
+    @Value("${email.digest.cache-ttl-hours:168}")
+    private long digestCacheTtlHours = 168;
 
     public EmailDigest createAndCacheDigest(java.util.UUID userId, List<EmailMessage> emails) {
         log.info("Создание digest для пользователя {} из {} писем", userId, emails.size());
@@ -44,9 +124,9 @@ public class EmailDigestService {
         }
 
         try {
-            String emailsText = formatEmailsForLLM(emails);
+            List<String> emailSummaries = summarizeEmails(emails);
 
-            String summary = generateSummary(emailsText);
+            String summary = reduce(emailSummaries);
 
             LocalDateTime lastEmailAt = emails.stream()
                     .map(EmailMessage::receivedAt)
@@ -66,87 +146,328 @@ public class EmailDigestService {
             return digest;
 
         } catch (Exception e) {
-            log.error("Ошибка при создании digest для пользователя {}: {}", 
+            log.error("Ошибка при создании digest для пользователя {}: {}",
                     userId, e.getMessage(), e);
             throw new RuntimeException("Не удалось создать digest: " + e.getMessage(), e);
         }
     }
 
     public EmailDigest getCachedDigest(java.util.UUID userId) {
+        return findCachedDigest(userId).map(CachedDigest::digest).orElse(null);
+    }
+
+    /**
+     * Digest из кэша со всеми полями и временем последней проверки ящика
+     */
+    public Optional<CachedDigest> findCachedDigest(java.util.UUID userId) {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(DIGEST_CACHE_KEY_PREFIX + userId);
+        if (fields == null || fields.get(FIELD_SUMMARY) == null) {
+            return Optional.empty();
+        }
+        try {
+            EmailDigest digest = new EmailDigest(
+                    (String) fields.get(FIELD_SUMMARY),
+                    Integer.parseInt((String) fields.getOrDefault(FIELD_EMAIL_COUNT, "0")),
+                    parseTime(fields.get(FIELD_GENERATED_AT)),
+                    parseTime(fields.get(FIELD_LAST_EMAIL_AT))
+            );
+            LocalDateTime checkedAt = parseTime(fields.get(FIELD_CHECKED_AT));
+            return Optional.of(new CachedDigest(digest, checkedAt != null ? checkedAt : digest.generatedAt()));
+        } catch (RuntimeException e) {
+            log.warn("Поврежденный digest в кэше для пользователя {}: {}", userId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Отмечает, что ящик проверен и новых писем нет: digest остается прежним, но считается свежим
+     * @return false, если digest в кэше нет
+     */
+    public boolean markChecked(java.util.UUID userId) {
         String cacheKey = DIGEST_CACHE_KEY_PREFIX + userId;
-        String cachedSummary = redisTemplate.opsForValue().get(cacheKey);
-        
-        if (cachedSummary == null) {
-            return null;
+        try {
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(cacheKey))) {
+                return false;
+            }
+            redisTemplate.opsForHash().put(cacheKey, FIELD_CHECKED_AT, LocalDateTime.now().toString());
+            redisTemplate.expire(cacheKey, Duration.ofHours(digestCacheTtlHours));
+            return true;
+        } catch (Exception e) {
+            log.warn("Не удалось отметить проверку ящика пользователя {}: {}", userId, e.getMessage());
+            return true;
         }
+    }
 
-        return new EmailDigest(
-                cachedSummary,
-                0,
-                LocalDateTime.now(),
-                null
-        );
+    public record CachedDigest(EmailDigest digest, LocalDateTime checkedAt) {
     }
 
-    private String formatEmailsForLLM(List<EmailMessage> emails) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Вот список новых писем:\n\n");
-        
+    /**
+     * Map: однострочная сводка каждого письма в исходном порядке, из кэша или от LLM
+     */
+    List<String> summarizeEmails(List<EmailMessage> emails) {
+        Map<String, String> summaries = new HashMap<>(loadCachedSummaries(emails));
+        List<EmailMessage> missing = emails.stream()
+                .filter(email -> email.id() == null || !summaries.containsKey(email.id()))
+                .toList();
+        log.debug("Сводки писем: из кэша {}, к расчету {}", summaries.size(), missing.size());
+
+        List<List<EmailMessage>> batches = batchByBudget(missing, this::formatEmail);
+        List<Map<EmailMessage, String>> results = runParallel(batches, this::summarizeBatch);
+        Map<String, String> computed = new HashMap<>();
+        Map<EmailMessage, String> byEmail = new IdentityHashMap<>();
+        for (Map<EmailMessage, String> result : results) {
+            byEmail.putAll(result);
+            result.forEach((email, summary) -> {
+                if (email.id() != null) {
+                    computed.put(email.id(), summary);
+                }
+            });
+        }
+        if (!missing.isEmpty() && byEmail.isEmpty()) {
+            // Digest из одних тем не лучше повторного чтения этих же писем позже
+            throw new IllegalStateException("LLM не вернул ни одной сводки для " + missing.size() + " писем");
+        }
+        cacheSummaries(computed);
+
+        List<String> lines = new ArrayList<>(emails.size());
         for (EmailMessage email : emails) {
-            sb.append("От: ").append(email.from()).append("\n");
-            sb.append("Тема: ").append(email.subject()).append("\n");
-            sb.append("Дата: ").append(email.receivedAt()).append("\n");
-            if (email.body() != null && !email.body().isEmpty()) {
-                String body = email.body();
-                if (body.length() > 500) {
-                    body = body.substring(0, 500) + "...";
+            String summary = email.id() != null && summaries.containsKey(email.id())
+                    ? summaries.get(email.id())
+                    : byEmail.get(email);
+            if (summary == null) {
+                // LLM не вернул сводку - в digest идет хотя бы тема, в кэш такая строка не попадает
+                summary = "Тема: " + email.subject();
+            }
+            lines.add("- " + email.from() + ": " + summary);
+        }
+        return lines;
+    }
+
+    /**
+     * Сворачивает пачку писем одним запросом. Письма, по которым ответ не разобран, остаются без сводки.
+     * @throws DependencyUnavailableException если LLM недоступен: остальные пачки тоже не пройдут
+     */
+    private Map<EmailMessage, String> summarizeBatch(List<EmailMessage> batch) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            sb.append('[').append(i + 1).append("] ").append(formatEmail(batch.get(i))).append("---\n");
+        }
+        Map<EmailMessage, String> result = new IdentityHashMap<>();
+        String response;
+        try {
+            response = chat(MAP_PROMPT, sb.toString());
+        } catch (DependencyUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            log.warn("Не удалось получить сводки пачки из {} писем: {}", batch.size(), e.getMessage());
+            return result;
+        }
+        for (String line : response.split("\n")) {
+            Matcher matcher = SUMMARY_LINE.matcher(line);
+            if (matcher.matches()) {
+                int index = Integer.parseInt(matcher.group(1)) - 1;
+                if (index >= 0 && index < batch.size()) {
+                    result.put(batch.get(index), matcher.group(2).trim());
                 }
-                sb.append("Содержание: ").append(body).append("\n");
             }
-            sb.append("---\n");
         }
+        return result;
+    }
+
+    /**
+     * Reduce: сводки писем, не помещающиеся в один запрос, сначала сворачиваются группами
+     */
+    private String reduce(List<String> lines) {
+        List<String> level = lines;
+        for (int depth = 0; depth < MAX_REDUCE_LEVELS; depth++) {
+            List<List<String>> groups = batchByBudget(level, line -> line + "\n");
+            if (groups.size() == 1) {
+                return finalSummary(String.join("\n", groups.get(0)));
+            }
+            log.debug("Reduce уровня {}: {} групп", depth, groups.size());
+            level = runParallel(groups, group -> {
+                try {
+                    return chat(PARTIAL_REDUCE_PROMPT, String.join("\n", group));
+                } catch (DependencyUnavailableException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.warn("Не удалось свернуть группу из {} сводок: {}", group.size(), e.getMessage());
+                    return String.join("\n", group);
+                }
+            });
+        }
+        String text = String.join("\n", level);
+        return finalSummary(text.substring(0, Math.min(text.length(), batchTokenBudget * CHARS_PER_TOKEN)));
+    }
 
+    private String finalSummary(String text) {
+        try {
+            return chat(FINAL_REDUCE_PROMPT, "Вот сводки новых писем:\n\n" + text);
+        } catch (DependencyUnavailableException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Ошибка при генерации summary через LLM: {}", e.getMessage(), e);
+            // Без итоговой сводки пользователь все равно получает построчные сводки писем
+            return text;
+        }
+    }
+
+    private String formatEmail(EmailMessage email) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("От: ").append(email.from()).append("\n");
+        sb.append("Тема: ").append(email.subject()).append("\n");
+        sb.append("Дата: ").append(email.receivedAt()).append("\n");
+        if (email.body() != null && !email.body().isEmpty()) {
+            String body = email.body();
+            if (body.length() > maxBodyChars) {
+                body = body.substring(0, maxBodyChars) + "...";
+            }
+            sb.append("Содержание: ").append(body).append("\n");
+        }
         return sb.toString();
     }
 
-    private String generateSummary(String emailsText) {
+    /**
+     * Делит элементы на последовательные группы, каждая в пределах бюджета токенов.
+     * Элемент больше бюджета образует группу сам по себе.
+     */
+    <T> List<List<T>> batchByBudget(List<T> items, Function<T, String> render) {
+        int budgetChars = batchTokenBudget * CHARS_PER_TOKEN;
+        List<List<T>> batches = new ArrayList<>();
+        List<T> current = new ArrayList<>();
+        int currentChars = 0;
+        for (T item : items) {
+            int chars = render.apply(item).length();
+            if (!current.isEmpty() && currentChars + chars > budgetChars) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentChars = 0;
+            }
+            current.add(item);
+            currentChars += chars;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * Выполняет задачи на виртуальных потоках, не больше mapConcurrency одновременно, сохраняя порядок
+     */
+    private <T, R> List<R> runParallel(List<T> inputs, Function<T, R> task) {
+        if (inputs.size() == 1) {
+            return List.of(task.apply(inputs.get(0)));
+        }
+        Semaphore slots = new Semaphore(Math.max(1, mapConcurrency));
+        List<Future<R>> futures = new ArrayList<>(inputs.size());
+        for (T input : inputs) {
+            futures.add(executor.submit(() -> {
+                slots.acquire();
+                try {
+                    return task.apply(input);
+                } finally {
+                    slots.release();
+                }
+            }));
+        }
+        List<R> results = new ArrayList<>(inputs.size());
         try {
-            ChatRequest request = ChatRequest.builder()
-                    .messages(List.of(
-                            SystemMessage.from("""
-                                    Ты помощник для обработки email писем. 
-                                    Проанализируй список писем и создай краткую сводку на русском языке.
-                                    Укажи основные темы, важные события и действия, которые требуются.
-                                    Будь кратким и конкретным.
-                                    """),
-                            UserMessage.from(emailsText)
-                    ))
-                    .build();
-
-            ChatResponse response = chatModel.chat(request);
-            String summary = response.aiMessage().text();
-            
-            if (summary == null || summary.isEmpty()) {
-                return "Не удалось создать сводку писем";
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Создание digest прервано", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
             }
+            throw new IllegalStateException("Ошибка при создании digest: " + e.getCause().getMessage(), e.getCause());
+        }
+        return results;
+    }
+
+    private String chat(String systemPrompt, String userText) {
+        ChatRequest request = ChatRequest.builder()
+                .messages(List.of(
+                        SystemMessage.from(systemPrompt),
+                        UserMessage.from(userText)
+                ))
+                .build();
 
-            return summary;
+        ChatResponse response = dependencyGuard.call(DependencyHealthTracker.LLM, () -> chatModel.chat(request));
+        String text = response.aiMessage().text();
+        if (text == null || text.isEmpty()) {
+            throw new IllegalStateException("LLM вернул пустой ответ");
+        }
+        return text;
+    }
 
+    private Map<String, String> loadCachedSummaries(List<EmailMessage> emails) {
+        List<String> ids = emails.stream().map(EmailMessage::id).filter(Objects::nonNull).distinct().toList();
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        try {
+            List<String> values = redisTemplate.opsForValue()
+                    .multiGet(ids.stream().map(id -> SUMMARY_CACHE_KEY_PREFIX + id).toList());
+            Map<String, String> cached = new HashMap<>();
+            for (int i = 0; values != null && i < ids.size(); i++) {
+                if (values.get(i) != null) {
+                    cached.put(ids.get(i), values.get(i));
+                }
+            }
+            return cached;
         } catch (Exception e) {
-            log.error("Ошибка при генерации summary через LLM: {}", e.getMessage(), e);
-            return "Ошибка при создании сводки: " + e.getMessage();
+            log.warn("Не удалось прочитать сводки писем из кэша: {}", e.getMessage());
+            return Map.of();
         }
     }
 
+    private void cacheSummaries(Map<String, String> summaries) {
+        Duration ttl = Duration.ofHours(summaryCacheTtlHours);
+        summaries.forEach((id, summary) -> {
+            try {
+                redisTemplate.opsForValue().set(SUMMARY_CACHE_KEY_PREFIX + id, summary, ttl);
+            } catch (Exception e) {
+                log.warn("Не удалось сохранить сводку письма {}: {}", id, e.getMessage());
+            }
+        });
+    }
+
     private void cacheDigest(java.util.UUID userId, EmailDigest digest) {
         try {
             String cacheKey = DIGEST_CACHE_KEY_PREFIX + userId;
-            redisTemplate.opsForValue().set(cacheKey, digest.summary(), DIGEST_CACHE_TTL);
-            log.debug("Digest закэширован для пользователя {} на {} часов", userId, DIGEST_CACHE_TTL.toHours());
+            Map<String, String> fields = new HashMap<>();
+            fields.put(FIELD_SUMMARY, digest.summary());
+            fields.put(FIELD_EMAIL_COUNT, String.valueOf(digest.emailCount()));
+            fields.put(FIELD_GENERATED_AT, digest.generatedAt().toString());
+            fields.put(FIELD_CHECKED_AT, digest.generatedAt().toString());
+            if (digest.lastEmailAt() != null) {
+                fields.put(FIELD_LAST_EMAIL_AT, digest.lastEmailAt().toString());
+            }
+            redisTemplate.opsForHash().putAll(cacheKey, fields);
+            if (digest.lastEmailAt() == null) {
+                // lastEmailAt прошлого digest не должен пережить новый
+                redisTemplate.opsForHash().delete(cacheKey, FIELD_LAST_EMAIL_AT);
+            }
+            redisTemplate.expire(cacheKey, Duration.ofHours(digestCacheTtlHours));
+            log.debug("Digest закэширован для пользователя {} на {} часов", userId, digestCacheTtlHours);
         } catch (Exception e) {
-            log.error("Ошибка при кэшировании digest для пользователя {}: {}", 
+            log.error("Ошибка при кэшировании digest для пользователя {}: {}",
                     userId, e.getMessage(), e);
         }
     }
-}
 
+    private static LocalDateTime parseTime(Object value) {
+        return value != null ? LocalDateTime.parse((String) value) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
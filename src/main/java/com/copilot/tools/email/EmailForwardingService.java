@@ -1,81 +1,100 @@
 package com.copilot.tools.email;
 
 import com.copilot.auth.model.User;
-import com.copilot.auth.repository.UserRepository;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import com.copilot.tools.email.dto.EmailMessage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.mail.MailException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.time.Duration;
 
+/**
+ * Пересылка писем корпоративной почты на личную почту пользователя.
+ * Сбой SMTP не глотается: EmailReadService тогда не помечает письма обработанными и прочитает их
+ * снова. Уже пересланные письма отмечаются в Redis, поэтому повторное чтение не шлет их второй раз.
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class EmailForwardingService {
 
+    private static final String FORWARDED_KEY_PREFIX = "email:forwarded:";
+
     private final JavaMailSender mailSender;
-    private final UserRepository userRepository;
+    private final DependencyGuard dependencyGuard;
+    private final RedisTemplate<String, String> redisTemplate;
 
     @Value("${spring.mail.username:assistant@company.com}")
     private String fromEmail;
 
-    public void forwardEmailToPersonal(String corporateEmail, String fromEmailAddress, 
-                                      String subject, String body) {
-        User user = userRepository.findByEmail(corporateEmail)
-                .orElse(null);
-
-        if (user == null) {
-            log.warn("Пользователь с корпоративной почтой {} не найден", corporateEmail);
-            return;
-        }
+    /**
+     * Сколько помнить пересланное письмо; должно перекрывать время, за которое письмо точно будет помечено обработанным
+     */
+    @Value("${email.forward.marker-ttl-hours:168}")
+    private long markerTtlHours = 168;
 
+    /**
+     * Пересылает письмо на личную почту пользователя, если оно еще не пересылалось
+     * @throws RuntimeException если письмо не отправлено, в том числе DependencyUnavailableException при недоступном SMTP
+     */
+    public void forwardEmailToPersonal(User user, EmailMessage email) {
         String personalEmail = user.getPersonalEmail();
         if (personalEmail == null) {
-            log.warn("У пользователя {} не указана личная почта", corporateEmail);
+            log.warn("У пользователя {} не указана личная почта", user.getEmail());
             return;
         }
-        log.info("Пересылка письма с {} на личную почту {}", corporateEmail, personalEmail);
+        if (email.id() != null && Boolean.TRUE.equals(redisTemplate.hasKey(FORWARDED_KEY_PREFIX + email.id()))) {
+            log.debug("Письмо {} уже переслано на {}", email.id(), personalEmail);
+            return;
+        }
+        log.info("Пересылка письма с {} на личную почту {}", user.getEmail(), personalEmail);
+
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(fromEmail);
+        message.setTo(personalEmail);
+        message.setSubject("[Корпоративная почта] " + email.subject());
 
+        String forwardedBody = String.format("""
+                Переслано с корпоративной почты: %s
+
+                От: %s
+                Тема: %s
+
+                ---
+                %s
+                """, user.getEmail(), email.from(), email.subject(), email.body());
+
+        message.setText(forwardedBody);
         try {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setFrom(fromEmail);
-            message.setTo(personalEmail);
-            message.setSubject("[Корпоративная почта] " + subject);
-            
-            String forwardedBody = String.format("""
-                    Переслано с корпоративной почты: %s
-                    
-                    От: %s
-                    Тема: %s
-                    
-                    ---
-                    %s
-                    """, corporateEmail, fromEmailAddress, subject, body);
-            
-            message.setText(forwardedBody);
-            mailSender.send(message);
-            
-            log.info("Письмо переслано на личную почту: {}", personalEmail);
-        } catch (Exception e) {
-            log.error("Ошибка при пересылке письма на {}: {}", personalEmail, e.getMessage(), e);
+            dependencyGuard.call(DependencyHealthTracker.SMTP, () -> {
+                mailSender.send(message);
+                return null;
+            }, EmailService::isServerFailure);
+        } catch (MailException e) {
+            if (EmailService.isServerFailure(e)) {
+                throw e;
+            }
+            // Личный адрес отклонен сервером: повторное чтение не поможет, а ящик застрял бы на этом письме
+            log.warn("Письмо {} не переслано, адрес {} отклонен: {}", email.id(), personalEmail, e.getMessage());
+            return;
         }
-    }
 
-    public void forwardAllNewEmails() {
-        List<User> users = userRepository.findAllByPersonalEmailIsNotNull();
-        
-        for (User user : users) {
-            if (user.getPersonalEmail() == null || user.getEmail() == null) {
-                continue;
+        if (email.id() != null) {
+            try {
+                redisTemplate.opsForValue().set(FORWARDED_KEY_PREFIX + email.id(), personalEmail,
+                        Duration.ofHours(markerTtlHours));
+            } catch (Exception e) {
+                // Без отметки письмо может уйти повторно, но не потеряется
+                log.warn("Не удалось отметить письмо {} как пересланное: {}", email.id(), e.getMessage());
             }
-            
-            // TODO: Читать письма через IMAP для корпоративной почты (user.getEmail())
-            // и пересылать их на личную почту (user.getPersonalEmail())
-            // Это будет реализовано в EmailReadService
         }
+        log.info("Письмо переслано на личную почту: {}", personalEmail);
     }
 }
-
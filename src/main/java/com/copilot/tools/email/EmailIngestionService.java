@@ -0,0 +1,318 @@
+package com.copilot.tools.email;
+
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import com.copilot.resilience.RedisRateLimiter;
+import com.copilot.tools.email.dto.EmailMessage;
+import com.copilot.tools.email.dto.InboxDelta;
+import com.copilot.tools.email.model.EmailInboxCursor;
+import com.copilot.tools.email.model.ProcessedEmail;
+import com.copilot.tools.email.repository.EmailInboxCursorRepository;
+import com.copilot.tools.email.repository.ProcessedEmailRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Инкрементальное чтение ящиков MailSlurp.
+ * Для каждого ящика хранится курсор - время создания последнего обработанного письма. Чтение
+ * постранично запрашивает только письма новее курсора, отбрасывает уже обработанные и возвращает
+ * дельту. Курсор сдвигается только после того, как дельта прошла digest, поэтому сбой digest
+ * приводит к повторному чтению тех же писем, а не к их потере.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class EmailIngestionService {
+
+    private static final ParameterizedTypeReference<Map<String, Object>> JSON_OBJECT =
+            new ParameterizedTypeReference<>() {};
+
+    private final RestTemplate restTemplate;
+    private final DependencyGuard dependencyGuard;
+    private final RedisRateLimiter rateLimiter;
+    private final EmailInboxCursorRepository cursorRepository;
+    private final ProcessedEmailRepository processedEmailRepository;
+
+    @Value("${mailslurp.api-key}")
+    private String mailslurpApiKey;
+
+    @Value("${mailslurp.base-url:https://api.mailslurp.com}")
+    private String mailslurpBaseUrl;
+
+    @Value("${mailslurp.rate-limit-per-second:10}")
+    private int mailslurpRateLimit;
+
+    @Value("${email.ingest.page-size:50}")
+    private int pageSize;
+
+    /**
+     * Сколько писем одного ящика передавать в digest за раз. Остальные придут в следующий запуск
+     */
+    @Value("${email.ingest.max-per-run:200}")
+    private int maxPerRun;
+
+    /**
+     * Глубина первого чтения ящика без курсора
+     */
+    @Value("${email.ingest.initial-lookback-hours:24}")
+    private long initialLookbackHours;
+
+    @Value("${email.ingest.processed-retention-days:30}")
+    private long processedRetentionDays;
+
+    /**
+     * Читает письма ящика новее курсора, по возрастанию времени создания
+     */
+    public InboxDelta fetchNew(String inboxId) {
+        Instant since = cursorRepository.findById(inboxId)
+                .map(EmailInboxCursor::getLastCreatedAt)
+                .orElseGet(() -> Instant.now().minus(Duration.ofHours(initialLookbackHours)));
+
+        List<Map<String, Object>> previews = fetchPreviewsSince(inboxId, since);
+        Set<String> ids = new HashSet<>();
+        for (Map<String, Object> preview : previews) {
+            if (preview.get("id") != null) {
+                ids.add(preview.get("id").toString());
+            }
+        }
+        Set<String> processed = ids.isEmpty()
+                ? Set.of()
+                : processedEmailRepository.findProcessedMessageIds(inboxId, ids);
+
+        List<EmailMessage> emails = new ArrayList<>();
+        Instant newestCreatedAt = since;
+        String newestMessageId = null;
+        for (Map<String, Object> preview : previews) {
+            Object id = preview.get("id");
+            if (id == null || processed.contains(id.toString())) {
+                continue;
+            }
+            if (emails.size() >= maxPerRun) {
+                break;
+            }
+            EmailMessage email = parseEmail(fetchFullEmail(id.toString(), preview));
+            if (email == null) {
+                continue;
+            }
+            emails.add(email);
+            Instant createdAt = parseInstant(preview.get("createdAt"));
+            if (createdAt != null && !createdAt.isBefore(newestCreatedAt)) {
+                newestCreatedAt = createdAt;
+                newestMessageId = email.id();
+            }
+        }
+
+        log.debug("Ящик {}: писем новее {} - {}, новых - {}", inboxId, since, previews.size(), emails.size());
+        return new InboxDelta(inboxId, emails, newestCreatedAt, newestMessageId);
+    }
+
+    /**
+     * Запоминает письма дельты как обработанные и сдвигает курсор ящика
+     * @param fencingToken токен блокировки ящика, под которой прочитана дельта
+     * @throws FencingTokenRejectedException если курсор уже записан под более поздней блокировкой
+     */
+    @Transactional
+    public void markProcessed(InboxDelta delta, long fencingToken) {
+        if (delta.isEmpty()) {
+            return;
+        }
+        EmailInboxCursor cursor = cursorRepository.findByIdForUpdate(delta.inboxId())
+                .orElseGet(() -> EmailInboxCursor.builder().inboxId(delta.inboxId()).build());
+        if (cursor.getFencingToken() != null && fencingToken < cursor.getFencingToken()) {
+            throw new FencingTokenRejectedException("Блокировка ящика " + delta.inboxId() + " потеряна: fencing-токен "
+                    + fencingToken + " меньше записанного " + cursor.getFencingToken(), cursor.getFencingToken());
+        }
+
+        List<ProcessedEmail> rows = new ArrayList<>(delta.emails().size());
+        for (EmailMessage email : delta.emails()) {
+            rows.add(ProcessedEmail.builder()
+                    .inboxId(delta.inboxId())
+                    .messageId(email.id())
+                    .fromAddress(truncate(email.from(), 320))
+                    .subject(truncate(email.subject(), 500))
+                    .receivedAt(email.receivedAt() != null
+                            ? email.receivedAt().atZone(ZoneId.systemDefault()).toInstant()
+                            : null)
+                    .build());
+        }
+        processedEmailRepository.saveAll(rows);
+
+        cursor.setFencingToken(fencingToken);
+        if (cursor.getLastCreatedAt() == null || delta.newestCreatedAt().isAfter(cursor.getLastCreatedAt())) {
+            cursor.setLastCreatedAt(delta.newestCreatedAt());
+            cursor.setLastMessageId(delta.newestMessageId());
+        }
+        cursorRepository.save(cursor);
+    }
+
+    /**
+     * Уже обработанные письма ящика за последнее окно, от новых к старым, без текста письма.
+     * Их сводки лежат в кэше EmailDigestService, поэтому повторно через LLM они не проходят.
+     */
+    public List<EmailMessage> findRecentProcessed(String inboxId, Duration window, int limit) {
+        Instant since = Instant.now().minus(window);
+        return processedEmailRepository.findReceivedSince(inboxId, since, PageRequest.of(0, limit)).stream()
+                .map(row -> new EmailMessage(
+                        row.getMessageId(),
+                        row.getFromAddress(),
+                        null,
+                        row.getSubject(),
+                        null,
+                        row.getReceivedAt() != null
+                                ? LocalDateTime.ofInstant(row.getReceivedAt(), ZoneId.systemDefault())
+                                : null))
+                .toList();
+    }
+
+    /**
+     * Старые отметки не нужны: курсор давно ушел дальше, и письма с их временем больше не запрашиваются
+     */
+    @Scheduled(cron = "${email.ingest.cleanup-cron:0 30 3 * * *}")
+    public void cleanupProcessed() {
+        int deleted = processedEmailRepository.deleteProcessedBefore(
+                LocalDateTime.now().minusDays(processedRetentionDays));
+        if (deleted > 0) {
+            log.info("Удалено {} устаревших отметок обработанных писем", deleted);
+        }
+    }
+
+    private List<Map<String, Object>> fetchPreviewsSince(String inboxId, Instant since) {
+        List<Map<String, Object>> previews = new ArrayList<>();
+        for (int page = 0; previews.size() < maxPerRun; page++) {
+            String url = UriComponentsBuilder.fromUriString(mailslurpBaseUrl)
+                    .path("/inboxes/{inboxId}/emails/paginated")
+                    .queryParam("since", since.toString())
+                    .queryParam("sort", "ASC")
+                    .queryParam("page", page)
+                    .queryParam("size", pageSize)
+                    .buildAndExpand(inboxId)
+                    .toUriString();
+            Map<String, Object> body = get(url);
+            Object content = body != null ? body.get("content") : null;
+            if (!(content instanceof List<?> items) || items.isEmpty()) {
+                break;
+            }
+            for (Object item : items) {
+                if (item instanceof Map<?, ?> map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> preview = (Map<String, Object>) map;
+                    previews.add(preview);
+                }
+            }
+            if (!Boolean.FALSE.equals(body.get("last"))) {
+                break;
+            }
+        }
+        return previews;
+    }
+
+    /**
+     * Список писем содержит только превью без текста, текст запрашивается отдельно и только для новых писем
+     */
+    private Map<String, Object> fetchFullEmail(String emailId, Map<String, Object> preview) {
+        if (preview.get("body") != null) {
+            return preview;
+        }
+        try {
+            Map<String, Object> email = get(mailslurpBaseUrl + "/emails/" + emailId);
+            return email != null ? email : preview;
+        } catch (Exception e) {
+            log.warn("Не удалось получить текст письма {}: {}", emailId, e.getMessage());
+            return preview;
+        }
+    }
+
+    private Map<String, Object> get(String url) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("x-api-key", mailslurpApiKey);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        HttpEntity<Void> request = new HttpEntity<>(headers);
+
+        rateLimiter.acquire(DependencyHealthTracker.MAILSLURP, mailslurpRateLimit);
+        ResponseEntity<Map<String, Object>> response = dependencyGuard.call(DependencyHealthTracker.MAILSLURP,
+                () -> restTemplate.exchange(url, HttpMethod.GET, request, JSON_OBJECT));
+        return response.getBody();
+    }
+
+    static EmailMessage parseEmail(Map<String, Object> emailData) {
+        try {
+            String id = (String) emailData.get("id");
+            String from = extractEmailAddress(emailData.get("from"));
+            String to = extractEmailAddress(emailData.get("to"));
+            String subject = (String) emailData.get("subject");
+            String body = (String) emailData.get("body");
+
+            Instant createdAt = parseInstant(emailData.get("createdAt"));
+            LocalDateTime receivedAt = createdAt != null
+                    ? LocalDateTime.ofInstant(createdAt, ZoneId.systemDefault())
+                    : LocalDateTime.now();
+
+            return new EmailMessage(id, from, to, subject, body, receivedAt);
+
+        } catch (Exception e) {
+            log.error("Ошибка при парсинге письма: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    static Instant parseInstant(Object value) {
+        if (value instanceof Number number) {
+            return Instant.ofEpochMilli(number.longValue());
+        }
+        if (value instanceof String text) {
+            try {
+                return Instant.parse(text);
+            } catch (DateTimeParseException e) {
+                try {
+                    return LocalDateTime.parse(text.substring(0, Math.min(19, text.length())))
+                            .atZone(ZoneId.systemDefault())
+                            .toInstant();
+                } catch (DateTimeParseException ignored) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    private static String extractEmailAddress(Object emailObj) {
+        if (emailObj == null) {
+            return "unknown";
+        }
+        if (emailObj instanceof String) {
+            return (String) emailObj;
+        }
+        if (emailObj instanceof List<?> list) {
+            return list.isEmpty() ? "unknown" : extractEmailAddress(list.get(0));
+        }
+        if (emailObj instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> emailMap = (Map<String, Object>) emailObj;
+            Object emailAddress = emailMap.get("emailAddress");
+            if (emailAddress != null) {
+                return emailAddress.toString();
+            }
+        }
+        return emailObj.toString();
+    }
+}
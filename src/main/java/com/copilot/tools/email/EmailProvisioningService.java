@@ -21,8 +21,25 @@ public class EmailProvisioningService {
     @Value("${mailslurp.api-key}")
     private String mailslurpApiKey;
 
-    private static final String MAILSLURP_API_URL = "https://api.mailslurp.com/inboxes";
+    @Value("${mailslurp.base-url:https://api.mailslurp.com}")
+    private String mailslurpBaseUrl;
 
+    /**
+     * Публичный адрес EmailWebhookController; пустой - webhook не регистрируются, письма читает только опрос
+     */
+    @Value("${mailslurp.webhook.url:}")
+    private String webhookUrl;
+
+    @Value("${mailslurp.webhook.username:mailslurp}")
+    private String webhookUsername;
+
+    @Value("${mailslurp.webhook.password:}")
+    private String webhookPassword;
+
+    /**
+     * Создает новый ящик напрямую в MailSlurp. Для выдачи ящиков пользователям используйте
+     * MailSlurpInboxPool: он раздает заранее созданные ящики без ожидания провайдера.
+     */
     public MailSlurpInboxResponse createCorporateEmail() {
         log.info("Создание корпоративной почты через MailSlurp");
 
@@ -38,7 +55,7 @@ public class EmailProvisioningService {
 
             @SuppressWarnings("unchecked")
             ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    MAILSLURP_API_URL,
+                    mailslurpBaseUrl + "/inboxes",
                     HttpMethod.POST,
                     request,
                     (Class<Map<String, Object>>) (Class<?>) Map.class
@@ -59,6 +76,7 @@ public class EmailProvisioningService {
 
             MailSlurpInboxResponse inbox = new MailSlurpInboxResponse(inboxId, emailAddress, inboxType);
             log.info("Корпоративная почта создана: {} (ID: {})", inbox.emailAddress(), inbox.id());
+            registerNewEmailWebhook(inboxId);
             return inbox;
 
         } catch (Exception e) {
@@ -67,6 +85,106 @@ public class EmailProvisioningService {
         }
     }
 
+    /**
+     * true, если заданы и адрес, и пароль webhook: только тогда MailSlurp присылает уведомления,
+     * которые принимает EmailWebhookService
+     */
+    public boolean isWebhookEnabled() {
+        return webhookUrl != null && !webhookUrl.isBlank() && webhookPassword != null && !webhookPassword.isBlank();
+    }
+
+    /**
+     * Подписывает ящик на уведомления NEW_EMAIL. Ошибка не мешает выдаче ящика:
+     * без webhook его письма подберет сверочный опрос, а подписку повторит EmailWebhookBackfill.
+     */
+    private void registerNewEmailWebhook(String inboxId) {
+        if (webhookUrl == null || webhookUrl.isBlank()) {
+            return;
+        }
+        if (!isWebhookEnabled()) {
+            // EmailWebhookService отклоняет запросы без пароля, MailSlurp повторял бы доставку бесконечно
+            log.warn("mailslurp.webhook.url задан без mailslurp.webhook.password, webhook для ящика {} не регистрируется",
+                    inboxId);
+            return;
+        }
+        try {
+            postNewEmailWebhook(inboxId);
+        } catch (Exception e) {
+            log.warn("Не удалось зарегистрировать webhook для ящика {}: {}", inboxId, e.getMessage());
+        }
+    }
+
+    /**
+     * Подписывает уже существующий ящик на NEW_EMAIL, если подписки на наш адрес у него еще нет
+     * @throws IllegalStateException если webhook не настроен
+     * @throws RuntimeException при ошибке MailSlurp
+     */
+    public void ensureNewEmailWebhook(String inboxId) {
+        if (!isWebhookEnabled()) {
+            throw new IllegalStateException("Webhook MailSlurp не настроен");
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("x-api-key", mailslurpApiKey);
+        headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+
+        ResponseEntity<Object> response = restTemplate.exchange(
+                mailslurpBaseUrl + "/inboxes/" + inboxId + "/webhooks",
+                HttpMethod.GET,
+                new HttpEntity<>(headers),
+                Object.class
+        );
+        Object webhooks = response.getBody();
+        if (webhooks instanceof Map<?, ?> page) {
+            webhooks = page.get("content");
+        }
+        if (webhooks instanceof List<?> list) {
+            for (Object webhook : list) {
+                if (webhook instanceof Map<?, ?> map && webhookUrl.equals(map.get("url"))
+                        && (map.get("eventName") == null || "NEW_EMAIL".equals(map.get("eventName")))) {
+                    log.debug("Webhook новых писем для ящика {} уже зарегистрирован", inboxId);
+                    return;
+                }
+            }
+        }
+        postNewEmailWebhook(inboxId);
+    }
+
+    private void postNewEmailWebhook(String inboxId) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("url", webhookUrl);
+        body.put("eventName", "NEW_EMAIL");
+        body.put("name", "copilot-new-email");
+        body.put("basicAuth", Map.of("username", webhookUsername, "password", webhookPassword));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("x-api-key", mailslurpApiKey);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        restTemplate.exchange(
+                mailslurpBaseUrl + "/inboxes/" + inboxId + "/webhooks",
+                HttpMethod.POST,
+                new HttpEntity<>(body, headers),
+                Void.class
+        );
+        log.info("Webhook новых писем зарегистрирован для ящика {}", inboxId);
+    }
+
+    /**
+     * Удаляет ящик в MailSlurp. Нужен для ящиков, которые не достались ни пользователю, ни пулу.
+     */
+    public void deleteInbox(String inboxId) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("x-api-key", mailslurpApiKey);
+
+        restTemplate.exchange(
+                mailslurpBaseUrl + "/inboxes/" + inboxId,
+                HttpMethod.DELETE,
+                new HttpEntity<>(headers),
+                Void.class
+        );
+        log.info("Ящик MailSlurp {} удален", inboxId);
+    }
+
     public void sendEmailToInbox(String inboxEmail, String inboxId, String subject, String body) {
         log.info("Отправка письма на MailSlurp inbox: {}", inboxEmail);
 
@@ -79,7 +197,7 @@ public class EmailProvisioningService {
                 }
             }
 
-            String sendEmailUrl = "https://api.mailslurp.com/sendEmail";
+            String sendEmailUrl = mailslurpBaseUrl + "/sendEmail";
             
             Map<String, Object> emailBody = new HashMap<>();
             emailBody.put("inboxId", finalInboxId);
@@ -116,7 +234,7 @@ public class EmailProvisioningService {
 
     private String findInboxIdByEmail(String email) {
         try {
-            String getInboxesUrl = "https://api.mailslurp.com/inboxes?page=0&size=100";
+            String getInboxesUrl = mailslurpBaseUrl + "/inboxes?page=0&size=100";
 
             HttpHeaders headers = new HttpHeaders();
             headers.set("x-api-key", mailslurpApiKey);
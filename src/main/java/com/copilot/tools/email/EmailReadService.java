@@ -2,72 +2,90 @@ package com.copilot.tools.email;
 
 import com.copilot.auth.model.User;
 import com.copilot.auth.repository.UserRepository;
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.CircuitBreaker;
+import com.copilot.resilience.DependencyGuard;
 import com.copilot.tools.email.dto.EmailMessage;
+import com.copilot.tools.email.dto.InboxDelta;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.time.Instant;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.util.*;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Сервис для чтения писем из MailSlurp inbox через API
+ * Сервис для чтения писем из MailSlurp inbox через API.
+ * Из MailSlurp загружаются только письма, пришедшие после прошлого чтения (см. EmailIngestionService),
+ * а digest строится по всем письмам за окно email.digest.window-hours: уже обработанные письма
+ * берутся из processed_emails, и их сводки не запрашиваются у LLM повторно.
+ * Новые письма приходят через webhook (EmailWebhookQueue). Опрос идет каждый час, но ящики, подписанные
+ * на webhook (см. EmailWebhookBackfill), опрашиваются только каждый email.read.webhook-reconcile-cycles цикл:
+ * для них опрос лишь подбирает потерянные уведомления. Пока webhook не настроен, часто опрашиваются все.
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class EmailReadService {
 
-    private final RestTemplate restTemplate;
     private final UserRepository userRepository;
     private final EmailDigestService emailDigestService;
-    private final DistributedLockService distributedLockService;
-
-    @Value("${mailslurp.api-key}")
-    private String mailslurpApiKey;
-
-    private static final String MAILSLURP_API_BASE = "https://api.mailslurp.com";
-    private static final String EMAIL_READ_LOCK_KEY = "email:read:all";
-
-    @Scheduled(initialDelay = 300000, fixedRate = 3600000)
+    private final EmailIngestionService emailIngestionService;
+    private final EmailForwardingService emailForwardingService;
+    private final EmailProvisioningService emailProvisioningService;
+    private final InboxPollingCoordinator inboxPollingCoordinator;
+    private final DistributedLockService lockService;
+    private final DependencyGuard dependencyGuard;
+
+    private static final String INBOX_LOCK_PREFIX = "email:inbox:";
+    private static final Duration INBOX_LOCK_TTL = Duration.ofSeconds(30);
+
+    /**
+     * Раз во сколько циклов опроса читаются ящики с webhook
+     */
+    @Value("${email.read.webhook-reconcile-cycles:6}")
+    private int webhookReconcileCycles = 6;
+
+    @Value("${email.digest.window-hours:24}")
+    private long digestWindowHours = 24;
+
+    @Value("${email.digest.window-max-emails:200}")
+    private int digestWindowMaxEmails = 200;
+
+    /**
+     * Опрос ящиков. Все узлы запускаются по одному cron, а пользователи распределяются между ними
+     * по шардам через InboxPollingCoordinator.
+     */
+    @Scheduled(cron = "${email.read.cron:0 5 * * * *}")
     public void readAndDigestEmailsForAllUsers() {
-        if (!distributedLockService.tryLock(EMAIL_READ_LOCK_KEY)) {
-            log.debug("Задача чтения писем уже выполняется на другом инстансе, пропускаем");
+        boolean reconcile = !emailProvisioningService.isWebhookEnabled()
+                || inboxPollingCoordinator.currentCycle() % Math.max(1, webhookReconcileCycles) == 0;
+        List<User> users = userRepository.findAllByEmailProviderIdIsNotNull().stream()
+                .filter(user -> user.getEmailProviderId() != null && user.getEmail() != null)
+                .filter(user -> reconcile || user.getEmailWebhookRegisteredAt() == null)
+                .toList();
+        if (users.isEmpty()) {
             return;
         }
 
-        try {
-            log.info("Начало чтения писем для всех пользователей");
-
-            List<User> users = userRepository.findAllByEmailProviderIdIsNotNull();
-            
-            for (User user : users) {
-                if (user.getEmailProviderId() == null || user.getEmail() == null) {
-                    continue;
-                }
-
-                try {
-                    readAndDigestEmailsForUser(user);
-                } catch (Exception e) {
-                    log.error("Ошибка при чтении писем для пользователя {}: {}", 
-                            user.getEmail(), e.getMessage(), e);
-                    // Продолжаем обработку других пользователей
-                }
-            }
-
-            log.info("Завершено чтение писем для всех пользователей");
-        } finally {
-            distributedLockService.releaseLock(EMAIL_READ_LOCK_KEY);
-        }
+        log.info("Начало чтения писем: пользователей с ящиками {}", users.size());
+        int processed = inboxPollingCoordinator.runCycle(users, this::readAndDigestEmailsForUser);
+        log.info("Завершено чтение писем: этот узел обработал {} из {} пользователей", processed, users.size());
     }
 
-    public void readAndDigestEmailsForUser(User user) {
+    /**
+     * Читает новые письма ящика, обновляет digest и пересылает письма на личную почту
+     * @return false, если ящик в этот момент читает другой процесс
+     * @throws DependencyUnavailableException если LLM недоступен: письма не читаются, курсор не сдвигается
+     */
+    public boolean readAndDigestEmailsForUser(User user) {
         log.info("Чтение писем для пользователя: {}", user.getEmail());
 
         if (user.getEmailProviderId() == null || user.getEmailProviderId().trim().isEmpty()) {
@@ -78,17 +96,45 @@ public class EmailReadService {
                     "Пользователь должен быть импортирован через массовый импорт для создания корпоративной почты.");
         }
 
-        try {
-            List<EmailMessage> emails = fetchEmailsFromMailSlurp(user.getEmailProviderId());
+        // Без LLM digest все равно не создать, а письма пришлось бы загружать из MailSlurp заново
+        if (dependencyGuard.state(DependencyHealthTracker.LLM) == CircuitBreaker.State.OPEN) {
+            throw new DependencyUnavailableException(DependencyHealthTracker.LLM,
+                    "LLM недоступен, чтение писем пользователя " + user.getEmail() + " отложено");
+        }
 
-            if (emails.isEmpty()) {
-                log.debug("Новых писем нет для пользователя: {}", user.getEmail());
-                return;
+        // Опрос, обновление по запросу пользователя и другие узлы не читают один ящик одновременно
+        try (DistributedLockService.Lock lock = lockService
+                .tryAcquire(INBOX_LOCK_PREFIX + user.getEmailProviderId(), INBOX_LOCK_TTL).orElse(null)) {
+            if (lock == null) {
+                log.debug("Ящик пользователя {} уже читается", user.getEmail());
+                return false;
             }
 
-            log.info("Найдено {} новых писем для пользователя: {}", emails.size(), user.getEmail());
+            InboxDelta delta = emailIngestionService.fetchNew(user.getEmailProviderId());
 
-            emailDigestService.createAndCacheDigest(user.getId(), emails);
+            if (delta.isEmpty()) {
+                log.debug("Новых писем нет для пользователя: {}", user.getEmail());
+                if (!emailDigestService.markChecked(user.getId())) {
+                    emailDigestService.createAndCacheDigest(user.getId(), digestWindow(user, List.of()));
+                }
+                return true;
+            }
+
+            log.info("Найдено {} новых писем для пользователя: {}", delta.emails().size(), user.getEmail());
+
+            emailDigestService.createAndCacheDigest(user.getId(), digestWindow(user, delta.emails()));
+            forwardToPersonal(user, delta.emails());
+            // Письма помечаются после пересылки: при сбое отправки они будут прочитаны снова,
+            // а уже пересланные EmailForwardingService пропустит
+            try {
+                emailIngestionService.markProcessed(delta, lock.fencingToken());
+            } catch (FencingTokenRejectedException e) {
+                // Если счетчик в Redis начался заново, без этого курсор ящика больше не сдвинется;
+                // письма дельты будут прочитаны повторно в следующем цикле под новым токеном
+                lockService.advanceFence(lock.key(), e.getStoredToken());
+                throw e;
+            }
+            return true;
 
         } catch (Exception e) {
             log.error("Ошибка при чтении писем для пользователя {}: {}", 
@@ -97,99 +143,32 @@ public class EmailReadService {
         }
     }
 
-    private List<EmailMessage> fetchEmailsFromMailSlurp(String inboxId) {
-        try {
-            String getEmailsUrl = MAILSLURP_API_BASE + "/inboxes/" + inboxId + "/emails?unreadOnly=true";
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.set("x-api-key", mailslurpApiKey);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
-
-            HttpEntity<Void> request = new HttpEntity<>(headers);
-
-            org.springframework.core.ParameterizedTypeReference<List<Map<String, Object>>> typeRef = 
-                    new org.springframework.core.ParameterizedTypeReference<List<Map<String, Object>>>() {};
-            
-            ResponseEntity<List<Map<String, Object>>> response = restTemplate.exchange(
-                    getEmailsUrl,
-                    HttpMethod.GET,
-                    request,
-                    typeRef
-            );
-
-            List<Map<String, Object>> emailsList = response.getBody();
-            if (emailsList == null || emailsList.isEmpty()) {
-                return Collections.emptyList();
-            }
-
-            return parseEmailsList(emailsList);
-
-        } catch (Exception e) {
-            log.error("Ошибка при получении писем из MailSlurp для inbox {}: {}", 
-                    inboxId, e.getMessage(), e);
-            return Collections.emptyList();
+    /**
+     * Письма для digest: обработанные за окно и новые, от новых к старым. Новое письмо с тем же id
+     * заменяет сохраненный заголовок, потому что у него есть текст.
+     */
+    private List<EmailMessage> digestWindow(User user, List<EmailMessage> newEmails) {
+        Map<String, EmailMessage> byId = new LinkedHashMap<>();
+        for (EmailMessage email : emailIngestionService.findRecentProcessed(user.getEmailProviderId(),
+                Duration.ofHours(digestWindowHours), digestWindowMaxEmails)) {
+            byId.put(email.id(), email);
         }
-    }
-
-    private List<EmailMessage> parseEmailsList(List<Map<String, Object>> emailsList) {
-        List<EmailMessage> emails = new ArrayList<>();
-        for (Map<String, Object> emailData : emailsList) {
-            EmailMessage email = parseEmailFromMailSlurp(emailData);
-            if (email != null) {
-                emails.add(email);
-            }
-        }
-        return emails;
-    }
-
-    private EmailMessage parseEmailFromMailSlurp(Map<String, Object> emailData) {
-        try {
-            String id = (String) emailData.get("id");
-            String from = extractEmailAddress(emailData.get("from"));
-            String to = extractEmailAddress(emailData.get("to"));
-            String subject = (String) emailData.get("subject");
-            String body = (String) emailData.get("body");
-
-            LocalDateTime receivedAt = null;
-            Object createdAt = emailData.get("createdAt");
-            if (createdAt != null) {
-                if (createdAt instanceof String) {
-                    receivedAt = LocalDateTime.parse(((String) createdAt).substring(0, 19));
-                } else if (createdAt instanceof Number) {
-                    receivedAt = LocalDateTime.ofInstant(
-                            Instant.ofEpochMilli(((Number) createdAt).longValue()),
-                            ZoneId.systemDefault()
-                    );
-                }
-            }
-            if (receivedAt == null) {
-                receivedAt = LocalDateTime.now();
-            }
-
-            return new EmailMessage(id, from, to, subject, body, receivedAt);
-
-        } catch (Exception e) {
-            log.error("Ошибка при парсинге письма: {}", e.getMessage());
-            return null;
+        for (EmailMessage email : newEmails) {
+            byId.put(email.id(), email);
         }
+        return byId.values().stream()
+                .sorted(Comparator.comparing(EmailMessage::receivedAt,
+                        Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder())))
+                .limit(digestWindowMaxEmails)
+                .toList();
     }
 
-    private String extractEmailAddress(Object emailObj) {
-        if (emailObj == null) {
-            return "unknown";
-        }
-        if (emailObj instanceof String) {
-            return (String) emailObj;
+    private void forwardToPersonal(User user, List<EmailMessage> emails) {
+        if (user.getPersonalEmail() == null) {
+            return;
         }
-        if (emailObj instanceof Map) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> emailMap = (Map<String, Object>) emailObj;
-            Object emailAddress = emailMap.get("emailAddress");
-            if (emailAddress != null) {
-                return emailAddress.toString();
-            }
+        for (EmailMessage email : emails) {
+            emailForwardingService.forwardEmailToPersonal(user, email);
         }
-        return emailObj.toString();
     }
 }
-
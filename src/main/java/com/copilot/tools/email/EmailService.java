@@ -1,10 +1,17 @@
 package com.copilot.tools.email;
 
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
 import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
@@ -18,6 +25,7 @@ import java.net.SocketTimeoutException;
 public class EmailService {
 
     private final JavaMailSender mailSender;
+    private final DependencyGuard dependencyGuard;
 
     @Value("${spring.mail.host:localhost}")
     private String mailHost;
@@ -39,11 +47,17 @@ public class EmailService {
             log.info("Попытка отправки письма через SMTP {}:{}: from={}, to={}, subject={}", 
                     mailHost, mailPort, fromEmail, to, subject);
             
-            mailSender.send(msg);
+            dependencyGuard.call(DependencyHealthTracker.SMTP, () -> {
+                mailSender.send(msg);
+                return null;
+            }, EmailService::isServerFailure);
             
             log.info("Email sent successfully to: {} via SMTP {}:{}. From: {}, Subject: {}", 
                     to, mailHost, mailPort, fromEmail, subject);
             return "sent:" + System.currentTimeMillis();
+        } catch (DependencyUnavailableException e) {
+            log.warn("Письмо для {} не отправлено: {}", to, e.getMessage());
+            throw e;
         } catch (MailException e) {
             String errorMessage = buildErrorMessage(e, to);
             log.error("Failed to send email to {} via SMTP {}:{} - {}", 
@@ -68,9 +82,16 @@ public class EmailService {
                 msg.setSubject(subject);
                 msg.setText(body);
 
-                mailSender.send(msg);
+                dependencyGuard.call(DependencyHealthTracker.SMTP, () -> {
+                    mailSender.send(msg);
+                    return null;
+                }, EmailService::isServerFailure);
                 log.info("Email sent successfully to: {} via SMTP {}:{}", recipient, mailHost, mailPort);
                 successCount++;
+            } catch (DependencyUnavailableException e) {
+                // SMTP недоступен: остальные получатели тоже будут отклонены, не перебираем их
+                log.warn("Рассылка прервана после {} из {} писем: {}", successCount, recipients.length, e.getMessage());
+                throw e;
             } catch (MailException e) {
                 String errorMessage = buildErrorMessage(e, recipient);
                 log.error("Failed to send email to {} via SMTP {}:{} - {}", 
@@ -96,6 +117,29 @@ public class EmailService {
         return "bulk_sent:" + System.currentTimeMillis();
     }
 
+    /**
+     * Сбой SMTP сервера или соединения с ним. Отказ по конкретному письму (получатель отклонен сервером,
+     * письмо не собрано) говорит о письме, а не о сервере, и circuit breaker SMTP не открывает
+     */
+    static boolean isServerFailure(Exception e) {
+        if (e instanceof MailParseException || e instanceof MailPreparationException) {
+            return false;
+        }
+        if (e instanceof MailSendException send && !send.getFailedMessages().isEmpty()) {
+            return !send.getFailedMessages().values().stream().allMatch(EmailService::isRecipientRejection);
+        }
+        return !isRecipientRejection(e);
+    }
+
+    private static boolean isRecipientRejection(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof SendFailedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private String buildErrorMessage(MailException e, String recipient) {
         Throwable cause = e.getCause();
         
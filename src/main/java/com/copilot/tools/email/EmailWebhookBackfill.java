@@ -0,0 +1,92 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.RedisRateLimiter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Подписка на NEW_EMAIL ящиков, созданных до включения webhook или выданных из пула без отметки.
+ * Пока у пользователя нет отметки email_webhook_registered_at, его ящик опрашивается каждый час
+ * (см. EmailReadService). Задача идет пачками на одном узле под блокировкой и в общей квоте MailSlurp.
+ * Неудачная попытка отмечается в email_webhook_attempted_at, и ящик повторяется после остальных.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EmailWebhookBackfill {
+
+    private static final String BACKFILL_LOCK = "email-webhook-backfill";
+    private static final Duration BACKFILL_LOCK_TTL = Duration.ofSeconds(30);
+
+    private final EmailProvisioningService emailProvisioningService;
+    private final UserRepository userRepository;
+    private final DistributedLockService lockService;
+    private final RedisRateLimiter rateLimiter;
+
+    @Value("${mailslurp.webhook.backfill-batch-size:100}")
+    private int batchSize = 100;
+
+    @Value("${mailslurp.rate-limit-per-second:10}")
+    private int mailslurpRateLimit = 10;
+
+    /**
+     * Подписывает очередную пачку ящиков
+     * @return сколько ящиков подписано
+     */
+    @Scheduled(fixedDelayString = "${mailslurp.webhook.backfill-interval-ms:600000}",
+               initialDelayString = "${mailslurp.webhook.backfill-initial-delay-ms:60000}")
+    public int backfill() {
+        if (!emailProvisioningService.isWebhookEnabled()) {
+            return 0;
+        }
+        try (DistributedLockService.Lock lock = lockService.tryAcquire(BACKFILL_LOCK, BACKFILL_LOCK_TTL).orElse(null)) {
+            if (lock == null) {
+                return 0;
+            }
+            List<User> users = userRepository.findWithoutEmailWebhook(PageRequest.of(0, batchSize));
+            int registered = 0;
+            for (User user : users) {
+                if (!lock.isHeld()) {
+                    break;
+                }
+                try {
+                    // Проверка подписки и регистрация - до двух запросов на ящик
+                    rateLimiter.acquire(DependencyHealthTracker.MAILSLURP, mailslurpRateLimit);
+                    rateLimiter.acquire(DependencyHealthTracker.MAILSLURP, mailslurpRateLimit);
+                    emailProvisioningService.ensureNewEmailWebhook(user.getEmailProviderId());
+                    userRepository.markEmailWebhookRegistered(user.getId(), LocalDateTime.now());
+                    registered++;
+                } catch (Exception e) {
+                    // Ящик остается на часовом опросе; отметка попытки уводит его в конец очереди,
+                    // чтобы постоянно падающие ящики не заслоняли остальные
+                    log.warn("Не удалось подписать ящик {} пользователя {} на webhook: {}",
+                            user.getEmailProviderId(), user.getEmail(), e.getMessage());
+                    markAttempted(user);
+                }
+            }
+            if (!users.isEmpty()) {
+                log.info("Подписано на webhook ящиков: {} из {}", registered, users.size());
+            }
+            return registered;
+        }
+    }
+
+    private void markAttempted(User user) {
+        try {
+            userRepository.markEmailWebhookAttempted(user.getId(), LocalDateTime.now());
+        } catch (Exception e) {
+            log.warn("Не удалось отметить попытку подписки ящика {}: {}", user.getEmailProviderId(), e.getMessage());
+        }
+    }
+}
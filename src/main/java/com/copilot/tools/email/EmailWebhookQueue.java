@@ -0,0 +1,272 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Очередь уведомлений о новых письмах на Redis Stream.
+ * Webhook только кладет событие в поток и сразу отвечает, а группа потребителей всех узлов разбирает поток:
+ * события группируются по ящику, ящик читается через EmailReadService, и событие подтверждается (XACK)
+ * только после успешного чтения. Неподтвержденные события узла, упавшего посреди чтения, через claimIdleMs
+ * забирает другой узел; после maxDeliveries попыток событие снимается, его письма подберет сверочный опрос.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EmailWebhookQueue {
+
+    static final String STREAM_KEY = "email:webhook:events";
+    static final String GROUP = "email-ingest";
+    private static final String DEDUP_PREFIX = "email:webhook:seen:";
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final UserRepository userRepository;
+    private final EmailReadService emailReadService;
+
+    private final String consumerName = "node-" + UUID.randomUUID();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean groupReady;
+
+    @Value("${email.webhook.batch-size:50}")
+    private int batchSize = 50;
+
+    /**
+     * Сколько ящиков читается одновременно при разборе пачки событий
+     */
+    @Value("${email.webhook.concurrency:8}")
+    private int concurrency = 8;
+
+    /**
+     * Через сколько событие, не подтвержденное своим потребителем, забирает другой узел
+     */
+    @Value("${email.webhook.claim-idle-ms:60000}")
+    private long claimIdleMs = 60_000;
+
+    @Value("${email.webhook.max-deliveries:5}")
+    private long maxDeliveries = 5;
+
+    @Value("${email.webhook.stream-max-length:100000}")
+    private long streamMaxLength = 100_000;
+
+    /**
+     * Сколько помнить id уведомления, чтобы повторная доставка MailSlurp не попала в поток второй раз
+     */
+    @Value("${email.webhook.dedup-ttl-hours:24}")
+    private long dedupTtlHours = 24;
+
+    /**
+     * Кладет уведомление в поток
+     * @return false, если уведомление с таким id уже было принято
+     */
+    public boolean enqueue(String notificationId, String inboxId, String emailId) {
+        String dedupKey = DEDUP_PREFIX + notificationId;
+        Boolean first = redisTemplate.opsForValue().setIfAbsent(dedupKey, inboxId, Duration.ofHours(dedupTtlHours));
+        if (!Boolean.TRUE.equals(first)) {
+            log.debug("Повторное уведомление {} для ящика {} пропущено", notificationId, inboxId);
+            return false;
+        }
+
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("inboxId", inboxId);
+        fields.put("emailId", emailId != null ? emailId : "");
+        fields.put("notificationId", notificationId);
+        try {
+            StreamOperations<String, Object, Object> stream = redisTemplate.opsForStream();
+            stream.add(StreamRecords.newRecord().in(STREAM_KEY).ofMap(fields));
+            stream.trim(STREAM_KEY, streamMaxLength, true);
+        } catch (RuntimeException e) {
+            // Без записи в поток уведомление должно прийти повторно, а не отсечься как дубликат
+            redisTemplate.delete(dedupKey);
+            throw e;
+        }
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${email.webhook.poll-interval-ms:1000}")
+    public void drain() {
+        if (!ensureGroup()) {
+            return;
+        }
+        try {
+            List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().read(
+                    Consumer.from(GROUP, consumerName),
+                    StreamReadOptions.empty().count(batchSize),
+                    StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed()));
+            process(records);
+            reclaimStale();
+        } catch (Exception e) {
+            if (hasMessage(e, "NOGROUP")) {
+                // Поток или группа потеряны (перезапуск Redis без персистентности, FLUSHDB): XADD создаст
+                // поток заново, но не группу, поэтому пересоздаем ее на следующем тике
+                groupReady = false;
+                log.warn("Группа потребителей {} потеряна, будет создана заново", GROUP);
+            } else {
+                log.warn("Ошибка разбора очереди webhook: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Читает каждый ящик один раз на пачку, сколько бы уведомлений по нему ни пришло
+     */
+    void process(List<MapRecord<String, Object, Object>> records) {
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        Map<String, List<RecordId>> byInbox = new LinkedHashMap<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            Object inboxId = record.getValue().get("inboxId");
+            if (inboxId == null || inboxId.toString().isBlank()) {
+                acknowledge(List.of(record.getId()));
+                continue;
+            }
+            byInbox.computeIfAbsent(inboxId.toString(), key -> new ArrayList<>()).add(record.getId());
+        }
+
+        Semaphore permits = new Semaphore(Math.max(1, concurrency));
+        List<Future<?>> tasks = new ArrayList<>();
+        for (Map.Entry<String, List<RecordId>> entry : byInbox.entrySet()) {
+            tasks.add(executor.submit(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    handleInbox(entry.getKey(), entry.getValue());
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.warn("Ошибка обработки уведомлений webhook: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void handleInbox(String inboxId, List<RecordId> recordIds) {
+        User user = userRepository.findByEmailProviderId(inboxId).orElse(null);
+        if (user == null) {
+            log.warn("Уведомление для неизвестного ящика {} пропущено", inboxId);
+            acknowledge(recordIds);
+            return;
+        }
+        try {
+            if (emailReadService.readAndDigestEmailsForUser(user)) {
+                acknowledge(recordIds);
+            } else {
+                // Ящик читает другой процесс; событие останется неподтвержденным и будет забрано повторно
+                log.debug("Ящик {} уже читается, уведомления отложены", inboxId);
+            }
+        } catch (Exception e) {
+            log.warn("Не удалось обработать уведомления для ящика {}: {}", inboxId, e.getMessage());
+        }
+    }
+
+    /**
+     * Забирает события, которые слишком долго висят неподтвержденными у своего потребителя
+     */
+    private void reclaimStale() {
+        StreamOperations<String, Object, Object> stream = redisTemplate.opsForStream();
+        PendingMessages pending = stream.pending(STREAM_KEY, GROUP, Range.unbounded(), batchSize);
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+
+        List<RecordId> retry = new ArrayList<>();
+        List<RecordId> exhausted = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().toMillis() < claimIdleMs) {
+                continue;
+            }
+            (message.getTotalDeliveryCount() >= maxDeliveries ? exhausted : retry).add(message.getId());
+        }
+
+        if (!exhausted.isEmpty()) {
+            log.warn("Снято {} уведомлений webhook после {} попыток, письма подберет сверочный опрос",
+                    exhausted.size(), maxDeliveries);
+            acknowledge(exhausted);
+        }
+        if (!retry.isEmpty()) {
+            List<MapRecord<String, Object, Object>> claimed = stream.claim(STREAM_KEY, GROUP, consumerName,
+                    Duration.ofMillis(claimIdleMs), retry.toArray(RecordId[]::new));
+            log.info("Повторная обработка {} зависших уведомлений webhook", claimed.size());
+            process(claimed);
+        }
+    }
+
+    private void acknowledge(List<RecordId> recordIds) {
+        try {
+            redisTemplate.opsForStream().acknowledge(STREAM_KEY, GROUP, recordIds.toArray(RecordId[]::new));
+        } catch (Exception e) {
+            log.warn("Не удалось подтвердить уведомления webhook {}: {}", recordIds, e.getMessage());
+        }
+    }
+
+    /**
+     * Группа создается один раз на поток; BUSYGROUP означает, что ее уже создал другой узел.
+     * После NOGROUP в drain() флаг сбрасывается, и группа создается заново
+     */
+    private boolean ensureGroup() {
+        if (groupReady) {
+            return true;
+        }
+        try {
+            redisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), GROUP);
+            groupReady = true;
+        } catch (Exception e) {
+            if (hasMessage(e, "BUSYGROUP")) {
+                groupReady = true;
+            } else {
+                log.debug("Группа потребителей {} пока не создана: {}", GROUP, e.getMessage());
+            }
+        }
+        return groupReady;
+    }
+
+    private static boolean hasMessage(Throwable e, String marker) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains(marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+package com.copilot.tools.email;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Прием webhook MailSlurp. MailSlurp подписывает запросы Basic-авторизацией, заданной при регистрации
+ * webhook (см. EmailProvisioningService), поэтому без настроенного пароля все запросы отклоняются.
+ * Принятое уведомление NEW_EMAIL только кладется в EmailWebhookQueue: письмо читается асинхронно.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class EmailWebhookService {
+
+    static final String NEW_EMAIL_EVENT = "NEW_EMAIL";
+
+    private final EmailWebhookQueue emailWebhookQueue;
+
+    @Value("${mailslurp.webhook.username:mailslurp}")
+    private String username = "mailslurp";
+
+    @Value("${mailslurp.webhook.password:}")
+    private String password;
+
+    /**
+     * Проверяет заголовок Authorization запроса webhook
+     * @throws BadCredentialsException если webhook не настроен или учетные данные не совпадают
+     */
+    public void verify(String authorization) {
+        if (password == null || password.isBlank()) {
+            throw new BadCredentialsException("Webhook MailSlurp не настроен");
+        }
+        String expected = "Basic " + Base64.getEncoder()
+                .encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        byte[] actual = (authorization != null ? authorization : "").getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), actual)) {
+            throw new BadCredentialsException("Неверная подпись webhook MailSlurp");
+        }
+    }
+
+    /**
+     * Ставит уведомление о новом письме в очередь. Другие события и повторные доставки игнорируются.
+     * @return true, если уведомление добавлено в очередь
+     */
+    public boolean accept(Map<String, Object> payload) {
+        String eventName = asString(payload.get("eventName"));
+        if (!NEW_EMAIL_EVENT.equals(eventName)) {
+            log.debug("Событие webhook {} пропущено", eventName);
+            return false;
+        }
+
+        String inboxId = asString(payload.get("inboxId"));
+        String emailId = asString(payload.get("emailId"));
+        if (inboxId == null) {
+            // Повтор такого уведомления ничего не исправит, поэтому оно не отклоняется, а пропускается
+            log.warn("Уведомление MailSlurp без inboxId пропущено: {}", payload.get("messageId"));
+            return false;
+        }
+        // messageId одинаков у всех повторных доставок одного уведомления
+        String notificationId = asString(payload.get("messageId"));
+        if (notificationId == null) {
+            notificationId = emailId != null ? emailId : UUID.randomUUID().toString();
+        }
+
+        boolean queued = emailWebhookQueue.enqueue(notificationId, inboxId, emailId);
+        if (queued) {
+            log.debug("Новое письмо {} в ящике {} поставлено в очередь", emailId, inboxId);
+        }
+        return queued;
+    }
+
+    private static String asString(Object value) {
+        return value == null || value.toString().isBlank() ? null : value.toString();
+    }
+}
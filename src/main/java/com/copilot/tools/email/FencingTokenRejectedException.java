@@ -0,0 +1,22 @@
+package com.copilot.tools.email;
+
+/**
+ * Запись под блокировкой отклонена: хранилище уже видело более поздний fencing-токен.
+ * Либо блокировку перехватил другой владелец, либо счетчик токенов в Redis потерян и начался заново.
+ */
+public class FencingTokenRejectedException extends IllegalStateException {
+
+    private final long storedToken;
+
+    public FencingTokenRejectedException(String message, long storedToken) {
+        super(message);
+        this.storedToken = storedToken;
+    }
+
+    /**
+     * Последний токен, принятый хранилищем
+     */
+    public long getStoredToken() {
+        return storedToken;
+    }
+}
@@ -0,0 +1,253 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.CircuitBreaker;
+import com.copilot.resilience.DependencyGuard;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Распределение опроса ящиков между узлами кластера.
+ * Пользователи делятся на шарды по id. Узел берет в Redis аренду шарда, продлевает ее, пока обрабатывает
+ * пользователей шарда параллельно на виртуальных потоках, и отмечает шард выполненным в текущем цикле.
+ * Остальные узлы пропускают занятые и выполненные шарды и берут свободные, поэтому время цикла
+ * делится на число узлов. Узел, упавший посреди шарда, перестает продлевать аренду, и шард
+ * дорабатывает другой узел: пока есть чужие незавершенные шарды, узел возвращается к ним, пока не пройдет
+ * хотя бы один срок аренды, но не дольше конца цикла. Параллельность шарда ограничена bulkhead MailSlurp,
+ * а отказ bulkhead при закрытом breaker повторяется, а не откладывает пользователя до следующего цикла.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class InboxPollingCoordinator {
+
+    private static final String LEASE_PREFIX = "email:read:shard:";
+    private static final String DONE_PREFIX = "email:read:done:";
+
+    private final DistributedLockService lockService;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final DependencyGuard dependencyGuard;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Длина цикла опроса, должна совпадать с периодом email.read.cron
+     */
+    @Value("${email.read.interval-ms:3600000}")
+    private long intervalMs;
+
+    @Value("${email.read.shards:32}")
+    private int shards;
+
+    @Value("${email.read.concurrency:16}")
+    private int concurrency;
+
+    @Value("${email.read.lease-ttl-ms:60000}")
+    private long leaseTtlMs;
+
+    /**
+     * Пауза перед повторной попыткой взять шарды, занятые другими узлами
+     */
+    @Value("${email.read.busy-retry-ms:5000}")
+    private long busyRetryMs = 5_000;
+
+    @Value("${email.read.bulkhead-retries:3}")
+    private int bulkheadRetries = 3;
+
+    /**
+     * Обрабатывает шарды текущего цикла, которые еще никто не обработал и не держит.
+     * Ошибка по одному пользователю логируется и не останавливает шард.
+     * @return сколько пользователей обработал этот узел
+     */
+    public int runCycle(List<User> users, Consumer<User> work) {
+        long cycle = currentCycle();
+        Map<Integer, List<User>> byShard = partition(users);
+        List<Integer> pending = new ArrayList<>(byShard.keySet());
+        // Узлы начинают с разных шардов и реже сталкиваются на одной аренде
+        Collections.shuffle(pending);
+
+        long deadline = (cycle + 1) * intervalMs;
+        long idleSince = -1;
+        int processed = 0;
+        while (!pending.isEmpty() && System.currentTimeMillis() < deadline) {
+            boolean claimed = false;
+            for (Iterator<Integer> iterator = pending.iterator(); iterator.hasNext(); ) {
+                int shard = iterator.next();
+                if (isDone(cycle, shard)) {
+                    iterator.remove();
+                    continue;
+                }
+                try (DistributedLockService.Lock lease = lockService.tryAcquire(LEASE_PREFIX + shard, leaseTtl()).orElse(null)) {
+                    if (lease == null) {
+                        continue;
+                    }
+                    claimed = true;
+                    // Шард мог закончить другой узел между проверкой и арендой
+                    if (isDone(cycle, shard)) {
+                        iterator.remove();
+                        continue;
+                    }
+                    ShardResult result = processShard(shard, lease, byShard.get(shard), work);
+                    processed += result.processed();
+                    if (result.completed()) {
+                        markDone(cycle, shard);
+                        iterator.remove();
+                    }
+                }
+            }
+            if (claimed || pending.isEmpty()) {
+                idleSince = -1;
+                continue;
+            }
+            // Все оставшиеся шарды заняты. Аренда упавшего узла истечет за leaseTtlMs; если и после этого
+            // шарды заняты, их держат живые узлы, которые продлевают аренду и доработают их сами
+            long now = System.currentTimeMillis();
+            if (idleSince < 0) {
+                idleSince = now;
+            } else if (now - idleSince > leaseTtlMs) {
+                break;
+            }
+            if (!pause(Math.min(busyRetryMs, deadline - now))) {
+                break;
+            }
+        }
+        if (!pending.isEmpty()) {
+            log.debug("Цикл {}: шарды {} остались у других узлов", cycle, pending);
+        }
+        return processed;
+    }
+
+    /**
+     * Номер текущего цикла опроса, одинаковый на всех узлах
+     */
+    public long currentCycle() {
+        return System.currentTimeMillis() / intervalMs;
+    }
+
+    /**
+     * Аренду шарда продлевает сторожевая задача блокировки; если аренда потеряна, новые пользователи
+     * не запускаются, и шард не отмечается выполненным
+     */
+    private ShardResult processShard(int shard, DistributedLockService.Lock lease, List<User> users, Consumer<User> work) {
+        boolean interrupted = false;
+        // Больше одновременных чтений, чем пропускает bulkhead MailSlurp, дало бы только отказы "перегружен"
+        Semaphore slots = new Semaphore(Math.max(1,
+                Math.min(concurrency, dependencyGuard.bulkheadSize(DependencyHealthTracker.MAILSLURP))));
+        AtomicInteger processed = new AtomicInteger();
+        List<Future<?>> running = new ArrayList<>(users.size());
+        try {
+            for (User user : users) {
+                if (!lease.isHeld()) {
+                    log.warn("Аренда шарда {} потеряна, прекращаем его обработку", shard);
+                    break;
+                }
+                slots.acquire();
+                running.add(executor.submit(() -> {
+                    try {
+                        acceptWithRetry(work, user);
+                        processed.incrementAndGet();
+                    } catch (Exception e) {
+                        log.error("Ошибка при чтении писем для пользователя {}: {}", user.getEmail(), e.getMessage());
+                    } finally {
+                        slots.release();
+                    }
+                }));
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running.forEach(future -> future.cancel(true));
+            interrupted = true;
+        } catch (ExecutionException e) {
+            log.error("Ошибка обработки шарда {}: {}", shard, e.getMessage());
+        }
+        log.debug("Шард {}: обработано {} из {} пользователей", shard, processed.get(), users.size());
+        return new ShardResult(processed.get(), !interrupted && lease.isHeld());
+    }
+
+    /**
+     * Повторяет чтение, отклоненное переполненным bulkhead. Открытый breaker не повторяется:
+     * зависимость лежит, и пользователя подберет следующий цикл.
+     */
+    private void acceptWithRetry(Consumer<User> work, User user) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                work.accept(user);
+                return;
+            } catch (RuntimeException e) {
+                DependencyUnavailableException unavailable = DependencyUnavailableException.find(e);
+                if (unavailable == null || attempt >= bulkheadRetries
+                        || dependencyGuard.state(unavailable.getDependency()) != CircuitBreaker.State.CLOSED) {
+                    throw e;
+                }
+                Thread.sleep(ThreadLocalRandom.current().nextLong(100, 500) * (attempt + 1));
+            }
+        }
+    }
+
+    private static boolean pause(long millis) {
+        if (millis <= 0) {
+            return false;
+        }
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Map<Integer, List<User>> partition(List<User> users) {
+        Map<Integer, List<User>> byShard = new HashMap<>();
+        for (User user : users) {
+            int shard = Math.floorMod(user.getId().hashCode(), shards);
+            byShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(user);
+        }
+        return byShard;
+    }
+
+    private boolean isDone(long cycle, int shard) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(DONE_PREFIX + cycle + ":" + shard));
+    }
+
+    private void markDone(long cycle, int shard) {
+        redisTemplate.opsForValue().set(DONE_PREFIX + cycle + ":" + shard, "1", Duration.ofMillis(intervalMs * 2));
+    }
+
+    private Duration leaseTtl() {
+        return Duration.ofMillis(leaseTtlMs);
+    }
+
+    private record ShardResult(int processed, boolean completed) {
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,241 @@
+package com.copilot.tools.email;
+
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.RedisRateLimiter;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Пул заранее созданных ящиков MailSlurp.
+ * Импорт и регистрация забирают готовый ящик из списка в Redis мгновенно, а пул пополняется в фоне
+ * параллельными запросами к MailSlurp в общей для кластера квоте запросов провайдера (RedisRateLimiter).
+ * Если пул пуст, ящик создается напрямую (в той же квоте).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MailSlurpInboxPool {
+
+    private static final String POOL_KEY = "mailslurp:inbox-pool";
+    private static final String REFILL_LOCK = "mailslurp-inbox-pool-refill";
+    private static final Duration REFILL_LOCK_TTL = Duration.ofSeconds(30);
+
+    private final EmailProvisioningService emailProvisioningService;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final DistributedLockService lockService;
+    private final RedisRateLimiter rateLimiter;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    /**
+     * Сколько ящиков держать готовыми. 0 - пул выключен, ящики создаются по запросу
+     */
+    @Value("${mailslurp.inbox-pool.target-size:20}")
+    private int targetSize;
+
+    @Value("${mailslurp.inbox-pool.refill-concurrency:4}")
+    private int refillConcurrency;
+
+    @Value("${mailslurp.rate-limit-per-second:10}")
+    private int mailslurpRateLimit = 10;
+
+    /**
+     * Выдает ящик из пула, при пустом пуле создает новый. Если в пуле осталось меньше половины
+     * целевого размера, запускает фоновое пополнение.
+     */
+    public EmailProvisioningService.MailSlurpInboxResponse acquire() {
+        EmailProvisioningService.MailSlurpInboxResponse inbox = poll();
+        if (targetSize > 0 && size() < targetSize / 2 + 1) {
+            triggerRefill();
+        }
+        if (inbox != null) {
+            log.info("Корпоративная почта выдана из пула: {}", inbox.emailAddress());
+            return inbox;
+        }
+        log.info("Пул ящиков MailSlurp пуст, создаем ящик напрямую");
+        return createRateLimited();
+    }
+
+    /**
+     * Возвращает в пул ящик, выданный пользователю, который так и не был сохранен.
+     * Ящик ставится в начало списка и выдается следующим.
+     */
+    public void release(EmailProvisioningService.MailSlurpInboxResponse inbox) {
+        try {
+            redisTemplate.opsForList().leftPush(POOL_KEY, serialize(inbox));
+            log.info("Ящик {} возвращен в пул", inbox.emailAddress());
+        } catch (Exception e) {
+            discard(inbox, e);
+        }
+    }
+
+    /**
+     * Текущее количество готовых ящиков
+     */
+    public long size() {
+        try {
+            Long size = redisTemplate.opsForList().size(POOL_KEY);
+            return size != null ? size : 0;
+        } catch (Exception e) {
+            log.warn("Не удалось получить размер пула ящиков: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mailslurp.inbox-pool.refill-interval-ms:60000}",
+               initialDelayString = "${mailslurp.inbox-pool.initial-delay-ms:10000}")
+    public void scheduledRefill() {
+        triggerRefill();
+    }
+
+    /**
+     * Запускает пополнение в фоне, если оно еще не идет
+     */
+    public void triggerRefill() {
+        if (targetSize <= 0 || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refill();
+                } finally {
+                    refilling.set(false);
+                }
+            });
+        } catch (Exception e) {
+            refilling.set(false);
+            log.warn("Не удалось запустить пополнение пула ящиков: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Дозаполняет пул до целевого размера. Блокировка в Redis не дает нескольким инстансам
+     * одновременно создавать ящики сверх нужного количества.
+     * @return количество созданных ящиков
+     */
+    int refill() {
+        try (DistributedLockService.Lock lock = lockService.tryAcquire(REFILL_LOCK, REFILL_LOCK_TTL).orElse(null)) {
+            if (lock == null) {
+                return 0;
+            }
+            long missing = targetSize - size();
+            if (missing <= 0) {
+                return 0;
+            }
+            log.info("Пополнение пула ящиков MailSlurp: не хватает {}", missing);
+
+            int concurrency = (int) Math.max(1, Math.min(refillConcurrency, missing));
+            long perWorker = missing / concurrency;
+            long remainder = missing % concurrency;
+            List<Future<Integer>> workers = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                long count = perWorker + (i < remainder ? 1 : 0);
+                workers.add(executor.submit(() -> createInboxes(count, lock)));
+            }
+
+            int created = 0;
+            for (Future<Integer> worker : workers) {
+                try {
+                    created += worker.get();
+                } catch (Exception e) {
+                    log.warn("Ошибка при пополнении пула ящиков: {}", e.getMessage());
+                }
+            }
+            log.info("Пул ящиков MailSlurp пополнен на {}, всего готово: {}", created, size());
+            return created;
+        }
+    }
+
+    private int createInboxes(long count, DistributedLockService.Lock lock) {
+        int created = 0;
+        // Потерянная блокировка значит, что пополнение уже мог начать другой инстанс
+        for (long i = 0; i < count && lock.isHeld(); i++) {
+            EmailProvisioningService.MailSlurpInboxResponse inbox;
+            try {
+                inbox = createRateLimited();
+            } catch (Exception e) {
+                // Провайдер отказал - прекращаем этот воркер, остальное дозаполнит следующий запуск
+                log.warn("Не удалось создать ящик для пула: {}", e.getMessage());
+                break;
+            }
+            try {
+                redisTemplate.opsForList().rightPush(POOL_KEY, serialize(inbox));
+                created++;
+            } catch (Exception e) {
+                // Redis недоступен - следующие ящики тоже некуда положить
+                discard(inbox, e);
+                break;
+            }
+        }
+        return created;
+    }
+
+    private EmailProvisioningService.MailSlurpInboxResponse poll() {
+        try {
+            String value = redisTemplate.opsForList().leftPop(POOL_KEY);
+            return value != null ? deserialize(value) : null;
+        } catch (Exception e) {
+            log.warn("Не удалось получить ящик из пула: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Создает ящик в общей квоте MailSlurp: создание и подписка на webhook - до двух запросов
+     */
+    private EmailProvisioningService.MailSlurpInboxResponse createRateLimited() {
+        rateLimiter.acquire(DependencyHealthTracker.MAILSLURP, mailslurpRateLimit);
+        if (emailProvisioningService.isWebhookEnabled()) {
+            rateLimiter.acquire(DependencyHealthTracker.MAILSLURP, mailslurpRateLimit);
+        }
+        return emailProvisioningService.createCorporateEmail();
+    }
+
+    /**
+     * Удаляет созданный ящик, который не удалось положить в пул, иначе он останется в MailSlurp без владельца.
+     * Если удалить не удалось, id ящика пишется в лог для ручной очистки.
+     */
+    private void discard(EmailProvisioningService.MailSlurpInboxResponse inbox, Exception cause) {
+        log.warn("Не удалось положить ящик {} в пул, удаляем его: {}", inbox.id(), cause.getMessage());
+        try {
+            rateLimiter.acquire(DependencyHealthTracker.MAILSLURP, mailslurpRateLimit);
+            emailProvisioningService.deleteInbox(inbox.id());
+        } catch (Exception e) {
+            log.error("Ящик MailSlurp {} ({}) не попал в пул и не удален, его нужно удалить вручную: {}",
+                    inbox.id(), inbox.emailAddress(), e.getMessage());
+        }
+    }
+
+    static String serialize(EmailProvisioningService.MailSlurpInboxResponse inbox) {
+        return inbox.id() + "|" + inbox.emailAddress() + "|" + (inbox.inboxType() != null ? inbox.inboxType() : "");
+    }
+
+    static EmailProvisioningService.MailSlurpInboxResponse deserialize(String value) {
+        String[] parts = value.split("\\|", 3);
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Некорректная запись пула ящиков: " + value);
+        }
+        String inboxType = parts.length == 3 && !parts[2].isEmpty() ? parts[2] : null;
+        return new EmailProvisioningService.MailSlurpInboxResponse(parts[0], parts[1], inboxType);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
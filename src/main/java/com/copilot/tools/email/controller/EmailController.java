@@ -1,10 +1,9 @@
 package com.copilot.tools.email.controller;
 
-import com.copilot.tools.email.EmailDigestService;
-import com.copilot.tools.email.EmailReadService;
+import com.copilot.tools.email.EmailDigestProvider;
 import com.copilot.tools.email.dto.EmailDigest;
-import com.copilot.auth.model.User;
-import com.copilot.auth.repository.UserRepository;
+import com.copilot.security.AuthenticatedUser;
+import com.copilot.security.CurrentUser;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
@@ -12,8 +11,6 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
@@ -25,90 +22,53 @@ import java.time.LocalDateTime;
 @Tag(name = "Email", description = "API для работы с email")
 public class EmailController {
 
-    private final EmailDigestService emailDigestService;
-    private final EmailReadService emailReadService;
-    private final UserRepository userRepository;
+    private final EmailDigestProvider emailDigestProvider;
 
     @Operation(
             summary = "Получить email digest (сводку писем)",
-            description = "Возвращает сводку новых писем для текущего пользователя. " +
-                    "Если digest нет в кэше, запускает чтение писем и создание digest."
+            description = "Сразу возвращает последнюю сводку писем текущего пользователя. " +
+                    "Если сводка устарела или ее еще нет, она обновляется в фоне."
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Digest успешно получен"),
-            @ApiResponse(responseCode = "401", description = "Пользователь не авторизован"),
-            @ApiResponse(responseCode = "404", description = "Пользователь не найден")
+            @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
     })
     @GetMapping("/digest")
-    public ResponseEntity<EmailDigest> getEmailDigest(Authentication authentication) {
-        String email = getCurrentUserEmail(authentication);
-        log.info("Запрос digest для пользователя: {}", email);
-
-        User user = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден: " + email));
+    public ResponseEntity<EmailDigest> getEmailDigest(@CurrentUser AuthenticatedUser currentUser) {
+        log.info("Запрос digest для пользователя: {}", currentUser.email());
 
-        EmailDigest digest = emailDigestService.getCachedDigest(user.getId());
-        
-        if (digest == null) {
-            log.info("Digest нет в кэше, создаем новый для пользователя: {}", email);
-            emailReadService.readAndDigestEmailsForUser(user);
-            digest = emailDigestService.getCachedDigest(user.getId());
-            
-            if (digest == null) {
-                digest = new EmailDigest(
+        EmailDigest digest = emailDigestProvider.getDigest(currentUser.userId())
+                .orElseGet(() -> new EmailDigest(
                         "Письма еще обрабатываются. Попробуйте позже.",
                         0,
                         null,
                         null
-                );
-            }
-        }
+                ));
 
         return ResponseEntity.ok(digest);
     }
 
     @Operation(
             summary = "Принудительно обновить email digest",
-            description = "Принудительно читает новые письма и создает свежий digest для текущего пользователя"
+            description = "Читает новые письма и обновляет digest текущего пользователя. " +
+                    "Если обновление уже идет, ждет его результата."
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Digest успешно обновлен"),
             @ApiResponse(responseCode = "401", description = "Пользователь не авторизован")
     })
     @PostMapping("/digest/refresh")
-    public ResponseEntity<EmailDigest> refreshEmailDigest(Authentication authentication) {
-        String email = getCurrentUserEmail(authentication);
-        log.info("Принудительное обновление digest для пользователя: {}", email);
+    public ResponseEntity<EmailDigest> refreshEmailDigest(@CurrentUser AuthenticatedUser currentUser) {
+        log.info("Принудительное обновление digest для пользователя: {}", currentUser.email());
 
-        User user = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден: " + email));
-
-        emailReadService.readAndDigestEmailsForUser(user);
-        
-        EmailDigest digest = emailDigestService.getCachedDigest(user.getId());
-        if (digest == null) {
-            digest = new EmailDigest(
-                    "Письма обрабатываются",
-                    0,
-                    LocalDateTime.now(),
-                    null
-            );
-        }
+        EmailDigest digest = emailDigestProvider.refreshNow(currentUser.userId())
+                .orElseGet(() -> new EmailDigest(
+                        "Письма обрабатываются",
+                        0,
+                        LocalDateTime.now(),
+                        null
+                ));
 
         return ResponseEntity.ok(digest);
     }
-
-    private String getCurrentUserEmail(Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
-            throw new RuntimeException("Пользователь не авторизован");
-        }
-        
-        Object principal = authentication.getPrincipal();
-        if (principal instanceof UserDetails userDetails) {
-            return userDetails.getUsername();
-        }
-        
-        return principal.toString();
-    }
 }
-
@@ -0,0 +1,44 @@
+package com.copilot.tools.email.controller;
+
+import com.copilot.tools.email.EmailWebhookService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@Slf4j
+@RestController
+@RequestMapping("/email/webhooks")
+@RequiredArgsConstructor
+@Tag(name = "Email Webhooks", description = "Уведомления провайдера почты о новых письмах")
+public class EmailWebhookController {
+
+    private final EmailWebhookService emailWebhookService;
+
+    @Operation(
+            summary = "Уведомление MailSlurp о новом письме",
+            description = "Принимает webhook NEW_EMAIL и ставит ящик в очередь на чтение. " +
+                    "Письмо попадает в digest и пересылается на личную почту асинхронно."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Уведомление поставлено в очередь"),
+            @ApiResponse(responseCode = "200", description = "Уведомление уже принято ранее или не требует обработки"),
+            @ApiResponse(responseCode = "401", description = "Неверная подпись webhook")
+    })
+    @PostMapping("/mailslurp")
+    public ResponseEntity<Void> receiveMailSlurpEvent(
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestBody Map<String, Object> payload) {
+        emailWebhookService.verify(authorization);
+
+        boolean queued = emailWebhookService.accept(payload);
+        return queued ? ResponseEntity.accepted().build() : ResponseEntity.ok().build();
+    }
+}
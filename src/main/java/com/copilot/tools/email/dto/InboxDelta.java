@@ -0,0 +1,19 @@
+package com.copilot.tools.email.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Новые письма ящика с момента курсора и позиция, до которой курсор сдвинется после их обработки
+ */
+public record InboxDelta(
+        String inboxId,
+        List<EmailMessage> emails,
+        Instant newestCreatedAt,
+        String newestMessageId
+) {
+
+    public boolean isEmpty() {
+        return emails.isEmpty();
+    }
+}
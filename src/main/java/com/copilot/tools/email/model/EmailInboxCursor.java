@@ -0,0 +1,39 @@
+package com.copilot.tools.email.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+/**
+ * Курсор чтения ящика MailSlurp: время создания последнего обработанного письма.
+ * Следующее чтение запрашивает только письма новее курсора. fencingToken - токен блокировки ящика
+ * последней записи: запись с меньшим токеном сделал владелец, уже потерявший блокировку.
+ */
+@Entity
+@Table(name = "email_inbox_cursors")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class EmailInboxCursor {
+
+    @Id
+    @Column(name = "inbox_id", length = 100)
+    private String inboxId;
+
+    @Column(name = "last_created_at", nullable = false)
+    private Instant lastCreatedAt;
+
+    @Column(name = "last_message_id", length = 100)
+    private String lastMessageId;
+
+    @Column(name = "fencing_token")
+    private Long fencingToken;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
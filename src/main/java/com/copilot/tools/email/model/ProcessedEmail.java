@@ -0,0 +1,52 @@
+package com.copilot.tools.email.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Письмо, уже переданное в digest. Защищает от повторной обработки писем с тем же временем,
+ * что и курсор ящика, и хранит заголовок письма, чтобы digest охватывал не только последнее чтение,
+ * но и письма за окно email.digest.window-hours.
+ */
+@Entity
+@Table(name = "processed_emails",
+        uniqueConstraints = @UniqueConstraint(name = "uk_processed_emails_inbox_message",
+                columnNames = {"inbox_id", "message_id"}),
+        indexes = {
+                @Index(name = "idx_processed_emails_processed_at", columnList = "processed_at"),
+                @Index(name = "idx_processed_emails_inbox_received", columnList = "inbox_id, received_at")
+        })
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProcessedEmail {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "inbox_id", nullable = false, length = 100)
+    private String inboxId;
+
+    @Column(name = "message_id", nullable = false, length = 100)
+    private String messageId;
+
+    @Column(name = "from_address", length = 320)
+    private String fromAddress;
+
+    @Column(name = "subject", length = 500)
+    private String subject;
+
+    @Column(name = "received_at")
+    private Instant receivedAt;
+
+    @CreationTimestamp
+    @Column(name = "processed_at", nullable = false, updatable = false)
+    private LocalDateTime processedAt;
+}
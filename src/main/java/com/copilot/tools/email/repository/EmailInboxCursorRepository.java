@@ -0,0 +1,22 @@
+package com.copilot.tools.email.repository;
+
+import com.copilot.tools.email.model.EmailInboxCursor;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface EmailInboxCursorRepository extends JpaRepository<EmailInboxCursor, String> {
+
+    /**
+     * Курсор с блокировкой строки до конца транзакции: проверка fencing-токена и запись не разделяются
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from EmailInboxCursor c where c.inboxId = :inboxId")
+    Optional<EmailInboxCursor> findByIdForUpdate(@Param("inboxId") String inboxId);
+}
@@ -0,0 +1,41 @@
+package com.copilot.tools.email.repository;
+
+import com.copilot.tools.email.model.ProcessedEmail;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+@Repository
+public interface ProcessedEmailRepository extends JpaRepository<ProcessedEmail, UUID> {
+
+    /**
+     * Какие из переданных писем ящика уже обработаны
+     */
+    @Query("select p.messageId from ProcessedEmail p where p.inboxId = :inboxId and p.messageId in :messageIds")
+    Set<String> findProcessedMessageIds(@Param("inboxId") String inboxId,
+                                        @Param("messageIds") Collection<String> messageIds);
+
+    /**
+     * Обработанные письма ящика, пришедшие не раньше since, от новых к старым
+     */
+    @Query("select p from ProcessedEmail p where p.inboxId = :inboxId and p.receivedAt >= :since " +
+            "order by p.receivedAt desc")
+    List<ProcessedEmail> findReceivedSince(@Param("inboxId") String inboxId, @Param("since") Instant since,
+                                           Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ProcessedEmail p where p.processedAt < :before")
+    int deleteProcessedBefore(@Param("before") LocalDateTime before);
+}
@@ -1,5 +1,6 @@
 package com.copilot.tools.meeting;
 
+import com.copilot.exception.DependencyUnavailableException;
 import com.copilot.tools.calendar.CalendarService;
 import com.copilot.tools.calendar.dto.CreateEventRequest;
 import com.copilot.tools.calendar.dto.EventResponse;
@@ -97,6 +98,10 @@ public class MeetingService {
                         notificationBody
                 );
                 log.info("Приглашение успешно отправлено участнику: {}", attendee);
+            } catch (DependencyUnavailableException e) {
+                // SMTP недоступен: не ждем отказа по каждому оставшемуся участнику
+                log.warn("Отправка приглашений на встречу '{}' прервана: {}", title, e.getMessage());
+                break;
             } catch (Exception e) {
                 log.error("Не удалось отправить приглашение участнику {}: {}", attendee, e.getMessage(), e);
             }
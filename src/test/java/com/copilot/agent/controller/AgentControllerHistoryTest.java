@@ -57,6 +57,9 @@ class AgentControllerHistoryTest {
     @MockBean
     private com.copilot.security.JwtService jwtService;
 
+    @MockBean
+    private com.copilot.security.UserStatusCache userStatusCache;
+
     private UUID userId;
     private String userEmail;
     private User testUser;
@@ -53,6 +53,12 @@ class AuthControllerTest {
     @MockBean
     private com.copilot.security.JwtService jwtService;
 
+    @MockBean
+    private com.copilot.security.UserStatusCache userStatusCache;
+
+    @MockBean
+    private com.copilot.auth.repository.UserRepository userRepository;
+
     @Test
     void shouldRegisterUserSuccessfully() throws Exception {
         // Arrange
@@ -9,6 +9,9 @@ import com.copilot.auth.repository.UserRepository;
 import com.copilot.dto.response.RegisterResponse;
 import com.copilot.exception.UserAlreadyExistsException;
 import com.copilot.security.JwtService;
+import com.copilot.security.RefreshTokenService;
+import com.copilot.security.UserAccountDetails;
+import com.copilot.security.UserStatusCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -49,6 +52,15 @@ class AuthServiceTest {
     @Mock
     private JwtService jwtService;
 
+    @Mock
+    private RefreshTokenService refreshTokenService;
+
+    @Mock
+    private LastLoginRecorder lastLoginRecorder;
+
+    @Mock
+    private UserStatusCache userStatusCache;
+
     @InjectMocks
     private AuthService authService;
 
@@ -91,7 +103,7 @@ class AuthServiceTest {
         when(repository.save(any(User.class))).thenReturn(testUser);
         when(jwtService.generateAccessToken(anyString(), anyString(), anyList()))
                 .thenReturn("accessToken");
-        when(jwtService.generateRefreshToken(anyString(), anyString()))
+        when(refreshTokenService.startSession(any(RefreshTokenService.SessionUser.class)))
                 .thenReturn("refreshToken");
 
         // Act
@@ -110,7 +122,7 @@ class AuthServiceTest {
         verify(repository, times(1)).save(any(User.class));
         verify(encoder, times(1)).encode("password123");
         verify(jwtService, times(1)).generateAccessToken(anyString(), anyString(), anyList());
-        verify(jwtService, times(1)).generateRefreshToken(anyString(), anyString());
+        verify(refreshTokenService, times(1)).startSession(any(RefreshTokenService.SessionUser.class));
     }
 
     @Test
@@ -130,14 +142,12 @@ class AuthServiceTest {
     void shouldLoginUserWhenValidCredentials() {
         // Arrange
         Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(new UserAccountDetails(testUser));
         when(authManager.authenticate(any(UsernamePasswordAuthenticationToken.class)))
                 .thenReturn(authentication);
-        when(repository.findByEmailAndDeletedAtIsNull("test@example.com"))
-                .thenReturn(Optional.of(testUser));
-        when(repository.save(any(User.class))).thenReturn(testUser);
         when(jwtService.generateAccessToken(anyString(), anyString(), anyList()))
                 .thenReturn("accessToken");
-        when(jwtService.generateRefreshToken(anyString(), anyString()))
+        when(refreshTokenService.startSession(any(RefreshTokenService.SessionUser.class)))
                 .thenReturn("refreshToken");
 
         // Act
@@ -152,10 +162,10 @@ class AuthServiceTest {
         assertEquals("test@example.com", response.user().email());
 
         verify(authManager, times(1)).authenticate(any(UsernamePasswordAuthenticationToken.class));
-        verify(repository, times(1)).findByEmailAndDeletedAtIsNull("test@example.com");
-        verify(repository, times(1)).save(any(User.class));
+        verify(lastLoginRecorder, times(1)).record(testUser.getId());
+        verifyNoInteractions(repository);
         verify(jwtService, times(1)).generateAccessToken(anyString(), anyString(), anyList());
-        verify(jwtService, times(1)).generateRefreshToken(anyString(), anyString());
+        verify(refreshTokenService, times(1)).startSession(any(RefreshTokenService.SessionUser.class));
     }
 
     @Test
@@ -176,16 +186,15 @@ class AuthServiceTest {
         // Arrange
         testUser.setIsActive(false);
         Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(new UserAccountDetails(testUser));
         when(authManager.authenticate(any(UsernamePasswordAuthenticationToken.class)))
                 .thenReturn(authentication);
-        when(repository.findByEmailAndDeletedAtIsNull("test@example.com"))
-                .thenReturn(Optional.of(testUser));
 
         // Act & Assert
         assertThrows(BadCredentialsException.class, () -> authService.login(loginRequest));
 
         verify(authManager, times(1)).authenticate(any(UsernamePasswordAuthenticationToken.class));
-        verify(repository, times(1)).findByEmailAndDeletedAtIsNull("test@example.com");
+        verify(lastLoginRecorder, never()).record(any());
         verify(repository, never()).save(any(User.class));
     }
 
@@ -256,24 +265,16 @@ class AuthServiceTest {
     }
 
     @Test
-    @SuppressWarnings("unchecked")
-    void shouldRefreshTokenSuccessfully() {
+    void shouldRefreshTokenFromCachedUserWithoutDatabase() {
         // Arrange
         String refreshToken = "validRefreshToken";
-        io.jsonwebtoken.Jws<io.jsonwebtoken.Claims> jws = mock(io.jsonwebtoken.Jws.class);
-        io.jsonwebtoken.Claims claims = mock(io.jsonwebtoken.Claims.class);
-
-        when(jwtService.parse(refreshToken)).thenReturn(jws);
-        when(jws.getPayload()).thenReturn(claims);
-        when(claims.getSubject()).thenReturn("test@example.com");
-        when(claims.get("type")).thenReturn("refresh");
-        when(jwtService.isRefreshToken(claims)).thenReturn(true);
-        when(repository.findByEmailAndDeletedAtIsNull("test@example.com"))
-                .thenReturn(Optional.of(testUser));
+        RefreshTokenService.SessionUser cachedUser = new RefreshTokenService.SessionUser(
+                testUser.getId(), "test@example.com", "EMPLOYEE", true);
+
+        when(refreshTokenService.rotate(refreshToken))
+                .thenReturn(new RefreshTokenService.Rotation(testUser.getId(), "newRefreshToken", cachedUser));
         when(jwtService.generateAccessToken(eq("test@example.com"), eq(testUser.getId().toString()), anyList()))
                 .thenReturn("newAccessToken");
-        when(jwtService.generateRefreshToken(eq("test@example.com"), eq(testUser.getId().toString())))
-                .thenReturn("newRefreshToken");
 
         // Act
         AuthResponse response = authService.refresh(refreshToken);
@@ -283,32 +284,72 @@ class AuthServiceTest {
         assertEquals("newAccessToken", response.token());
         assertEquals("newRefreshToken", response.refreshToken());
 
-        verify(jwtService, times(1)).parse(refreshToken);
-        verify(jwtService, times(1)).isRefreshToken(claims);
-        verify(repository, times(1)).findByEmailAndDeletedAtIsNull("test@example.com");
+        verify(refreshTokenService, times(1)).rotate(refreshToken);
         verify(jwtService, times(1)).generateAccessToken(eq("test@example.com"), eq(testUser.getId().toString()), anyList());
-        verify(jwtService, times(1)).generateRefreshToken(eq("test@example.com"), eq(testUser.getId().toString()));
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void shouldLoadUserWhenSessionCacheIsStale() {
+        // Arrange
+        String refreshToken = "validRefreshToken";
+        when(refreshTokenService.rotate(refreshToken))
+                .thenReturn(new RefreshTokenService.Rotation(testUser.getId(), "newRefreshToken", null));
+        when(repository.findById(testUser.getId())).thenReturn(Optional.of(testUser));
+        when(jwtService.generateAccessToken(eq("test@example.com"), eq(testUser.getId().toString()), anyList()))
+                .thenReturn("newAccessToken");
+
+        // Act
+        AuthResponse response = authService.refresh(refreshToken);
+
+        // Assert
+        assertEquals("newAccessToken", response.token());
+        assertEquals("newRefreshToken", response.refreshToken());
+        verify(repository, times(1)).findById(testUser.getId());
+        verify(refreshTokenService, times(1)).cacheUser(new RefreshTokenService.SessionUser(
+                testUser.getId(), "test@example.com", "EMPLOYEE", true));
     }
 
     @Test
-    @SuppressWarnings("unchecked")
-    void shouldThrowExceptionWhenRefreshTokenIsNotRefreshType() {
+    void shouldRevokeSessionsWhenUserIsDeactivated() {
         // Arrange
-        String refreshToken = "invalidToken";
-        io.jsonwebtoken.Jws<io.jsonwebtoken.Claims> jws = mock(io.jsonwebtoken.Jws.class);
-        io.jsonwebtoken.Claims claims = mock(io.jsonwebtoken.Claims.class);
+        String refreshToken = "validRefreshToken";
+        RefreshTokenService.SessionUser cachedUser = new RefreshTokenService.SessionUser(
+                testUser.getId(), "test@example.com", "EMPLOYEE", false);
+        when(refreshTokenService.rotate(refreshToken))
+                .thenReturn(new RefreshTokenService.Rotation(testUser.getId(), "newRefreshToken", cachedUser));
 
-        when(jwtService.parse(refreshToken)).thenReturn(jws);
-        when(jws.getPayload()).thenReturn(claims);
-        when(claims.get("type")).thenReturn("access");
-        when(jwtService.isRefreshToken(claims)).thenReturn(false);
+        // Act & Assert
+        assertThrows(BadCredentialsException.class, () -> authService.refresh(refreshToken));
+
+        verify(refreshTokenService, times(1)).revokeAllSessions(testUser.getId());
+        verify(userStatusCache, times(1)).invalidate(testUser.getId());
+        verify(jwtService, never()).generateAccessToken(anyString(), anyString(), anyList());
+    }
+
+    @Test
+    void shouldRevokeSessionsAndForgetCachedStatusOnLogoutAll() {
+        // Act
+        authService.logoutAll(testUser.getId());
+
+        // Assert
+        verify(refreshTokenService, times(1)).revokeAllSessions(testUser.getId());
+        verify(userStatusCache, times(1)).invalidate(testUser.getId());
+    }
+
+    @Test
+    void shouldThrowExceptionWhenRefreshTokenIsRejected() {
+        // Arrange
+        String refreshToken = "reusedToken";
+        when(refreshTokenService.rotate(refreshToken))
+                .thenThrow(new BadCredentialsException("Refresh token уже использован"));
 
         // Act & Assert
         assertThrows(BadCredentialsException.class, () -> authService.refresh(refreshToken));
 
-        verify(jwtService, times(1)).parse(refreshToken);
-        verify(jwtService, times(1)).isRefreshToken(claims);
-        verify(repository, never()).findByEmailAndDeletedAtIsNull(anyString());
+        verify(refreshTokenService, times(1)).rotate(refreshToken);
+        verifyNoInteractions(repository);
+        verify(jwtService, never()).generateAccessToken(anyString(), anyString(), anyList());
     }
 
     @Test
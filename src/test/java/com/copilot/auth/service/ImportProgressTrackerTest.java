@@ -0,0 +1,51 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.dto.response.ImportProgressResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportProgressTrackerTest {
+
+    private final ImportProgressTracker tracker = new ImportProgressTracker();
+
+    @Test
+    void shouldExposeInMemoryCountersWhileImportRuns() {
+        ReflectionTestUtils.setField(tracker, "emitterTimeoutMs", 60000L);
+        UUID importLogId = UUID.randomUUID();
+
+        ImportProgressTracker.Progress progress = tracker.start(importLogId);
+        progress.total.set(10);
+        progress.successful.set(6);
+        progress.failed.set(1);
+
+        ImportProgressResponse snapshot = tracker.snapshot(importLogId).orElseThrow();
+        assertEquals("PROCESSING", snapshot.status());
+        assertEquals(10, snapshot.totalRecords());
+        assertEquals(7, snapshot.processedRecords());
+        assertEquals(1, snapshot.failedRecords());
+        assertTrue(snapshot.rowsPerSecond() >= 0);
+
+        SseEmitter emitter = tracker.subscribe(importLogId);
+        assertNotNull(emitter);
+        tracker.pushProgress();
+
+        tracker.finish(importLogId, "COMPLETED");
+
+        assertTrue(tracker.snapshot(importLogId).isEmpty());
+        assertNull(tracker.subscribe(importLogId));
+    }
+
+    @Test
+    void shouldIgnoreUnknownImports() {
+        UUID importLogId = UUID.randomUUID();
+
+        assertTrue(tracker.snapshot(importLogId).isEmpty());
+        assertNull(tracker.subscribe(importLogId));
+        assertDoesNotThrow(() -> tracker.finish(importLogId, "FAILED"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class LastLoginRecorderTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private LastLoginRecorder recorder;
+
+    @BeforeEach
+    void setUp() {
+        recorder = new LastLoginRecorder(userRepository);
+        ReflectionTestUtils.setField(recorder, "batchSize", 2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldCoalesceRepeatedLoginsAndWriteInBatches() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        when(userRepository.updateLastLoginAt(any(), any())).thenAnswer(inv -> ((Collection<UUID>) inv.getArgument(0)).size());
+
+        recorder.record(first);
+        recorder.record(first);
+        recorder.record(second);
+        recorder.record(third);
+        recorder.flush();
+
+        ArgumentCaptor<Collection<UUID>> ids = ArgumentCaptor.forClass(Collection.class);
+        verify(userRepository, atLeast(2)).updateLastLoginAt(ids.capture(), any(LocalDateTime.class));
+        List<UUID> written = ids.getAllValues().stream().flatMap(Collection::stream).toList();
+        assertEquals(3, written.size());
+        assertTrue(written.containsAll(List.of(first, second, third)));
+        assertTrue(ids.getAllValues().stream().allMatch(chunk -> chunk.size() <= 2));
+
+        // Все записано - следующий сброс не ходит в БД
+        clearInvocations(userRepository);
+        recorder.flush();
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void shouldKeepPendingLoginsWhenWriteFails() {
+        UUID userId = UUID.randomUUID();
+        when(userRepository.updateLastLoginAt(any(), any()))
+                .thenThrow(new RuntimeException("pool exhausted"))
+                .thenReturn(1);
+
+        recorder.record(userId);
+        recorder.flush();
+        recorder.flush();
+
+        verify(userRepository, times(2)).updateLastLoginAt(eq(List.of(userId)), any(LocalDateTime.class));
+    }
+}
@@ -0,0 +1,303 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.dto.request.UserImportRow;
+import com.copilot.auth.model.ImportRowResult;
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.ImportLogRepository;
+import com.copilot.auth.repository.ImportRowResultRepository;
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.security.PasswordGenerator;
+import com.copilot.security.PasswordHashingService;
+import com.copilot.tools.calendar.CalendarProvisioningService;
+import com.copilot.tools.email.EmailProvisioningService;
+import com.copilot.tools.email.MailSlurpInboxPool;
+import com.copilot.tools.email.UserWelcomeEmailService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class UserImportEngineTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private ImportLogRepository importLogRepository;
+
+    @Mock
+    private ImportRowResultRepository rowResultRepository;
+
+    @Mock
+    private UserImportParser parser;
+
+    @Mock
+    private UserImportValidator validator;
+
+    @Mock
+    private PasswordGenerator passwordGenerator;
+
+    @Mock
+    private PasswordHashingService passwordHashingService;
+
+    @Mock
+    private MailSlurpInboxPool inboxPool;
+
+    @Mock
+    private UserWelcomeEmailService welcomeEmailService;
+
+    @Mock
+    private CalendarProvisioningService calendarProvisioningService;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Spy
+    private ImportProgressTracker progressTracker = new ImportProgressTracker();
+
+    @InjectMocks
+    private UserImportEngine importEngine;
+
+    private UUID importLogId;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ReflectionTestUtils.setField(importEngine, "workers", 4);
+        ReflectionTestUtils.setField(importEngine, "chunkSize", 2);
+        ReflectionTestUtils.setField(importEngine, "checkpointRows", 2);
+
+        importLogId = UUID.randomUUID();
+        file = Files.createTempFile("user-import-test-", ".csv");
+
+        when(importLogRepository.complete(eq(importLogId), anyString(), any(), any(), any(), any())).thenReturn(1);
+        when(validator.begin()).thenReturn(new UserImportValidator.Validation(Set.of()));
+        when(passwordGenerator.generate()).thenReturn("TempPass1234");
+        when(passwordHashingService.hashAsync(any(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture("$2a$10$encoded"));
+        when(calendarProvisioningService.createCalendar(anyString(), anyString(), any()))
+                .thenAnswer(inv -> new CalendarProvisioningService.RadicaleAccountResponse(
+                        inv.getArgument(0), "calendar", inv.getArgument(0)));
+        doAnswer(inv -> {
+            Consumer<TransactionStatus> callback = inv.getArgument(0);
+            callback.accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @Test
+    void shouldImportRowsInChunksAndReportPartialFailure() throws Exception {
+        List<UserImportRow> rows = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            rows.add(new UserImportRow("user" + i + "@gmail.com", "User" + i, null, null, null, null, "EMPLOYEE"));
+        }
+        stubParser(rows);
+
+        AtomicInteger inboxCounter = new AtomicInteger();
+        when(inboxPool.acquire()).thenAnswer(inv -> {
+            int n = inboxCounter.incrementAndGet();
+            if (n == 3) {
+                throw new RuntimeException("MailSlurp недоступен");
+            }
+            return new EmailProvisioningService.MailSlurpInboxResponse("inbox-" + n, "corp" + n + "@mailslurp.biz", "SMTP_INBOX");
+        });
+
+        importEngine.runImport(importLogId, file, "users.csv");
+
+        // 4 успешных строки при размере пачки 2 - две пачки
+        verify(userRepository, times(2)).saveAll(anyList());
+        verify(importLogRepository, atLeastOnce()).updateProgress(eq(importLogId), anyInt(), anyInt(), anyInt());
+        verify(welcomeEmailService, times(4)).sendSystemLoginEmail(anyString(), anyString(), anyString(), anyString());
+        verify(passwordHashingService, times(5)).hashAsync(eq(PasswordHashingService.Purpose.LOGIN), anyString());
+        verify(passwordHashingService, times(5)).hashAsync(eq(PasswordHashingService.Purpose.MAILBOX), anyString());
+
+        verify(importLogRepository).complete(importLogId, "PARTIALLY_FAILED", 5, 4, 1, null);
+
+        List<ImportRowResult> failedRows = capturedRowResults();
+        assertEquals(1, failedRows.size());
+        assertEquals("FAILED", failedRows.get(0).getStatus());
+        assertTrue(failedRows.get(0).getErrorMessage().contains("MailSlurp недоступен"));
+        assertFalse(Files.exists(file));
+        verify(progressTracker).finish(importLogId, "PARTIALLY_FAILED");
+        assertTrue(progressTracker.snapshot(importLogId).isEmpty());
+    }
+
+    @Test
+    void shouldFallBackToRowByRowSaveWhenChunkFails() throws Exception {
+        List<UserImportRow> rows = List.of(
+                new UserImportRow("a@gmail.com", "A", null, null, null, null, "EMPLOYEE"),
+                new UserImportRow("b@gmail.com", "B", null, null, null, null, "EMPLOYEE")
+        );
+        stubParser(rows);
+
+        AtomicInteger inboxCounter = new AtomicInteger();
+        when(inboxPool.acquire()).thenAnswer(inv -> {
+            int n = inboxCounter.incrementAndGet();
+            return new EmailProvisioningService.MailSlurpInboxResponse("inbox-" + n, "corp" + n + "@mailslurp.biz", "SMTP_INBOX");
+        });
+        when(userRepository.saveAll(anyList())).thenThrow(new RuntimeException("duplicate key"));
+        when(userRepository.save(any(User.class))).thenAnswer(inv -> {
+            User user = inv.getArgument(0);
+            if ("B".equals(user.getFirstName())) {
+                throw new RuntimeException("duplicate key");
+            }
+            return user;
+        });
+
+        importEngine.runImport(importLogId, file, "users.csv");
+
+        verify(userRepository, times(2)).save(any(User.class));
+        verify(welcomeEmailService, times(1)).sendSystemLoginEmail(anyString(), anyString(), anyString(), anyString());
+
+        verify(importLogRepository).complete(eq(importLogId), anyString(), anyInt(), eq(1), eq(1), any());
+        // Ящик и календарь несохраненной строки не остаются бесхозными
+        verify(inboxPool, times(1)).release(any(EmailProvisioningService.MailSlurpInboxResponse.class));
+        verify(calendarProvisioningService).deleteCalendar(anyString(), eq("TempPass1234"), eq("B"));
+    }
+
+    @Test
+    void shouldNotReleaseInboxThatBelongsToExistingUser() throws Exception {
+        stubParser(List.of(new UserImportRow("a@gmail.com", "A", null, null, null, null, "EMPLOYEE")));
+        when(inboxPool.acquire()).thenReturn(
+                new EmailProvisioningService.MailSlurpInboxResponse("inbox-1", "corp1@mailslurp.biz", "SMTP_INBOX"));
+        when(userRepository.saveAll(anyList())).thenThrow(new RuntimeException("duplicate key"));
+        when(userRepository.save(any(User.class))).thenThrow(new RuntimeException("duplicate key"));
+        // Адрес проверяется до календаря, а к моменту сохранения его уже занял параллельный импорт
+        when(userRepository.existsByEmail("corp1@mailslurp.biz")).thenReturn(false, true);
+
+        importEngine.runImport(importLogId, file, "users.csv");
+
+        verify(importLogRepository).complete(importLogId, "FAILED", 1, 0, 1, null);
+        verify(inboxPool, never()).release(any());
+        verify(calendarProvisioningService, never()).deleteCalendar(anyString(), anyString(), any());
+    }
+
+    @Test
+    void shouldReleaseInboxAndCalendarWhenHashingFailsAfterProvisioning() throws Exception {
+        stubParser(List.of(new UserImportRow("a@gmail.com", "A", null, null, null, null, "EMPLOYEE")));
+        EmailProvisioningService.MailSlurpInboxResponse inbox =
+                new EmailProvisioningService.MailSlurpInboxResponse("inbox-1", "corp1@mailslurp.biz", "SMTP_INBOX");
+        when(inboxPool.acquire()).thenReturn(inbox);
+        when(passwordHashingService.hashAsync(any(), anyString()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Пул хеширования остановлен")));
+
+        importEngine.runImport(importLogId, file, "users.csv");
+
+        verify(importLogRepository).complete(importLogId, "FAILED", 1, 0, 1, null);
+        verify(inboxPool).release(inbox);
+        verify(calendarProvisioningService).deleteCalendar("corp1@mailslurp.biz", "TempPass1234", "A");
+        verify(userRepository, never()).saveAll(anyList());
+    }
+
+    @Test
+    void shouldMarkImportFailedWhenFileCannotBeParsed() throws Exception {
+        when(parser.parseFile(eq(file), eq("users.csv"), any())).thenThrow(new IllegalArgumentException("Файл пуст"));
+
+        importEngine.runImport(importLogId, file, "users.csv");
+
+        verify(importLogRepository).complete(eq(importLogId), eq("FAILED"), any(), any(), any(),
+                argThat(details -> details.contains("Файл пуст")));
+        verifyNoInteractions(inboxPool);
+    }
+
+    @Test
+    void shouldNotProvisionRowsRejectedByPreflight() throws Exception {
+        when(validator.begin()).thenReturn(new UserImportValidator.Validation(Set.of("taken@gmail.com")));
+        stubParser(List.of(
+                new UserImportRow("not-an-email", "A", null, null, null, null, "EMPLOYEE"),
+                new UserImportRow("taken@gmail.com", "B", null, null, null, null, "EMPLOYEE"),
+                new UserImportRow("new@gmail.com", "C", null, null, null, null, "EMPLOYEE"),
+                new UserImportRow("NEW@gmail.com", "D", null, null, null, null, "EMPLOYEE")
+        ));
+        when(inboxPool.acquire()).thenReturn(
+                new EmailProvisioningService.MailSlurpInboxResponse("inbox-1", "corp1@mailslurp.biz", "SMTP_INBOX"));
+
+        importEngine.runImport(importLogId, file, "users.csv");
+
+        verify(inboxPool, times(1)).acquire();
+        verify(calendarProvisioningService, times(1)).createCalendar(anyString(), anyString(), any());
+
+        verify(importLogRepository).complete(eq(importLogId), anyString(), eq(4), eq(1), eq(3), any());
+
+        List<ImportRowResult> failedRows = capturedRowResults();
+        assertEquals(List.of(2, 3, 5), failedRows.stream().map(ImportRowResult::getRowNumber).toList());
+        assertEquals("Email повторяется в файле", failedRows.get(2).getErrorMessage());
+    }
+
+    @Test
+    void shouldRetryFailedRowsAndMarkThemRetried() {
+        UUID sourceLogId = UUID.randomUUID();
+        ImportRowResult failedRow = ImportRowResult.builder()
+                .id(UUID.randomUUID())
+                .importLogId(sourceLogId)
+                .rowNumber(7)
+                .email("retry@gmail.com")
+                .firstName("Retry")
+                .role("EMPLOYEE")
+                .status("FAILED")
+                .errorMessage("MailSlurp недоступен")
+                .build();
+        when(rowResultRepository.findByImportLogIdAndStatusAndRowNumberGreaterThanOrderByRowNumberAsc(
+                eq(sourceLogId), eq("FAILED"), eq(0), any())).thenReturn(List.of(failedRow));
+        when(inboxPool.acquire()).thenReturn(
+                new EmailProvisioningService.MailSlurpInboxResponse("inbox-1", "corp1@mailslurp.biz", "SMTP_INBOX"));
+
+        importEngine.runRetry(importLogId, sourceLogId);
+
+        verify(userRepository).saveAll(anyList());
+        verify(rowResultRepository).markRetried(List.of(failedRow.getId()));
+
+        verify(importLogRepository).complete(eq(importLogId), eq("COMPLETED"), anyInt(), eq(1), anyInt(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ImportRowResult> capturedRowResults() {
+        ArgumentCaptor<List<ImportRowResult>> captor = ArgumentCaptor.forClass(List.class);
+        verify(rowResultRepository, atLeastOnce()).saveAll(captor.capture());
+        return captor.getAllValues().stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(ImportRowResult::getRowNumber))
+                .toList();
+    }
+
+    private void stubParser(List<UserImportRow> rows) throws Exception {
+        when(parser.parseFile(eq(file), eq("users.csv"), any())).thenAnswer(inv -> {
+            UserImportParser.RowHandler handler = inv.getArgument(2);
+            for (int i = 0; i < rows.size(); i++) {
+                handler.onRow(i + 2, rows.get(i));
+            }
+            return rows.size();
+        });
+    }
+}
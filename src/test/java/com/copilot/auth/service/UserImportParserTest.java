@@ -0,0 +1,104 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.dto.request.UserImportRow;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserImportParserTest {
+
+    private final UserImportParser parser = new UserImportParser();
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("user-import-parser-", ".tmp");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void shouldParseQuotedCsvValues() throws Exception {
+        Files.writeString(file, """
+                email,first_name,last_name,phone,telegram,department,role
+                ivan@gmail.com,Иван,Петров,+79161234567,@ivan,"Продажи, B2B",
+
+                ,Пустой,,,,,
+                "anna@gmail.com",Анна,"Смирнова
+                Иванова",,,"Отдел ""R&D""",ADMIN
+                """, StandardCharsets.UTF_8);
+
+        List<UserImportRow> rows = new ArrayList<>();
+        int count = parser.parseFile(file, "users.csv", (rowNumber, row) -> rows.add(row));
+
+        assertEquals(2, count);
+        assertEquals("Продажи, B2B", rows.get(0).department());
+        assertEquals("EMPLOYEE", rows.get(0).role());
+        assertEquals("anna@gmail.com", rows.get(1).email());
+        assertEquals("Смирнова\nИванова", rows.get(1).lastName());
+        assertEquals("Отдел \"R&D\"", rows.get(1).department());
+        assertEquals("ADMIN", rows.get(1).role());
+    }
+
+    @Test
+    void shouldRejectEmptyCsv() throws Exception {
+        Files.writeString(file, "", StandardCharsets.UTF_8);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> parser.parseFile(file, "users.csv", (rowNumber, row) -> { }));
+    }
+
+    @Test
+    void shouldStreamXlsxRows() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file)) {
+            Sheet sheet = workbook.createSheet();
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("email");
+            Row first = sheet.createRow(1);
+            first.createCell(0).setCellValue("ivan@gmail.com");
+            first.createCell(1).setCellValue("Иван");
+            first.createCell(3).setCellValue(79161234567d);
+            Row second = sheet.createRow(3);
+            second.createCell(0).setCellValue("anna@gmail.com");
+            second.createCell(6).setCellValue("ADMIN");
+            workbook.write(out);
+        }
+
+        List<Integer> rowNumbers = new ArrayList<>();
+        List<UserImportRow> rows = new ArrayList<>();
+        int count = parser.parseFile(file, "users.xlsx", (rowNumber, row) -> {
+            rowNumbers.add(rowNumber);
+            rows.add(row);
+        });
+
+        assertEquals(2, count);
+        assertEquals(List.of(2, 4), rowNumbers);
+        assertEquals("Иван", rows.get(0).firstName());
+        assertEquals("79161234567", rows.get(0).phone());
+        assertEquals("EMPLOYEE", rows.get(0).role());
+        assertNull(rows.get(1).firstName());
+        assertEquals("ADMIN", rows.get(1).role());
+    }
+
+    @Test
+    void shouldRejectUnsupportedExtension() {
+        assertThrows(IllegalArgumentException.class,
+                () -> parser.parseFile(file, "users.txt", (rowNumber, row) -> { }));
+    }
+}
@@ -0,0 +1,145 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.model.ImportLog;
+import com.copilot.auth.repository.ImportLogRepository;
+import com.copilot.auth.repository.ImportRowResultRepository;
+import com.copilot.exception.ConflictException;
+import com.copilot.exception.NotFoundException;
+import com.copilot.security.AuthenticatedUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class UserImportServiceTest {
+
+    @Mock
+    private ImportLogRepository importLogRepository;
+
+    @Mock
+    private ImportRowResultRepository rowResultRepository;
+
+    @Mock
+    private UserImportEngine importEngine;
+
+    @Mock
+    private ImportProgressTracker progressTracker;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @InjectMocks
+    private UserImportService importService;
+
+    private final UUID sourceId = UUID.randomUUID();
+    private final UUID retryId = UUID.randomUUID();
+    private final AuthenticatedUser owner = new AuthenticatedUser(UUID.randomUUID(), "hr@company.ru", List.of("EMPLOYEE"));
+    private final AuthenticatedUser stranger = new AuthenticatedUser(UUID.randomUUID(), "dev@company.ru", List.of("EMPLOYEE"));
+    private final AuthenticatedUser admin = new AuthenticatedUser(UUID.randomUUID(), "admin@company.ru", List.of("ADMIN"));
+
+    @BeforeEach
+    void setUp() {
+        when(transactionTemplate.execute(any())).thenAnswer(inv -> inv.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(importLogRepository.findByIdForUpdate(sourceId)).thenReturn(Optional.of(
+                ImportLog.builder().id(sourceId).importedByUserId(owner.userId()).fileName("users.csv").status("COMPLETED").totalRecords(10).build()));
+        when(rowResultRepository.countByImportLogIdAndStatus(sourceId, "FAILED")).thenReturn(3L);
+        when(importLogRepository.save(any(ImportLog.class))).thenAnswer(inv -> {
+            ImportLog log = inv.getArgument(0);
+            log.setId(retryId);
+            return log;
+        });
+    }
+
+    @Test
+    void shouldRecoverStaleImportsBeforeCheckingForRunningRetry() {
+        ImportLog retry = importService.retryFailedRows(sourceId, owner);
+
+        assertEquals(retryId, retry.getId());
+        assertEquals(sourceId, retry.getRetryOfImportLogId());
+        InOrder order = inOrder(importLogRepository, importEngine);
+        order.verify(importLogRepository).failStale(any(LocalDateTime.class), anyString());
+        order.verify(importLogRepository).findByIdForUpdate(sourceId);
+        order.verify(importLogRepository).existsByRetryOfImportLogIdAndStatus(sourceId, "PROCESSING");
+        order.verify(importLogRepository).save(any(ImportLog.class));
+        order.verify(importEngine).runRetry(retryId, sourceId);
+    }
+
+    @Test
+    void shouldRejectRetryWhileAnotherRetryIsRunning() {
+        when(importLogRepository.existsByRetryOfImportLogIdAndStatus(sourceId, "PROCESSING")).thenReturn(true);
+
+        assertThrows(ConflictException.class, () -> importService.retryFailedRows(sourceId, owner));
+        verify(importLogRepository, never()).save(any(ImportLog.class));
+        verifyNoInteractions(importEngine);
+    }
+
+    @Test
+    void shouldHideImportOfAnotherUser() {
+        assertThrows(NotFoundException.class, () -> importService.retryFailedRows(sourceId, stranger));
+        assertThrows(NotFoundException.class, () -> importService.getImportErrors(sourceId, 0, 50, stranger));
+        assertThrows(NotFoundException.class, () -> importService.subscribeProgress(sourceId, stranger));
+
+        verify(importLogRepository, never()).save(any(ImportLog.class));
+        verifyNoInteractions(importEngine);
+        verify(progressTracker, never()).subscribe(any());
+        verify(rowResultRepository, never()).findByImportLogId(any(), any());
+    }
+
+    @Test
+    void shouldLetAdminRetryImportOfAnotherUser() {
+        ImportLog retry = importService.retryFailedRows(sourceId, admin);
+
+        assertEquals(admin.userId(), retry.getImportedByUserId());
+        verify(importEngine).runRetry(retryId, sourceId);
+    }
+
+    @Test
+    void shouldKeepSlowImportOfThisNodeAliveBeforeFailingStaleOnes() {
+        // Импорт идет дольше stale-after, но ни разу не дошел до checkpoint-rows строк
+        UUID slowImportId = UUID.randomUUID();
+        when(progressTracker.activeIds()).thenReturn(Set.of(slowImportId));
+
+        importService.failStaleImports();
+
+        InOrder order = inOrder(importLogRepository);
+        order.verify(importLogRepository).touch(Set.of(slowImportId));
+        order.verify(importLogRepository).failStale(any(LocalDateTime.class), anyString());
+    }
+
+    @Test
+    void shouldNotTouchImportsWhenNothingRunsOnThisNode() {
+        when(progressTracker.activeIds()).thenReturn(Set.of());
+
+        importService.heartbeat();
+
+        verify(importLogRepository, never()).touch(any());
+    }
+
+    @Test
+    void shouldFailImportsWithoutRecentProgress() {
+        LocalDateTime before = LocalDateTime.now();
+
+        importService.failStaleImports();
+
+        verify(importLogRepository).failStale(argThat(cutoff -> cutoff.isBefore(before.minusMinutes(29))), anyString());
+    }
+}
@@ -0,0 +1,46 @@
+package com.copilot.auth.service;
+
+import com.copilot.auth.dto.request.UserImportRow;
+import com.copilot.auth.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserImportValidatorTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @InjectMocks
+    private UserImportValidator validator;
+
+    @Test
+    void shouldRejectInvalidDuplicateAndExistingEmails() {
+        when(userRepository.findAllPersonalEmails()).thenReturn(List.of("Existing@Gmail.com"));
+
+        UserImportValidator.Validation validation = validator.begin();
+
+        assertNull(validation.check(row("ivan.petrov+work@gmail.com")));
+        assertEquals("Email повторяется в файле", validation.check(row(" IVAN.PETROV+work@gmail.com")));
+        assertTrue(validation.check(row("existing@gmail.com")).contains("уже существует"));
+        assertEquals("Некорректный формат email", validation.check(row("ivan@")));
+        assertEquals("Некорректный формат email", validation.check(row("ivan@gmail")));
+        assertEquals("Некорректный формат email", validation.check(row("ivan petrov@gmail.com")));
+        assertEquals("Email обязателен", validation.check(row(" ")));
+
+        // Один запрос к БД на весь файл
+        verify(userRepository, times(1)).findAllPersonalEmails();
+    }
+
+    private static UserImportRow row(String email) {
+        return new UserImportRow(email, null, null, null, null, null, "EMPLOYEE");
+    }
+}
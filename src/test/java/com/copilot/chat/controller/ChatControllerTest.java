@@ -61,6 +61,9 @@ class ChatControllerTest {
     @MockBean
     private com.copilot.security.JwtService jwtService;
 
+    @MockBean
+    private com.copilot.security.UserStatusCache userStatusCache;
+
     private UUID userId;
     private UUID chatId;
     private String userEmail;
@@ -0,0 +1,112 @@
+package com.copilot.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpClientConfigTest {
+
+    private HttpServer server;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/slow", exchange -> {
+            try (exchange) {
+                Thread.sleep(3_000);
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.createContext("/gzip", exchange -> {
+            try (exchange) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write("сжатый ответ".getBytes(StandardCharsets.UTF_8));
+                }
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, compressed.size());
+                exchange.getResponseBody().write(compressed.toByteArray());
+            }
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+
+        HttpClientConfig config = new HttpClientConfig();
+        ReflectionTestUtils.setField(config, "connectTimeoutMs", 500L);
+        ReflectionTestUtils.setField(config, "readTimeoutMs", 300L);
+        ReflectionTestUtils.setField(config, "poolAcquireTimeoutMs", 500L);
+        ReflectionTestUtils.setField(config, "maxTotal", 10);
+        ReflectionTestUtils.setField(config, "maxPerRoute", 2);
+        ReflectionTestUtils.setField(config, "idleEvictMs", 30_000L);
+        ReflectionTestUtils.setField(config, "connectionTtlMs", 60_000L);
+
+        connectionManager = config.outboundConnectionManager();
+        httpClient = config.outboundHttpClient(connectionManager);
+        restTemplate = config.restTemplate(new RestTemplateBuilder(), httpClient);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    void shouldFailHangingCallAfterReadTimeout() {
+        long start = System.currentTimeMillis();
+
+        assertThrows(ResourceAccessException.class, () -> restTemplate.getForObject(baseUrl() + "/slow", String.class));
+
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed < 2_000, "Зависший вызов должен обрываться по таймауту чтения: " + elapsed);
+    }
+
+    @Test
+    void shouldDecompressGzipResponses() {
+        assertEquals("сжатый ответ", restTemplate.getForObject(baseUrl() + "/gzip", String.class));
+    }
+
+    @Test
+    void shouldReuseConnectionsAndPublishPerHostMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HttpClientPoolMetrics metrics = new HttpClientPoolMetrics(connectionManager);
+        metrics.bindTo(registry);
+
+        restTemplate.getForObject(baseUrl() + "/gzip", String.class);
+        restTemplate.getForObject(baseUrl() + "/gzip", String.class);
+        metrics.refresh();
+
+        String host = "127.0.0.1:" + server.getAddress().getPort();
+        assertEquals(1.0, registry.get("http.client.pool.route.available").tag("host", host).gauge().value());
+        assertEquals(0.0, registry.get("http.client.pool.route.leased").tag("host", host).gauge().value());
+        assertEquals(1, connectionManager.getTotalStats().getAvailable());
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
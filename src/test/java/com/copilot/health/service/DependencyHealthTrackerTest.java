@@ -0,0 +1,70 @@
+package com.copilot.health.service;
+
+import com.copilot.health.dto.ServiceHealth;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DependencyHealthTrackerTest {
+
+    private final DependencyHealthTracker tracker = new DependencyHealthTracker();
+
+    @Test
+    void shouldReportNothingForIdleDependency() {
+        tracker.record("llm", 1_000, true, 100, null);
+        tracker.record("llm", 1_000, true, 100, null);
+
+        assertTrue(tracker.snapshot("llm", 2_000).isEmpty());
+        assertTrue(tracker.snapshot("radicale", 2_000).isEmpty());
+    }
+
+    @Test
+    void shouldComputeSuccessRateAndLatencyOverWindow() {
+        tracker.record("radicale", 1_000, true, 100, null);
+        tracker.record("radicale", 11_000, true, 200, null);
+        tracker.record("radicale", 21_000, false, 300, "HTTP 502");
+
+        ServiceHealth health = tracker.snapshot("radicale", 25_000).orElseThrow();
+        assertEquals("UP", health.status());
+        assertEquals(200L, health.responseTimeMs());
+
+        tracker.record("radicale", 22_000, false, 300, "HTTP 502");
+        tracker.record("radicale", 23_000, false, 300, "HTTP 503");
+        ServiceHealth degraded = tracker.snapshot("radicale", 25_000).orElseThrow();
+        assertEquals("DOWN", degraded.status());
+        assertTrue(degraded.message().contains("HTTP 503"));
+    }
+
+    @Test
+    void shouldForgetCallsOutsideWindow() {
+        for (int i = 0; i < 5; i++) {
+            tracker.record("smtp", 1_000, false, 10, "Connection refused");
+        }
+        assertEquals("DOWN", tracker.snapshot("smtp", 5_000).orElseThrow().status());
+
+        // Через минуту старые корзины выпадают из окна, зависимость снова считается простаивающей
+        assertTrue(tracker.snapshot("smtp", 70_000).isEmpty());
+
+        for (int i = 0; i < 3; i++) {
+            tracker.record("smtp", 70_000, true, 10, null);
+        }
+        Optional<ServiceHealth> recovered = tracker.snapshot("smtp", 71_000);
+        assertEquals("UP", recovered.orElseThrow().status());
+    }
+
+    @Test
+    void shouldTrackCallsAndRethrowFailures() throws Exception {
+        assertEquals("ok", tracker.track("mailslurp", () -> "ok"));
+        assertThrows(IOException.class, () -> tracker.track("mailslurp", () -> {
+            throw new IOException("reset");
+        }));
+        tracker.recordFailure("mailslurp", 5, new IOException("MailSlurp вернул код 500"));
+
+        ServiceHealth health = tracker.snapshot("mailslurp").orElseThrow();
+        assertEquals("DOWN", health.status());
+        assertTrue(health.message().contains("IOException: MailSlurp вернул код 500"));
+    }
+}
@@ -0,0 +1,169 @@
+package com.copilot.health.service;
+
+import com.copilot.health.dto.HealthResponse;
+import com.copilot.health.dto.ServiceHealth;
+import com.copilot.resilience.DependencyGuard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class HealthServiceTest {
+
+    private final DatabaseHealthChecker database = mock(DatabaseHealthChecker.class);
+    private final RedisHealthChecker redis = mock(RedisHealthChecker.class);
+    private final MailSlurpHealthChecker mailSlurp = mock(MailSlurpHealthChecker.class);
+    private final RadicaleHealthChecker radicale = mock(RadicaleHealthChecker.class);
+    private final LLMHealthChecker llm = mock(LLMHealthChecker.class);
+    private final DependencyHealthTracker tracker = new DependencyHealthTracker();
+    private final DependencyGuard guard = new DependencyGuard(tracker);
+
+    private HealthService healthService;
+
+    @BeforeEach
+    void setUp() {
+        healthService = new HealthService(database, redis, mailSlurp, radicale, llm, tracker, guard);
+        ReflectionTestUtils.setField(healthService, "deadlineMs", 300L);
+        ReflectionTestUtils.setField(healthService, "readinessRequired", Set.of("database", "redis"));
+
+        when(database.check()).thenReturn(ServiceHealth.up("ok", 1L));
+        when(redis.check()).thenReturn(ServiceHealth.up("ok", 1L));
+        when(mailSlurp.check()).thenReturn(ServiceHealth.up("ok", 1L));
+        when(llm.check()).thenReturn(ServiceHealth.up("ok", 1L));
+    }
+
+    @AfterEach
+    void tearDown() {
+        healthService.shutdown();
+    }
+
+    @Test
+    void shouldRunChecksConcurrentlyWithinDeadline() {
+        when(radicale.check()).thenAnswer(inv -> {
+            Thread.sleep(5_000);
+            return ServiceHealth.up("ok", 5_000L);
+        });
+        when(llm.check()).thenAnswer(inv -> {
+            Thread.sleep(200);
+            return ServiceHealth.up("ok", 200L);
+        });
+        when(mailSlurp.check()).thenAnswer(inv -> {
+            Thread.sleep(200);
+            return ServiceHealth.up("ok", 200L);
+        });
+
+        long start = System.currentTimeMillis();
+        HealthResponse response = healthService.refresh();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(elapsed < 1_000, "Проверки должны идти параллельно и ограничиваться дедлайном: " + elapsed);
+        assertEquals("DOWN", response.status());
+        assertEquals("DOWN", response.services().get("radicale").status());
+        assertEquals("UP", response.services().get("llm").status());
+        assertEquals("UP", response.services().get("mailslurp").status());
+    }
+
+    @Test
+    void shouldServeCachedSnapshotWithoutCallingCheckers() {
+        when(radicale.check()).thenReturn(ServiceHealth.up("ok", 1L));
+
+        HealthResponse first = healthService.checkAll();
+        HealthResponse second = healthService.checkAll();
+
+        assertSame(first, second);
+        verify(llm, times(1)).check();
+        verify(database, times(1)).check();
+    }
+
+    @Test
+    void shouldProbeOnceWhenConcurrentRequestsArriveBeforeFirstSnapshot() throws Exception {
+        when(radicale.check()).thenAnswer(inv -> {
+            Thread.sleep(100);
+            return ServiceHealth.up("ok", 100L);
+        });
+
+        try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<HealthResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                responses.add(callers.submit(healthService::checkAll));
+            }
+            for (Future<HealthResponse> response : responses) {
+                assertEquals("UP", response.get().status());
+            }
+        }
+
+        verify(radicale, times(1)).check();
+        verify(database, times(1)).check();
+    }
+
+    @Test
+    void shouldReportReadinessOnlyFromRequiredDependencies() {
+        when(radicale.check()).thenReturn(ServiceHealth.down("connection refused"));
+        healthService.refresh();
+
+        HealthResponse readiness = healthService.readiness();
+        HealthResponse liveness = healthService.liveness();
+
+        assertEquals("UP", readiness.status());
+        assertEquals(Set.of("database", "redis"), readiness.services().keySet());
+        assertEquals("UP", liveness.status());
+        assertFalse(healthService.checkAll().isHealthy());
+    }
+
+    @Test
+    void shouldUsePassiveSignalsInsteadOfProbingBusyDependencies() {
+        when(radicale.check()).thenReturn(ServiceHealth.up("ok", 1L));
+        for (int i = 0; i < 5; i++) {
+            tracker.recordFailure("llm", 30_000, new RuntimeException("timeout"));
+            tracker.recordSuccess("smtp", 15);
+        }
+
+        HealthResponse response = healthService.refresh();
+
+        verify(llm, never()).check();
+        verify(radicale).check();
+        assertEquals("DOWN", response.services().get("llm").status());
+        assertTrue(response.services().get("llm").message().contains("timeout"));
+        assertEquals("UP", response.services().get("smtp").status());
+    }
+
+    @Test
+    void shouldOverlayPassiveFailuresOnCachedSnapshot() {
+        when(radicale.check()).thenReturn(ServiceHealth.up("ok", 1L));
+        assertTrue(healthService.refresh().isHealthy());
+
+        for (int i = 0; i < 3; i++) {
+            tracker.recordFailure("radicale", 10, new RuntimeException("connection refused"));
+        }
+
+        HealthResponse response = healthService.checkAll();
+        assertEquals("DOWN", response.status());
+        assertEquals("DOWN", response.services().get("radicale").status());
+        verify(radicale, times(1)).check();
+    }
+
+    @Test
+    void shouldReportOpenCircuitBreakerWithoutProbing() {
+        for (int i = 0; i < 5; i++) {
+            assertThrows(IllegalStateException.class, () -> guard.call("radicale", () -> {
+                throw new IllegalStateException("connection refused");
+            }));
+        }
+
+        HealthResponse response = healthService.refresh();
+
+        verify(radicale, never()).check();
+        assertEquals("DOWN", response.services().get("radicale").status());
+        assertTrue(response.services().get("radicale").message().contains("Circuit breaker"));
+    }
+}
@@ -60,6 +60,9 @@ class MessageControllerTest {
     @MockBean
     private com.copilot.security.JwtService jwtService;
 
+    @MockBean
+    private com.copilot.security.UserStatusCache userStatusCache;
+
     private UUID userId;
     private UUID chatId;
     private String userEmail;
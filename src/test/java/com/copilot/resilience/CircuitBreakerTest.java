@@ -0,0 +1,137 @@
+package com.copilot.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final CircuitBreaker breaker = new CircuitBreaker(10, 4, 50, 30_000, 2, now::get);
+
+    @Test
+    void shouldOpenWhenFailureRateReachesThreshold() {
+        succeed();
+        fail();
+        succeed();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        fail();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertTrue(breaker.tryAcquire().isEmpty());
+    }
+
+    @Test
+    void shouldNotOpenBeforeMinimumCalls() {
+        fail();
+        fail();
+        fail();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire().isPresent());
+    }
+
+    @Test
+    void shouldForgetOldOutcomesInSlidingWindow() {
+        for (int i = 0; i < 10; i++) {
+            succeed();
+        }
+        for (int i = 0; i < 4; i++) {
+            fail();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        // Окно - последние 10 вызовов: пять успешных вытеснены, ошибок ровно половина
+        fail();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void shouldCloseAfterSuccessfulTrialCalls() {
+        openBreaker();
+        now.addAndGet(30_000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        CircuitBreaker.Permit first = acquire();
+        CircuitBreaker.Permit second = acquire();
+        assertTrue(first.trial());
+        // Пробных вызовов не больше half-open-calls
+        assertTrue(breaker.tryAcquire().isEmpty());
+
+        breaker.onSuccess(first);
+        breaker.onSuccess(second);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire().isPresent());
+    }
+
+    @Test
+    void shouldReopenWhenTrialCallFails() {
+        openBreaker();
+        now.addAndGet(30_000);
+
+        breaker.onFailure(acquire());
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertTrue(breaker.tryAcquire().isEmpty());
+        assertEquals(now.get() + 30_000, breaker.retryAt());
+    }
+
+    @Test
+    void shouldReturnTrialPermitOnRelease() {
+        openBreaker();
+        now.addAndGet(30_000);
+
+        acquire();
+        breaker.release(acquire());
+
+        assertTrue(breaker.tryAcquire().isPresent());
+    }
+
+    @Test
+    void shouldIgnoreCallAcquiredWhileClosedThatCompletesDuringHalfOpen() {
+        CircuitBreaker.Permit slowSuccess = acquire();
+        CircuitBreaker.Permit slowFailure = acquire();
+        CircuitBreaker.Permit slowRelease = acquire();
+        openBreaker();
+        now.addAndGet(30_000);
+
+        CircuitBreaker.Permit trial = acquire();
+        breaker.onSuccess(slowSuccess);
+        breaker.release(slowRelease);
+
+        // Старые вызовы не считаются пробными и не освобождают место для лишней пробы
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        acquire();
+        assertTrue(breaker.tryAcquire().isEmpty());
+
+        // Ошибка старого вызова не открывает breaker, пробы которого здоровы
+        breaker.onFailure(slowFailure);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        breaker.onSuccess(trial);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+    }
+
+    private void openBreaker() {
+        for (int i = 0; i < 4; i++) {
+            fail();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private CircuitBreaker.Permit acquire() {
+        return breaker.tryAcquire().orElseThrow();
+    }
+
+    private void succeed() {
+        breaker.onSuccess(acquire());
+    }
+
+    private void fail() {
+        breaker.onFailure(acquire());
+    }
+}
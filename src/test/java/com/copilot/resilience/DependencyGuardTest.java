@@ -0,0 +1,105 @@
+package com.copilot.resilience;
+
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DependencyGuardTest {
+
+    private final DependencyHealthTracker tracker = new DependencyHealthTracker();
+    private final DependencyGuard guard = new DependencyGuard(tracker);
+
+    @Test
+    void shouldFailFastWithoutCallingOpenDependency() {
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            assertThrows(IOException.class, () -> guard.call("smtp", () -> {
+                calls.incrementAndGet();
+                throw new IOException("Connection refused");
+            }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.state("smtp"));
+
+        DependencyUnavailableException rejected = assertThrows(DependencyUnavailableException.class,
+                () -> guard.call("smtp", calls::incrementAndGet));
+
+        assertEquals("smtp", rejected.getDependency());
+        assertEquals(5, calls.get());
+        // Отклоненный вызов не попадает в пассивную статистику
+        assertTrue(tracker.snapshot("smtp").orElseThrow().message().startsWith("5 вызовов"));
+    }
+
+    @Test
+    void shouldKeepOtherDependenciesWorkingWhenOneIsOpen() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertThrows(IllegalStateException.class, () -> guard.call("radicale", () -> {
+                throw new IllegalStateException("502");
+            }));
+        }
+
+        assertEquals("ok", guard.call("llm", () -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, guard.state("llm"));
+        assertEquals(CircuitBreaker.State.OPEN, guard.state("radicale"));
+    }
+
+    @Test
+    void shouldRejectCallsAboveBulkheadLimit() throws Exception {
+        ReflectionTestUtils.setField(guard, "smtpConcurrency", 2);
+        ReflectionTestUtils.setField(guard, "bulkheadMaxWaitMs", 50L);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> first = executor.submit(() -> guard.call("smtp", () -> hold(started, release)));
+            Future<String> second = executor.submit(() -> guard.call("smtp", () -> hold(started, release)));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertThrows(DependencyUnavailableException.class, () -> guard.call("smtp", () -> "third"));
+
+            release.countDown();
+            assertEquals("sent", first.get(5, TimeUnit.SECONDS));
+            assertEquals("sent", second.get(5, TimeUnit.SECONDS));
+        }
+        // Переполнение bulkhead не считается ошибкой зависимости
+        assertEquals(CircuitBreaker.State.CLOSED, guard.state("smtp"));
+        assertEquals("fourth", guard.call("smtp", () -> "fourth"));
+    }
+
+    @Test
+    void shouldNotCountClientErrorsAgainstBreaker() {
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IllegalArgumentException.class, () -> guard.call("smtp", () -> {
+                throw new IllegalArgumentException("550 mailbox unavailable");
+            }, error -> !(error instanceof IllegalArgumentException)));
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, guard.state("smtp"));
+        assertEquals("UP", tracker.snapshot("smtp").orElseThrow().status());
+    }
+
+    @Test
+    void shouldFindUnavailableDependencyInWrappedCause() {
+        DependencyUnavailableException cause = new DependencyUnavailableException("radicale", "Сервис radicale временно недоступен");
+        RuntimeException wrapped = new RuntimeException("Не удалось создать встречу", new RuntimeException(cause));
+
+        assertSame(cause, DependencyUnavailableException.find(wrapped));
+        assertNull(DependencyUnavailableException.find(new RuntimeException("timeout")));
+    }
+
+    private static String hold(CountDownLatch started, CountDownLatch release) throws InterruptedException {
+        started.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return "sent";
+    }
+}
@@ -0,0 +1,54 @@
+package com.copilot.resilience;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.RedisConnectionFailureException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RedisRateLimiterTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldSpreadCallsAcrossSecondsWhenQuotaIsExhausted() {
+        Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class))).thenAnswer(inv -> {
+            List<String> keys = inv.getArgument(1);
+            return counters.computeIfAbsent(keys.get(0), k -> new AtomicLong()).incrementAndGet();
+        });
+        RedisRateLimiter limiter = new RedisRateLimiter(redisTemplate);
+
+        for (int i = 0; i < 6; i++) {
+            limiter.acquire("mailslurp", 3);
+        }
+
+        // 6 вызовов при квоте 3 в секунду занимают минимум две разные секунды
+        long usedSeconds = counters.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith("ratelimit:mailslurp:"))
+                .filter(entry -> entry.getValue().get() > 0)
+                .count();
+        assertTrue(usedSeconds >= 2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldLetCallsThroughWhenRedisIsUnavailable() {
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenThrow(new RedisConnectionFailureException("down"));
+        RedisRateLimiter limiter = new RedisRateLimiter(redisTemplate);
+
+        assertDoesNotThrow(() -> limiter.acquire("mailslurp", 1));
+        limiter.acquire("mailslurp", 0);
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class), anyList(), any(Object[].class));
+    }
+}
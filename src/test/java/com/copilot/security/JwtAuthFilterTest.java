@@ -0,0 +1,109 @@
+package com.copilot.security;
+
+import com.copilot.auth.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class JwtAuthFilterTest {
+
+    private final UUID userId = UUID.randomUUID();
+    private final UserRepository userRepository = mock(UserRepository.class);
+
+    private JwtService jwtService;
+    private UserStatusCache userStatusCache;
+    private JwtAuthFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = new JwtService();
+        ReflectionTestUtils.setField(jwtService, "secret", "test-secret-test-secret-test-secret-test-secret");
+        ReflectionTestUtils.setField(jwtService, "issuer", "com.copilot");
+        ReflectionTestUtils.setField(jwtService, "accessTtl", Duration.ofMinutes(15));
+        ReflectionTestUtils.setField(jwtService, "refreshTtl", Duration.ofDays(7));
+        ReflectionTestUtils.setField(jwtService, "verifiedCacheMaxSize", 100);
+        jwtService.init();
+
+        userStatusCache = new UserStatusCache(userRepository);
+        ReflectionTestUtils.setField(userStatusCache, "ttl", Duration.ofMinutes(1));
+        ReflectionTestUtils.setField(userStatusCache, "maxSize", 100);
+
+        filter = new JwtAuthFilter(jwtService, userStatusCache);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void shouldPutUserIdIntoPrincipalAndCheckStatusOncePerTtl() throws Exception {
+        when(userRepository.findActiveFlagById(userId)).thenReturn(Optional.of(true));
+        String token = jwtService.generateAccessToken("user@example.com", userId.toString(), List.of("USER"));
+
+        Authentication first = authenticate(token);
+        Authentication second = authenticate(token);
+
+        AuthenticatedUser principal = (AuthenticatedUser) first.getPrincipal();
+        assertEquals(userId, principal.userId());
+        assertEquals("user@example.com", first.getName());
+        assertEquals(List.of("USER"), principal.roles());
+        assertEquals("ROLE_USER", first.getAuthorities().iterator().next().getAuthority());
+        assertNotNull(second);
+        verify(userRepository, times(1)).findActiveFlagById(userId);
+    }
+
+    @Test
+    void shouldRejectDeletedOrDeactivatedUser() throws Exception {
+        when(userRepository.findActiveFlagById(userId)).thenReturn(Optional.empty());
+        String token = jwtService.generateAccessToken("user@example.com", userId.toString(), List.of("USER"));
+
+        assertNull(authenticate(token));
+    }
+
+    @Test
+    void shouldPickUpDeactivationAfterInvalidate() throws Exception {
+        when(userRepository.findActiveFlagById(userId)).thenReturn(Optional.of(true), Optional.of(false));
+        String token = jwtService.generateAccessToken("user@example.com", userId.toString(), List.of("USER"));
+
+        assertNotNull(authenticate(token));
+        userStatusCache.invalidate(userId);
+        assertNull(authenticate(token));
+    }
+
+    @Test
+    void shouldNotAuthenticateWithRefreshToken() throws Exception {
+        String token = jwtService.generateRefreshToken("user@example.com", userId.toString(), "family", "token");
+
+        assertNull(authenticate(token));
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void shouldIgnoreInvalidToken() throws Exception {
+        assertNull(authenticate("not-a-jwt"));
+        verifyNoInteractions(userRepository);
+    }
+
+    private Authentication authenticate(String token) throws Exception {
+        SecurityContextHolder.clearContext();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/chats");
+        request.addHeader("Authorization", "Bearer " + token);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+}
@@ -0,0 +1,90 @@
+package com.copilot.security;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtServiceTest {
+
+    private JwtService jwtService;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = newService(Duration.ofMinutes(15), 3);
+    }
+
+    @Test
+    void shouldVerifyTokenAndReturnCachedResultOnRepeat() {
+        String token = jwtService.generateAccessToken("user@example.com", "user-1", List.of("USER", "ADMIN"));
+
+        VerifiedToken first = jwtService.verify(token);
+        VerifiedToken second = jwtService.verify(token);
+
+        assertEquals("user@example.com", first.subject());
+        assertEquals("user-1", first.userId());
+        assertEquals(List.of("USER", "ADMIN"), first.roles());
+        assertFalse(first.isRefreshToken());
+        assertSame(first, second);
+    }
+
+    @Test
+    void shouldRejectTamperedToken() {
+        String token = jwtService.generateAccessToken("user@example.com", "user-1", List.of("USER"));
+        jwtService.verify(token);
+
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertThrows(JwtException.class, () -> jwtService.verify(tampered));
+    }
+
+    @Test
+    void shouldNotServeExpiredTokenFromCache() {
+        JwtService shortLived = newService(Duration.ofSeconds(2), 3);
+        String token = shortLived.generateAccessToken("user@example.com", "user-1", List.of("USER"));
+        VerifiedToken verified = shortLived.verify(token);
+
+        // Запись в кеше с истекшим сроком должна уйти на полную проверку, а она отклонит токен
+        cache(shortLived).put(cache(shortLived).keySet().iterator().next(),
+                new VerifiedToken(verified.subject(), verified.userId(), verified.roles(), verified.type(),
+                        verified.expiresAt().minusSeconds(5)));
+
+        assertDoesNotThrow(() -> shortLived.verify(token));
+        assertThrows(ExpiredJwtException.class, () -> {
+            Thread.sleep(2100);
+            shortLived.verify(token);
+        });
+    }
+
+    @Test
+    void shouldKeepCacheBounded() {
+        for (int i = 0; i < 10; i++) {
+            jwtService.verify(jwtService.generateAccessToken("user" + i + "@example.com", "user-" + i, List.of("USER")));
+        }
+
+        assertTrue(cache(jwtService).size() <= 3);
+    }
+
+    private static JwtService newService(Duration accessTtl, int cacheSize) {
+        JwtService service = new JwtService();
+        ReflectionTestUtils.setField(service, "secret", "test-secret-test-secret-test-secret-test-secret");
+        ReflectionTestUtils.setField(service, "issuer", "com.copilot");
+        ReflectionTestUtils.setField(service, "accessTtl", accessTtl);
+        ReflectionTestUtils.setField(service, "refreshTtl", Duration.ofDays(7));
+        ReflectionTestUtils.setField(service, "verifiedCacheMaxSize", cacheSize);
+        service.init();
+        return service;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, VerifiedToken> cache(JwtService service) {
+        return (Map<String, VerifiedToken>) ReflectionTestUtils.getField(service, "verifiedTokens");
+    }
+}
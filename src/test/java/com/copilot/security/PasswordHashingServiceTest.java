@@ -0,0 +1,46 @@
+package com.copilot.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHashingServiceTest {
+
+    private final BCryptPasswordEncoder loginEncoder = new BCryptPasswordEncoder(6);
+    private final PasswordHashingService hashingService = new PasswordHashingService(loginEncoder, 4, 2);
+    private final PasswordGenerator passwordGenerator = new PasswordGenerator();
+
+    @AfterEach
+    void tearDown() {
+        hashingService.shutdown();
+    }
+
+    @Test
+    void shouldHashWithCostConfiguredPerPurpose() {
+        String login = hashingService.hashAsync(PasswordHashingService.Purpose.LOGIN, "secret").join();
+        String mailbox = hashingService.hashAsync(PasswordHashingService.Purpose.MAILBOX, "secret").join();
+
+        assertTrue(login.startsWith("$2a$06$"));
+        assertTrue(mailbox.startsWith("$2a$04$"));
+        assertTrue(loginEncoder.matches("secret", login));
+        assertTrue(loginEncoder.matches("secret", mailbox));
+    }
+
+    @Test
+    void shouldGenerateAlphanumericPasswords() {
+        Set<String> passwords = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            String password = passwordGenerator.generate();
+            assertEquals(12, password.length());
+            assertTrue(password.matches("[A-Za-z0-9]+"));
+            passwords.add(password);
+        }
+        assertEquals(100, passwords.size());
+        assertThrows(IllegalArgumentException.class, () -> passwordGenerator.generate(0));
+    }
+}
@@ -0,0 +1,65 @@
+package com.copilot.security;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PasswordUpgradeTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final UserDetailsServiceImpl userDetailsService = new UserDetailsServiceImpl(userRepository);
+    private final PasswordEncoder encoder = new SecurityConfig(null).passwordEncoder(6);
+
+    @Test
+    void shouldRehashLegacyHashOnLoginAndReturnLoadedUser() {
+        User user = user(new BCryptPasswordEncoder(4).encode("secret"));
+        when(userRepository.findByEmailAndDeletedAtIsNull("user@example.com")).thenReturn(Optional.of(user));
+
+        Authentication authentication = provider().authenticate(
+                new UsernamePasswordAuthenticationToken("user@example.com", "secret"));
+
+        assertSame(user, ((UserAccountDetails) authentication.getPrincipal()).getUser());
+        verify(userRepository).updatePassword(eq(user.getId()), argThat(hash -> hash.startsWith("{bcrypt}$2a$06$")));
+        assertTrue(encoder.matches("secret", user.getPassword()));
+        verify(userRepository, times(1)).findByEmailAndDeletedAtIsNull("user@example.com");
+    }
+
+    @Test
+    void shouldKeepCurrentHashUntouched() {
+        User user = user(encoder.encode("secret"));
+        when(userRepository.findByEmailAndDeletedAtIsNull("user@example.com")).thenReturn(Optional.of(user));
+
+        provider().authenticate(new UsernamePasswordAuthenticationToken("user@example.com", "secret"));
+
+        verify(userRepository, never()).updatePassword(any(), anyString());
+    }
+
+    private DaoAuthenticationProvider provider() {
+        DaoAuthenticationProvider provider = new DaoAuthenticationProvider(userDetailsService);
+        provider.setPasswordEncoder(encoder);
+        provider.setUserDetailsPasswordService(userDetailsService);
+        return provider;
+    }
+
+    private static User user(String passwordHash) {
+        return User.builder()
+                .id(UUID.randomUUID())
+                .email("user@example.com")
+                .password(passwordHash)
+                .role("EMPLOYEE")
+                .isActive(true)
+                .build();
+    }
+}
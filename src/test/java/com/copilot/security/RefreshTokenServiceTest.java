@@ -0,0 +1,112 @@
+package com.copilot.security;
+
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class RefreshTokenServiceTest {
+
+    private final UUID userId = UUID.randomUUID();
+
+    private JwtService jwtService;
+    private RedisTemplate<String, String> redisTemplate;
+    private HashOperations<String, Object, Object> hashOps;
+    private RefreshTokenService refreshTokenService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        jwtService = new JwtService();
+        ReflectionTestUtils.setField(jwtService, "secret", "test-secret-test-secret-test-secret-test-secret");
+        ReflectionTestUtils.setField(jwtService, "issuer", "com.copilot");
+        ReflectionTestUtils.setField(jwtService, "accessTtl", Duration.ofMinutes(15));
+        ReflectionTestUtils.setField(jwtService, "refreshTtl", Duration.ofDays(7));
+        ReflectionTestUtils.setField(jwtService, "verifiedCacheMaxSize", 100);
+        jwtService.init();
+
+        redisTemplate = mock(RedisTemplate.class);
+        hashOps = mock(HashOperations.class);
+        when(redisTemplate.<Object, Object>opsForHash()).thenReturn(hashOps);
+        when(redisTemplate.opsForValue()).thenReturn(mock(ValueOperations.class));
+
+        refreshTokenService = new RefreshTokenService(jwtService, redisTemplate);
+        ReflectionTestUtils.setField(refreshTokenService, "refreshTtl", Duration.ofDays(7));
+        ReflectionTestUtils.setField(refreshTokenService, "sessionUserTtl", Duration.ofMinutes(5));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldStartSessionAsNewFamilyWithItsOwnExpiryInOneScript() {
+        long before = System.currentTimeMillis();
+        String token = refreshTokenService.startSession(
+                new RefreshTokenService.SessionUser(userId, "user@example.com", "USER", true));
+
+        Claims claims = jwtService.parse(token).getPayload();
+        assertTrue(jwtService.isRefreshToken(claims));
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("auth:sessions:" + userId)), args.capture());
+        Object[] values = args.getValue();
+        assertEquals(claims.get("familyId", String.class), values[0]);
+        String[] session = ((String) values[1]).split("\\|");
+        assertEquals(claims.getId(), session[0]);
+        assertTrue(Long.parseLong(session[1]) >= before + Duration.ofDays(7).toMillis());
+        assertEquals(String.valueOf(Duration.ofDays(7).toMillis()), values[2]);
+        verifyNoInteractions(hashOps);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldRotateWithinFamilyAndReturnCachedUser() {
+        String token = jwtService.generateRefreshToken("user@example.com", userId.toString(), "family-1", "token-1");
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenReturn(List.of("ROTATED", "true|USER|user@example.com"));
+
+        RefreshTokenService.Rotation rotation = refreshTokenService.rotate(token);
+
+        Claims next = jwtService.parse(rotation.refreshToken()).getPayload();
+        assertEquals("family-1", next.get("familyId", String.class));
+        assertNotEquals("token-1", next.getId());
+        assertEquals(new RefreshTokenService.SessionUser(userId, "user@example.com", "USER", true), rotation.user());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldRejectReusedAndRevokedTokens() {
+        String token = jwtService.generateRefreshToken("user@example.com", userId.toString(), "family-1", "token-1");
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenReturn(List.of("REUSED", ""), List.of("REVOKED", ""));
+
+        assertThrows(BadCredentialsException.class, () -> refreshTokenService.rotate(token));
+        assertThrows(BadCredentialsException.class, () -> refreshTokenService.rotate(token));
+    }
+
+    @Test
+    void shouldRejectAccessTokenAndTokensWithoutSession() {
+        String access = jwtService.generateAccessToken("user@example.com", userId.toString(), List.of("USER"));
+
+        assertThrows(BadCredentialsException.class, () -> refreshTokenService.rotate(access));
+        assertNull(RefreshTokenService.parseUser(userId, ""));
+    }
+
+    @Test
+    void shouldDropAllSessionsWithSingleDelete() {
+        refreshTokenService.revokeAllSessions(userId);
+
+        verify(redisTemplate).delete(List.of("auth:sessions:" + userId, "auth:session-user:" + userId));
+    }
+}
@@ -0,0 +1,62 @@
+package com.copilot.tools.calendar;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalendarAddressingTest {
+
+    private CalendarAddressing addressing;
+
+    @BeforeEach
+    void setUp() {
+        addressing = new CalendarAddressing();
+        ReflectionTestUtils.setField(addressing, "caldavBaseUrl", "http://calendar:5232");
+    }
+
+    @Test
+    void shouldTransliterateRussianName() {
+        assertEquals("Shchukin Yuriy Eselev", CalendarAddressing.transliterate("Щукин Юрий Ёселев"));
+        assertEquals("obyavlenie", CalendarAddressing.transliterate("объявление"));
+    }
+
+    @Test
+    void shouldReturnSameInstanceWhenNoCyrillic() {
+        String name = "John's Calendar";
+        assertSame(name, CalendarAddressing.transliterate(name));
+    }
+
+    @Test
+    void shouldSanitizeCalendarName() {
+        assertEquals("aleksandrs-calendar", addressing.calendarName("Александр"));
+        assertEquals("work-calendar", addressing.calendarName(null));
+        assertEquals("calendar", CalendarAddressing.sanitizeCalendarName("!"));
+    }
+
+    @Test
+    void shouldBuildAndCacheCalendarUrl() {
+        String url = addressing.calendarUrl("ivan@mailslurp.biz", "Иван");
+
+        assertEquals("http://calendar:5232/ivan%40mailslurp.biz/ivans-calendar/", url);
+        assertSame(url, addressing.calendarUrl("ivan@mailslurp.biz", "Иван"));
+        assertNotEquals(url, addressing.calendarUrl("ivan@mailslurp.biz", "Пётр"));
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedAndDeletedCalendarUrls() {
+        ReflectionTestUtils.setField(addressing, "urlCacheMaxSize", 2);
+        String ivan = addressing.calendarUrl("ivan@mailslurp.biz", "Иван");
+        String petr = addressing.calendarUrl("petr@mailslurp.biz", "Пётр");
+        addressing.calendarUrl("ivan@mailslurp.biz", "Иван");
+
+        addressing.calendarUrl("anna@mailslurp.biz", "Анна");
+
+        assertSame(ivan, addressing.calendarUrl("ivan@mailslurp.biz", "Иван"));
+        assertNotSame(petr, addressing.calendarUrl("petr@mailslurp.biz", "Пётр"));
+
+        addressing.evict("ivan@mailslurp.biz", "Иван");
+        assertNotSame(ivan, addressing.calendarUrl("ivan@mailslurp.biz", "Иван"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.copilot.tools.calendar;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalendarEventCacheTest {
+
+    private static final Instant BASE = Instant.parse("2025-11-14T09:00:00Z");
+
+    private CalendarEventCache.CalendarState state;
+
+    @BeforeEach
+    void setUp() {
+        state = new CalendarEventCache().state(UUID.randomUUID());
+    }
+
+    @Test
+    void shouldReturnEventsOverlappingRange() {
+        state.put(event("a", "/u/c/a.ics", BASE, Duration.ofHours(1)));
+        state.put(event("b", "/u/c/b.ics", BASE.plus(Duration.ofHours(3)), Duration.ofHours(1)));
+        state.put(event("c", "/u/c/c.ics", BASE.plus(Duration.ofDays(1)), Duration.ofHours(1)));
+
+        List<CalendarEvent> result = state.findInRange(BASE.plus(Duration.ofMinutes(30)), BASE.plus(Duration.ofHours(4)));
+
+        assertEquals(List.of("a", "b"), result.stream().map(CalendarEvent::uid).toList());
+    }
+
+    @Test
+    void shouldIncludeLongEventStartedBeforeRange() {
+        state.put(event("long", "/u/c/long.ics", BASE.minus(Duration.ofDays(2)), Duration.ofDays(3)));
+
+        List<CalendarEvent> result = state.findInRange(BASE, BASE.plus(Duration.ofHours(1)));
+
+        assertEquals(1, result.size());
+        assertEquals("long", result.get(0).uid());
+    }
+
+    @Test
+    void shouldReplaceLocallyAddedEventWithSameUid() {
+        state.put(event("a", "/u/c/a.ics", BASE, Duration.ofHours(1)));
+        state.put(event("a", "/u/c/a%40x.ics", BASE.plus(Duration.ofHours(2)), Duration.ofHours(1)));
+
+        assertEquals(1, state.size());
+        assertNull(state.etag("/u/c/a.ics"));
+        assertEquals(BASE.plus(Duration.ofHours(2)), state.findUpcoming(BASE, 10).get(0).start());
+    }
+
+    @Test
+    void shouldRemoveEventAndReplaceState() {
+        state.put(event("a", "/u/c/a.ics", BASE, Duration.ofHours(1)));
+        state.put(event("b", "/u/c/b.ics", BASE.plus(Duration.ofHours(2)), Duration.ofHours(1)));
+        state.markSynced("token-1");
+
+        state.remove("/u/c/a.ics");
+        assertEquals(1, state.size());
+
+        CalendarEventCache.CalendarState resynced = new CalendarEventCache.CalendarState();
+        resynced.put(event("c", "/u/c/c.ics", BASE.plus(Duration.ofHours(30)), Duration.ofHours(10)));
+        resynced.markSynced("token-2");
+
+        state.replaceWith(resynced);
+        assertEquals(1, state.size());
+        assertNull(state.etag("/u/c/b.ics"));
+        assertEquals("token-2", state.getSyncToken());
+        assertEquals(1, state.findInRange(BASE.plus(Duration.ofHours(35)), BASE.plus(Duration.ofHours(36))).size());
+    }
+
+    @Test
+    void shouldLimitUpcomingEvents() {
+        for (int i = 0; i < 5; i++) {
+            state.put(event("e" + i, "/u/c/e" + i + ".ics", BASE.plus(Duration.ofHours(i)), Duration.ofMinutes(30)));
+        }
+
+        List<CalendarEvent> result = state.findUpcoming(BASE.plus(Duration.ofMinutes(90)), 2);
+
+        assertEquals(List.of("e2", "e3"), result.stream().map(CalendarEvent::uid).toList());
+    }
+
+    private CalendarEvent event(String uid, String href, Instant start, Duration duration) {
+        return new CalendarEvent(uid, href, "\"etag-" + uid + "\"", "Событие " + uid,
+                start, start.plus(duration), null, null, List.of());
+    }
+}
@@ -0,0 +1,85 @@
+package com.copilot.tools.calendar;
+
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.CircuitBreaker;
+import com.copilot.resilience.DependencyGuard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalendarProvisioningServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private ServerSocket radicale;
+    private Thread acceptor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private HtpasswdStore htpasswdStore;
+    private DependencyGuard guard;
+    private CalendarProvisioningService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // Radicale, который на любой запрос отвечает 503
+        radicale = new ServerSocket(0);
+        acceptor = Thread.ofVirtual().start(() -> {
+            while (!radicale.isClosed()) {
+                try (Socket socket = radicale.accept()) {
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    in.readLine();
+                    requests.incrementAndGet();
+                    OutputStream out = socket.getOutputStream();
+                    out.write("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                            .getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } catch (Exception e) {
+                    // сокет закрыт в tearDown
+                }
+            }
+        });
+
+        CalendarAddressing addressing = new CalendarAddressing();
+        ReflectionTestUtils.setField(addressing, "caldavBaseUrl", "http://localhost:" + radicale.getLocalPort());
+        htpasswdStore = new HtpasswdStore(directory.resolve("users").toString(), "md5", 0);
+        guard = new DependencyGuard(new DependencyHealthTracker());
+        service = new CalendarProvisioningService(addressing, htpasswdStore, guard);
+        ReflectionTestUtils.setField(service, "htpasswdWriteTimeoutMs", 5000L);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        radicale.close();
+        acceptor.join(1000);
+        htpasswdStore.shutdown();
+    }
+
+    @Test
+    void shouldOpenBreakerOnServerErrorsAndFallBackWithoutCallingRadicale() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals("ivans-calendar",
+                    service.createCalendar("user" + i + "@mailslurp.biz", "secret", "Ivan").calendarId());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.state(DependencyHealthTracker.RADICALE));
+        int served = requests.get();
+
+        assertEquals("default", service.createCalendar("late@mailslurp.biz", "secret", "Ivan").calendarId());
+        service.deleteCalendar("late@mailslurp.biz", "secret", "Ivan");
+
+        assertEquals(served, requests.get());
+    }
+}
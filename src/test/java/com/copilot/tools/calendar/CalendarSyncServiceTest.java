@@ -0,0 +1,274 @@
+package com.copilot.tools.calendar;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class CalendarSyncServiceTest {
+
+    private static final Instant FROM = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Instant TO = Instant.parse("2026-01-01T00:00:00Z");
+
+    private final User user = User.builder()
+            .id(UUID.randomUUID())
+            .email("ivan@mailslurp.biz")
+            .firstName("Ivan")
+            .calendarPassword("secret")
+            .build();
+
+    private final Deque<Canned> responses = new ArrayDeque<>();
+    private final List<Recorded> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+    private CalendarAddressing addressing;
+    private CalendarSyncService syncService;
+    private CalendarEventCache.CalendarState state;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        addressing = new CalendarAddressing();
+        ReflectionTestUtils.setField(addressing, "caldavBaseUrl", "http://127.0.0.1:" + server.getAddress().getPort());
+        syncService = new CalendarSyncService(new CalendarEventCache(), addressing, mock(UserRepository.class),
+                new DependencyGuard(new DependencyHealthTracker()));
+        state = new CalendarEventCache.CalendarState();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void shouldKeepMasterEventOfRecurringResource() {
+        // Измененный экземпляр идет раньше основного события - так Radicale хранит серию с исключениями
+        String ical = calendar("""
+                BEGIN:VEVENT\r
+                UID:weekly\r
+                RECURRENCE-ID:20250310T090000Z\r
+                SUMMARY:Планерка (перенесена)\r
+                DTSTART:20250310T120000Z\r
+                DTEND:20250310T123000Z\r
+                END:VEVENT\r
+                BEGIN:VEVENT\r
+                UID:weekly\r
+                SUMMARY:Планерка\r
+                RRULE:FREQ=WEEKLY;BYDAY=MO\r
+                DTSTART:20250303T090000Z\r
+                DTEND:20250303T093000Z\r
+                END:VEVENT\r
+                """);
+        respond(207, multistatus("t1", resource("weekly.ics", "\"e1\"", ical)));
+
+        syncService.sync(user, state);
+
+        List<CalendarEvent> events = state.findInRange(FROM, TO);
+        assertEquals(1, events.size());
+        assertEquals("Планерка", events.get(0).summary());
+        assertEquals(Instant.parse("2025-03-03T09:00:00Z"), events.get(0).start());
+        assertEquals("t1", state.getSyncToken());
+        assertTrue(requests.get(0).body().contains("<D:sync-token></D:sync-token>"));
+    }
+
+    @Test
+    void shouldRemoveDeletedHrefsAndFetchResourcesWithoutCalendarData() {
+        respond(207, multistatus("t1",
+                resource("a.ics", "\"a1\"", event("a", "Встреча A", "20250310T090000Z")),
+                resource("b.ics", "\"b1\"", event("b", "Встреча B", "20250311T090000Z"))));
+        syncService.sync(user, state);
+        assertEquals(2, state.size());
+
+        // a.ics удален, для b.ics сервер вернул только ETag - событие догружается отдельным GET
+        respond(207, multistatus("t2",
+                deleted("a.ics"),
+                """
+                <D:response>
+                    <D:href>%s</D:href>
+                    <D:propstat>
+                        <D:prop><D:getetag>"b2"</D:getetag></D:prop>
+                        <D:status>HTTP/1.1 200 OK</D:status>
+                    </D:propstat>
+                    <D:propstat>
+                        <D:prop><C:calendar-data/></D:prop>
+                        <D:status>HTTP/1.1 404 Not Found</D:status>
+                    </D:propstat>
+                </D:response>
+                """.formatted(href("b.ics"))));
+        respond(200, event("b", "Встреча B перенесена", "20250312T090000Z"));
+
+        syncService.sync(user, state);
+
+        List<CalendarEvent> events = state.findInRange(FROM, TO);
+        assertEquals(1, events.size());
+        assertEquals("Встреча B перенесена", events.get(0).summary());
+        assertEquals("\"b2\"", state.etag(href("b.ics")));
+        assertEquals("t2", state.getSyncToken());
+        assertTrue(requests.get(1).body().contains("<D:sync-token>t1</D:sync-token>"));
+        assertEquals("GET", requests.get(2).method());
+        assertEquals(href("b.ics"), requests.get(2).path());
+    }
+
+    @Test
+    void shouldResyncFullyWhenServerRejectsSyncToken() {
+        respond(207, multistatus("t1", resource("a.ics", "\"a1\"", event("a", "Встреча A", "20250310T090000Z"))));
+        syncService.sync(user, state);
+
+        respond(403, """
+                <?xml version="1.0" encoding="utf-8"?>
+                <D:error xmlns:D="DAV:"><D:valid-sync-token/></D:error>
+                """);
+        respond(207, multistatus("t3", resource("b.ics", "\"b1\"", event("b", "Встреча B", "20250311T090000Z"))));
+
+        syncService.sync(user, state);
+
+        List<CalendarEvent> events = state.findInRange(FROM, TO);
+        assertEquals(1, events.size());
+        assertEquals("b", events.get(0).uid());
+        assertEquals("t3", state.getSyncToken());
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(1).body().contains("<D:sync-token>t1</D:sync-token>"));
+        assertTrue(requests.get(2).body().contains("<D:sync-token></D:sync-token>"));
+    }
+
+    @Test
+    void shouldKeepCachedEventsWhenFullResyncFails() {
+        respond(207, multistatus("t1", resource("a.ics", "\"a1\"", event("a", "Встреча A", "20250310T090000Z"))));
+        syncService.sync(user, state);
+
+        // Токен отвергнут, а полный REPORT завершается ошибкой сервера
+        respond(403, "");
+        respond(500, "");
+
+        assertThrows(RuntimeException.class, () -> syncService.sync(user, state));
+
+        List<CalendarEvent> events = state.findInRange(FROM, TO);
+        assertEquals(1, events.size());
+        assertEquals("a", events.get(0).uid());
+        assertEquals("t1", state.getSyncToken());
+    }
+
+    @Test
+    void shouldTreatMissingCalendarAsEmpty() {
+        respond(404, "");
+
+        syncService.sync(user, state);
+
+        assertTrue(state.isSynced());
+        assertEquals(0, state.size());
+        assertNull(state.getSyncToken());
+    }
+
+    private void respond(int status, String body) {
+        synchronized (responses) {
+            responses.add(new Canned(status, body));
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            requests.add(new Recorded(exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(),
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+            Canned canned;
+            synchronized (responses) {
+                canned = responses.poll();
+            }
+            if (canned == null) {
+                canned = new Canned(500, "");
+            }
+            byte[] bytes = canned.body().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", canned.status() == 200
+                    ? "text/calendar; charset=utf-8" : "application/xml; charset=utf-8");
+            exchange.sendResponseHeaders(canned.status(), bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String href(String name) {
+        return URI.create(addressing.calendarUrl(user)).getRawPath() + name;
+    }
+
+    private String resource(String name, String etag, String calendarData) {
+        return """
+                <D:response>
+                    <D:href>%s</D:href>
+                    <D:propstat>
+                        <D:prop>
+                            <D:getetag>%s</D:getetag>
+                            <C:calendar-data>%s</C:calendar-data>
+                        </D:prop>
+                        <D:status>HTTP/1.1 200 OK</D:status>
+                    </D:propstat>
+                </D:response>
+                """.formatted(href(name), etag, calendarData);
+    }
+
+    private String deleted(String name) {
+        return """
+                <D:response>
+                    <D:href>%s</D:href>
+                    <D:status>HTTP/1.1 404 Not Found</D:status>
+                </D:response>
+                """.formatted(href(name));
+    }
+
+    private static String multistatus(String syncToken, String... responses) {
+        return """
+                <?xml version="1.0" encoding="utf-8"?>
+                <D:multistatus xmlns:D="DAV:" xmlns:C="urn:ietf:params:xml:ns:caldav">
+                %s<D:sync-token>%s</D:sync-token>
+                </D:multistatus>
+                """.formatted(String.join("", responses), syncToken);
+    }
+
+    private static String event(String uid, String summary, String start) {
+        return calendar("""
+                BEGIN:VEVENT\r
+                UID:%s\r
+                SUMMARY:%s\r
+                DTSTART:%s\r
+                END:VEVENT\r
+                """.formatted(uid, summary, start));
+    }
+
+    private static String calendar(String events) {
+        return "BEGIN:VCALENDAR\r\nVERSION:2.0\r\n" + events + "END:VCALENDAR\r\n";
+    }
+
+    private record Canned(int status, String body) {
+    }
+
+    private record Recorded(String method, String path, String body) {
+    }
+}
@@ -0,0 +1,102 @@
+package com.copilot.tools.calendar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HtpasswdStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldMatchHtpasswdApr1Format() {
+        // Эталонные значения: openssl passwd -apr1 -salt <salt> <password>
+        assertEquals("$apr1$abcdefgh$h9FWgUz3n9YxylKLlR5SQ/", Apr1Crypt.hash("secret", "abcdefgh"));
+        assertEquals("$apr1$Xy9.z/$rFNfKIVxHCkaee/Rqoe8l1", Apr1Crypt.hash("пароль123", "Xy9.z/"));
+        assertTrue(Apr1Crypt.hash("secret").matches("\\$apr1\\$[./0-9A-Za-z]{8}\\$[./0-9A-Za-z]{22}"));
+    }
+
+    @Test
+    void shouldGroupConcurrentUsersIntoSingleFile() throws Exception {
+        Path usersFile = directory.resolve("users");
+        HtpasswdStore store = new HtpasswdStore(usersFile.toString(), "md5", 20);
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            writes.add(store.addUser("user" + i + "@mailslurp.biz", "password" + i));
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).get();
+        store.shutdown();
+
+        Map<String, String> entries = readEntries(usersFile);
+        assertEquals(200, entries.size());
+        assertTrue(entries.get("user7@mailslurp.biz").startsWith("$apr1$"));
+        try (var files = Files.list(directory)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    void shouldRemoveUserAndIgnoreMissingOne() throws Exception {
+        Path usersFile = directory.resolve("users");
+        Files.writeString(usersFile, "# radicale users\nadmin:$apr1$old$hash\nbob:$apr1$bob$hash\n", StandardCharsets.UTF_8);
+        HtpasswdStore store = new HtpasswdStore(usersFile.toString(), "md5", 0);
+
+        store.removeUser("bob").get();
+        store.removeUser("carol").get();
+
+        assertEquals(List.of("# radicale users", "admin:$apr1$old$hash"),
+                Files.readAllLines(usersFile, StandardCharsets.UTF_8));
+        store.shutdown();
+    }
+
+    @Test
+    void shouldReplaceExistingUserAndKeepOtherLines() throws Exception {
+        Path usersFile = directory.resolve("users");
+        Files.writeString(usersFile, "# radicale users\nadmin:$apr1$old$hash\nbob:$apr1$bob$hash\n", StandardCharsets.UTF_8);
+        HtpasswdStore store = new HtpasswdStore(usersFile.toString(), "bcrypt", 0);
+
+        CompletableFuture.allOf(store.addUser("admin", "new-secret"), store.addUser("carol", "carol-secret")).get();
+
+        List<String> lines = Files.readAllLines(usersFile, StandardCharsets.UTF_8);
+        assertEquals("# radicale users", lines.get(0));
+        assertTrue(lines.get(1).startsWith("admin:$2a$"));
+        assertEquals("bob:$apr1$bob$hash", lines.get(2));
+        assertEquals(4, lines.size());
+
+        Map<String, String> entries = readEntries(usersFile);
+        assertTrue(BCrypt.checkpw("new-secret", entries.get("admin")));
+        assertTrue(BCrypt.checkpw("carol-secret", entries.get("carol")));
+        store.shutdown();
+    }
+
+    @Test
+    void shouldRejectInvalidUsernamesAndAlgorithms() {
+        HtpasswdStore store = new HtpasswdStore(directory.resolve("users").toString(), "md5", 0);
+
+        assertThrows(IllegalArgumentException.class, () -> store.addUser("bad:name", "secret"));
+        assertThrows(IllegalArgumentException.class, () -> store.addUser("bad\nname", "secret"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new HtpasswdStore(directory.resolve("users").toString(), "sha1", 0));
+        store.shutdown();
+    }
+
+    private static Map<String, String> readEntries(Path usersFile) throws Exception {
+        return Files.readAllLines(usersFile, StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.startsWith("#") && line.contains(":"))
+                .collect(Collectors.toMap(line -> line.substring(0, line.indexOf(':')),
+                        line -> line.substring(line.indexOf(':') + 1)));
+    }
+}
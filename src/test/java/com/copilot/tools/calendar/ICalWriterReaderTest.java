@@ -0,0 +1,157 @@
+package com.copilot.tools.calendar;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ICalWriterReaderTest {
+
+    private static final Instant START = Instant.parse("2025-11-14T13:00:00Z");
+    private static final Instant END = Instant.parse("2025-11-14T14:00:00Z");
+
+    @Test
+    void shouldFoldLongLinesAtSeventyFiveOctets() throws IOException {
+        String description = "Обсуждение стратегии, бюджета; и планов на квартал\n".repeat(5);
+
+        byte[] bytes = write(description);
+
+        String ical = new String(bytes, StandardCharsets.UTF_8);
+        for (String line : ical.split("\r\n")) {
+            assertTrue(line.getBytes(StandardCharsets.UTF_8).length <= 75, "Строка длиннее 75 октетов: " + line);
+        }
+        assertTrue(ical.contains("DTSTART:20251114T130000Z\r\n"));
+    }
+
+    @Test
+    void shouldReadBackWrittenEvent() throws IOException {
+        String description = "Повестка:\n1. Итоги, планы; риски\n2. C:\\reports".repeat(3);
+
+        byte[] bytes = write(description);
+
+        try (ICalReader reader = new ICalReader(new StringReader(new String(bytes, StandardCharsets.UTF_8)))) {
+            ICalReader.VEvent event = reader.nextEvent();
+            assertNotNull(event);
+            assertEquals("evt-1@business-assistant.local", event.uid());
+            assertEquals("Стратегическое планирование", event.summary());
+            assertEquals(description, event.description());
+            assertEquals(START, event.start());
+            assertEquals(END, event.end());
+            assertEquals(2, event.attendeeEmails().size());
+            assertNull(reader.nextEvent());
+        }
+    }
+
+    @Test
+    void shouldSkipNestedAlarmAndReadSeveralEvents() throws IOException {
+        String ical = """
+                BEGIN:VCALENDAR\r
+                BEGIN:VEVENT\r
+                UID:first\r
+                DTSTART;TZID=Europe/Moscow:20251114T160000\r
+                DTEND;TZID=Europe/Moscow:20251114T170000\r
+                BEGIN:VALARM\r
+                DESCRIPTION:Напоминание\r
+                END:VALARM\r
+                SUMMARY:Пер\r
+                 вое\r
+                END:VEVENT\r
+                BEGIN:VEVENT\r
+                UID:second\r
+                DTSTART;VALUE=DATE:20251115\r
+                END:VEVENT\r
+                END:VCALENDAR\r
+                """;
+
+        try (ICalReader reader = new ICalReader(new StringReader(ical))) {
+            ICalReader.VEvent first = reader.nextEvent();
+            assertEquals("Первое", first.summary());
+            assertNull(first.description());
+            assertEquals(START, first.start());
+
+            ICalReader.VEvent second = reader.nextEvent();
+            assertEquals("second", second.uid());
+            assertEquals(Duration.ofDays(1), Duration.between(second.start(), second.end()));
+
+            assertNull(reader.nextEvent());
+        }
+    }
+
+    @Test
+    void shouldLastOneDayForDateEventWithoutEnd() throws IOException {
+        String ical = """
+                BEGIN:VEVENT\r
+                UID:all-day\r
+                DTSTART;VALUE=DATE:20251115\r
+                END:VEVENT\r
+                """;
+
+        try (ICalReader reader = new ICalReader(new StringReader(ical))) {
+            CalendarEvent event = reader.nextEvent().toCalendarEvent("/all-day.ics", null);
+            ZoneId zone = ZoneId.systemDefault();
+            Instant dayStart = LocalDate.of(2025, 11, 15).atStartOfDay(zone).toInstant();
+            Instant nextDay = LocalDate.of(2025, 11, 16).atStartOfDay(zone).toInstant();
+
+            assertEquals(dayStart, event.start());
+            assertEquals(nextDay, event.end());
+            assertTrue(event.overlaps(dayStart, nextDay));
+        }
+    }
+
+    @Test
+    void shouldTakeEndFromDuration() throws IOException {
+        String ical = """
+                BEGIN:VEVENT\r
+                UID:hour\r
+                DTSTART:20251114T130000Z\r
+                DURATION:PT1H\r
+                END:VEVENT\r
+                BEGIN:VEVENT\r
+                UID:week\r
+                DTSTART:20251114T130000Z\r
+                DURATION:P1W\r
+                END:VEVENT\r
+                BEGIN:VEVENT\r
+                UID:mixed\r
+                DTSTART:20251114T130000Z\r
+                DURATION:+P1DT2H\r
+                END:VEVENT\r
+                """;
+
+        try (ICalReader reader = new ICalReader(new StringReader(ical))) {
+            CalendarEvent hour = reader.nextEvent().toCalendarEvent("/hour.ics", null);
+            assertEquals(END, hour.end());
+            assertTrue(hour.overlaps(START, START.plus(Duration.ofMinutes(30))));
+
+            assertEquals(START.plus(Duration.ofDays(7)), reader.nextEvent().end());
+            assertEquals(START.plus(Duration.ofHours(26)), reader.nextEvent().end());
+        }
+    }
+
+    private byte[] write(String description) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ICalWriter ical = new ICalWriter(out)) {
+            ical.begin("VCALENDAR")
+                    .property("VERSION", "2.0")
+                    .begin("VEVENT")
+                    .property("UID", "evt-1@business-assistant.local")
+                    .dateTime("DTSTART", START)
+                    .dateTime("DTEND", END)
+                    .text("SUMMARY", "Стратегическое планирование")
+                    .text("DESCRIPTION", description)
+                    .property("ATTENDEE", ICalWriter.param("CN", "a@mailslurp.biz") + ";RSVP=TRUE", "MAILTO:a@mailslurp.biz")
+                    .property("ATTENDEE", ICalWriter.param("CN", "b@mailslurp.biz") + ";RSVP=TRUE", "MAILTO:b@mailslurp.biz")
+                    .end("VEVENT")
+                    .end("VCALENDAR");
+        }
+        return out.toByteArray();
+    }
+}
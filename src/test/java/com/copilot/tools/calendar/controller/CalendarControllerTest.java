@@ -0,0 +1,92 @@
+package com.copilot.tools.calendar.controller;
+
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.resilience.DependencyGuard;
+import com.copilot.tools.calendar.CalendarAddressing;
+import com.copilot.tools.calendar.CalendarEventCache;
+import com.copilot.tools.calendar.CalendarProvisioningService;
+import com.copilot.tools.calendar.CalendarService;
+import com.copilot.tools.calendar.CalendarSyncService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = CalendarController.class, excludeAutoConfiguration = org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration.class)
+@Import(CalendarService.class)
+@TestPropertySource(properties = {
+        "jwt.secret=test-secret-key-for-testing-purposes-only-min-32-chars",
+        "jwt.issuer=com.copilot",
+        "jwt.access-token-ttl=15m",
+        "jwt.refresh-token-ttl=7d",
+        "spring.redis.host=localhost",
+        "spring.redis.port=6379",
+        "mailslurp.api-key=test-key",
+        "calendar.caldav.base-url=http://localhost:5232",
+        "meetings.jitsi.base-url=https://meet.jit.si"
+})
+class CalendarControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private UserRepository userRepository;
+
+    @MockBean
+    private CalendarProvisioningService calendarProvisioningService;
+
+    @MockBean
+    private CalendarAddressing calendarAddressing;
+
+    @MockBean
+    private CalendarSyncService calendarSyncService;
+
+    @MockBean
+    private CalendarEventCache eventCache;
+
+    @MockBean
+    private DependencyGuard dependencyGuard;
+
+    @MockBean
+    private com.copilot.security.JwtService jwtService;
+
+    @MockBean
+    private com.copilot.security.UserStatusCache userStatusCache;
+
+    @Test
+    @WithMockUser(username = "test@example.com")
+    void shouldRejectEmptyRangeWithBadRequest() throws Exception {
+        mockMvc.perform(get("/calendar/events/range")
+                        .param("from", "2025-11-14T14:00:00")
+                        .param("to", "2025-11-14T14:00:00"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("INVALID_REQUEST"));
+
+        verifyNoInteractions(calendarSyncService);
+    }
+
+    @Test
+    @WithMockUser(username = "test@example.com")
+    void shouldRejectLimitOutOfRangeWithBadRequest() throws Exception {
+        mockMvc.perform(get("/calendar/events").param("limit", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("INVALID_REQUEST"));
+        mockMvc.perform(get("/calendar/events").param("limit", String.valueOf(CalendarService.MAX_UPCOMING_LIMIT + 1)))
+                .andExpect(status().isBadRequest());
+
+        verify(calendarSyncService, never()).ensureSynced(any());
+    }
+}
@@ -0,0 +1,224 @@
+package com.copilot.tools.email;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DistributedLockServiceTest {
+
+    /**
+     * Ключи Redis с временем истечения: значение и момент, после которого ключ считается удаленным
+     */
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    private final Map<String, Long> expiresAt = new ConcurrentHashMap<>();
+    /**
+     * Выполняется перед продлением блокировки, чтобы воспроизвести гонку с освобождением
+     */
+    private volatile Runnable beforeRenew = () -> { };
+
+    private SimpleMeterRegistry meterRegistry;
+    private DistributedLockService lockService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any(Object[].class)))
+                .thenAnswer(inv -> evaluate(inv.getArgument(0), inv.getArgument(1), inv.getArguments()));
+        meterRegistry = new SimpleMeterRegistry();
+        lockService = new DistributedLockService(redisTemplate, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        lockService.shutdown();
+    }
+
+    @Test
+    void shouldIssueIncreasingFencingTokensAndExcludeOtherOwners() {
+        DistributedLockService.Lock first = lockService.tryAcquire("job", Duration.ofSeconds(10)).orElseThrow();
+
+        assertTrue(first.isHeld());
+        assertTrue(lockService.tryAcquire("job", Duration.ofSeconds(10)).isEmpty());
+
+        first.close();
+        assertFalse(first.isHeld());
+        try (DistributedLockService.Lock second = lockService.tryAcquire("job", Duration.ofSeconds(10)).orElseThrow()) {
+            assertTrue(second.fencingToken() > first.fencingToken());
+        }
+        assertNull(get("lock:job"));
+        assertEquals(2, meterRegistry.get("lock.hold").tag("key", "job").timer().count());
+    }
+
+    @Test
+    void shouldNotReleaseLockTakenOverByAnotherOwner() {
+        DistributedLockService.Lock stale = lockService.tryAcquire("job", Duration.ofSeconds(10)).orElseThrow();
+        // Блокировка истекла, пока владелец стоял на паузе GC, и ее взял другой узел
+        expire("lock:job");
+        DistributedLockService.Lock current = lockService.tryAcquire("job", Duration.ofSeconds(10)).orElseThrow();
+
+        stale.close();
+
+        assertNotNull(get("lock:job"));
+        assertTrue(current.isHeld());
+        current.close();
+    }
+
+    @Test
+    void shouldKeepLockAliveWhileWorkIsRunning() throws InterruptedException {
+        try (DistributedLockService.Lock lock = lockService.tryAcquire("job", Duration.ofMillis(150)).orElseThrow()) {
+            Thread.sleep(500);
+
+            assertTrue(lock.isHeld());
+            assertNotNull(get("lock:job"));
+        }
+    }
+
+    @Test
+    void shouldDetectLostLockAndCountIt() throws InterruptedException {
+        DistributedLockService.Lock lock = lockService.tryAcquire("job", Duration.ofMillis(90)).orElseThrow();
+        put("lock:job", "someone-else", 10_000);
+
+        Thread.sleep(200);
+
+        assertFalse(lock.isHeld());
+        assertEquals(1.0, meterRegistry.get("lock.lost").tag("key", "job").counter().count());
+        lock.close();
+        assertEquals("someone-else", get("lock:job"));
+    }
+
+    @Test
+    void shouldNotCountLockAsLostWhenRenewalRacesRelease() throws InterruptedException {
+        DistributedLockService.Lock lock = lockService.tryAcquire("job", Duration.ofMillis(90)).orElseThrow();
+        beforeRenew = lock::close;
+
+        Thread.sleep(200);
+
+        assertNull(get("lock:job"));
+        assertNull(meterRegistry.find("lock.lost").counter());
+    }
+
+    @Test
+    void shouldWaitForLockToBeReleased() {
+        DistributedLockService.Lock holder = lockService.tryAcquire("job", Duration.ofSeconds(10)).orElseThrow();
+        CompletableFuture.runAsync(() -> {
+            sleep(150);
+            holder.close();
+        });
+
+        Optional<DistributedLockService.Lock> lock = lockService.acquire("job", Duration.ofSeconds(10), Duration.ofSeconds(2));
+
+        assertTrue(lock.isPresent());
+        lock.get().close();
+        assertTrue(meterRegistry.get("lock.wait").tag("key", "job").tag("result", "acquired").timer()
+                .max(TimeUnit.MILLISECONDS) >= 100);
+    }
+
+    @Test
+    void shouldGiveUpWaitingAfterMaxWait() {
+        try (DistributedLockService.Lock ignored = lockService.tryAcquire("job", Duration.ofSeconds(10)).orElseThrow()) {
+            long start = System.currentTimeMillis();
+
+            assertTrue(lockService.acquire("job", Duration.ofSeconds(10), Duration.ofMillis(200)).isEmpty());
+
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(elapsed >= 200 && elapsed < 1_000, "Ожидание должно быть ограничено maxWait: " + elapsed);
+            assertEquals(1, meterRegistry.get("lock.wait").tag("key", "job").tag("result", "busy").timer().count());
+        }
+    }
+
+    @Test
+    void shouldAdvanceFenceBeyondStoredTokenAfterRedisLostCounter() {
+        lockService.tryAcquire("job", Duration.ofSeconds(10)).orElseThrow().close();
+        // Redis перезапущен без данных: счетчик начнется с 1, а хранилище уже видело токен 7
+        values.clear();
+        expiresAt.clear();
+
+        lockService.advanceFence("job", 7);
+        lockService.advanceFence("job", 3);
+
+        try (DistributedLockService.Lock lock = lockService.tryAcquire("job", Duration.ofSeconds(10)).orElseThrow()) {
+            assertEquals(8, lock.fencingToken());
+        }
+    }
+
+    /**
+     * Исполняет Lua-скрипты сервиса над картой в памяти. Скрипт определяется по вызываемым командам.
+     */
+    private synchronized Long evaluate(RedisScript<?> script, List<String> keys, Object[] arguments) {
+        String source = script.getScriptAsString();
+        String key = keys.get(0);
+        if (source.contains("tonumber")) {
+            long storedToken = Long.parseLong((String) arguments[2]);
+            if (Long.parseLong(values.getOrDefault(key, "0")) >= storedToken) {
+                return 0L;
+            }
+            values.put(key, String.valueOf(storedToken));
+            return 1L;
+        }
+        String owner = (String) arguments[2];
+        if (source.contains("'SET'")) {
+            if (get(key) != null) {
+                return 0L;
+            }
+            put(key, owner, Long.parseLong((String) arguments[3]));
+            long fence = Long.parseLong(values.getOrDefault(keys.get(1), "0")) + 1;
+            values.put(keys.get(1), String.valueOf(fence));
+            return fence;
+        }
+        if (!owner.equals(get(key))) {
+            return 0L;
+        }
+        if (source.contains("'PEXPIRE'")) {
+            beforeRenew.run();
+            if (!owner.equals(get(key))) {
+                return 0L;
+            }
+            put(key, owner, Long.parseLong((String) arguments[3]));
+        } else {
+            expire(key);
+        }
+        return 1L;
+    }
+
+    private String get(String key) {
+        Long expiry = expiresAt.get(key);
+        if (expiry != null && expiry <= System.currentTimeMillis()) {
+            expire(key);
+        }
+        return values.get(key);
+    }
+
+    private void put(String key, String value, long ttlMs) {
+        values.put(key, value);
+        expiresAt.put(key, System.currentTimeMillis() + ttlMs);
+    }
+
+    private void expire(String key) {
+        values.remove(key);
+        expiresAt.remove(key);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
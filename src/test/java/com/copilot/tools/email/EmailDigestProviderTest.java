@@ -0,0 +1,170 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.tools.email.dto.EmailDigest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class EmailDigestProviderTest {
+
+    private final UUID userId = UUID.randomUUID();
+    private final User user = User.builder().id(userId).email("user@mailslurp.biz").emailProviderId("inbox-1").build();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final Set<String> redisKeys = ConcurrentHashMap.newKeySet();
+
+    private EmailDigestService digestService;
+    private EmailReadService readService;
+    private RedisTemplate<String, String> redisTemplate;
+    private EmailDigestProvider provider;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(redisTemplate.hasKey(anyString())).thenAnswer(inv -> redisKeys.contains(inv.<String>getArgument(0)));
+        doAnswer(inv -> redisKeys.add(inv.getArgument(0))).when(valueOps).set(anyString(), anyString(), any(Duration.class));
+
+        digestService = mock(EmailDigestService.class);
+        readService = mock(EmailReadService.class);
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findById(userId)).thenReturn(Optional.of(user));
+        // Чтение ящика и LLM "висят", пока тест их не отпустит
+        doAnswer(inv -> release.await(5, TimeUnit.SECONDS)).when(readService).readAndDigestEmailsForUser(any(User.class));
+
+        provider = new EmailDigestProvider(digestService, readService, userRepository, redisTemplate);
+        ReflectionTestUtils.setField(provider, "freshForMs", 60_000L);
+        ReflectionTestUtils.setField(provider, "refreshWaitMs", 2_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        provider.shutdown();
+    }
+
+    @Test
+    void shouldReturnStaleDigestImmediatelyAndRefreshOnce() {
+        EmailDigest stale = digest(LocalDateTime.now().minusHours(2));
+        when(digestService.findCachedDigest(userId))
+                .thenReturn(Optional.of(new EmailDigestService.CachedDigest(stale, stale.generatedAt())));
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Optional.of(stale), provider.getDigest(userId));
+        }
+
+        assertTrue(System.currentTimeMillis() - start < 1_000, "Запрос digest не должен ждать обновления");
+        verify(readService, timeout(1_000).times(1)).readAndDigestEmailsForUser(user);
+    }
+
+    @Test
+    void shouldNotRefreshFreshDigest() throws InterruptedException {
+        EmailDigest fresh = digest(LocalDateTime.now().minusHours(2));
+        when(digestService.findCachedDigest(userId))
+                .thenReturn(Optional.of(new EmailDigestService.CachedDigest(fresh, LocalDateTime.now())));
+
+        assertEquals(Optional.of(fresh), provider.getDigest(userId));
+
+        Thread.sleep(100);
+        verifyNoInteractions(readService);
+    }
+
+    @Test
+    void shouldStartRefreshWhenDigestIsMissing() {
+        when(digestService.findCachedDigest(userId)).thenReturn(Optional.empty());
+
+        assertTrue(provider.getDigest(userId).isEmpty());
+
+        verify(readService, timeout(1_000)).readAndDigestEmailsForUser(user);
+    }
+
+    @Test
+    void shouldCacheEmptyDigestForUserWithoutInbox() {
+        UUID noInboxId = UUID.randomUUID();
+        User noInbox = User.builder().id(noInboxId).email("new@company.com").build();
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findById(noInboxId)).thenReturn(Optional.of(noInbox));
+        EmailDigestProvider noInboxProvider = new EmailDigestProvider(digestService, readService, userRepository, redisTemplate);
+        when(digestService.findCachedDigest(noInboxId)).thenReturn(Optional.empty());
+
+        try {
+            noInboxProvider.getDigest(noInboxId);
+
+            verify(digestService, timeout(1_000)).createAndCacheDigest(noInboxId, List.of());
+            verifyNoInteractions(readService);
+        } finally {
+            noInboxProvider.shutdown();
+        }
+    }
+
+    @Test
+    void shouldNotRereadInboxAfterFailedRefreshUntilBackoffExpires() {
+        release.countDown();
+        doThrow(new RuntimeException("LLM недоступен")).when(readService).readAndDigestEmailsForUser(any(User.class));
+        when(digestService.findCachedDigest(userId)).thenReturn(Optional.empty());
+
+        provider.getDigest(userId);
+        verify(readService, timeout(1_000)).readAndDigestEmailsForUser(user);
+        await(() -> redisKeys.contains("email:digest:retry-after:" + userId));
+
+        for (int i = 0; i < 5; i++) {
+            provider.getDigest(userId);
+        }
+        assertTrue(provider.refreshNow(userId).isEmpty());
+
+        verify(readService, times(1)).readAndDigestEmailsForUser(user);
+    }
+
+    @Test
+    void shouldJoinRunningRefreshOnForcedRefresh() {
+        when(digestService.findCachedDigest(userId)).thenReturn(Optional.empty());
+        EmailDigest refreshed = digest(LocalDateTime.now());
+        when(digestService.getCachedDigest(userId)).thenReturn(refreshed);
+
+        provider.getDigest(userId);
+        CompletableFuture<Void> running = provider.refreshAsync(userId);
+        assertSame(running, provider.refreshAsync(userId));
+        verify(readService, timeout(1_000).times(1)).readAndDigestEmailsForUser(user);
+
+        release.countDown();
+
+        assertEquals(Optional.of(refreshed), provider.refreshNow(userId));
+        assertTrue(running.isDone());
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 1_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Условие не выполнилось за 1 с");
+            Thread.onSpinWait();
+        }
+    }
+
+    private static EmailDigest digest(LocalDateTime generatedAt) {
+        return new EmailDigest("Сводка", 3, generatedAt, generatedAt.minusMinutes(5));
+    }
+}
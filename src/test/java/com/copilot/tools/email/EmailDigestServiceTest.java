@@ -0,0 +1,246 @@
+package com.copilot.tools.email;
+
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import com.copilot.tools.email.dto.EmailDigest;
+import com.copilot.tools.email.dto.EmailMessage;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EmailDigestServiceTest {
+
+    private static final Pattern EMAIL_INDEX = Pattern.compile("(?m)^\\[(\\d+)] ");
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+    private final Map<String, Map<Object, Object>> hashes = new ConcurrentHashMap<>();
+    private final AtomicInteger mapCalls = new AtomicInteger();
+    private final AtomicInteger reduceCalls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger maxPromptChars = new AtomicInteger();
+
+    private ChatModel chatModel;
+    private EmailDigestService digestService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        chatModel = mock(ChatModel.class);
+        when(chatModel.chat(any(ChatRequest.class))).thenAnswer(inv -> answer(inv.getArgument(0)));
+
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(valueOps.get(anyString())).thenAnswer(inv -> redis.get(inv.<String>getArgument(0)));
+        when(valueOps.multiGet(anyCollection())).thenAnswer(inv -> {
+            List<String> values = new ArrayList<>();
+            for (Object key : inv.<Iterable<?>>getArgument(0)) {
+                values.add(redis.get((String) key));
+            }
+            return values;
+        });
+        doAnswer(inv -> redis.put(inv.getArgument(0), inv.getArgument(1)))
+                .when(valueOps).set(anyString(), anyString(), any(Duration.class));
+
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class);
+        when(redisTemplate.opsForHash()).thenReturn(hashOps);
+        when(redisTemplate.hasKey(anyString())).thenAnswer(inv -> hashes.containsKey(inv.<String>getArgument(0)));
+        when(hashOps.entries(anyString())).thenAnswer(inv -> Map.copyOf(hashes.getOrDefault(inv.<String>getArgument(0), Map.of())));
+        doAnswer(inv -> {
+            hashes.computeIfAbsent(inv.getArgument(0), key -> new ConcurrentHashMap<>()).putAll(inv.getArgument(1));
+            return null;
+        }).when(hashOps).putAll(anyString(), anyMap());
+        doAnswer(inv -> hashes.computeIfAbsent(inv.getArgument(0), key -> new ConcurrentHashMap<>())
+                .put(inv.getArgument(1), inv.getArgument(2)))
+                .when(hashOps).put(anyString(), any(), any());
+        when(hashOps.delete(anyString(), any())).thenAnswer(inv -> {
+            hashes.getOrDefault(inv.<String>getArgument(0), new ConcurrentHashMap<>()).remove(inv.getArgument(1));
+            return 1L;
+        });
+
+        digestService = new EmailDigestService(chatModel, redisTemplate, new DependencyGuard(new DependencyHealthTracker()));
+        ReflectionTestUtils.setField(digestService, "batchTokenBudget", 500);
+        ReflectionTestUtils.setField(digestService, "mapConcurrency", 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        digestService.shutdown();
+    }
+
+    @Test
+    void shouldSummarizeLargeInboxInBudgetedParallelBatches() {
+        List<EmailMessage> emails = emails(60);
+
+        EmailDigest digest = digestService.createAndCacheDigest(UUID.randomUUID(), emails);
+
+        assertEquals(60, digest.emailCount());
+        assertTrue(digest.summary().startsWith("Итог"));
+        assertTrue(mapCalls.get() > 1, "Письма должны делиться на пачки");
+        assertTrue(maxInFlight.get() > 1, "Пачки должны сворачиваться параллельно");
+        assertTrue(maxPromptChars.get() <= 500 * 3 + 1_000, "Запрос превысил бюджет: " + maxPromptChars.get());
+        assertEquals(60, redis.keySet().stream().filter(key -> key.startsWith("email:summary:")).count());
+    }
+
+    @Test
+    void shouldReuseCachedEmailSummaries() {
+        List<EmailMessage> emails = emails(10);
+        digestService.createAndCacheDigest(UUID.randomUUID(), emails);
+        int mapCallsBefore = mapCalls.get();
+
+        List<EmailMessage> withNew = new ArrayList<>(emails);
+        withNew.add(email(100));
+        digestService.createAndCacheDigest(UUID.randomUUID(), withNew);
+
+        assertEquals(1, mapCalls.get() - mapCallsBefore, "Пересчитывается только новое письмо");
+        assertTrue(redis.containsKey("email:summary:m100"));
+    }
+
+    @Test
+    void shouldFallBackToSubjectsWhenSomeBatchesFail() {
+        AtomicInteger calls = new AtomicInteger();
+        doAnswer(inv -> {
+            ChatRequest request = inv.getArgument(0);
+            boolean map = ((SystemMessage) request.messages().get(0)).text().contains("[номер письма]");
+            if (map && calls.incrementAndGet() == 1) {
+                throw new RuntimeException("LLM ответил ошибкой");
+            }
+            return answer(request);
+        }).when(chatModel).chat(any(ChatRequest.class));
+        List<EmailMessage> emails = emails(30);
+
+        EmailDigest digest = digestService.createAndCacheDigest(UUID.randomUUID(), emails);
+
+        assertEquals(30, digest.emailCount());
+        long cached = redis.keySet().stream().filter(key -> key.startsWith("email:summary:")).count();
+        assertTrue(cached > 0 && cached < 30, "Запасные строки не кэшируются");
+    }
+
+    @Test
+    void shouldFailDigestWhenLlmGivesNoSummaries() {
+        UUID userId = UUID.randomUUID();
+        doThrow(new RuntimeException("LLM недоступен")).when(chatModel).chat(any(ChatRequest.class));
+
+        assertThrows(RuntimeException.class, () -> digestService.createAndCacheDigest(userId, emails(3)));
+        assertNull(digestService.getCachedDigest(userId), "Digest из одних тем не кэшируется");
+    }
+
+    @Test
+    void shouldFailDigestWhenLlmBreakerIsOpen() {
+        UUID userId = UUID.randomUUID();
+        List<EmailMessage> emails = emails(3);
+        digestService.createAndCacheDigest(userId, emails.subList(0, 1));
+        // Сводка первого письма уже в кэше, остальные отклоняет открытый breaker
+        doThrow(new DependencyUnavailableException(DependencyHealthTracker.LLM, "breaker открыт"))
+                .when(chatModel).chat(any(ChatRequest.class));
+
+        RuntimeException error = assertThrows(RuntimeException.class,
+                () -> digestService.createAndCacheDigest(userId, emails));
+        assertNotNull(DependencyUnavailableException.find(error));
+        assertEquals(1, digestService.getCachedDigest(userId).emailCount());
+    }
+
+    @Test
+    void shouldCacheDigestWithAllFields() {
+        UUID userId = UUID.randomUUID();
+        List<EmailMessage> emails = emails(3);
+
+        EmailDigest created = digestService.createAndCacheDigest(userId, emails);
+        EmailDigest cached = digestService.getCachedDigest(userId);
+
+        assertEquals(created, cached);
+        assertEquals(3, cached.emailCount());
+        assertEquals(emails.get(0).receivedAt(), cached.lastEmailAt());
+
+        // Пустой digest не наследует lastEmailAt прошлого
+        digestService.createAndCacheDigest(userId, List.of());
+        assertNull(digestService.getCachedDigest(userId).lastEmailAt());
+    }
+
+    @Test
+    void shouldMarkCheckedOnlyExistingDigest() throws InterruptedException {
+        UUID userId = UUID.randomUUID();
+        assertFalse(digestService.markChecked(userId));
+
+        EmailDigest digest = digestService.createAndCacheDigest(userId, emails(1));
+        Thread.sleep(5);
+        assertTrue(digestService.markChecked(userId));
+
+        EmailDigestService.CachedDigest cached = digestService.findCachedDigest(userId).orElseThrow();
+        assertEquals(digest, cached.digest());
+        assertTrue(cached.checkedAt().isAfter(digest.generatedAt()));
+    }
+
+    @Test
+    void shouldGroupItemsWithinBudget() {
+        List<List<String>> batches = digestService.batchByBudget(
+                List.of("a".repeat(700), "b".repeat(700), "c".repeat(700), "d".repeat(2_000)), item -> item);
+
+        assertEquals(3, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(List.of("d".repeat(2_000)), batches.get(2));
+    }
+
+    private ChatResponse answer(ChatRequest request) throws InterruptedException {
+        String system = ((SystemMessage) request.messages().get(0)).text();
+        String text = ((UserMessage) request.messages().get(1)).singleText();
+        maxPromptChars.accumulateAndGet(text.length(), Math::max);
+        String reply;
+        if (system.contains("[номер письма]")) {
+            mapCalls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(30);
+            inFlight.decrementAndGet();
+            StringBuilder sb = new StringBuilder();
+            Matcher matcher = EMAIL_INDEX.matcher(text);
+            while (matcher.find()) {
+                sb.append('[').append(matcher.group(1)).append("] сводка ").append(matcher.group(1)).append('\n');
+            }
+            reply = sb.toString();
+        } else {
+            reduceCalls.incrementAndGet();
+            reply = "Итог: " + text.length();
+        }
+        return ChatResponse.builder().aiMessage(AiMessage.from(reply)).build();
+    }
+
+    private static List<EmailMessage> emails(int count) {
+        List<EmailMessage> emails = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            emails.add(email(i));
+        }
+        return emails;
+    }
+
+    private static EmailMessage email(int i) {
+        return new EmailMessage("m" + i, "sender" + i + "@example.com", "user@mailslurp.biz",
+                "Тема " + i, "Текст письма " + i + " ".repeat(200), LocalDateTime.now().minusMinutes(i));
+    }
+}
@@ -0,0 +1,87 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import com.copilot.tools.email.dto.EmailMessage;
+import jakarta.mail.SendFailedException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EmailForwardingServiceTest {
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+    private final User user = User.builder().email("user@mailslurp.biz").personalEmail("user@example.com").build();
+
+    private JavaMailSender mailSender;
+    private EmailForwardingService forwardingService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        mailSender = mock(JavaMailSender.class);
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(redisTemplate.hasKey(anyString())).thenAnswer(inv -> redis.containsKey(inv.<String>getArgument(0)));
+        doAnswer(inv -> redis.put(inv.getArgument(0), inv.getArgument(1)))
+                .when(valueOps).set(anyString(), anyString(), any(Duration.class));
+
+        forwardingService = new EmailForwardingService(mailSender,
+                new DependencyGuard(new DependencyHealthTracker()), redisTemplate);
+    }
+
+    @Test
+    void shouldForwardEachEmailOnce() {
+        EmailMessage email = email("m1");
+
+        forwardingService.forwardEmailToPersonal(user, email);
+        forwardingService.forwardEmailToPersonal(user, email);
+
+        verify(mailSender, times(1)).send(any(SimpleMailMessage.class));
+        assertTrue(redis.containsKey("email:forwarded:m1"));
+    }
+
+    @Test
+    void shouldPropagateSendFailureWithoutMarkingEmail() {
+        doThrow(new MailSendException("SMTP недоступен")).when(mailSender).send(any(SimpleMailMessage.class));
+
+        assertThrows(MailSendException.class, () -> forwardingService.forwardEmailToPersonal(user, email("m1")));
+        assertTrue(redis.isEmpty(), "Неотправленное письмо должно уйти при повторном чтении");
+    }
+
+    @Test
+    void shouldDropEmailWhenPersonalAddressIsRejected() {
+        MailSendException rejected = new MailSendException(Map.of(new Object(),
+                new SendFailedException("550 5.1.1 mailbox unavailable")));
+        doThrow(rejected).when(mailSender).send(any(SimpleMailMessage.class));
+
+        assertDoesNotThrow(() -> forwardingService.forwardEmailToPersonal(user, email("m1")));
+        assertFalse(EmailService.isServerFailure(rejected), "Отказ по адресу не открывает breaker SMTP");
+    }
+
+    @Test
+    void shouldSkipUserWithoutPersonalEmail() {
+        forwardingService.forwardEmailToPersonal(User.builder().email("user@mailslurp.biz").build(), email("m1"));
+
+        verifyNoInteractions(mailSender);
+    }
+
+    private static EmailMessage email(String id) {
+        return new EmailMessage(id, "sender@example.com", "user@mailslurp.biz", "Тема", "Текст", LocalDateTime.now());
+    }
+}
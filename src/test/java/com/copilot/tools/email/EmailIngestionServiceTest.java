@@ -0,0 +1,190 @@
+package com.copilot.tools.email;
+
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import com.copilot.resilience.RedisRateLimiter;
+import com.copilot.tools.email.dto.EmailMessage;
+import com.copilot.tools.email.dto.InboxDelta;
+import com.copilot.tools.email.model.EmailInboxCursor;
+import com.copilot.tools.email.model.ProcessedEmail;
+import com.copilot.tools.email.repository.EmailInboxCursorRepository;
+import com.copilot.tools.email.repository.ProcessedEmailRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EmailIngestionServiceTest {
+
+    private static final String INBOX = "inbox-1";
+
+    private final Map<String, EmailInboxCursor> cursors = new ConcurrentHashMap<>();
+    private final Set<String> processed = ConcurrentHashMap.newKeySet();
+    private final List<ProcessedEmail> processedRows = new CopyOnWriteArrayList<>();
+    private final Instant base = Instant.now().minus(1, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MILLIS);
+
+    private MailSlurpStub stub;
+    private EmailIngestionService ingestionService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        stub = new MailSlurpStub();
+
+        EmailInboxCursorRepository cursorRepository = mock(EmailInboxCursorRepository.class);
+        when(cursorRepository.findById(anyString())).thenAnswer(inv -> Optional.ofNullable(cursors.get(inv.<String>getArgument(0))));
+        when(cursorRepository.findByIdForUpdate(anyString())).thenAnswer(inv -> Optional.ofNullable(cursors.get(inv.<String>getArgument(0))));
+        when(cursorRepository.save(any(EmailInboxCursor.class))).thenAnswer(inv -> {
+            EmailInboxCursor cursor = inv.getArgument(0);
+            cursors.put(cursor.getInboxId(), cursor);
+            return cursor;
+        });
+
+        ProcessedEmailRepository processedRepository = mock(ProcessedEmailRepository.class);
+        when(processedRepository.findProcessedMessageIds(anyString(), anyCollection())).thenAnswer(inv ->
+                inv.<Collection<String>>getArgument(1).stream().filter(processed::contains).collect(Collectors.toSet()));
+        when(processedRepository.saveAll(anyList())).thenAnswer(inv -> {
+            List<ProcessedEmail> rows = inv.getArgument(0);
+            rows.forEach(row -> assertTrue(processed.add(row.getMessageId()), "Письмо отмечено дважды: " + row.getMessageId()));
+            processedRows.addAll(rows);
+            return rows;
+        });
+        when(processedRepository.findReceivedSince(anyString(), any(Instant.class), any(Pageable.class))).thenAnswer(inv ->
+                processedRows.stream()
+                        .filter(row -> row.getInboxId().equals(inv.getArgument(0)))
+                        .filter(row -> !row.getReceivedAt().isBefore(inv.getArgument(1)))
+                        .sorted(Comparator.comparing(ProcessedEmail::getReceivedAt).reversed())
+                        .limit(inv.<Pageable>getArgument(2).getPageSize())
+                        .toList());
+
+        ingestionService = new EmailIngestionService(new RestTemplate(),
+                new DependencyGuard(new DependencyHealthTracker()), mock(RedisRateLimiter.class),
+                cursorRepository, processedRepository);
+        ReflectionTestUtils.setField(ingestionService, "mailslurpApiKey", "test-key");
+        ReflectionTestUtils.setField(ingestionService, "mailslurpBaseUrl", stub.baseUrl());
+        ReflectionTestUtils.setField(ingestionService, "pageSize", 2);
+        ReflectionTestUtils.setField(ingestionService, "maxPerRun", 200);
+        ReflectionTestUtils.setField(ingestionService, "initialLookbackHours", 24L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void shouldPageThroughEmailsAndReturnOnlyDeltaOnNextRun() {
+        for (int i = 1; i <= 5; i++) {
+            stub.addEmail(INBOX, "m" + i, "Тема " + i, "Текст " + i, base.plusSeconds(i));
+        }
+
+        InboxDelta first = ingestionService.fetchNew(INBOX);
+        ingestionService.markProcessed(first, 1);
+
+        assertEquals(List.of("m1", "m2", "m3", "m4", "m5"), ids(first));
+        assertEquals("Текст 3", first.emails().get(2).body());
+        assertEquals(base.plusSeconds(5), cursors.get(INBOX).getLastCreatedAt());
+        assertEquals("m5", cursors.get(INBOX).getLastMessageId());
+
+        // Письмо с тем же временем, что и курсор, и одно более новое
+        stub.addEmail(INBOX, "m6", "Тема 6", "Текст 6", base.plusSeconds(5));
+        stub.addEmail(INBOX, "m7", "Тема 7", "Текст 7", base.plusSeconds(7));
+        int fetchesBefore = stub.emailFetches();
+
+        InboxDelta second = ingestionService.fetchNew(INBOX);
+        ingestionService.markProcessed(second, 2);
+
+        assertEquals(Set.of("m6", "m7"), Set.copyOf(ids(second)));
+        assertEquals(2, stub.emailFetches() - fetchesBefore, "Текст запрашивается только для новых писем");
+        assertTrue(ingestionService.fetchNew(INBOX).isEmpty());
+    }
+
+    @Test
+    void shouldNotAdvanceCursorUntilDeltaIsProcessed() {
+        stub.addEmail(INBOX, "m1", "Тема", "Текст", base.plusSeconds(1));
+
+        ingestionService.fetchNew(INBOX);
+        // digest упал, markProcessed не вызван - письмо придет повторно
+
+        assertEquals(List.of("m1"), ids(ingestionService.fetchNew(INBOX)));
+    }
+
+    @Test
+    void shouldCapDeltaAndContinueFromCursor() {
+        ReflectionTestUtils.setField(ingestionService, "maxPerRun", 3);
+        for (int i = 1; i <= 5; i++) {
+            stub.addEmail(INBOX, "m" + i, "Тема " + i, "Текст " + i, base.plusSeconds(i));
+        }
+
+        InboxDelta first = ingestionService.fetchNew(INBOX);
+        ingestionService.markProcessed(first, 1);
+        InboxDelta second = ingestionService.fetchNew(INBOX);
+
+        assertEquals(List.of("m1", "m2", "m3"), ids(first));
+        assertEquals(List.of("m4", "m5"), ids(second));
+    }
+
+    @Test
+    void shouldRejectCursorWriteFromOwnerWithStaleFencingToken() {
+        stub.addEmail(INBOX, "m1", "Тема 1", "Текст 1", base.plusSeconds(1));
+        InboxDelta stale = ingestionService.fetchNew(INBOX);
+        // Блокировка первого читателя истекла, ящик перечитал следующий владелец
+        stub.addEmail(INBOX, "m2", "Тема 2", "Текст 2", base.plusSeconds(2));
+        ingestionService.markProcessed(ingestionService.fetchNew(INBOX), 8);
+
+        FencingTokenRejectedException rejected = assertThrows(FencingTokenRejectedException.class,
+                () -> ingestionService.markProcessed(stale, 7));
+        assertEquals(8L, rejected.getStoredToken());
+        assertEquals(base.plusSeconds(2), cursors.get(INBOX).getLastCreatedAt());
+        assertEquals(8L, cursors.get(INBOX).getFencingToken());
+    }
+
+    @Test
+    void shouldReturnProcessedHeadersWithinWindow() {
+        stub.addEmail(INBOX, "old", "Вчерашнее", "Текст", Instant.now().minus(20, ChronoUnit.HOURS));
+        for (int i = 1; i <= 3; i++) {
+            stub.addEmail(INBOX, "m" + i, "Тема " + i, "Текст " + i, base.plusSeconds(i));
+        }
+        ingestionService.markProcessed(ingestionService.fetchNew(INBOX), 1);
+
+        List<EmailMessage> recent = ingestionService.findRecentProcessed(INBOX, Duration.ofHours(2), 2);
+
+        assertEquals(List.of("m3", "m2"), recent.stream().map(EmailMessage::id).toList());
+        assertEquals("Тема 3", recent.get(0).subject());
+        assertNull(recent.get(0).body(), "Текст письма не хранится");
+        assertEquals(LocalDateTime.ofInstant(base.plusSeconds(3), ZoneId.systemDefault()), recent.get(0).receivedAt());
+    }
+
+    @Test
+    void shouldIgnoreEmailsOlderThanInitialLookback() {
+        stub.addEmail(INBOX, "old", "Старое", "Текст", Instant.now().minus(3, ChronoUnit.DAYS));
+        stub.addEmail(INBOX, "new", "Новое", "Текст", base);
+
+        assertEquals(List.of("new"), ids(ingestionService.fetchNew(INBOX)));
+    }
+
+    private static List<String> ids(InboxDelta delta) {
+        return delta.emails().stream().map(EmailMessage::id).toList();
+    }
+}
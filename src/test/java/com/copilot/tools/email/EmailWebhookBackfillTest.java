@@ -0,0 +1,65 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import com.copilot.resilience.RedisRateLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EmailWebhookBackfillTest {
+
+    private final User first = User.builder().id(UUID.randomUUID()).email("a@mailslurp.biz").emailProviderId("inbox-a").build();
+    private final User second = User.builder().id(UUID.randomUUID()).email("b@mailslurp.biz").emailProviderId("inbox-b").build();
+
+    private EmailProvisioningService provisioningService;
+    private UserRepository userRepository;
+    private EmailWebhookBackfill backfill;
+
+    @BeforeEach
+    void setUp() {
+        provisioningService = mock(EmailProvisioningService.class);
+        when(provisioningService.isWebhookEnabled()).thenReturn(true);
+        userRepository = mock(UserRepository.class);
+        when(userRepository.findWithoutEmailWebhook(any(Pageable.class))).thenReturn(List.of(first, second));
+
+        DistributedLockService lockService = mock(DistributedLockService.class);
+        DistributedLockService.Lock lock = mock(DistributedLockService.Lock.class);
+        when(lock.isHeld()).thenReturn(true);
+        when(lockService.tryAcquire(anyString(), any(Duration.class))).thenReturn(Optional.of(lock));
+
+        backfill = new EmailWebhookBackfill(provisioningService, userRepository, lockService, mock(RedisRateLimiter.class));
+    }
+
+    @Test
+    void shouldSubscribeExistingInboxesAndMarkOnlySuccessfulOnes() {
+        doThrow(new RuntimeException("MailSlurp недоступен")).when(provisioningService).ensureNewEmailWebhook("inbox-b");
+
+        assertEquals(1, backfill.backfill());
+
+        verify(userRepository).markEmailWebhookRegistered(eq(first.getId()), any(LocalDateTime.class));
+        verify(userRepository, never()).markEmailWebhookRegistered(eq(second.getId()), any(LocalDateTime.class));
+        verify(userRepository).markEmailWebhookAttempted(eq(second.getId()), any(LocalDateTime.class));
+        verify(userRepository, never()).markEmailWebhookAttempted(eq(first.getId()), any(LocalDateTime.class));
+    }
+
+    @Test
+    void shouldDoNothingWhileWebhookIsNotConfigured() {
+        when(provisioningService.isWebhookEnabled()).thenReturn(false);
+
+        assertEquals(0, backfill.backfill());
+
+        verifyNoInteractions(userRepository);
+        verify(provisioningService, never()).ensureNewEmailWebhook(anyString());
+    }
+}
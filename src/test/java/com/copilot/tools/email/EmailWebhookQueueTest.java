@@ -0,0 +1,165 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.auth.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EmailWebhookQueueTest {
+
+    private final User user = User.builder().email("user@mailslurp.biz").emailProviderId("inbox-1").build();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final List<RecordId> acked = new ArrayList<>();
+
+    private StreamOperations<String, Object, Object> streamOps;
+    private EmailReadService readService;
+    private EmailWebhookQueue queue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(valueOps.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenAnswer(inv -> seen.add(inv.getArgument(0)));
+        when(redisTemplate.delete(anyString())).thenAnswer(inv -> seen.remove(inv.<String>getArgument(0)));
+
+        streamOps = mock(StreamOperations.class);
+        when(redisTemplate.opsForStream()).thenReturn(streamOps);
+        when(streamOps.acknowledge(anyString(), anyString(), any(RecordId[].class))).thenAnswer(inv -> {
+            Object[] args = inv.getArguments();
+            synchronized (acked) {
+                for (int i = 2; i < args.length; i++) {
+                    acked.add((RecordId) args[i]);
+                }
+            }
+            return (long) args.length - 2;
+        });
+        when(streamOps.pending(anyString(), anyString(), any(Range.class), anyLong()))
+                .thenReturn(new PendingMessages(EmailWebhookQueue.GROUP, List.of()));
+
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.findByEmailProviderId("inbox-1")).thenReturn(Optional.of(user));
+        when(userRepository.findByEmailProviderId("unknown")).thenReturn(Optional.empty());
+
+        readService = mock(EmailReadService.class);
+        when(readService.readAndDigestEmailsForUser(user)).thenReturn(true);
+
+        queue = new EmailWebhookQueue(redisTemplate, userRepository, readService);
+        ReflectionTestUtils.setField(queue, "claimIdleMs", 60_000L);
+        ReflectionTestUtils.setField(queue, "maxDeliveries", 5L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    @Test
+    void shouldEnqueueRepeatedNotificationOnce() {
+        assertTrue(queue.enqueue("msg-1", "inbox-1", "email-1"));
+        assertFalse(queue.enqueue("msg-1", "inbox-1", "email-1"));
+
+        verify(streamOps, times(1)).add(any(MapRecord.class));
+    }
+
+    @Test
+    void shouldForgetNotificationWhenStreamWriteFails() {
+        when(streamOps.add(any(MapRecord.class))).thenThrow(new IllegalStateException("Redis недоступен"));
+
+        assertThrows(IllegalStateException.class, () -> queue.enqueue("msg-1", "inbox-1", "email-1"));
+        assertTrue(seen.isEmpty(), "Повторная доставка должна попасть в очередь");
+    }
+
+    @Test
+    void shouldReadInboxOnceAndAckAllItsEvents() {
+        queue.process(List.of(record("1-0", "inbox-1"), record("2-0", "inbox-1"), record("3-0", "unknown")));
+
+        verify(readService, times(1)).readAndDigestEmailsForUser(user);
+        assertEquals(Set.of(RecordId.of("1-0"), RecordId.of("2-0"), RecordId.of("3-0")), Set.copyOf(acked));
+    }
+
+    @Test
+    void shouldLeaveEventsPendingWhenInboxIsBusyOrReadFails() {
+        when(readService.readAndDigestEmailsForUser(user)).thenReturn(false);
+        queue.process(List.of(record("1-0", "inbox-1")));
+
+        when(readService.readAndDigestEmailsForUser(user)).thenThrow(new RuntimeException("MailSlurp недоступен"));
+        queue.process(List.of(record("2-0", "inbox-1")));
+
+        assertTrue(acked.isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldReclaimStaleEventsAndDropExhaustedOnes() {
+        Consumer other = Consumer.from(EmailWebhookQueue.GROUP, "node-dead");
+        when(streamOps.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenReturn(List.of());
+        when(streamOps.pending(anyString(), anyString(), any(Range.class), anyLong()))
+                .thenReturn(new PendingMessages(EmailWebhookQueue.GROUP, List.of(
+                        new PendingMessage(RecordId.of("1-0"), other, Duration.ofMinutes(2), 1),
+                        new PendingMessage(RecordId.of("2-0"), other, Duration.ofMinutes(2), 5),
+                        new PendingMessage(RecordId.of("3-0"), other, Duration.ofSeconds(1), 1))));
+        when(streamOps.claim(anyString(), anyString(), anyString(), any(Duration.class), any(RecordId[].class)))
+                .thenAnswer(inv -> Arrays.stream(inv.getArguments()).skip(4)
+                        .map(id -> record(((RecordId) id).getValue(), "inbox-1"))
+                        .toList());
+
+        queue.drain();
+
+        verify(streamOps).claim(anyString(), anyString(), anyString(), any(Duration.class), eq(RecordId.of("1-0")));
+        verify(readService, times(1)).readAndDigestEmailsForUser(user);
+        assertEquals(Set.of(RecordId.of("1-0"), RecordId.of("2-0")), Set.copyOf(acked));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldRecreateGroupLostWithStream() {
+        when(streamOps.read(any(Consumer.class), any(StreamReadOptions.class), any(StreamOffset[].class)))
+                .thenThrow(new IllegalStateException("NOGROUP No such key 'email:webhook:events' or consumer group"))
+                .thenReturn(List.of());
+
+        queue.drain();
+        queue.drain();
+        queue.drain();
+
+        // Группа создается при первом тике и заново после NOGROUP, дальше не пересоздается
+        verify(streamOps, times(2)).createGroup(eq(EmailWebhookQueue.STREAM_KEY), any(ReadOffset.class),
+                eq(EmailWebhookQueue.GROUP));
+    }
+
+    private static MapRecord<String, Object, Object> record(String id, String inboxId) {
+        Map<Object, Object> fields = Map.of("inboxId", inboxId, "emailId", "email-" + id);
+        return StreamRecords.newRecord().in(EmailWebhookQueue.STREAM_KEY).withId(RecordId.of(id)).ofMap(fields);
+    }
+}
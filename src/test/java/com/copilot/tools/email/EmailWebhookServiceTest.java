@@ -0,0 +1,69 @@
+package com.copilot.tools.email;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EmailWebhookServiceTest {
+
+    private EmailWebhookQueue queue;
+    private EmailWebhookService webhookService;
+
+    @BeforeEach
+    void setUp() {
+        queue = mock(EmailWebhookQueue.class);
+        when(queue.enqueue(anyString(), anyString(), any())).thenReturn(true);
+        webhookService = new EmailWebhookService(queue);
+        ReflectionTestUtils.setField(webhookService, "username", "mailslurp");
+        ReflectionTestUtils.setField(webhookService, "password", "secret");
+    }
+
+    @Test
+    void shouldAcceptValidBasicAuth() {
+        assertDoesNotThrow(() -> webhookService.verify(basic("mailslurp", "secret")));
+    }
+
+    @Test
+    void shouldRejectWrongOrMissingCredentials() {
+        assertThrows(BadCredentialsException.class, () -> webhookService.verify(basic("mailslurp", "wrong")));
+        assertThrows(BadCredentialsException.class, () -> webhookService.verify(null));
+        assertThrows(BadCredentialsException.class, () -> webhookService.verify("Bearer token"));
+    }
+
+    @Test
+    void shouldRejectEverythingWhenWebhookIsNotConfigured() {
+        ReflectionTestUtils.setField(webhookService, "password", "");
+
+        assertThrows(BadCredentialsException.class, () -> webhookService.verify(basic("mailslurp", "")));
+    }
+
+    @Test
+    void shouldQueueNewEmailByNotificationId() {
+        boolean queued = webhookService.accept(Map.of(
+                "eventName", "NEW_EMAIL", "messageId", "msg-1", "inboxId", "inbox-1", "emailId", "email-1"));
+
+        assertTrue(queued);
+        verify(queue).enqueue("msg-1", "inbox-1", "email-1");
+    }
+
+    @Test
+    void shouldIgnoreOtherEventsAndPayloadsWithoutInbox() {
+        assertFalse(webhookService.accept(Map.of("eventName", "EMAIL_OPENED", "inboxId", "inbox-1")));
+        assertFalse(webhookService.accept(Map.of("eventName", "NEW_EMAIL", "messageId", "msg-2")));
+
+        verifyNoInteractions(queue);
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+}
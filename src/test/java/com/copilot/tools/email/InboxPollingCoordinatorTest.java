@@ -0,0 +1,174 @@
+package com.copilot.tools.email;
+
+import com.copilot.auth.model.User;
+import com.copilot.exception.DependencyUnavailableException;
+import com.copilot.health.service.DependencyHealthTracker;
+import com.copilot.resilience.DependencyGuard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class InboxPollingCoordinatorTest {
+
+    private final Map<String, String> doneKeys = new ConcurrentHashMap<>();
+
+    private DistributedLockService lockService;
+    private DistributedLockService.Lock lease;
+    private InboxPollingCoordinator coordinator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        lockService = mock(DistributedLockService.class);
+        lease = mock(DistributedLockService.Lock.class);
+        when(lease.isHeld()).thenReturn(true);
+        when(lockService.tryAcquire(anyString(), any(Duration.class))).thenReturn(Optional.of(lease));
+
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(redisTemplate.hasKey(anyString())).thenAnswer(inv -> doneKeys.containsKey(inv.<String>getArgument(0)));
+        doAnswer(inv -> doneKeys.put(inv.getArgument(0), inv.getArgument(1)))
+                .when(valueOps).set(anyString(), anyString(), any(Duration.class));
+
+        coordinator = new InboxPollingCoordinator(lockService, redisTemplate,
+                new DependencyGuard(new DependencyHealthTracker()));
+        ReflectionTestUtils.setField(coordinator, "intervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(coordinator, "shards", 4);
+        ReflectionTestUtils.setField(coordinator, "concurrency", 8);
+        ReflectionTestUtils.setField(coordinator, "leaseTtlMs", 200L);
+        ReflectionTestUtils.setField(coordinator, "busyRetryMs", 20L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        coordinator.shutdown();
+    }
+
+    @Test
+    void shouldProcessEveryUserOnceConcurrentlyAndMarkShardsDone() {
+        List<User> users = users(40);
+        Set<UUID> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        long start = System.currentTimeMillis();
+        int processed = coordinator.runCycle(users, user -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(50);
+            inFlight.decrementAndGet();
+            assertTrue(seen.add(user.getId()));
+        });
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(40, processed);
+        assertEquals(40, seen.size());
+        assertTrue(maxInFlight.get() > 1, "Пользователи шарда должны обрабатываться параллельно");
+        assertTrue(elapsed < 40 * 50, "Цикл не должен быть последовательным: " + elapsed);
+        assertEquals(4, doneKeys.size());
+        verify(lease, times(4)).close();
+
+        // Повторный запуск в том же цикле (другой узел) ничего не делает
+        assertEquals(0, coordinator.runCycle(users, user -> fail("Шард уже обработан")));
+    }
+
+    @Test
+    void shouldSkipShardsLeasedByOtherNodes() {
+        when(lockService.tryAcquire(anyString(), any(Duration.class))).thenAnswer(inv ->
+                inv.<String>getArgument(0).endsWith(":0") ? Optional.empty() : Optional.of(lease));
+        List<User> users = users(40);
+
+        int processed = coordinator.runCycle(users, user -> { });
+
+        long inShardZero = users.stream().filter(user -> Math.floorMod(user.getId().hashCode(), 4) == 0).count();
+        assertEquals(40 - inShardZero, processed);
+        assertFalse(doneKeys.keySet().stream().anyMatch(key -> key.endsWith(":0")));
+    }
+
+    @Test
+    void shouldPickUpShardOnceLeaseOfCrashedNodeExpires() {
+        // Шард 0 держит упавший узел: аренда истекает через 100 мс, продлевать ее некому
+        long leaseExpiresAt = System.currentTimeMillis() + 100;
+        when(lockService.tryAcquire(anyString(), any(Duration.class))).thenAnswer(inv ->
+                inv.<String>getArgument(0).endsWith(":0") && System.currentTimeMillis() < leaseExpiresAt
+                        ? Optional.empty() : Optional.of(lease));
+
+        int processed = coordinator.runCycle(users(40), user -> { });
+
+        assertEquals(40, processed);
+        assertEquals(4, doneKeys.size());
+    }
+
+    @Test
+    void shouldBoundConcurrencyByBulkheadAndRetryRejectedReads() {
+        ReflectionTestUtils.setField(coordinator, "shards", 1);
+        ReflectionTestUtils.setField(coordinator, "concurrency", 16);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger rejections = new AtomicInteger();
+
+        int processed = coordinator.runCycle(users(20), user -> {
+            if (user.getEmail().equals("user0@example.com") && rejections.getAndIncrement() == 0) {
+                throw new RuntimeException("Не удалось прочитать письма",
+                        new DependencyUnavailableException(DependencyHealthTracker.MAILSLURP, "Сервис mailslurp перегружен"));
+            }
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(20);
+            inFlight.decrementAndGet();
+        });
+
+        assertEquals(20, processed);
+        assertTrue(maxInFlight.get() <= 8, "Параллельность выше bulkhead MailSlurp: " + maxInFlight.get());
+    }
+
+    @Test
+    void shouldStopShardWhenLeaseIsLost() {
+        ReflectionTestUtils.setField(coordinator, "shards", 1);
+        ReflectionTestUtils.setField(coordinator, "concurrency", 1);
+        when(lease.isHeld()).thenReturn(true, true, false);
+        // После потери аренды шард забирает другой узел
+        when(lockService.tryAcquire(anyString(), any(Duration.class))).thenReturn(Optional.of(lease), Optional.empty());
+
+        int processed = coordinator.runCycle(users(20), user -> { });
+
+        assertTrue(processed < 20, "Узел без аренды не должен дорабатывать шард: " + processed);
+        assertTrue(doneKeys.isEmpty());
+    }
+
+    private static List<User> users(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(User.builder()
+                    .id(UUID.randomUUID())
+                    .email("user" + i + "@example.com")
+                    .emailProviderId("inbox-" + i)
+                    .build());
+        }
+        return users;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.copilot.tools.email;
+
+import com.copilot.resilience.RedisRateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class MailSlurpInboxPoolTest {
+
+    private MailSlurpStub stub;
+    private MailSlurpInboxPool pool;
+    private final Deque<String> redisList = new ConcurrentLinkedDeque<>();
+    private final AtomicBoolean redisDown = new AtomicBoolean();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        stub = new MailSlurpStub();
+
+        EmailProvisioningService provisioningService = new EmailProvisioningService(new RestTemplate());
+        ReflectionTestUtils.setField(provisioningService, "mailslurpApiKey", "test-key");
+        ReflectionTestUtils.setField(provisioningService, "mailslurpBaseUrl", stub.baseUrl());
+
+        RedisTemplate<String, String> redisTemplate = mock(RedisTemplate.class);
+        ListOperations<String, String> listOps = mock(ListOperations.class);
+        when(redisTemplate.opsForList()).thenReturn(listOps);
+        when(listOps.size(anyString())).thenAnswer(inv -> (long) redisList.size());
+        when(listOps.leftPop(anyString())).thenAnswer(inv -> redisList.pollFirst());
+        when(listOps.rightPush(anyString(), anyString())).thenAnswer(inv -> {
+            if (redisDown.get()) {
+                throw new IllegalStateException("Redis недоступен");
+            }
+            redisList.addLast(inv.getArgument(1));
+            return (long) redisList.size();
+        });
+        when(listOps.leftPush(anyString(), anyString())).thenAnswer(inv -> {
+            redisList.addFirst(inv.getArgument(1));
+            return (long) redisList.size();
+        });
+
+        DistributedLockService lockService = mock(DistributedLockService.class);
+        DistributedLockService.Lock lock = mock(DistributedLockService.Lock.class);
+        when(lock.isHeld()).thenReturn(true);
+        when(lockService.tryAcquire(anyString(), any(Duration.class))).thenReturn(Optional.of(lock));
+
+        pool = new MailSlurpInboxPool(provisioningService, redisTemplate, lockService, mock(RedisRateLimiter.class));
+        ReflectionTestUtils.setField(pool, "targetSize", 6);
+        ReflectionTestUtils.setField(pool, "refillConcurrency", 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+        stub.close();
+    }
+
+    @Test
+    void shouldRefillPoolUpToTargetSize() {
+        assertEquals(6, pool.refill());
+        assertEquals(6, pool.size());
+        assertEquals(6, stub.createdInboxes());
+
+        // Пул полон - повторное пополнение ничего не создает
+        assertEquals(0, pool.refill());
+        assertEquals(6, stub.createdInboxes());
+    }
+
+    @Test
+    void shouldHandOutPrefetchedInboxWithoutCallingProvider() {
+        pool.refill();
+        String expected = redisList.peekFirst();
+
+        EmailProvisioningService.MailSlurpInboxResponse inbox = pool.acquire();
+
+        assertEquals(MailSlurpInboxPool.deserialize(expected), inbox);
+        assertEquals("SMTP_INBOX", inbox.inboxType());
+        assertEquals(6, stub.createdInboxes());
+    }
+
+    @Test
+    void shouldCreateInboxDirectlyWhenPoolIsEmpty() {
+        ReflectionTestUtils.setField(pool, "targetSize", 0);
+
+        EmailProvisioningService.MailSlurpInboxResponse inbox = pool.acquire();
+
+        assertNotNull(inbox.id());
+        assertTrue(inbox.emailAddress().endsWith("@mailslurp.biz"));
+        assertEquals(1, stub.createdInboxes());
+    }
+
+    @Test
+    void shouldStopRefillWhenProviderFails() {
+        stub.failWith(429);
+
+        assertEquals(0, pool.refill());
+        assertEquals(0, pool.size());
+        assertThrows(RuntimeException.class, () -> {
+            ReflectionTestUtils.setField(pool, "targetSize", 0);
+            pool.acquire();
+        });
+    }
+
+    @Test
+    void shouldDeleteCreatedInboxWhenItCannotBePooled() {
+        redisDown.set(true);
+
+        assertEquals(0, pool.refill());
+
+        // Каждый из трех воркеров создал по ящику и остановился на первой ошибке Redis
+        assertEquals(3, stub.createdInboxes());
+        assertEquals(3, stub.deletedInboxes());
+        assertEquals(0, stub.liveInboxes());
+    }
+
+    @Test
+    void shouldHandOutReleasedInboxFirst() {
+        pool.refill();
+        EmailProvisioningService.MailSlurpInboxResponse released =
+                new EmailProvisioningService.MailSlurpInboxResponse("released", "released@mailslurp.biz", "SMTP_INBOX");
+
+        pool.release(released);
+
+        assertEquals(released, pool.acquire());
+        assertEquals(6, stub.createdInboxes());
+    }
+
+    @Test
+    void shouldRoundTripPoolEntries() {
+        EmailProvisioningService.MailSlurpInboxResponse inbox =
+                new EmailProvisioningService.MailSlurpInboxResponse("id-1", "a@mailslurp.biz", null);
+
+        assertEquals(inbox, MailSlurpInboxPool.deserialize(MailSlurpInboxPool.serialize(inbox)));
+        assertThrows(IllegalArgumentException.class, () -> MailSlurpInboxPool.deserialize("broken"));
+    }
+}
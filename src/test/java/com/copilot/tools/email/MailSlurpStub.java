@@ -0,0 +1,204 @@
+package com.copilot.tools.email;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Локальная заглушка MailSlurp API для тестов: создание ящиков (POST /inboxes),
+ * список ящиков (GET /inboxes), удаление ящика (DELETE /inboxes/{id}), письма ящика (GET /inboxes/{id}/emails/paginated, GET /emails/{id})
+ * и отправка писем (POST /sendEmail).
+ * Поднимается на свободном порту, адрес передается в mailslurp.base-url.
+ */
+public class MailSlurpStub implements AutoCloseable {
+
+    private final HttpServer server;
+    private final Map<String, String> inboxes = new ConcurrentHashMap<>();
+    private final AtomicInteger createdInboxes = new AtomicInteger();
+    private final AtomicInteger deletedInboxes = new AtomicInteger();
+    private final AtomicInteger sentEmails = new AtomicInteger();
+    private final AtomicInteger emailFetches = new AtomicInteger();
+    private final Map<String, List<StubEmail>> emails = new ConcurrentHashMap<>();
+    private volatile int failingStatus;
+
+    public MailSlurpStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/inboxes", this::handleInboxes);
+        server.createContext("/sendEmail", this::handleSendEmail);
+        server.createContext("/emails", this::handleEmail);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int createdInboxes() {
+        return createdInboxes.get();
+    }
+
+    public int deletedInboxes() {
+        return deletedInboxes.get();
+    }
+
+    /**
+     * Ящики, которые созданы и еще не удалены
+     */
+    public int liveInboxes() {
+        return inboxes.size();
+    }
+
+    public int sentEmails() {
+        return sentEmails.get();
+    }
+
+    /**
+     * Запросы текста отдельных писем (GET /emails/{id})
+     */
+    public int emailFetches() {
+        return emailFetches.get();
+    }
+
+    /**
+     * Кладет письмо в ящик, ящик отдает письма по возрастанию createdAt
+     */
+    public void addEmail(String inboxId, String id, String subject, String body, Instant createdAt) {
+        emails.computeIfAbsent(inboxId, key -> new CopyOnWriteArrayList<>())
+                .add(new StubEmail(id, subject, body, createdAt));
+    }
+
+    /**
+     * Все следующие запросы завершаются указанным статусом, 0 - штатная работа
+     */
+    public void failWith(int status) {
+        this.failingStatus = status;
+    }
+
+    private void handleInboxes(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            if (failingStatus != 0) {
+                respond(exchange, failingStatus, "{\"message\":\"stub failure\"}");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/emails/paginated")) {
+                respondEmailsPage(exchange, path.split("/")[2]);
+            } else if ("DELETE".equals(exchange.getRequestMethod())) {
+                inboxes.remove(path.substring("/inboxes/".length()));
+                deletedInboxes.incrementAndGet();
+                exchange.sendResponseHeaders(204, -1);
+            } else if ("POST".equals(exchange.getRequestMethod())) {
+                String id = UUID.randomUUID().toString();
+                String email = id + "@mailslurp.biz";
+                inboxes.put(id, email);
+                createdInboxes.incrementAndGet();
+                respond(exchange, 201, inboxJson(id, email));
+            } else {
+                String content = inboxes.entrySet().stream()
+                        .map(e -> inboxJson(e.getKey(), e.getValue()))
+                        .collect(Collectors.joining(","));
+                respond(exchange, 200, "{\"content\":[" + content + "]}");
+            }
+        }
+    }
+
+    private void handleSendEmail(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            if (failingStatus != 0) {
+                respond(exchange, failingStatus, "{\"message\":\"stub failure\"}");
+                return;
+            }
+            sentEmails.incrementAndGet();
+            respond(exchange, 201, "{}");
+        }
+    }
+
+    /**
+     * Страница превью писем без текста, как в MailSlurp: since включительно, сортировка по возрастанию
+     */
+    private void respondEmailsPage(HttpExchange exchange, String inboxId) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        for (String param : exchange.getRequestURI().getQuery().split("&")) {
+            String[] pair = param.split("=", 2);
+            query.put(pair[0], URLDecoder.decode(pair[1], StandardCharsets.UTF_8));
+        }
+        Instant since = Instant.parse(query.get("since"));
+        int page = Integer.parseInt(query.get("page"));
+        int size = Integer.parseInt(query.get("size"));
+        List<StubEmail> matching = emails.getOrDefault(inboxId, List.of()).stream()
+                .filter(email -> !email.createdAt().isBefore(since))
+                .sorted(Comparator.comparing(StubEmail::createdAt))
+                .toList();
+        int from = Math.min(page * size, matching.size());
+        int to = Math.min(from + size, matching.size());
+        String content = matching.subList(from, to).stream()
+                .map(email -> "{\"id\":\"" + email.id() + "\",\"subject\":\"" + email.subject()
+                        + "\",\"from\":\"sender@example.com\",\"to\":[\"" + inboxId + "@mailslurp.biz\"]"
+                        + ",\"createdAt\":\"" + email.createdAt() + "\"}")
+                .collect(Collectors.joining(","));
+        respond(exchange, 200, "{\"content\":[" + content + "],\"last\":" + (to >= matching.size()) + "}");
+    }
+
+    private void handleEmail(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (failingStatus != 0) {
+                respond(exchange, failingStatus, "{\"message\":\"stub failure\"}");
+                return;
+            }
+            emailFetches.incrementAndGet();
+            String id = exchange.getRequestURI().getPath().substring("/emails/".length());
+            StubEmail email = emails.values().stream()
+                    .flatMap(List::stream)
+                    .filter(candidate -> candidate.id().equals(id))
+                    .findFirst()
+                    .orElse(null);
+            if (email == null) {
+                respond(exchange, 404, "{\"message\":\"not found\"}");
+                return;
+            }
+            respond(exchange, 200, "{\"id\":\"" + email.id() + "\",\"subject\":\"" + email.subject()
+                    + "\",\"body\":\"" + email.body() + "\",\"from\":\"sender@example.com\""
+                    + ",\"createdAt\":\"" + email.createdAt() + "\"}");
+        }
+    }
+
+    private record StubEmail(String id, String subject, String body, Instant createdAt) {
+    }
+
+    private static String inboxJson(String id, String email) {
+        return "{\"id\":\"" + id + "\",\"emailAddress\":\"" + email + "\",\"inboxType\":\"SMTP_INBOX\"}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}